@@ -95,4 +95,19 @@ public interface BeanLoader {
 	static BeanLoader getEagerReadBeanLoader() {
 		return new EagerReadBeanLoader();
 	}
+
+	/**
+	 * Static factory method that returns a {@link BeanLoader loader} implementation whose beans behave like the ones of {@link #getAdaptationBackedBeanLoader()} but are instances of classes
+	 * generated at first use for each bean interface, instead of {@link java.lang.reflect.Proxy proxies}.
+	 *
+	 * <p>
+	 * Getters of generated classes are plain virtual methods and default methods are inherited from the interface, which avoids the invocation handler dispatch and lets the JIT inline bean reads.
+	 * Generated classes are defined in the package and class loader of the bean interface, which must see this library. When a bean interface cannot be implemented this way, a proxy is returned.
+	 * </p>
+	 *
+	 * @return a model loader instance
+	 */
+	static BeanLoader getGeneratedBeanLoader() {
+		return new GeneratedBeanLoader();
+	}
 }
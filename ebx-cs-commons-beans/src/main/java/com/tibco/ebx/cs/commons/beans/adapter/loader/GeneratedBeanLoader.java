@@ -0,0 +1,19 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.beans.adapter.loader;
+
+import com.onwbp.adaptation.Adaptation;
+import com.tibco.ebx.cs.commons.beans.adapter.loader.impl.GeneratedBeanFactory;
+
+/**
+ * 
+ * @author Gilles Mayer
+ */
+final class GeneratedBeanLoader implements BeanLoader {
+	@Override
+	public <T> T load(final Class<T> beanType, final Adaptation adaptation) {
+		if (adaptation == null) {
+			return null;
+		}
+		return GeneratedBeanFactory.getInstance(beanType, adaptation);
+	}
+}
@@ -0,0 +1,312 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.beans.adapter.loader.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.onwbp.adaptation.Adaptation;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.schema.SchemaNode;
+import com.tibco.ebx.cs.commons.beans.adapter.annotation.Field;
+import com.tibco.ebx.cs.commons.beans.adapter.relation.Relation;
+import com.tibco.ebx.cs.commons.beans.adapter.relation.ToMany;
+import com.tibco.ebx.cs.commons.beans.adapter.relation.ToOne;
+
+/**
+ * Compiled implementation of a getter method of a bean interface.
+ * <p>
+ * Everything that can be inferred from the method signature and annotations (field path, transformer and key extractor instances, collectors, enum mapping) is resolved once when the plan is
+ * built. The relation, which depends on the schema of the underlying record, is resolved on first use and kept as long as the records share the same table node.
+ * </p>
+ * <p>
+ * Plans are cached per bean type and per method, see {@link #of(Class, Method)}.
+ * </p>
+ *
+ * @author Gilles Mayer
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+final class AccessorPlan {
+
+	private static final ClassValue<Map<Method, AccessorPlan>> PLANS_BY_BEAN_TYPE = new ClassValue<Map<Method, AccessorPlan>>() {
+		@Override
+		protected Map<Method, AccessorPlan> computeValue(final Class<?> beanType) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	/**
+	 * Returns the plan of a getter of a bean type, building it on first call.
+	 *
+	 * @param beanType the bean interface
+	 * @param method   the invoked method
+	 * @return the accessor plan of the method
+	 *
+	 * @throws InstantiationException if thrown while instantiating the transformer
+	 * @throws IllegalAccessException if thrown while instantiating the transformer
+	 * @throws ModelException         if the method is not a getter or the annotations are inconsistent
+	 */
+	static AccessorPlan of(final Class<?> beanType, final Method method) throws InstantiationException, IllegalAccessException {
+		Map<Method, AccessorPlan> plans = PLANS_BY_BEAN_TYPE.get(beanType);
+		AccessorPlan plan = plans.get(method);
+		if (plan == null) {
+			AccessorPlan newPlan = new AccessorPlan(method);
+			plan = plans.putIfAbsent(method, newPlan);
+			if (plan == null) {
+				plan = newPlan;
+			}
+		}
+		return plan;
+	}
+
+	private final Method method;
+	private final Class targetType;
+	private final boolean field;
+
+	// Field plan
+	private final Path fieldPath;
+	private final Function transformer;
+	private final Function<Object, ?> keyExtractor;
+	private final Collector mapCollector;
+	private final Collector returnCollector;
+
+	// Relation plan, resolved against the node of the first record read
+	private volatile RelationPlan relationPlan;
+
+	private AccessorPlan(final Method method) throws InstantiationException, IllegalAccessException {
+		if (!Utils.isGetter(method)) {
+			// It's the responsibility of the caller to check that 'method' has no
+			// implementation
+			throw new ModelException(method, "Method is not a getter and has no implementation");
+		}
+		this.method = method;
+		this.targetType = Utils.getTargetType(method);
+		this.field = Utils.isField(method);
+		this.returnCollector = getCollectorOrNull(method.getReturnType());
+		if (!this.field) {
+			this.fieldPath = null;
+			this.transformer = null;
+			this.keyExtractor = null;
+			this.mapCollector = null;
+			return;
+		}
+
+		Function explicitTransformer = null;
+		Function<Object, ?> extractor = null;
+		Field annotation = method.getAnnotation(Field.class);
+		if (annotation != null) {
+			if (annotation.transformer() != Field.DEFAULT.class) {
+				explicitTransformer = annotation.transformer().newInstance();
+			}
+			if (annotation.keyExtractor() != Field.DEFAULT.class) {
+				if (!Map.class.isAssignableFrom(method.getReturnType())) {
+					throw new ModelException("keyExtractor is specified but " + method + " return type is not a Map");
+				}
+				try {
+					extractor = (Function<Object, ?>) annotation.keyExtractor().getDeclaredConstructor().newInstance();
+				} catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
+					throw new ModelException("keyExtractor is specified but cannot be instantiated");
+				}
+			}
+		}
+		this.fieldPath = Utils.getFieldPath(method);
+		this.transformer = explicitTransformer != null ? explicitTransformer : Utils.getImplicitTransformer(this.targetType);
+		this.keyExtractor = extractor;
+
+		Collector groupingCollector = null;
+		if (extractor != null && method.getGenericReturnType() instanceof ParameterizedType) {
+			final Class<?> valueType = Utils.getMapValueType(method);
+			if (Utils.isCollection(valueType)) {
+				groupingCollector = Collectors.collectingAndThen(Collectors.groupingBy(extractor, Collectors.mapping(Function.identity(), Utils.getCollector(valueType))),
+						Collections::unmodifiableMap);
+			}
+		}
+		this.mapCollector = groupingCollector;
+	}
+
+	/**
+	 * Executes the plan against a record.
+	 *
+	 * @param adaptation  the adaptation backing the bean
+	 * @param beanFactory function used to retrieve other bean instances
+	 * @return the result of the method invocation
+	 *
+	 * @throws InstantiationException if thrown by a reflection operation
+	 * @throws IllegalAccessException if thrown by a reflection operation
+	 * @throws ModelException         if no operation could be inferred for the method
+	 */
+	<T> Object invoke(final Adaptation adaptation, final BiFunction<Class<T>, Adaptation, T> beanFactory) throws InstantiationException, IllegalAccessException {
+		if (this.field) {
+			return getField(adaptation);
+		}
+		RelationPlan plan = getRelationPlan(adaptation.getSchemaNode());
+		if (plan.relation == null) {
+			throw new ModelException(this.method, "Method is a getter but does not match any field or relation");
+		}
+		return getRelation(adaptation, beanFactory, plan);
+	}
+
+	/**
+	 * Tells whether the plan reads a single value, optionally transformed and mapped to an enum, so that a generated class can implement it with a direct call to
+	 * {@link Adaptation#get(Path)}.
+	 *
+	 * @return true if the getter reads a single value
+	 */
+	boolean isSingleValueField() {
+		return this.field && this.returnCollector == null && this.mapCollector == null && this.keyExtractor == null && !Map.class.isAssignableFrom(this.method.getReturnType());
+	}
+
+	Path getFieldPath() {
+		return this.fieldPath;
+	}
+
+	Function getTransformer() {
+		return this.transformer;
+	}
+
+	Class getTargetType() {
+		return this.targetType;
+	}
+
+	private Object getField(final Adaptation adaptation) {
+		// ================================
+		// || Field 'get' implementation ||
+		// ================================
+
+		Object value = adaptation.get(this.fieldPath);
+
+		if (value instanceof List) {
+			// -----------------------------------
+			// Value is a list (multi-occurrenced)
+			// -----------------------------------
+			if (((List<?>) value).isEmpty()) {
+				return Utils.getEmptyInstance(this.method);
+			}
+			Stream stream = ((List<Object>) value).stream();
+			if (this.transformer != null) {
+				stream = stream.map(this.transformer);
+			}
+			if (this.targetType.isEnum()) {
+				// Map to enum values
+				stream = stream.map(e -> e == null || this.targetType.isAssignableFrom(e.getClass()) ? e : Enum.valueOf(this.targetType, e.toString()));
+			}
+			if (this.mapCollector != null) {
+				return stream.collect(this.mapCollector);
+			}
+			return stream.collect(requireReturnCollector());
+		}
+
+		// ------------------------
+		// Value is a single value
+		// ------------------------
+		if (this.transformer != null) {
+			value = this.transformer.apply(value);
+		}
+		if (value != null && !this.targetType.isAssignableFrom(value.getClass()) && this.targetType.isEnum()) {
+			// Map to enum values
+			value = Enum.valueOf(this.targetType, value.toString());
+		}
+		return value;
+	}
+
+	private <T> Object getRelation(final Adaptation adaptation, final BiFunction<Class<T>, Adaptation, T> beanFactory, final RelationPlan plan) {
+		// ===================================
+		// || Relation 'get' implementation ||
+		// ===================================
+
+		if (plan.relation instanceof ToMany) {
+			final Stream<Adaptation> adaptationStream = ((ToMany) plan.relation).get(adaptation).stream();
+			final Function<Adaptation, T> toBean = record -> beanFactory.apply(this.targetType, record);
+			if (plan.keyMapper == null) {
+				return adaptationStream.map(toBean).collect(requireReturnCollector());
+			}
+			if (plan.valueCollector != null) {
+				return adaptationStream.collect(Collectors.collectingAndThen(Collectors.groupingBy(plan.keyMapper, Collectors.mapping(toBean, plan.valueCollector)), Collections::unmodifiableMap));
+			}
+			return adaptationStream.collect(Collectors.collectingAndThen(Collectors.toMap(plan.keyMapper, toBean), Collections::unmodifiableMap));
+		}
+		if (plan.relation instanceof ToOne) {
+			return beanFactory.apply(this.targetType, ((ToOne) plan.relation).get(adaptation));
+		}
+		throw new ModelException(this.method, "Unsupported relation for the method");
+	}
+
+	private RelationPlan getRelationPlan(final SchemaNode recordNode) throws InstantiationException, IllegalAccessException {
+		RelationPlan plan = this.relationPlan;
+		if (plan == null || plan.recordNode != recordNode) {
+			plan = new RelationPlan(this.method, recordNode);
+			this.relationPlan = plan;
+		}
+		return plan;
+	}
+
+	private Collector requireReturnCollector() {
+		if (this.returnCollector == null) {
+			throw new UnsupportedOperationException(this.method.getReturnType().toGenericString());
+		}
+		return this.returnCollector;
+	}
+
+	private static Collector getCollectorOrNull(final Class<?> type) throws InstantiationException, IllegalAccessException {
+		if (!Utils.isCollection(type)) {
+			return null;
+		}
+		return Utils.getCollector(type);
+	}
+
+	/**
+	 * Relation part of a plan, only valid for the record node it was resolved from.
+	 */
+	private static final class RelationPlan {
+		private final SchemaNode recordNode;
+		private final Relation relation;
+		private final Function<Adaptation, ?> keyMapper;
+		private final Collector valueCollector;
+
+		private RelationPlan(final Method method, final SchemaNode recordNode) throws InstantiationException, IllegalAccessException {
+			this.recordNode = recordNode;
+			this.relation = Utils.getRelation(method, recordNode);
+			if (!(this.relation instanceof ToMany)) {
+				this.keyMapper = null;
+				this.valueCollector = null;
+				return;
+			}
+
+			Path keyPath = Utils.getKeyPath(method);
+			Class<? extends Function<Adaptation, ?>> keyExtractorClass = Utils.getKeyExtractorClass(method);
+			Function<Adaptation, ?> mapper = null;
+			Collector collector = null;
+			if (keyPath != null || keyExtractorClass != null) {
+				if (keyPath != null) {
+					if (keyExtractorClass != null) {
+						throw new ModelException(method, "Define only one of 'keyPath' and 'keyExtractor'");
+					}
+					mapper = record -> record.get(keyPath);
+				} else {
+					mapper = keyExtractorClass.newInstance();
+				}
+				if (method.getGenericReturnType() instanceof ParameterizedType) {
+					Function keyTransformer = Utils.getImplicitTransformer(Utils.getMapKeyType(method));
+					if (keyTransformer != null) {
+						mapper = mapper.andThen(keyTransformer::apply);
+					}
+					final Class<?> valueType = Utils.getMapValueType(method);
+					if (Utils.isCollection(valueType)) {
+						collector = Utils.getCollector(valueType);
+					}
+				}
+			}
+			this.keyMapper = mapper;
+			this.valueCollector = collector;
+		}
+	}
+}
@@ -38,7 +38,7 @@ public final class AdaptationBackedInvocationHandler<T> extends AbstractProxyInv
 		if (method.getName().equals("toAdaptation") && method.getParameterTypes().length == 0 && method.getReturnType() == Adaptation.class) {
 			return this.adaptation;
 		}
-		return ReflectionImpl.doInvocation(this.adaptation, method, AdaptationBackedInvocationHandler::getProxy);
+		return ReflectionImpl.doInvocation(this.beanType, this.adaptation, method, AdaptationBackedInvocationHandler::getProxy);
 	}
 
 	@Override
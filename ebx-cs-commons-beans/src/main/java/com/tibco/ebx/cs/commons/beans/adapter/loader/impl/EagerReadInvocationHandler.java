@@ -79,7 +79,7 @@ public final class EagerReadInvocationHandler<T> extends AbstractProxyInvocation
 			throws InstantiationException, IllegalAccessException {
 		Map<Method, Object> values = new HashMap<>(2);
 		for (Method method : ReflectionImpl.listAbstractGetters(beanType)) {
-			values.put(method, ReflectionImpl.doInvocation(adaptation, method, (t, a) -> getProxy(adaptationToProxy, t, a)));
+			values.put(method, ReflectionImpl.doInvocation(beanType, adaptation, method, (t, a) -> getProxy(adaptationToProxy, t, a)));
 		}
 		return values;
 	}
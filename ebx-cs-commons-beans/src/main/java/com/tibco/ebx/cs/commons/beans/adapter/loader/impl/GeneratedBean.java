@@ -0,0 +1,113 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.beans.adapter.loader.impl;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+import com.onwbp.adaptation.Adaptation;
+import com.orchestranetworks.schema.Path;
+
+/**
+ * Super class of the bean implementations generated by {@link GeneratedBeanFactory}.
+ * <p>
+ * It holds the underlying adaptation and implements {@code equals}, {@code hashCode}, {@code toString} and {@code toAdaptation} the same way as the proxies of
+ * {@link AdaptationBackedInvocationHandler}. This class is public only because generated classes are defined in the package of their bean interface; it is not intended to be extended
+ * by client code.
+ * </p>
+ * <p>
+ * Getters of single value fields are generated as a direct call to {@link Adaptation#get(Path)} on {@link #adaptation}, followed by the transformer, with the path and transformer held in
+ * static final fields initialized by {@link #fieldPath(Class, int)} and {@link #transformer(Class, int)}. The other getters call {@link #get(int)}.
+ * </p>
+ *
+ * @author Gilles Mayer
+ */
+public abstract class GeneratedBean {
+
+	private final GeneratedBeanClass<?> beanClass;
+	/** Read by the generated getters */
+	protected final Adaptation adaptation;
+
+	protected GeneratedBean(final Class<?> beanType, final Adaptation adaptation) {
+		this.beanClass = GeneratedBeanClass.of(beanType);
+		this.adaptation = Objects.requireNonNull(adaptation);
+	}
+
+	/**
+	 * Implementation of the getter at the specified index, called by the generated subclasses.
+	 *
+	 * @param getterIndex index of the getter in the generated class
+	 * @return the result of the getter invocation
+	 * @throws ModelException if no operation could be inferred for the getter or if a reflection operation failed
+	 */
+	protected final Object get(final int getterIndex) {
+		try {
+			return this.beanClass.invoke(getterIndex, this.adaptation);
+		} catch (InstantiationException | IllegalAccessException ex) {
+			throw new ModelException(this.beanClass.getGetter(getterIndex), ex);
+		}
+	}
+
+	/**
+	 * Gets the path of the field read by a getter, called by the static initializer of the generated subclasses.
+	 *
+	 * @param beanType    the bean interface
+	 * @param getterIndex index of the getter in the generated class
+	 * @return the path of the field
+	 */
+	public static Path fieldPath(final Class<?> beanType, final int getterIndex) {
+		return GeneratedBeanClass.of(beanType).getPlan(getterIndex).getFieldPath();
+	}
+
+	/**
+	 * Gets the transformer applied by a getter, called by the static initializer of the generated subclasses.
+	 *
+	 * @param beanType    the bean interface
+	 * @param getterIndex index of the getter in the generated class
+	 * @return the transformer
+	 */
+	@SuppressWarnings("unchecked")
+	public static Function<Object, Object> transformer(final Class<?> beanType, final int getterIndex) {
+		return GeneratedBeanClass.of(beanType).getPlan(getterIndex).getTransformer();
+	}
+
+	/**
+	 * Maps a value to an enum constant the same way as the proxies, called by the generated getters returning an enum.
+	 *
+	 * @param value    the value of the field
+	 * @param enumType the enum returned by the getter
+	 * @return the enum constant, or the value if it is null or already a constant
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static Object toEnum(final Object value, final Class<?> enumType) {
+		if (value == null || enumType.isInstance(value)) {
+			return value;
+		}
+		return Enum.valueOf((Class) enumType, value.toString());
+	}
+
+	public Adaptation toAdaptation() {
+		return this.adaptation;
+	}
+
+	@Override
+	public String toString() {
+		return this.beanClass.getBeanType().getSimpleName() + "[" + this.adaptation.getOccurrencePrimaryKey().format() + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		return this.adaptation.getOccurrencePrimaryKey().hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof GeneratedBean)) {
+			return false;
+		}
+		GeneratedBean other = (GeneratedBean) obj;
+		return this.beanClass == other.beanClass && this.adaptation.getOccurrencePrimaryKey().equals(other.adaptation.getOccurrencePrimaryKey());
+	}
+}
@@ -0,0 +1,171 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.beans.adapter.loader.impl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.onwbp.adaptation.Adaptation;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+
+/**
+ * Generated implementation of a bean interface, and the accessor plans of its getters.
+ * <p>
+ * The implementation class is defined once per bean interface, in the package and class loader of the interface. When the interface cannot be implemented by a generated class (abstract
+ * methods that are not getters, class loader not seeing this library, ...), instances are created by {@link AdaptationBackedInvocationHandler} instead.
+ * </p>
+ *
+ * @author Gilles Mayer
+ */
+final class GeneratedBeanClass<T> {
+
+	private static final String CLASS_NAME_SUFFIX = "$$EBXGeneratedBean";
+
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class, Adaptation.class);
+
+	private static final ClassValue<GeneratedBeanClass<?>> BEAN_CLASSES = new ClassValue<GeneratedBeanClass<?>>() {
+		@Override
+		protected GeneratedBeanClass<?> computeValue(final Class<?> beanType) {
+			return new GeneratedBeanClass<>(beanType);
+		}
+	};
+
+	@SuppressWarnings("unchecked")
+	static <T> GeneratedBeanClass<T> of(final Class<T> beanType) {
+		return (GeneratedBeanClass<T>) BEAN_CLASSES.get(beanType);
+	}
+
+	private final Class<T> beanType;
+	private final Method[] getters;
+	private final AccessorPlan[] plans;
+	/** Constructor of the generated class, {@code null} when proxies are used instead */
+	private final MethodHandle constructor;
+
+	private GeneratedBeanClass(final Class<T> beanType) {
+		if (!beanType.isInterface()) {
+			throw new IllegalArgumentException(beanType.toGenericString());
+		}
+		this.beanType = beanType;
+		List<Method> implementedGetters = listImplementedGetters(beanType);
+		if (implementedGetters == null) {
+			this.getters = new Method[0];
+			this.plans = new AccessorPlan[0];
+			this.constructor = null;
+		} else {
+			this.getters = implementedGetters.toArray(new Method[0]);
+			this.plans = buildPlans(beanType, this.getters);
+			this.constructor = defineImplementation(beanType, implementedGetters, this.plans);
+		}
+	}
+
+	/**
+	 * Builds the plans of the getters. A plan that cannot be built is left null, its getter then calls {@link GeneratedBean#get(int)} which reports the error on invocation, as the proxies do.
+	 */
+	private static AccessorPlan[] buildPlans(final Class<?> beanType, final Method[] getters) {
+		AccessorPlan[] plans = new AccessorPlan[getters.length];
+		for (int i = 0; i < getters.length; i++) {
+			try {
+				plans[i] = AccessorPlan.of(beanType, getters[i]);
+			} catch (InstantiationException | IllegalAccessException | RuntimeException ex) {
+				plans[i] = null;
+			}
+		}
+		return plans;
+	}
+
+	Class<T> getBeanType() {
+		return this.beanType;
+	}
+
+	Method getGetter(final int getterIndex) {
+		return this.getters[getterIndex];
+	}
+
+	AccessorPlan getPlan(final int getterIndex) {
+		return this.plans[getterIndex];
+	}
+
+	T newInstance(final Adaptation adaptation) {
+		if (this.constructor == null) {
+			return AdaptationBackedInvocationHandler.getProxy(this.beanType, adaptation);
+		}
+		try {
+			return this.beanType.cast(this.constructor.invokeExact(adaptation));
+		} catch (RuntimeException | Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			throw new ModelException(ex);
+		}
+	}
+
+	Object invoke(final int getterIndex, final Adaptation adaptation) throws InstantiationException, IllegalAccessException {
+		AccessorPlan plan = this.plans[getterIndex];
+		if (plan == null) {
+			// Benign race: plans are cached by AccessorPlan.of
+			plan = AccessorPlan.of(this.beanType, this.getters[getterIndex]);
+			this.plans[getterIndex] = plan;
+		}
+		return plan.invoke(adaptation, GeneratedBeanFactory::getInstance);
+	}
+
+	/**
+	 * Lists the getters to generate, sorted so that the getter indexes do not depend on the reflection order.
+	 *
+	 * @return the getters, or {@code null} if the interface declares abstract methods that cannot be generated
+	 */
+	private static List<Method> listImplementedGetters(final Class<?> beanType) {
+		List<Method> getters = new ArrayList<>();
+		Set<String> signatures = new HashSet<>();
+		for (Method method : beanType.getMethods()) {
+			if (!Modifier.isAbstract(method.getModifiers()) || isImplementedBySuperClass(method)) {
+				continue;
+			}
+			if (!Utils.isGetter(method)) {
+				return null;
+			}
+			if (signatures.add(method.getName() + ":" + method.getReturnType().getName())) {
+				getters.add(method);
+			}
+		}
+		getters.sort(Comparator.comparing(Method::getName).thenComparing(method -> method.getReturnType().getName()));
+		return getters;
+	}
+
+	private static boolean isImplementedBySuperClass(final Method method) {
+		if (method.getName().equals("toAdaptation") && method.getParameterCount() == 0 && method.getReturnType() == Adaptation.class) {
+			return true;
+		}
+		try {
+			return Object.class.getMethod(method.getName(), method.getParameterTypes()).getReturnType() == method.getReturnType();
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
+	private static MethodHandle defineImplementation(final Class<?> beanType, final List<Method> getters, final AccessorPlan[] plans) {
+		String className = beanType.getName() + CLASS_NAME_SUFFIX;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(beanType, MethodHandles.lookup());
+			Class<?> implementation;
+			synchronized (GeneratedBeanClass.class) {
+				// ClassValue may compute the value of the same bean type more than once
+				try {
+					implementation = Class.forName(className, false, beanType.getClassLoader());
+				} catch (ClassNotFoundException ex) {
+					implementation = lookup.defineClass(GeneratedBeanClassWriter.write(className, beanType, getters, plans));
+				}
+			}
+			return lookup.findConstructor(implementation, MethodType.methodType(void.class, Adaptation.class)).asType(CONSTRUCTOR_TYPE);
+		} catch (ReflectiveOperationException | LinkageError | SecurityException ex) {
+			CommonsLogger.getLogger().warn("Cannot generate an implementation of " + beanType.getName() + ", proxies will be used instead", ex);
+			return null;
+		}
+	}
+}
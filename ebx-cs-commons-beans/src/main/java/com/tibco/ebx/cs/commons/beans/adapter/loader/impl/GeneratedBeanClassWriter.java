@@ -0,0 +1,431 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.beans.adapter.loader.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.onwbp.adaptation.Adaptation;
+import com.orchestranetworks.schema.Path;
+
+/**
+ * Minimal class file writer producing the bytecode of a {@link GeneratedBean} subclass implementing a bean interface.
+ * <p>
+ * The generated class declares a constructor taking the {@link Adaptation} and one method per abstract getter. A getter of a single value field calls {@link Adaptation#get(Path)} then the
+ * transformer directly, the path and transformer being held in static final fields so that the JIT can inline them; the other getters delegate to {@link GeneratedBean#get(int)}. The result
+ * is cast or unboxed. Default methods are inherited from the interface. Generated methods have no branch so no stack map frame is needed.
+ * </p>
+ *
+ * @author Gilles Mayer
+ */
+final class GeneratedBeanClassWriter {
+
+	private static final int CLASS_VERSION_JAVA_8 = 52;
+
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final int ACC_STATIC = 0x0008;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int CHECKCAST = 0xc0;
+	private static final int GETSTATIC = 0xb2;
+	private static final int PUTSTATIC = 0xb3;
+	private static final int GETFIELD = 0xb4;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int INVOKEINTERFACE = 0xb9;
+	private static final int IRETURN = 0xac;
+	private static final int LRETURN = 0xad;
+	private static final int FRETURN = 0xae;
+	private static final int DRETURN = 0xaf;
+	private static final int ARETURN = 0xb0;
+	private static final int RETURN = 0xb1;
+
+	private static final String SUPER_NAME = internalName(GeneratedBean.class);
+	private static final String SUPER_CONSTRUCTOR_DESCRIPTOR = "(Ljava/lang/Class;" + descriptor(Adaptation.class) + ")V";
+	private static final String CONSTRUCTOR_DESCRIPTOR = "(" + descriptor(Adaptation.class) + ")V";
+	private static final String GET_DESCRIPTOR = "(I)Ljava/lang/Object;";
+	private static final String ADAPTATION_GET_DESCRIPTOR = "(" + descriptor(Path.class) + ")Ljava/lang/Object;";
+	private static final String APPLY_DESCRIPTOR = "(Ljava/lang/Object;)Ljava/lang/Object;";
+	private static final String FIELD_PATH_DESCRIPTOR = "(Ljava/lang/Class;I)" + descriptor(Path.class);
+	private static final String TRANSFORMER_DESCRIPTOR = "(Ljava/lang/Class;I)" + descriptor(Function.class);
+	private static final String TO_ENUM_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Class;)Ljava/lang/Object;";
+	private static final String PATH_FIELD_PREFIX = "PATH_";
+	private static final String TRANSFORMER_FIELD_PREFIX = "TRANSFORMER_";
+
+	private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream constantPool = new DataOutputStream(this.constantPoolBytes);
+	private final Map<String, Integer> constants = new HashMap<>();
+	private int constantCount = 1;
+
+	private GeneratedBeanClassWriter() {
+	}
+
+	/**
+	 * Writes the class file of the implementation of a bean interface.
+	 *
+	 * @param className the binary name of the generated class, in the package of the bean interface
+	 * @param beanType  the bean interface
+	 * @param getters   the abstract getters to implement, the position in the list being the index passed to {@link GeneratedBean#get(int)}
+	 * @param plans     the plans of the getters, null when a plan cannot be built
+	 * @return the class file bytes
+	 */
+	static byte[] write(final String className, final Class<?> beanType, final List<Method> getters, final AccessorPlan[] plans) {
+		try {
+			return new GeneratedBeanClassWriter().doWrite(className.replace('.', '/'), beanType, getters, plans);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private byte[] doWrite(final String internalClassName, final Class<?> beanType, final List<Method> getters, final AccessorPlan[] plans) throws IOException {
+		int thisClass = classConstant(internalClassName);
+		int superClass = classConstant(SUPER_NAME);
+		int interfaceClass = classConstant(internalName(beanType));
+
+		ByteArrayOutputStream fieldsBytes = new ByteArrayOutputStream();
+		DataOutputStream fields = new DataOutputStream(fieldsBytes);
+		int fieldCount = 0;
+		ByteArrayOutputStream staticInitializerBytes = new ByteArrayOutputStream();
+		DataOutputStream staticInitializer = new DataOutputStream(staticInitializerBytes);
+
+		ByteArrayOutputStream methodsBytes = new ByteArrayOutputStream();
+		DataOutputStream methods = new DataOutputStream(methodsBytes);
+		writeConstructor(methods, interfaceClass);
+		int getMethod = methodConstant(SUPER_NAME, "get", GET_DESCRIPTOR);
+		for (int i = 0; i < getters.size(); i++) {
+			AccessorPlan plan = plans[i];
+			if (plan == null || !plan.isSingleValueField()) {
+				writeGetter(methods, getters.get(i), i, getMethod);
+				continue;
+			}
+			int pathField = fieldConstant(internalClassName, PATH_FIELD_PREFIX + i, descriptor(Path.class));
+			writeStaticField(fields, PATH_FIELD_PREFIX + i, descriptor(Path.class));
+			writeStaticInitialization(staticInitializer, interfaceClass, i, methodConstant(SUPER_NAME, "fieldPath", FIELD_PATH_DESCRIPTOR), pathField);
+			fieldCount++;
+			int transformerField = 0;
+			if (plan.getTransformer() != null) {
+				transformerField = fieldConstant(internalClassName, TRANSFORMER_FIELD_PREFIX + i, descriptor(Function.class));
+				writeStaticField(fields, TRANSFORMER_FIELD_PREFIX + i, descriptor(Function.class));
+				writeStaticInitialization(staticInitializer, interfaceClass, i, methodConstant(SUPER_NAME, "transformer", TRANSFORMER_DESCRIPTOR), transformerField);
+				fieldCount++;
+			}
+			writeFieldGetter(methods, getters.get(i), pathField, transformerField, plan.getTargetType().isEnum());
+		}
+		int methodCount = 1 + getters.size();
+		if (fieldCount > 0) {
+			staticInitializer.writeByte(RETURN);
+			staticInitializer.flush();
+			// the class and the index
+			writeMethod(methods, ACC_STATIC, "<clinit>", "()V", 2, 0, staticInitializerBytes.toByteArray());
+			methodCount++;
+		}
+
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(classBytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(CLASS_VERSION_JAVA_8);
+		out.writeShort(this.constantCount);
+		this.constantPool.flush();
+		this.constantPoolBytes.writeTo(out);
+		out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(interfaceClass);
+		out.writeShort(fieldCount);
+		fields.flush();
+		fieldsBytes.writeTo(out);
+		out.writeShort(methodCount);
+		methods.flush();
+		methodsBytes.writeTo(out);
+		// no class attribute
+		out.writeShort(0);
+		out.flush();
+		return classBytes.toByteArray();
+	}
+
+	private void writeConstructor(final DataOutputStream out, final int interfaceClass) throws IOException {
+		ByteArrayOutputStream code = new ByteArrayOutputStream();
+		DataOutputStream c = new DataOutputStream(code);
+		c.writeByte(ALOAD_0);
+		c.writeByte(LDC_W);
+		c.writeShort(interfaceClass);
+		c.writeByte(ALOAD_1);
+		c.writeByte(INVOKESPECIAL);
+		c.writeShort(methodConstant(SUPER_NAME, "<init>", SUPER_CONSTRUCTOR_DESCRIPTOR));
+		c.writeByte(RETURN);
+		c.flush();
+		writeMethod(out, ACC_PUBLIC, "<init>", CONSTRUCTOR_DESCRIPTOR, 3, 2, code.toByteArray());
+	}
+
+	private void writeStaticField(final DataOutputStream out, final String name, final String descriptor) throws IOException {
+		out.writeShort(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+		out.writeShort(utf8Constant(name));
+		out.writeShort(utf8Constant(descriptor));
+		// no field attribute
+		out.writeShort(0);
+	}
+
+	private static void writeStaticInitialization(final DataOutputStream c, final int interfaceClass, final int index, final int bootstrapMethod, final int field) throws IOException {
+		c.writeByte(LDC_W);
+		c.writeShort(interfaceClass);
+		c.writeByte(SIPUSH);
+		c.writeShort(index);
+		c.writeByte(INVOKESTATIC);
+		c.writeShort(bootstrapMethod);
+		c.writeByte(PUTSTATIC);
+		c.writeShort(field);
+	}
+
+	private void writeFieldGetter(final DataOutputStream out, final Method getter, final int pathField, final int transformerField, final boolean isEnum) throws IOException {
+		ByteArrayOutputStream code = new ByteArrayOutputStream();
+		DataOutputStream c = new DataOutputStream(code);
+		if (transformerField != 0) {
+			c.writeByte(GETSTATIC);
+			c.writeShort(transformerField);
+		}
+		c.writeByte(ALOAD_0);
+		c.writeByte(GETFIELD);
+		c.writeShort(fieldConstant(SUPER_NAME, "adaptation", descriptor(Adaptation.class)));
+		c.writeByte(GETSTATIC);
+		c.writeShort(pathField);
+		if (Adaptation.class.isInterface()) {
+			c.writeByte(INVOKEINTERFACE);
+			c.writeShort(interfaceMethodConstant(internalName(Adaptation.class), "get", ADAPTATION_GET_DESCRIPTOR));
+			c.writeByte(2);
+			c.writeByte(0);
+		} else {
+			c.writeByte(INVOKEVIRTUAL);
+			c.writeShort(methodConstant(internalName(Adaptation.class), "get", ADAPTATION_GET_DESCRIPTOR));
+		}
+		if (transformerField != 0) {
+			c.writeByte(INVOKEINTERFACE);
+			c.writeShort(interfaceMethodConstant(internalName(Function.class), "apply", APPLY_DESCRIPTOR));
+			c.writeByte(2);
+			c.writeByte(0);
+		}
+		if (isEnum) {
+			c.writeByte(LDC_W);
+			c.writeShort(classConstant(internalName(getter.getReturnType())));
+			c.writeByte(INVOKESTATIC);
+			c.writeShort(methodConstant(SUPER_NAME, "toEnum", TO_ENUM_DESCRIPTOR));
+		}
+		writeReturn(c, getter.getReturnType());
+		c.flush();
+		// the transformer, the adaptation and the path
+		writeMethod(out, ACC_PUBLIC, getter.getName(), methodDescriptor(getter), 3, 1, code.toByteArray());
+	}
+
+	private void writeGetter(final DataOutputStream out, final Method getter, final int index, final int getMethod) throws IOException {
+		ByteArrayOutputStream code = new ByteArrayOutputStream();
+		DataOutputStream c = new DataOutputStream(code);
+		c.writeByte(ALOAD_0);
+		c.writeByte(SIPUSH);
+		c.writeShort(index);
+		c.writeByte(INVOKEVIRTUAL);
+		c.writeShort(getMethod);
+		writeReturn(c, getter.getReturnType());
+		c.flush();
+		// 'this' and the index, or an unboxed long or double
+		writeMethod(out, ACC_PUBLIC, getter.getName(), methodDescriptor(getter), 2, 1, code.toByteArray());
+	}
+
+	/**
+	 * Casts or unboxes the object on the stack and returns it.
+	 */
+	private void writeReturn(final DataOutputStream c, final Class<?> returnType) throws IOException {
+		if (returnType.isPrimitive()) {
+			Class<?> wrapper = wrapperType(returnType);
+			c.writeByte(CHECKCAST);
+			c.writeShort(classConstant(internalName(wrapper)));
+			c.writeByte(INVOKEVIRTUAL);
+			c.writeShort(methodConstant(internalName(wrapper), returnType.getName() + "Value", "()" + descriptor(returnType)));
+			c.writeByte(returnOpcode(returnType));
+		} else {
+			if (returnType != Object.class) {
+				c.writeByte(CHECKCAST);
+				c.writeShort(classConstant(internalName(returnType)));
+			}
+			c.writeByte(ARETURN);
+		}
+	}
+
+	private void writeMethod(final DataOutputStream out, final int accessFlags, final String name, final String descriptor, final int maxStack, final int maxLocals, final byte[] code)
+			throws IOException {
+		out.writeShort(accessFlags);
+		out.writeShort(utf8Constant(name));
+		out.writeShort(utf8Constant(descriptor));
+		out.writeShort(1);
+		out.writeShort(utf8Constant("Code"));
+		out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		// no exception table
+		out.writeShort(0);
+		// no code attribute
+		out.writeShort(0);
+	}
+
+	private int utf8Constant(final String value) throws IOException {
+		Integer index = this.constants.get("U" + value);
+		if (index == null) {
+			this.constantPool.writeByte(CONSTANT_UTF8);
+			this.constantPool.writeUTF(value);
+			index = register("U" + value);
+		}
+		return index;
+	}
+
+	private int classConstant(final String internalName) throws IOException {
+		Integer index = this.constants.get("C" + internalName);
+		if (index == null) {
+			int name = utf8Constant(internalName);
+			this.constantPool.writeByte(CONSTANT_CLASS);
+			this.constantPool.writeShort(name);
+			index = register("C" + internalName);
+		}
+		return index;
+	}
+
+	private int methodConstant(final String owner, final String name, final String descriptor) throws IOException {
+		return memberConstant(CONSTANT_METHODREF, owner, name, descriptor);
+	}
+
+	private int interfaceMethodConstant(final String owner, final String name, final String descriptor) throws IOException {
+		return memberConstant(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+	}
+
+	private int fieldConstant(final String owner, final String name, final String descriptor) throws IOException {
+		return memberConstant(CONSTANT_FIELDREF, owner, name, descriptor);
+	}
+
+	private int memberConstant(final int tag, final String owner, final String name, final String descriptor) throws IOException {
+		String key = tag + owner + "." + name + descriptor;
+		Integer index = this.constants.get(key);
+		if (index == null) {
+			int ownerClass = classConstant(owner);
+			int nameAndType = nameAndTypeConstant(name, descriptor);
+			this.constantPool.writeByte(tag);
+			this.constantPool.writeShort(ownerClass);
+			this.constantPool.writeShort(nameAndType);
+			index = register(key);
+		}
+		return index;
+	}
+
+	private int nameAndTypeConstant(final String name, final String descriptor) throws IOException {
+		String key = "N" + name + descriptor;
+		Integer index = this.constants.get(key);
+		if (index == null) {
+			int nameIndex = utf8Constant(name);
+			int descriptorIndex = utf8Constant(descriptor);
+			this.constantPool.writeByte(CONSTANT_NAME_AND_TYPE);
+			this.constantPool.writeShort(nameIndex);
+			this.constantPool.writeShort(descriptorIndex);
+			index = register(key);
+		}
+		return index;
+	}
+
+	private int register(final String key) {
+		int index = this.constantCount++;
+		this.constants.put(key, index);
+		return index;
+	}
+
+	private static String internalName(final Class<?> type) {
+		if (type.isArray()) {
+			return descriptor(type);
+		}
+		return type.getName().replace('.', '/');
+	}
+
+	private static String methodDescriptor(final Method method) {
+		StringBuilder builder = new StringBuilder("(");
+		for (Class<?> parameterType : method.getParameterTypes()) {
+			builder.append(descriptor(parameterType));
+		}
+		return builder.append(')').append(descriptor(method.getReturnType())).toString();
+	}
+
+	private static String descriptor(final Class<?> type) {
+		if (type.isArray()) {
+			return "[" + descriptor(type.getComponentType());
+		}
+		if (type == Boolean.TYPE) {
+			return "Z";
+		} else if (type == Byte.TYPE) {
+			return "B";
+		} else if (type == Character.TYPE) {
+			return "C";
+		} else if (type == Short.TYPE) {
+			return "S";
+		} else if (type == Integer.TYPE) {
+			return "I";
+		} else if (type == Long.TYPE) {
+			return "J";
+		} else if (type == Float.TYPE) {
+			return "F";
+		} else if (type == Double.TYPE) {
+			return "D";
+		} else if (type == Void.TYPE) {
+			return "V";
+		}
+		return "L" + type.getName().replace('.', '/') + ";";
+	}
+
+	private static Class<?> wrapperType(final Class<?> primitiveType) {
+		if (primitiveType == Boolean.TYPE) {
+			return Boolean.class;
+		} else if (primitiveType == Byte.TYPE) {
+			return Byte.class;
+		} else if (primitiveType == Character.TYPE) {
+			return Character.class;
+		} else if (primitiveType == Short.TYPE) {
+			return Short.class;
+		} else if (primitiveType == Integer.TYPE) {
+			return Integer.class;
+		} else if (primitiveType == Long.TYPE) {
+			return Long.class;
+		} else if (primitiveType == Float.TYPE) {
+			return Float.class;
+		} else if (primitiveType == Double.TYPE) {
+			return Double.class;
+		}
+		throw new IllegalArgumentException(primitiveType.getName());
+	}
+
+	private static int returnOpcode(final Class<?> primitiveType) {
+		if (primitiveType == Long.TYPE) {
+			return LRETURN;
+		} else if (primitiveType == Float.TYPE) {
+			return FRETURN;
+		} else if (primitiveType == Double.TYPE) {
+			return DRETURN;
+		}
+		return IRETURN;
+	}
+}
@@ -0,0 +1,22 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.beans.adapter.loader.impl;
+
+import com.onwbp.adaptation.Adaptation;
+
+/**
+ * 
+ * @author Gilles Mayer
+ */
+public final class GeneratedBeanFactory {
+
+	public static <T> T getInstance(final Class<T> beanType, final Adaptation adaptation) {
+		if (adaptation == null) {
+			return null;
+		}
+		return GeneratedBeanClass.of(beanType).newInstance(adaptation);
+	}
+
+	private GeneratedBeanFactory() {
+		throw new AssertionError();
+	}
+}
@@ -1,23 +1,42 @@
 /* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
 package com.tibco.ebx.cs.commons.beans.generator.template;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang3.StringUtils;
 
 import com.onwbp.adaptation.Adaptation;
 import com.onwbp.adaptation.AdaptationTable;
 import com.onwbp.adaptation.PrimaryKey;
+import com.onwbp.adaptation.Request;
 import com.onwbp.adaptation.RequestResult;
 import com.onwbp.adaptation.RequestSortCriteria;
 import com.orchestranetworks.instance.ValueContext;
 import com.orchestranetworks.schema.ConstraintViolationException;
 import com.orchestranetworks.schema.Path;
 import com.orchestranetworks.schema.SchemaNode;
+import com.orchestranetworks.schema.SchemaTypeName;
 import com.orchestranetworks.schema.info.SchemaFacetTableRef;
 import com.orchestranetworks.service.OperationException;
 import com.orchestranetworks.service.ProcedureContext;
@@ -41,6 +60,18 @@ import com.tibco.ebx.cs.commons.lib.utils.SchemaUtils;
  */
 public abstract class TableDAO<T extends TableBean> {
 
+	/** Default number of primary keys looked up by a single request, see {@link #getPrimaryKeyBatchSize()} */
+	public static final int DEFAULT_PRIMARY_KEY_BATCH_SIZE = 500;
+
+	private final LongAdder primaryKeyBatchCount = new LongAdder();
+	private final LongAdder primaryKeyBatchKeyCount = new LongAdder();
+
+	/** Getters of the primary key members by bean class, used when {@link #getPrimaryKeyValues(TableBean)} is not overridden */
+	private final Map<Class<?>, MethodHandle[]> primaryKeyGetterHandles = new ConcurrentHashMap<>();
+
+	/** Setters of the primary key members, used when {@link #setPrimaryKeyValues(TableBean, Adaptation, Object[])} is not overridden */
+	private volatile PrimaryKeyMemberSetter[] primaryKeySetters;
+
 	/**
 	 * Build an EBX representation of the primary key from a Java Bean
 	 *
@@ -54,25 +85,161 @@ public abstract class TableDAO<T extends TableBean> {
 			throw new IllegalArgumentException("The Java Bean cannot be null");
 		}
 		StringBuilder str = new StringBuilder();
-		for (String primaryKey : this.getPrimaryKeysGetters()) {
-			try {
-				Object pk = pBean.getClass().getMethod(primaryKey).invoke(pBean);
-				if (pk == null) {
-					// TODO Study backward compatibility to get reactivate this exception.
-					// throw new BeansFunctionalException(EBXCommonsFunctionalReason.BEANS_PK_MEMBER_NULL);
-					return null;
+		if (!this.appendRecordPrimaryKey(pBean, str)) {
+			return null;
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Append the EBX representation of the primary key of a Java Bean, foreign keys being formatted recursively by the DAO of the referenced bean.
+	 *
+	 * @param pBean    A Java Bean representing a table occurrence.
+	 * @param pBuilder The builder to which the primary key is appended.
+	 *
+	 * @return false if the PK cannot be constituted.
+	 * @throws EBXCommonsException EBXCommonsException
+	 */
+	private boolean appendRecordPrimaryKey(final T pBean, final StringBuilder pBuilder) throws EBXCommonsException {
+		Object[] values = this.getPrimaryKeyValues(pBean);
+		for (int i = 0; i < values.length; i++) {
+			Object pk = values[i];
+			if (pk == null) {
+				// TODO Study backward compatibility to get reactivate this exception.
+				// throw new BeansFunctionalException(EBXCommonsFunctionalReason.BEANS_PK_MEMBER_NULL);
+				return false;
+			}
+			if (i > 0) {
+				pBuilder.append('|');
+			}
+			if (pk instanceof TableBean) {
+				@SuppressWarnings("unchecked")
+				TableDAO<TableBean> dao = (TableDAO<TableBean>) ((TableBean) pk).getDAO();
+				if (!dao.appendRecordPrimaryKey((TableBean) pk, pBuilder)) {
+					return false;
 				}
-				if (TableBean.class.isInstance(pk)) {
-					str.append(((TableBean) pk).getDAO().getRecordPrimaryKey(pk) + "|");
-				} else {
-					str.append(pk + "|");
+			} else {
+				pBuilder.append(pk);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the values of the primary key members of a Java Bean, in the order of the primary key of the table.
+	 * <p>
+	 * Generated DAOs override this method with direct calls to the getters. This default implementation calls the getters named by {@link #getPrimaryKeysGetters()} through method handles
+	 * resolved once per bean class.
+	 * </p>
+	 *
+	 * @param pBean A Java Bean representing a table occurrence.
+	 *
+	 * @return The values of the primary key members, possibly null.
+	 * @throws BeansTechnicalException if a getter cannot be found or invoked.
+	 */
+	protected Object[] getPrimaryKeyValues(final T pBean) throws BeansTechnicalException {
+		MethodHandle[] getters = this.primaryKeyGetterHandles.get(pBean.getClass());
+		if (getters == null) {
+			getters = this.findPrimaryKeyGetterHandles(pBean.getClass());
+			this.primaryKeyGetterHandles.put(pBean.getClass(), getters);
+		}
+		Object[] values = new Object[getters.length];
+		try {
+			for (int i = 0; i < getters.length; i++) {
+				values[i] = getters[i].invoke(pBean);
+			}
+		} catch (RuntimeException | Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			throw new BeansTechnicalException(ex);
+		}
+		return values;
+	}
+
+	private MethodHandle[] findPrimaryKeyGetterHandles(final Class<?> pBeanClass) throws BeansTechnicalException {
+		String[] getterNames = this.getPrimaryKeysGetters();
+		MethodHandle[] getters = new MethodHandle[getterNames.length];
+		try {
+			for (int i = 0; i < getterNames.length; i++) {
+				getters[i] = MethodHandles.publicLookup().unreflect(pBeanClass.getMethod(getterNames[i])).asType(MethodType.methodType(Object.class, Object.class));
+			}
+		} catch (IllegalAccessException | NoSuchMethodException ex) {
+			throw new BeansTechnicalException(ex);
+		}
+		return getters;
+	}
+
+	/**
+	 * Set the values of the primary key members of a Java Bean, foreign keys being instantiated through the DAO of the referenced bean.
+	 * <p>
+	 * Generated DAOs override this method with direct calls to the setters. This default implementation calls the setters returned by {@link #getPrimaryKeysSetters()} through method handles
+	 * resolved once per DAO.
+	 * </p>
+	 *
+	 * @param pBean     A Java Bean representing a table occurrence.
+	 * @param pDataset  The dataset of the table occurrence.
+	 * @param pPKValues The values of the primary key, as returned by {@link SchemaNode#getTablePrimaryKeyValues(PrimaryKey)}.
+	 *
+	 * @throws BeansTechnicalException if a setter cannot be found or invoked.
+	 */
+	protected void setPrimaryKeyValues(final T pBean, final Adaptation pDataset, final Object[] pPKValues) throws BeansTechnicalException {
+		PrimaryKeyMemberSetter[] setters = this.primaryKeySetters;
+		if (setters == null) {
+			setters = this.findPrimaryKeySetters();
+			this.primaryKeySetters = setters;
+		}
+		try {
+			for (int i = 0; i < setters.length; i++) {
+				Object value = pPKValues[i];
+				if (setters[i].dao != null) {
+					value = setters[i].dao.getInstanceOfBeanFromPK(this.getRelatedDataset(pDataset, i), PrimaryKey.parseString((String) value));
 				}
-			} catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException ex) {
-				throw new BeansTechnicalException(ex);
+				setters[i].setter.invoke(pBean, value);
 			}
+		} catch (RuntimeException | Error | BeansTechnicalException ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			throw new BeansTechnicalException(ex);
+		}
+	}
+
+	private PrimaryKeyMemberSetter[] findPrimaryKeySetters() throws BeansTechnicalException {
+		List<PrimaryKeySetter> setters = this.getPrimaryKeysSetters();
+		PrimaryKeyMemberSetter[] memberSetters = new PrimaryKeyMemberSetter[setters.size()];
+		try {
+			for (int i = 0; i < memberSetters.length; i++) {
+				PrimaryKeySetter setter = setters.get(i);
+				TableDAO<?> dao = null;
+				if (setter.getBean().isPresent()) {
+					Method getDaoMethod = setter.getBean().get().getDeclaredMethod("getDAO");
+					Method getInstanceMethod = getDaoMethod.getReturnType().getDeclaredMethod("getInstance");
+					dao = (TableDAO<?>) getInstanceMethod.invoke(null);
+				}
+				MethodHandle handle = MethodHandles.publicLookup().unreflect(setter.getSetter()).asType(MethodType.methodType(void.class, Object.class, Object.class));
+				memberSetters[i] = new PrimaryKeyMemberSetter(handle, dao);
+			}
+		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | SecurityException | NoSuchMethodException ex) {
+			throw new BeansTechnicalException(ex);
+		}
+		return memberSetters;
+	}
+
+	/**
+	 * Get the dataset of the table referenced by a foreign key member of the primary key.
+	 *
+	 * @param pDataset      The dataset of the table of this DAO.
+	 * @param pPKFieldIndex The index of the foreign key in the primary key.
+	 *
+	 * @return The dataset of the referenced table.
+	 * @throws BeansTechnicalException if the dataset cannot be found.
+	 */
+	protected Adaptation getRelatedDataset(final Adaptation pDataset, final int pPKFieldIndex) throws BeansTechnicalException {
+		SchemaFacetTableRef facetOnTableReference = this.getAdaptationTable(pDataset).getTableNode().getTablePrimaryKeyNodes()[pPKFieldIndex].getFacetOnTableReference();
+		try {
+			return SchemaUtils.getRelatedDataset(facetOnTableReference, pDataset);
+		} catch (EBXResourceNotFoundException ex) {
+			throw new BeansTechnicalException(ex);
 		}
-		str.deleteCharAt(str.length() - 1);
-		return str.toString();
 	}
 
 	/**
@@ -290,6 +457,10 @@ public abstract class TableDAO<T extends TableBean> {
 
 	/**
 	 * Build a list of Java Bean from a list of primary keys
+	 * <p>
+	 * Records are looked up by batches of {@link #getPrimaryKeyBatchSize()} keys, with a single request per batch. Beans are returned in the order of the primary keys. A bean only valued with its
+	 * primary key is returned for a key matching no record (see {@link #getInstanceOfBeanFromPK(Adaptation, PrimaryKey)}).
+	 * </p>
 	 *
 	 * @param pPrimaryKeys A list of primary keys of EBX table occurrences.
 	 * @param pDataset     The dataset in which to search for records based on the primary keys.
@@ -299,24 +470,128 @@ public abstract class TableDAO<T extends TableBean> {
 	 * @throws BeansTechnicalException BeansTechnicalException
 	 */
 	public List<T> readAll(final List<String> pPrimaryKeys, final Adaptation pDataset, final Optional<SessionPermissions> pPermissions) throws BeansTechnicalException {
-		List<Adaptation> records = new ArrayList<>();
 		List<T> beans = new ArrayList<>();
-		if (pPrimaryKeys != null) {
-			for (String primaryKey : pPrimaryKeys) {
-				PrimaryKey pk = PrimaryKey.parseString(primaryKey);
-				Adaptation record = this.getAdaptationTable(pDataset).lookupAdaptationByPrimaryKey(pk);
+		if (pPrimaryKeys == null || pPrimaryKeys.isEmpty()) {
+			return beans;
+		}
+		AdaptationTable table = this.getAdaptationTable(pDataset);
+		int batchSize = Math.max(1, this.getPrimaryKeyBatchSize());
+		for (int from = 0; from < pPrimaryKeys.size(); from += batchSize) {
+			List<String> batch = pPrimaryKeys.subList(from, Math.min(from + batchSize, pPrimaryKeys.size()));
+			List<PrimaryKey> primaryKeys = new ArrayList<>(batch.size());
+			for (String primaryKey : batch) {
+				primaryKeys.add(PrimaryKey.parseString(primaryKey));
+			}
+			Map<PrimaryKey, Adaptation> records = this.lookupAdaptationsByPrimaryKeys(table, primaryKeys);
+			for (PrimaryKey pk : primaryKeys) {
+				Adaptation record = records.get(pk);
 				if (record != null) {
-					records.add(record);
+					T bean = this.read(record, pPermissions);
+					if (bean != null) {
+						beans.add(bean);
+					}
 				} else {
-					T bean = this.getInstanceOfBeanFromPK(pDataset, pk);
-					beans.add(bean);
+					beans.add(this.getInstanceOfBeanFromPK(pDataset, pk));
 				}
 			}
 		}
-		beans.addAll(this.readAll(records, pPermissions));
 		return beans;
 	}
 
+	/**
+	 * Look up the records of a batch of primary keys with a single request.
+	 *
+	 * @param pTable       The table in which to search for the records.
+	 * @param pPrimaryKeys The primary keys to look up.
+	 *
+	 * @return The records found, by the primary keys given in parameter.
+	 */
+	private Map<PrimaryKey, Adaptation> lookupAdaptationsByPrimaryKeys(final AdaptationTable pTable, final List<PrimaryKey> pPrimaryKeys) {
+		Map<PrimaryKey, Adaptation> records = new HashMap<>();
+		SchemaNode tableNode = pTable.getTableNode();
+		SchemaNode[] primaryKeyNodes = tableNode.getTablePrimaryKeyNodes();
+		Map<PrimaryKey, PrimaryKey> canonicalPrimaryKeys = new HashMap<>();
+		Map<String, Object> parameters = new HashMap<>();
+		StringBuilder predicate = new StringBuilder();
+		for (PrimaryKey pk : pPrimaryKeys) {
+			Object[] values = tableNode.getTablePrimaryKeyValues(pk);
+			if (values == null || canonicalPrimaryKeys.containsKey(pk)) {
+				continue;
+			}
+			canonicalPrimaryKeys.put(pk, pTable.computePrimaryKey(values));
+			int keyIndex = canonicalPrimaryKeys.size() - 1;
+			if (predicate.length() > 0) {
+				predicate.append(" or ");
+			}
+			predicate.append('(');
+			for (int i = 0; i < primaryKeyNodes.length; i++) {
+				String parameter = "pk" + keyIndex + "_" + i;
+				if (i > 0) {
+					predicate.append(" and ");
+				}
+				predicate.append(Path.SELF.add(primaryKeyNodes[i].getPathInAdaptation()).format()).append("=$").append(parameter);
+				parameters.put(parameter, values[i]);
+			}
+			predicate.append(')');
+		}
+		if (canonicalPrimaryKeys.isEmpty()) {
+			return records;
+		}
+		this.primaryKeyBatchCount.increment();
+		this.primaryKeyBatchKeyCount.add(canonicalPrimaryKeys.size());
+
+		Request request = pTable.createRequest();
+		request.setXPathFilter(predicate.toString());
+		for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+			request.setXPathParameter(parameter.getKey(), parameter.getValue());
+		}
+		Map<PrimaryKey, Adaptation> recordsByCanonicalPrimaryKey = new HashMap<>();
+		RequestResult result = request.execute();
+		try {
+			Adaptation record;
+			while ((record = result.nextAdaptation()) != null) {
+				recordsByCanonicalPrimaryKey.put(record.getOccurrencePrimaryKey(), record);
+			}
+		} finally {
+			result.close();
+		}
+		for (Map.Entry<PrimaryKey, PrimaryKey> pk : canonicalPrimaryKeys.entrySet()) {
+			Adaptation record = recordsByCanonicalPrimaryKey.get(pk.getValue());
+			if (record != null) {
+				records.put(pk.getKey(), record);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Number of primary keys looked up by a single request when reading beans from a list of primary keys.<br>
+	 * Can be overridden to tune the size of the requests, see {@link #getPrimaryKeyBatchCount()} and {@link #getPrimaryKeyBatchKeyCount()}.
+	 *
+	 * @return The maximum number of primary keys per request.
+	 */
+	protected int getPrimaryKeyBatchSize() {
+		return DEFAULT_PRIMARY_KEY_BATCH_SIZE;
+	}
+
+	/**
+	 * Get the number of requests executed to look up batches of primary keys by this DAO.
+	 *
+	 * @return The number of batches.
+	 */
+	public long getPrimaryKeyBatchCount() {
+		return this.primaryKeyBatchCount.sum();
+	}
+
+	/**
+	 * Get the number of primary keys looked up by batches by this DAO. Divided by {@link #getPrimaryKeyBatchCount()}, it gives the average number of keys per batch.
+	 *
+	 * @return The number of primary keys.
+	 */
+	public long getPrimaryKeyBatchKeyCount() {
+		return this.primaryKeyBatchKeyCount.sum();
+	}
+
 	/**
 	 * Build a Java Bean only based on a primary key in valuing the attributes which compose it.
 	 *
@@ -329,25 +604,7 @@ public abstract class TableDAO<T extends TableBean> {
 	public T getInstanceOfBeanFromPK(final Adaptation pDataset, final PrimaryKey pPK) throws BeansTechnicalException {
 		T bean = this.getInstanceOfBean();
 		Object[] tablePrimaryKeyValues = this.getAdaptationTable(pDataset).getTableNode().getTablePrimaryKeyValues(pPK);
-		for (int i = 0; i < this.getPrimaryKeysSetters().size(); i++) {
-			try {
-				PrimaryKeySetter setter = this.getPrimaryKeysSetters().get(i);
-				if (setter.getBean().isPresent()) {
-					SchemaFacetTableRef facetOnTableReference = this.getAdaptationTable(pDataset).getTableNode().getTablePrimaryKeyNodes()[i].getFacetOnTableReference();
-					Class<? extends TableBean> linkedBean = setter.getBean().get();
-					Method getDaoMethod = linkedBean.getDeclaredMethod("getDAO");
-					Class<?> returnType = getDaoMethod.getReturnType();
-					Method getInstanceMethod = returnType.getDeclaredMethod("getInstance");
-					TableDAO<?> dao = (TableDAO<?>) getInstanceMethod.invoke(null);
-					setter.getSetter().invoke(bean,
-							dao.getInstanceOfBeanFromPK(SchemaUtils.getRelatedDataset(facetOnTableReference, pDataset), PrimaryKey.parseString((String) tablePrimaryKeyValues[i])));
-				} else {
-					setter.getSetter().invoke(bean, tablePrimaryKeyValues[i]);
-				}
-			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | SecurityException | EBXResourceNotFoundException | NoSuchMethodException ex) {
-				throw new BeansTechnicalException(ex);
-			}
-		}
+		this.setPrimaryKeyValues(bean, pDataset, tablePrimaryKeyValues);
 		return bean;
 	}
 
@@ -576,6 +833,222 @@ public abstract class TableDAO<T extends TableBean> {
 		return list;
 	}
 
+	/**
+	 * Build a stream of Java Beans from a filter on an EBX table.
+	 * <p>
+	 * Beans are read lazily while the stream is consumed, so that the memory footprint does not depend on the number of records. The underlying request result is closed when the stream is
+	 * closed, hence the stream must be used in a try-with-resources statement.
+	 * </p>
+	 *
+	 * @param pDataset   A dataset in which to apply the filter.
+	 * @param pPredicate An XPath predicate to use as filter.
+	 *
+	 * @return A stream of Java Beans representing records, to be closed by the caller.
+	 */
+	public Stream<T> stream(final Adaptation pDataset, final String pPredicate) {
+		return this.stream(pDataset, pPredicate, Optional.empty());
+	}
+
+	/**
+	 * Build a stream of Java Beans from a filter on an EBX table.
+	 * <p>
+	 * Beans are read lazily while the stream is consumed, so that the memory footprint does not depend on the number of records. The underlying request result is closed when the stream is
+	 * closed, hence the stream must be used in a try-with-resources statement.
+	 * </p>
+	 *
+	 * @param pDataset     A dataset in which to apply the filter.
+	 * @param pPredicate   An XPath predicate to use as filter.
+	 * @param pPermissions Permissions to be applied to the read of the records returned as java beans.
+	 *
+	 * @return A stream of Java Beans representing records, to be closed by the caller.
+	 */
+	public Stream<T> stream(final Adaptation pDataset, final String pPredicate, final Optional<SessionPermissions> pPermissions) {
+		Request request = this.getAdaptationTable(pDataset).createRequest();
+		request.setXPathFilter(pPredicate);
+		return this.stream(request, pPermissions);
+	}
+
+	/**
+	 * Build a stream of Java Beans from a filter on an EBX table.
+	 * <p>
+	 * Beans are read lazily while the stream is consumed, so that the memory footprint does not depend on the number of records. The underlying request result is closed when the stream is
+	 * closed, hence the stream must be used in a try-with-resources statement.
+	 * </p>
+	 *
+	 * @param pDataset      A dataset in which to apply the filter.
+	 * @param pPredicate    An XPath predicate to use as filter.
+	 * @param pSortCriteria Object defining the ordering of beans within the returned stream.
+	 * @param pPermissions  Permissions to be applied to the read of the records returned as java beans.
+	 *
+	 * @return A stream of Java Beans representing records, to be closed by the caller.
+	 */
+	public Stream<T> stream(final Adaptation pDataset, final String pPredicate, final RequestSortCriteria pSortCriteria, final Optional<SessionPermissions> pPermissions) {
+		Request request = this.getAdaptationTable(pDataset).createRequest();
+		request.setXPathFilter(pPredicate);
+		request.setSortCriteria(pSortCriteria);
+		return this.stream(request, pPermissions);
+	}
+
+	/**
+	 * Build a stream of Java Beans from the result of an EBX request on the table of this DAO.
+	 * <p>
+	 * The request is executed when this method is called and its result is closed when the stream is closed.
+	 * </p>
+	 *
+	 * @param pRequest     A request on the table of this DAO.
+	 * @param pPermissions Permissions to be applied to the read of the records returned as java beans.
+	 *
+	 * @return A stream of Java Beans representing records, to be closed by the caller.
+	 */
+	public Stream<T> stream(final Request pRequest, final Optional<SessionPermissions> pPermissions) {
+		RequestResult result = pRequest.execute();
+		Spliterator<Adaptation> records = new Spliterators.AbstractSpliterator<Adaptation>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(final Consumer<? super Adaptation> pAction) {
+				Adaptation record = result.nextAdaptation();
+				if (record == null) {
+					return false;
+				}
+				pAction.accept(record);
+				return true;
+			}
+		};
+		return StreamSupport.stream(records, false).onClose(result::close).map(record -> this.read(record, pPermissions)).filter(Objects::nonNull);
+	}
+
+	/**
+	 * Read a page of Java Beans from a filter on an EBX table, using keyset pagination.
+	 * <p>
+	 * Records are sorted by primary key and the page starts right after the primary key of the last bean of the previous page. When all the primary key fields are strings, numbers, dates
+	 * or times, EBX sorts the records and filters out the previous pages with an XPath predicate, so that reading a page does not require to walk through the records of the previous pages.
+	 * Other primary key types, such as booleans, cannot be compared in XPath: all the filtered records are then scanned for each page, the order and the start of the page being computed
+	 * from the natural order of the Java values of the primary key, so that reading a page costs as much as reading the whole filtered table.
+	 * </p>
+	 *
+	 * @param pDataset         A dataset in which to apply the filter.
+	 * @param pPredicate       An XPath predicate to use as filter, may be null.
+	 * @param pAfterPrimaryKey The primary key of the last bean of the previous page, empty for the first page.
+	 * @param pLimit           The maximum number of Java Beans to be returned.
+	 * @param pPermissions     Permissions to be applied to the read of the records returned as java beans.
+	 *
+	 * @return A list of at most {@code pLimit} Java Beans representing records.
+	 * @throws IllegalArgumentException if the primary key of the previous page is not a primary key of the table.
+	 */
+	public List<T> readPage(final Adaptation pDataset, final String pPredicate, final Optional<String> pAfterPrimaryKey, final int pLimit,
+			final Optional<SessionPermissions> pPermissions) {
+		AdaptationTable table = this.getAdaptationTable(pDataset);
+		SchemaNode[] primaryKeyNodes = table.getTableNode().getTablePrimaryKeyNodes();
+		Object[] afterValues = null;
+		if (pAfterPrimaryKey.isPresent()) {
+			afterValues = table.getTableNode().getTablePrimaryKeyValues(PrimaryKey.parseString(pAfterPrimaryKey.get()));
+			if (afterValues == null || afterValues.length != primaryKeyNodes.length) {
+				throw new IllegalArgumentException("'" + pAfterPrimaryKey.get() + "' is not a primary key of table " + table.getTablePath().format());
+			}
+		}
+		Request request = table.createRequest();
+		if (!isComparableInXPath(primaryKeyNodes)) {
+			request.setXPathFilter(pPredicate);
+			return this.readPageInJavaOrder(request, primaryKeyNodes, afterValues, pLimit, pPermissions);
+		}
+
+		// The keyset predicate lists the primary key fields in the order of the sort criteria
+		RequestSortCriteria sortCriteria = new RequestSortCriteria();
+		for (SchemaNode primaryKeyNode : primaryKeyNodes) {
+			sortCriteria.add(Path.SELF.add(primaryKeyNode.getPathInAdaptation()), true);
+		}
+		request.setSortCriteria(sortCriteria);
+
+		String predicate = pPredicate;
+		if (afterValues != null) {
+			// (k0 > v0) or (k0 = v0 and k1 > v1) or ...
+			StringBuilder keyset = new StringBuilder();
+			for (int i = 0; i < primaryKeyNodes.length; i++) {
+				if (i > 0) {
+					keyset.append(" or ");
+				}
+				keyset.append('(');
+				for (int j = 0; j <= i; j++) {
+					if (j > 0) {
+						keyset.append(" and ");
+					}
+					keyset.append(Path.SELF.add(primaryKeyNodes[j].getPathInAdaptation()).format()).append(j < i ? "=$after" : ">$after").append(j);
+				}
+				keyset.append(')');
+				request.setXPathParameter("after" + i, afterValues[i]);
+			}
+			predicate = StringUtils.isBlank(pPredicate) ? keyset.toString() : "(" + pPredicate + ") and (" + keyset + ")";
+		}
+		request.setXPathFilter(predicate);
+
+		try (Stream<T> beans = this.stream(request, pPermissions)) {
+			return beans.limit(pLimit).collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Tells whether the values of all the primary key fields can be compared in XPath the same way as EBX sorts them, which is the case of strings, numbers, dates and times.
+	 */
+	private static boolean isComparableInXPath(final SchemaNode[] pPrimaryKeyNodes) {
+		for (SchemaNode primaryKeyNode : pPrimaryKeyNodes) {
+			SchemaTypeName type = primaryKeyNode.getXsTypeName();
+			if (!SchemaTypeName.XS_STRING.equals(type) && !SchemaTypeName.XS_INT.equals(type) && !SchemaTypeName.XS_INTEGER.equals(type) && !SchemaTypeName.XS_DECIMAL.equals(type) && !SchemaTypeName.XS_DATE.equals(type)
+					&& !SchemaTypeName.XS_DATETIME.equals(type) && !SchemaTypeName.XS_TIME.equals(type)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the page by scanning the request, keeping the {@code pLimit} smallest primary keys greater than {@code pAfterValues} in the natural order of their values. Reads all the records
+	 * of the request, for primary keys which cannot be compared in XPath only.
+	 */
+	private List<T> readPageInJavaOrder(final Request pRequest, final SchemaNode[] pPrimaryKeyNodes, final Object[] pAfterValues, final int pLimit,
+			final Optional<SessionPermissions> pPermissions) {
+		if (pLimit <= 0) {
+			return new ArrayList<>();
+		}
+		Comparator<Object[]> order = TableDAO::comparePrimaryKeyValues;
+		// Largest key of the page at the head, so that it is the one replaced by a smaller key
+		PriorityQueue<Map.Entry<Object[], T>> page = new PriorityQueue<>(pLimit, Map.Entry.<Object[], T> comparingByKey(order).reversed());
+		RequestResult result = pRequest.execute();
+		try {
+			for (Adaptation record; (record = result.nextAdaptation()) != null;) {
+				Object[] values = new Object[pPrimaryKeyNodes.length];
+				for (int i = 0; i < pPrimaryKeyNodes.length; i++) {
+					values[i] = record.get(pPrimaryKeyNodes[i].getPathInAdaptation());
+				}
+				if (pAfterValues != null && order.compare(values, pAfterValues) <= 0 || page.size() == pLimit && order.compare(values, page.peek().getKey()) >= 0) {
+					continue;
+				}
+				T bean = this.read(record, pPermissions);
+				if (bean == null) {
+					continue;
+				}
+				if (page.size() == pLimit) {
+					page.poll();
+				}
+				page.add(new AbstractMap.SimpleImmutableEntry<>(values, bean));
+			}
+		} finally {
+			result.close();
+		}
+		List<Map.Entry<Object[], T>> entries = new ArrayList<>(page);
+		entries.sort(Map.Entry.comparingByKey(order));
+		return entries.stream().map(Map.Entry::getValue).collect(Collectors.toList());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int comparePrimaryKeyValues(final Object[] pLeft, final Object[] pRight) {
+		for (int i = 0; i < pLeft.length; i++) {
+			int comparison = Comparator.nullsFirst(Comparator.<Comparable> naturalOrder()).compare((Comparable) pLeft[i], (Comparable) pRight[i]);
+			if (comparison != 0) {
+				return comparison;
+			}
+		}
+		return 0;
+	}
+
 	/**
 	 * Build a list of Java Beans from filtered EBX referenced table occurrences.
 	 *
@@ -749,4 +1222,14 @@ public abstract class TableDAO<T extends TableBean> {
 
 	protected abstract void setValuesForUpdate(final ValueContextForUpdate pContext, final T pBean) throws EBXCommonsException;
 
+	private static final class PrimaryKeyMemberSetter {
+		private final MethodHandle setter;
+		/** DAO of the referenced bean when the member is a foreign key */
+		private final TableDAO<?> dao;
+
+		private PrimaryKeyMemberSetter(final MethodHandle pSetter, final TableDAO<?> pDAO) {
+			this.setter = pSetter;
+			this.dao = pDAO;
+		}
+	}
 }
@@ -0,0 +1,396 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.constraint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.Request;
+import com.onwbp.adaptation.RequestResult;
+import com.onwbp.base.text.UserMessage;
+import com.orchestranetworks.instance.ValueContext;
+import com.orchestranetworks.instance.ValueContextForValidationOnRecord;
+import com.orchestranetworks.instance.ValueContextForValidationOnTable;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.schema.SchemaNode;
+
+/**
+ * Duplicate detection shared by the uniqueness constraints on a filtered table.
+ * <p>
+ * The table check reads the filtered table once, without sorting, and hashes the composite key of each record into a table of primitive longs. Only the records whose hash has been seen
+ * more than once are read again and grouped by their actual values, so that hash collisions never produce false errors and memory stays proportional to the number of distinct keys.
+ * </p>
+ * <p>
+ * The record check counts the records having the same values with a parameterized XPath request, the paths and the predicate being computed once.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ */
+public final class UniquenessEngine {
+
+	private static final String PARAMETER_PREFIX = "unique";
+
+	private final String filter;
+	private final Path[] paths;
+	private final List<SchemaNode> uniqueNodes;
+	/** Unique fields as declared, for the record level messages */
+	private final String declaredFields;
+	/** Last steps of the unique fields, for the table level messages */
+	private final String fields;
+	/** Record level predicate when no unique value is null */
+	private final String predicate;
+
+	private volatile long lastScannedRecordCount;
+	private volatile long lastScanDurationMillis;
+
+	/**
+	 * @param pTableNode    the table node of the constraint
+	 * @param pUniqueFields the comma separated paths of the unique fields
+	 * @param pFilter       the XPath filter of the records to consider, can be blank
+	 */
+	public UniquenessEngine(final SchemaNode pTableNode, final String pUniqueFields, final String pFilter) {
+		String[] uniqueFieldsPaths = pUniqueFields.split(",");
+		this.filter = StringUtils.isBlank(pFilter) ? null : pFilter;
+		this.paths = new Path[uniqueFieldsPaths.length];
+		List<SchemaNode> nodes = new ArrayList<>();
+		for (int i = 0; i < uniqueFieldsPaths.length; i++) {
+			this.paths[i] = Path.SELF.add(Path.parse(uniqueFieldsPaths[i].trim()));
+			nodes.add(pTableNode.getNode(this.paths[i]));
+		}
+		this.uniqueNodes = Collections.unmodifiableList(nodes);
+		this.declaredFields = String.join(" - ", uniqueFieldsPaths);
+		StringBuilder lastSteps = new StringBuilder();
+		for (Path path : this.paths) {
+			if (lastSteps.length() > 0) {
+				lastSteps.append(" - ");
+			}
+			lastSteps.append(path.getLastStep().format());
+		}
+		this.fields = lastSteps.toString();
+		this.predicate = this.buildPredicate(new Object[this.paths.length]);
+	}
+
+	public List<SchemaNode> getUniqueNodes() {
+		return this.uniqueNodes;
+	}
+
+	/**
+	 * @return the number of records read by the last table check
+	 */
+	public long getLastScannedRecordCount() {
+		return this.lastScannedRecordCount;
+	}
+
+	/**
+	 * @return the duration of the last table check, in milliseconds
+	 */
+	public long getLastScanDurationMillis() {
+		return this.lastScanDurationMillis;
+	}
+
+	public void checkRecord(final ValueContextForValidationOnRecord pContext) {
+		ValueContext record = pContext.getRecord();
+		Object[] values = new Object[this.paths.length];
+		for (int i = 0; i < this.paths.length; i++) {
+			values[i] = record.getValue(this.paths[i]);
+		}
+		if (!this.hasDuplicates(pContext.getTable(), values)) {
+			return;
+		}
+
+		StringBuilder valueInMessage = new StringBuilder();
+		String value = null;
+		for (int i = 0; i < this.paths.length; i++) {
+			value = this.uniqueNodes.get(i).formatToXsString(values[i]);
+			if (i > 0) {
+				valueInMessage.append(" - ");
+			}
+			valueInMessage.append(value);
+		}
+		if (this.paths.length == 1) {
+			String message = "[" + this.declaredFields + "] value '" + value + "' must be unique in the table.";
+			pContext.addMessage(this.uniqueNodes.get(0), UserMessage.createError(message));
+		} else {
+			String message = "Set of values [" + valueInMessage + "] from fields [" + this.declaredFields + "] must be unique in the table.";
+			pContext.addMessage(UserMessage.createError(message));
+		}
+	}
+
+	/**
+	 * Tells whether at least two records of the filtered table have the specified unique values.
+	 *
+	 * @param pTable  the table
+	 * @param pValues the unique values, in the order of the unique fields
+	 * @return true if the values are not unique
+	 */
+	public boolean hasDuplicates(final AdaptationTable pTable, final Object[] pValues) {
+		Request request = pTable.createRequest();
+		request.setXPathFilter(this.getPredicate(pValues));
+		for (int i = 0; i < pValues.length; i++) {
+			if (pValues[i] != null) {
+				request.setXPathParameter(PARAMETER_PREFIX + i, pValues[i]);
+			}
+		}
+		RequestResult result = request.execute();
+		try {
+			return result.isSizeGreaterOrEqual(2);
+		} finally {
+			result.close();
+		}
+	}
+
+	private String getPredicate(final Object[] pValues) {
+		for (Object value : pValues) {
+			if (value == null) {
+				return this.buildPredicate(pValues);
+			}
+		}
+		return this.predicate;
+	}
+
+	private String buildPredicate(final Object[] pValues) {
+		StringBuilder builder = new StringBuilder();
+		if (this.filter != null) {
+			builder.append('(').append(this.filter).append(") and ");
+		}
+		for (int i = 0; i < this.paths.length; i++) {
+			if (i > 0) {
+				builder.append(" and ");
+			}
+			if (pValues[i] == null) {
+				builder.append("osd:is-null(").append(this.paths[i].format()).append(')');
+			} else {
+				builder.append(this.paths[i].format()).append(" = $").append(PARAMETER_PREFIX).append(i);
+			}
+		}
+		return builder.toString();
+	}
+
+	public void checkTable(final ValueContextForValidationOnTable pContext) {
+		long start = System.currentTimeMillis();
+		long[] scanned = new long[1];
+		LongHashCounter counter = this.hashFilteredTable(pContext.getTable(), scanned);
+
+		if (counter.hasRepeatedKeys()) {
+			// Second pass restricted to the candidates, grouped by their actual values
+			Map<List<String>, List<Adaptation>> candidates = new HashMap<>();
+			RequestResult result = this.createFilteredRequest(pContext.getTable()).execute();
+			try {
+				for (Adaptation record = result.nextAdaptation(); record != null; record = result.nextAdaptation()) {
+					String[] values = this.getFormattedValues(record);
+					if (counter.isRepeated(hashValues(values))) {
+						candidates.computeIfAbsent(Arrays.asList(values), k -> new ArrayList<>()).add(record);
+					}
+				}
+			} finally {
+				result.close();
+			}
+			for (Map.Entry<List<String>, List<Adaptation>> candidate : candidates.entrySet()) {
+				if (candidate.getValue().size() > 1) {
+					this.addMessageToDuplicates(pContext, candidate.getValue(), candidate.getKey());
+				}
+			}
+		}
+
+		this.lastScannedRecordCount = scanned[0];
+		this.lastScanDurationMillis = System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Reads the filtered table once and counts the hashes of the unique values.
+	 *
+	 * @param pTable   the table
+	 * @param pScanned receives the number of records read at index 0
+	 * @return the hashes
+	 */
+	LongHashCounter hashFilteredTable(final AdaptationTable pTable, final long[] pScanned) {
+		LongHashCounter counter = new LongHashCounter();
+		RequestResult result = this.createFilteredRequest(pTable).execute();
+		try {
+			for (Adaptation record = result.nextAdaptation(); record != null; record = result.nextAdaptation()) {
+				counter.add(hashValues(this.getFormattedValues(record)));
+				pScanned[0]++;
+			}
+		} finally {
+			result.close();
+		}
+		return counter;
+	}
+
+	/**
+	 * @return the identity of the unique values and the filter, which the uniqueness index is built for
+	 */
+	public String getDefinition() {
+		StringBuilder definition = new StringBuilder();
+		for (Path path : this.paths) {
+			definition.append(path.format()).append(',');
+		}
+		if (this.filter != null) {
+			definition.append('[').append(this.filter).append(']');
+		}
+		return definition.toString();
+	}
+
+	/**
+	 * @param pRecord a record of the table
+	 * @return true if the record is in the scope of the uniqueness check
+	 */
+	public boolean matchesFilter(final Adaptation pRecord) {
+		return this.filter == null || pRecord.matches(this.filter);
+	}
+
+	/**
+	 * @param pRecord a record of the table
+	 * @return the hash of the unique values of the record
+	 */
+	public long hash(final Adaptation pRecord) {
+		return hashValues(this.getFormattedValues(pRecord));
+	}
+
+	/**
+	 * @param pRecord the value context of a record of the table
+	 * @return the hash of the unique values of the record
+	 */
+	public long hash(final ValueContext pRecord) {
+		String[] values = new String[this.paths.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = this.uniqueNodes.get(i).formatToXsString(pRecord.getValue(this.paths[i]));
+		}
+		return hashValues(values);
+	}
+
+	/**
+	 * @param pChangedPath a path of the table
+	 * @return true if the path is one of the unique fields
+	 */
+	public boolean isUniqueField(final Path pChangedPath) {
+		for (Path path : this.paths) {
+			if (path.equals(pChangedPath)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Request createFilteredRequest(final AdaptationTable pTable) {
+		Request request = pTable.createRequest();
+		if (this.filter != null) {
+			request.setXPathFilter(this.filter);
+		}
+		return request;
+	}
+
+	private String[] getFormattedValues(final Adaptation pRecord) {
+		String[] values = new String[this.paths.length];
+		for (int i = 0; i < values.length; i++) {
+			SchemaNode node = this.uniqueNodes.get(i);
+			values[i] = node.formatToXsString(pRecord.get(node.getPathInAdaptation()));
+		}
+		return values;
+	}
+
+	private void addMessageToDuplicates(final ValueContextForValidationOnTable pContext, final List<Adaptation> pDuplicates, final List<String> pValues) {
+		String valuesInMessage = String.join(" - ", pValues);
+		for (Adaptation duplicate : pDuplicates) {
+			if (pValues.size() == 1) {
+				String message = "[" + this.fields + "] value '" + valuesInMessage + "' must be unique in the table.";
+				pContext.addMessage(duplicate, this.uniqueNodes.get(0), UserMessage.createError(message));
+			} else {
+				String message = "Set of values [" + valuesInMessage + "] from fields [" + this.fields + "] must be unique in the table.";
+				pContext.addMessage(duplicate, UserMessage.createError(message));
+			}
+		}
+	}
+
+	/**
+	 * 64 bits hash of a composite key, FNV-1a over the characters followed by a final avalanche.
+	 */
+	static long hashValues(final String[] pValues) {
+		long hash = 0xcbf29ce484222325L;
+		for (String value : pValues) {
+			if (value == null) {
+				hash = (hash ^ 0xff) * 0x100000001b3L;
+			} else {
+				for (int i = 0; i < value.length(); i++) {
+					hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+				}
+			}
+			// Separator, so that ("ab", "c") and ("a", "bc") differ
+			hash = (hash ^ 0x1f) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	/**
+	 * Open addressing set of longs remembering whether each key has been added more than once.
+	 */
+	static final class LongHashCounter {
+		private static final long EMPTY = 0L;
+		/** Stands for the key 0, which is used to mark empty slots */
+		private static final long ZERO_KEY = 0x9e3779b97f4a7c15L;
+
+		private long[] keys = new long[1024];
+		private boolean[] repeated = new boolean[1024];
+		private int size;
+		private boolean anyRepeated;
+
+		void add(final long pKey) {
+			long key = pKey == EMPTY ? ZERO_KEY : pKey;
+			int slot = this.find(key);
+			if (this.keys[slot] == key) {
+				this.repeated[slot] = true;
+				this.anyRepeated = true;
+				return;
+			}
+			this.keys[slot] = key;
+			if (++this.size * 4 > this.keys.length * 3) {
+				this.grow();
+			}
+		}
+
+		boolean isRepeated(final long pKey) {
+			long key = pKey == EMPTY ? ZERO_KEY : pKey;
+			int slot = this.find(key);
+			return this.keys[slot] == key && this.repeated[slot];
+		}
+
+		boolean hasRepeatedKeys() {
+			return this.anyRepeated;
+		}
+
+		private int find(final long pKey) {
+			int mask = this.keys.length - 1;
+			int slot = (int) (pKey ^ (pKey >>> 32)) & mask;
+			while (this.keys[slot] != EMPTY && this.keys[slot] != pKey) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void grow() {
+			long[] oldKeys = this.keys;
+			boolean[] oldRepeated = this.repeated;
+			this.keys = new long[oldKeys.length * 2];
+			this.repeated = new boolean[oldKeys.length * 2];
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != EMPTY) {
+					int slot = this.find(oldKeys[i]);
+					this.keys[slot] = oldKeys[i];
+					this.repeated[slot] = oldRepeated[i];
+				}
+			}
+		}
+	}
+}
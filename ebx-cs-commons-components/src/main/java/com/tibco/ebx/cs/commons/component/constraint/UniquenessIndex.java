@@ -0,0 +1,144 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.constraint;
+
+import java.util.concurrent.TimeUnit;
+
+import com.onwbp.adaptation.AdaptationHome;
+import com.onwbp.adaptation.AdaptationTable;
+import com.tibco.ebx.cs.commons.component.constraint.UniquenessEngine.LongHashCounter;
+import com.tibco.ebx.cs.commons.lib.utils.DataspaceScopedCache;
+
+/**
+ * In-memory index of the unique values of a filtered table in a dataspace, used to avoid querying the table for each validated record.
+ * <p>
+ * The index only keeps the hashes of the unique values and whether each hash has been seen more than once. It is built lazily by reading the filtered table, then kept current by
+ * {@link com.tibco.ebx.cs.commons.component.trigger.UniquenessIndexTrigger}, which must be declared on the table with the same unique fields and filter as the constraint. A hash seen once
+ * means the values are unique; a hash seen more than once only means the table must be queried.
+ * </p>
+ * <p>
+ * The index never forgets a hash, so that a rolled back transaction can only make it answer "query the table". Deletions and modifications of unique values make it stale; it is rebuilt
+ * when too many entries are stale. The last hashes added since the previous rebuild are added again to the rebuilt index, since the transactions adding them may not have been committed when
+ * the table was read.
+ * </p>
+ * <p>
+ * Merges, reverts and imports without triggers do not execute table triggers. Indexes are dropped when {@link com.tibco.ebx.cs.commons.lib.utils.HomeUtils} merges into, closes or
+ * deletes a dataspace, and can be dropped by {@link #invalidate(AdaptationHome)}. Otherwise, an index is rebuilt on the first query {@link #MAX_AGE_MINUTES} minutes after it has been
+ * built, which bounds the time during which such updates are not seen.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ */
+public final class UniquenessIndex {
+
+	private static final long MIN_STALE_ENTRIES_BEFORE_REBUILD = 1000;
+
+	/** Age after which an index is rebuilt, to see the updates made without triggers */
+	public static final long MAX_AGE_MINUTES = 5;
+
+	private static final long MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(MAX_AGE_MINUTES);
+
+	/** Number of last added hashes kept for the next rebuild, older ones belonging to long committed transactions */
+	private static final int MAX_TRACKED_ADDS = 4096;
+
+	private static final DataspaceScopedCache<UniquenessIndex> INDEXES = new DataspaceScopedCache<>();
+
+	private LongHashCounter hashes;
+	private long size;
+	private long staleEntries;
+	private long builtAtNanos;
+	private final long[] addedHashes = new long[MAX_TRACKED_ADDS];
+	private long addedCount;
+
+	private UniquenessIndex() {
+	}
+
+	/**
+	 * Gets the index of a table, creating it empty if needed. The index is built on first query.
+	 *
+	 * @param pTable  the table in its dataspace
+	 * @param pEngine the uniqueness definition
+	 * @return the index
+	 */
+	public static UniquenessIndex getIndex(final AdaptationTable pTable, final UniquenessEngine pEngine) {
+		return INDEXES.get(pTable.getContainerAdaptation().getHome(), getKey(pTable, pEngine), k -> new UniquenessIndex());
+	}
+
+	/**
+	 * Gets the index of a table if it exists.
+	 *
+	 * @param pTable  the table in its dataspace
+	 * @param pEngine the uniqueness definition
+	 * @return the index or null
+	 */
+	public static UniquenessIndex lookupIndex(final AdaptationTable pTable, final UniquenessEngine pEngine) {
+		return INDEXES.lookup(pTable.getContainerAdaptation().getHome(), getKey(pTable, pEngine));
+	}
+
+	/**
+	 * Drops the indexes of a dataspace, to be called after it has been merged into, reverted or closed.
+	 *
+	 * @param pDataspace the dataspace
+	 */
+	public static void invalidate(final AdaptationHome pDataspace) {
+		INDEXES.invalidate(pDataspace);
+	}
+
+	/**
+	 * Drops all indexes.
+	 */
+	public static void invalidateAll() {
+		INDEXES.invalidateAll();
+	}
+
+	private static String getKey(final AdaptationTable pTable, final UniquenessEngine pEngine) {
+		return pTable.getContainerAdaptation().getAdaptationName().getStringName() + "|" + pTable.getTablePath().format() + "|" + pEngine.getDefinition();
+	}
+
+	/**
+	 * Tells whether the values of a record may not be unique, building or rebuilding the index if needed.
+	 *
+	 * @param pTable  the table
+	 * @param pEngine the uniqueness definition
+	 * @param pHash   the hash of the unique values of the record, which is expected to be in the table
+	 * @return false if the values are known to be unique, true if the table must be queried
+	 */
+	public synchronized boolean mayHaveDuplicates(final AdaptationTable pTable, final UniquenessEngine pEngine, final long pHash) {
+		if (this.hashes == null || this.staleEntries > Math.max(MIN_STALE_ENTRIES_BEFORE_REBUILD, this.size / 4) || System.nanoTime() - this.builtAtNanos > MAX_AGE_NANOS) {
+			long[] scanned = new long[1];
+			LongHashCounter rebuilt = pEngine.hashFilteredTable(pTable, scanned);
+			// A hash of a committed record is counted twice, which only makes the index answer "query the table" for it
+			int tracked = (int) Math.min(this.addedCount, MAX_TRACKED_ADDS);
+			for (int i = 0; i < tracked; i++) {
+				rebuilt.add(this.addedHashes[i]);
+			}
+			this.hashes = rebuilt;
+			this.size = scanned[0] + tracked;
+			this.staleEntries = 0;
+			this.addedCount = 0;
+			this.builtAtNanos = System.nanoTime();
+		}
+		return this.hashes.isRepeated(pHash);
+	}
+
+	/**
+	 * Registers the unique values of a created or modified record. Does nothing if the index has not been built yet.
+	 *
+	 * @param pHash the hash of the unique values
+	 */
+	public synchronized void add(final long pHash) {
+		if (this.hashes != null) {
+			this.hashes.add(pHash);
+			this.size++;
+			this.addedHashes[(int) (this.addedCount++ % MAX_TRACKED_ADDS)] = pHash;
+		}
+	}
+
+	/**
+	 * Registers that the unique values of a record have been deleted or replaced.
+	 */
+	public synchronized void markStale() {
+		if (this.hashes != null) {
+			this.staleEntries++;
+		}
+	}
+}
@@ -22,11 +22,20 @@ import com.orchestranetworks.schema.PathAccessException;
 import com.orchestranetworks.service.OperationException;
 import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
 
+/**
+ * Enumeration of the primary keys of the records of a table.
+ * <p>
+ * When <tt>indexed</tt> is true, the keys and labels are served by a {@link RecordKeyIndex} built once per dataspace, dataset and table instead of reading the table for each
+ * display or validation. The {@link com.tibco.ebx.cs.commons.component.trigger.RecordKeyIndexTrigger} must then be declared on the table to keep the index current.
+ * </p>
+ */
 public abstract class AbstractRecordInTableConstraintEnumeration implements ConstraintEnumeration<String> {
 
 	public static final String MESSAGE = "{0} should specify a record in the {1} Table";
 	public static final String GMESSAGE = "{0} should specify a record in the referenced table";
 
+	private boolean indexed;
+
 	@Override
 	public void checkOccurrence(final String value, final ValueContextForValidation context) throws InvalidSchemaException {
 		try {
@@ -34,8 +43,13 @@ public abstract class AbstractRecordInTableConstraintEnumeration implements Cons
 			if (table == null) {
 				return;
 			}
-			Adaptation record = table.lookupAdaptationByPrimaryKey(PrimaryKey.parseString(value));
-			if (record == null) {
+			boolean exists;
+			if (this.indexed) {
+				exists = RecordKeyIndex.getIndex(table).contains(table, value);
+			} else {
+				exists = table.lookupAdaptationByPrimaryKey(PrimaryKey.parseString(value)) != null;
+			}
+			if (!exists) {
 				context.addError(MessageFormat.format(MESSAGE, value, table.getTableNode().getLabel(Locale.getDefault())));
 			}
 		} catch (OperationException e) {
@@ -75,6 +89,9 @@ public abstract class AbstractRecordInTableConstraintEnumeration implements Cons
 		}
 		try {
 			AdaptationTable table = this.getTable(context);
+			if (table != null && this.indexed) {
+				return RecordKeyIndex.getIndex(table).getLabel(table, recordKey, locale);
+			}
 			if (table != null) {
 				Adaptation record = table.lookupAdaptationByPrimaryKey(PrimaryKey.parseString(recordKey));
 				if (record == null) {
@@ -90,6 +107,9 @@ public abstract class AbstractRecordInTableConstraintEnumeration implements Cons
 
 	@Override
 	public List<String> getValues(final ValueContext context) throws InvalidSchemaException {
+		if (this.indexed) {
+			return this.getValues(context, null, 0, -1);
+		}
 		RequestResult allRows = null;
 		try {
 			AdaptationTable table = this.getTable(context);
@@ -111,4 +131,44 @@ public abstract class AbstractRecordInTableConstraintEnumeration implements Cons
 		}
 	}
 
+	/**
+	 * Gets a page of the values starting with a prefix, in their natural order. Only the index is read when <tt>indexed</tt> is true.
+	 *
+	 * @param context the context
+	 * @param prefix  the prefix of the values, null or empty for all
+	 * @param offset  the number of values to skip
+	 * @param limit   the maximum number of values, negative for all
+	 * @return the values
+	 */
+	public List<String> getValues(final ValueContext context, final String prefix, final int offset, final int limit) {
+		try {
+			AdaptationTable table = this.getTable(context);
+			if (table == null) {
+				return Collections.emptyList();
+			}
+			if (this.indexed) {
+				return RecordKeyIndex.getIndex(table).getKeys(table, prefix, offset, limit);
+			}
+			List<String> keys = new ArrayList<>();
+			for (String key : this.getValues(context)) {
+				if (prefix == null || key.startsWith(prefix)) {
+					keys.add(key);
+				}
+			}
+			Collections.sort(keys);
+			int from = Math.min(offset, keys.size());
+			return keys.subList(from, limit < 0 ? keys.size() : Math.min(from + limit, keys.size()));
+		} catch (Exception e) {
+			CommonsLogger.getLogger().error(e.getMessage(), e);
+			return Collections.emptyList();
+		}
+	}
+
+	public boolean isIndexed() {
+		return this.indexed;
+	}
+
+	public void setIndexed(final boolean indexed) {
+		this.indexed = indexed;
+	}
 }
@@ -3,11 +3,16 @@ package com.tibco.ebx.cs.commons.component.enumeration;
 
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -21,6 +26,7 @@ import com.orchestranetworks.schema.ConstraintContext;
 import com.orchestranetworks.schema.Path;
 import com.orchestranetworks.schema.SchemaTypeName;
 import com.orchestranetworks.service.LoggingCategory;
+import com.tibco.ebx.cs.commons.lib.utils.ExpiringCache;
 
 /**
  * Abstract constraint which can be configured to retrieve a JDBC {@link Connection}.
@@ -34,12 +40,31 @@ import com.orchestranetworks.service.LoggingCategory;
  * <li><b>Groups 1 and 3</b> are used to retrieve the Connection through a JNDI DataSource
  * <li><b>Groups 2 and 4</b> are used to retrieve the Connection using the {@link DriverManager} class
  * </ul>
+ * <p>
+ * Connections retrieved with the {@link DriverManager} are taken from a {@link JdbcConnectionPool} shared by the constraints using the same URL, user and password. Its size and validation
+ * query are set by the optional parameters <tt>maxPoolSize</tt> and <tt>validationQuery</tt>. Database metadata read through {@link #getMetadata(ValueContext, String, MetadataReader)}
+ * are kept in memory for {@link #METADATA_TIME_TO_LIVE_MINUTES} minutes, unless <tt>metadataCached</tt> is false, and can be invalidated with {@link #invalidateMetadata()}.
+ * </p>
  * 
  * @author Mickaël Chevalier
  *
  */
 public abstract class JdbcAbstractConstraint<X> implements Constraint<X> {
 
+	public static final long METADATA_TIME_TO_LIVE_MINUTES = 5;
+
+	private static final ExpiringCache<String, List<String>> METADATA = new ExpiringCache<>(METADATA_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES, 1000);
+
+	private static final Set<String> REGISTERED_DRIVERS = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Reads a list of names from the database metadata.
+	 */
+	@FunctionalInterface
+	protected interface MetadataReader {
+		List<String> read(DatabaseMetaData metaData) throws SQLException;
+	}
+
 	// Parameter group 1
 	private String datasourceName;
 
@@ -56,6 +81,11 @@ public abstract class JdbcAbstractConstraint<X> implements Constraint<X> {
 	private Path relativePathToConnectionUser;
 	private Path relativePathToConnectionPassword;
 
+	// Optional
+	private int maxPoolSize = JdbcConnectionPool.DEFAULT_MAX_SIZE;
+	private String validationQuery;
+	private boolean metadataCached = true;
+
 	public void setG1_DatasourceName(final String datasourceName) {
 		this.datasourceName = datasourceName;
 	}
@@ -88,6 +118,18 @@ public abstract class JdbcAbstractConstraint<X> implements Constraint<X> {
 		this.relativePathToConnectionPassword = relativePathToConnectionPassword;
 	}
 
+	public void setMaxPoolSize(final int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public void setValidationQuery(final String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	public void setMetadataCached(final boolean metadataCached) {
+		this.metadataCached = metadataCached;
+	}
+
 	protected String getDatasourceName() {
 		return datasourceName;
 	}
@@ -155,16 +197,8 @@ public abstract class JdbcAbstractConstraint<X> implements Constraint<X> {
 	 */
 	protected Connection connect(final String driverClass, final String connectionUrl, final String user, final String password) throws SQLException {
 		if (driverClass != null) {
-			Driver driverInstance = null;
-			try {
-				driverInstance = JdbcAbstractConstraint.<Driver>loadClass(driverClass).getDeclaredConstructor().newInstance();
-				DriverManager.registerDriver(driverInstance);
-			} catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException | SQLException
-					| ClassNotFoundException | ClassCastException e) {
-				/**
-				 * Driver implementations usually register themselves in a static init block and/or provide a safe default constructor
-				 */
-				LoggingCategory.getKernel().debug(UserMessage.createError("Cannot load driver", e));
+			if (!REGISTERED_DRIVERS.contains(driverClass) && registerDriver(driverClass)) {
+				REGISTERED_DRIVERS.add(driverClass);
 			}
 			for (Driver driver : Collections.list(DriverManager.getDrivers())) {
 				if (driver.getClass().getName().contentEquals(driverClass)) {
@@ -183,6 +217,28 @@ public abstract class JdbcAbstractConstraint<X> implements Constraint<X> {
 		return DriverManager.getConnection(connectionUrl, user, password);
 	}
 
+	private static boolean registerDriver(final String driverClass) {
+		try {
+			DriverManager.registerDriver(JdbcAbstractConstraint.<Driver>loadClass(driverClass).getDeclaredConstructor().newInstance());
+			return true;
+		} catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException | SQLException
+				| ClassNotFoundException | ClassCastException e) {
+			/**
+			 * Driver implementations usually register themselves in a static init block and/or provide a safe default constructor
+			 */
+			LoggingCategory.getKernel().debug(UserMessage.createError("Cannot load driver", e));
+			return false;
+		}
+	}
+
+	/**
+	 * Gets a connection of the pool of a URL, a user and a password
+	 */
+	protected Connection connectPooled(final String driverClass, final String connectionUrl, final String user, final String password) throws SQLException {
+		return JdbcConnectionPool.getPool(connectionUrl, user, password, () -> connect(driverClass, connectionUrl, user, password), maxPoolSize, validationQuery)
+				.getConnection();
+	}
+
 	@SuppressWarnings("unchecked")
 	private static <X> Class<X> loadClass(final String name) throws ClassNotFoundException, ClassCastException {
 		return (Class<X>) Thread.currentThread().getContextClassLoader().loadClass(name);
@@ -192,18 +248,78 @@ public abstract class JdbcAbstractConstraint<X> implements Constraint<X> {
 	 * Gets the connection, according to the constraint parameters
 	 */
 	protected Connection getConnection(final ValueContext aContext) throws Exception {
+		ConnectionInfo info = getConnectionInfo(aContext);
+		return info == null ? null : info.open();
+	}
+
+	/**
+	 * Gets the names read from the database metadata, from memory when they have been read recently
+	 *
+	 * @param aContext the value context
+	 * @param name     the name of the metadata, distinguishing the lists read from the same database
+	 * @param reader   the reader of the metadata
+	 * @return the names, an empty list if no connection is configured
+	 */
+	protected List<String> getMetadata(final ValueContext aContext, final String name, final MetadataReader reader) throws Exception {
+		ConnectionInfo info = getConnectionInfo(aContext);
+		if (info == null) {
+			return Collections.emptyList();
+		}
+		if (!metadataCached) {
+			return readMetadata(info, reader);
+		}
+		try {
+			return METADATA.get(info.getKey() + "|" + name, key -> {
+				try {
+					return Collections.unmodifiableList(readMetadata(info, reader));
+				} catch (Exception ex) {
+					throw new MetadataException(ex);
+				}
+			});
+		} catch (MetadataException ex) {
+			throw (Exception) ex.getCause();
+		}
+	}
+
+	private List<String> readMetadata(final ConnectionInfo info, final MetadataReader reader) throws Exception {
+		try (Connection connection = info.open()) {
+			if (connection == null) {
+				return Collections.emptyList();
+			}
+			return reader.read(connection.getMetaData());
+		}
+	}
+
+	/**
+	 * Forgets all the database metadata kept in memory
+	 */
+	public static void invalidateMetadata() {
+		METADATA.invalidateAll();
+	}
+
+	/**
+	 * Forgets the database metadata kept in memory for a data source or a connection URL
+	 *
+	 * @param datasourceOrUrl the JNDI name of the data source or the connection URL
+	 */
+	public static void invalidateMetadata(final String datasourceOrUrl) {
+		String prefix = datasourceOrUrl + "|";
+		METADATA.invalidateIf(key -> key.startsWith(prefix));
+	}
+
+	private ConnectionInfo getConnectionInfo(final ValueContext aContext) {
 		if (datasourceName != null) {
-			return lookupDatasource(datasourceName).getConnection();
+			return new ConnectionInfo(datasourceName, null, null, null, null);
 
 		} else if (connectionUrl != null) {
-			return connect(driverClass, connectionUrl, null, null);
+			return new ConnectionInfo(null, driverClass, connectionUrl, null, null);
 
 		} else if (relativePathToDatasourceName != null) {
 			String name = (String) aContext.getValue(relativePathToDatasourceName);
 			if (name == null) {
 				return null;
 			}
-			return lookupDatasource(name).getConnection();
+			return new ConnectionInfo(name, null, null, null, null);
 
 		} else {
 			String url = (String) aContext.getValue(relativePathToConnectionUrl);
@@ -213,9 +329,8 @@ public abstract class JdbcAbstractConstraint<X> implements Constraint<X> {
 			String driver = relativePathToDriverClass == null ? null : (String) aContext.getValue(relativePathToDriverClass);
 			String user = relativePathToConnectionUser == null ? null : (String) aContext.getValue(relativePathToConnectionUser);
 			String password = relativePathToConnectionPassword == null ? null : (String) aContext.getValue(relativePathToConnectionPassword);
-			return connect(driver, url, user, password);
+			return new ConnectionInfo(null, driver, url, user, password);
 		}
-
 	}
 
 	/**
@@ -236,4 +351,43 @@ public abstract class JdbcAbstractConstraint<X> implements Constraint<X> {
 		return new InitialContext();
 	}
 
+	/**
+	 * Connection parameters resolved for a value context
+	 */
+	private final class ConnectionInfo {
+		private final String datasource;
+		private final String driver;
+		private final String url;
+		private final String user;
+		private final String password;
+
+		private ConnectionInfo(final String datasource, final String driver, final String url, final String user, final String password) {
+			this.datasource = datasource;
+			this.driver = driver;
+			this.url = url;
+			this.user = user;
+			this.password = password;
+		}
+
+		private Connection open() throws Exception {
+			if (datasource != null) {
+				// Data sources are pooled by the application server
+				return lookupDatasource(datasource).getConnection();
+			}
+			return connectPooled(driver, url, user, password);
+		}
+
+		private String getKey() {
+			return datasource != null ? datasource : url + "|" + user + "|" + JdbcConnectionPool.hash(password);
+		}
+	}
+
+	private static final class MetadataException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private MetadataException(final Exception cause) {
+			super(cause);
+		}
+	}
+
 }
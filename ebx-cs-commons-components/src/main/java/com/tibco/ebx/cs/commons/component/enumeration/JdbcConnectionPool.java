@@ -0,0 +1,318 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.enumeration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.onwbp.base.text.UserMessage;
+import com.orchestranetworks.service.LoggingCategory;
+
+/**
+ * Small pool of JDBC connections opened with the {@link java.sql.DriverManager}, shared by the constraints using the same URL, user and password.
+ * <p>
+ * The pool holds at most {@link #DEFAULT_MAX_SIZE} connections. Idle connections are closed after {@link #DEFAULT_MAX_IDLE_SECONDS} seconds and are validated before being
+ * lent, by a validation query if one is set, by {@link Connection#isValid(int)} otherwise. Closing a lent connection gives it back to the pool.
+ * </p>
+ * <p>
+ * Pools are identified by a hash of the password, so that a wrong password never gets a connection opened with the right one. When the password of a URL and a user changes, the
+ * pool of the previous password is retired: its idle connections are closed, and its lent connections are closed when they are given back.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class JdbcConnectionPool {
+
+	public static final int DEFAULT_MAX_SIZE = 5;
+	public static final long DEFAULT_MAX_IDLE_SECONDS = 300;
+
+	private static final long BORROW_TIMEOUT_MILLIS = 30000;
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	private static final Map<String, JdbcConnectionPool> POOLS = new ConcurrentHashMap<>();
+
+	/**
+	 * Opens the physical connections of a pool.
+	 */
+	@FunctionalInterface
+	public interface ConnectionFactory {
+		Connection connect() throws SQLException;
+	}
+
+	private final String name;
+	private final ConnectionFactory factory;
+	private final int maxSize;
+	private final long maxIdleNanos;
+	private final String validationQuery;
+
+	private final Deque<IdleConnection> idle = new ArrayDeque<>();
+	private int openCount = 0;
+	private boolean retired = false;
+
+	/**
+	 * Gets the pool of a URL, a user and a password, creating it with the given settings if needed. The pools of the same URL and user with another password are retired.
+	 *
+	 * @param url             the connection URL
+	 * @param user            the user, can be null
+	 * @param password        the password, can be null
+	 * @param factory         the factory of the physical connections
+	 * @param maxSize         the maximum number of open connections
+	 * @param validationQuery the query validating a connection before it is lent, can be null
+	 * @return the pool
+	 */
+	public static JdbcConnectionPool getPool(final String url, final String user, final String password, final ConnectionFactory factory, final int maxSize,
+			final String validationQuery) {
+		String prefix = url + "|" + user + "|";
+		String key = prefix + hash(password);
+		JdbcConnectionPool pool = POOLS.get(key);
+		if (pool != null) {
+			return pool;
+		}
+		POOLS.entrySet().removeIf(entry -> {
+			if (entry.getKey().startsWith(prefix) && !entry.getKey().equals(key)) {
+				entry.getValue().retire();
+				return true;
+			}
+			return false;
+		});
+		return POOLS.computeIfAbsent(key, k -> new JdbcConnectionPool(url + "|" + user, factory, maxSize, DEFAULT_MAX_IDLE_SECONDS, validationQuery));
+	}
+
+	/**
+	 * Hashes a password, so that it can identify a pool or a cache entry without being kept in clear.
+	 *
+	 * @param password the password, can be null
+	 * @return the hexadecimal SHA-256 of the password, an empty string if it is null
+	 */
+	public static String hash(final String password) {
+		if (password == null) {
+			return "";
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			// Every JVM provides SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Closes the idle connections of all the pools and forgets the pools.
+	 */
+	public static void closeAll() {
+		for (JdbcConnectionPool pool : POOLS.values()) {
+			pool.retire();
+		}
+		POOLS.clear();
+	}
+
+	private JdbcConnectionPool(final String name, final ConnectionFactory factory, final int maxSize, final long maxIdleSeconds, final String validationQuery) {
+		this.name = name;
+		this.factory = factory;
+		this.maxSize = maxSize;
+		this.maxIdleNanos = TimeUnit.SECONDS.toNanos(maxIdleSeconds);
+		this.validationQuery = validationQuery;
+	}
+
+	/**
+	 * Lends a connection, to be closed by the borrower to give it back.
+	 *
+	 * @return the connection
+	 * @throws SQLException if no connection can be opened or none has been given back in time
+	 */
+	public Connection getConnection() throws SQLException {
+		long deadline = System.currentTimeMillis() + BORROW_TIMEOUT_MILLIS;
+		while (true) {
+			Connection physical = null;
+			boolean create = false;
+			synchronized (this) {
+				closeIdle(false);
+				IdleConnection candidate = idle.pollFirst();
+				if (candidate != null) {
+					physical = candidate.connection;
+				} else if (openCount < maxSize) {
+					openCount++;
+					create = true;
+				} else {
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0) {
+						throw new SQLException("No connection available in the pool of " + name + " after " + BORROW_TIMEOUT_MILLIS + " ms");
+					}
+					try {
+						wait(wait);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a connection of " + name, ex);
+					}
+					continue;
+				}
+			}
+
+			if (create) {
+				try {
+					physical = factory.connect();
+				} catch (SQLException | RuntimeException ex) {
+					discarded();
+					throw ex;
+				}
+				if (physical == null) {
+					discarded();
+					throw new SQLException("No driver accepts " + name);
+				}
+			} else if (!isValid(physical)) {
+				closeQuietly(physical);
+				discarded();
+				continue;
+			}
+			return wrap(physical);
+		}
+	}
+
+	private boolean isValid(final Connection connection) {
+		try {
+			if (validationQuery == null) {
+				return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+			}
+			try (Statement statement = connection.createStatement()) {
+				statement.setQueryTimeout(VALIDATION_TIMEOUT_SECONDS);
+				statement.execute(validationQuery);
+				return true;
+			}
+		} catch (SQLException ex) {
+			LoggingCategory.getKernel().debug(UserMessage.createInfo("Pooled connection of " + name + " is not valid: " + ex.getMessage()));
+			return false;
+		}
+	}
+
+	private Connection wrap(final Connection physical) {
+		InvocationHandler handler = new InvocationHandler() {
+			private boolean closed = false;
+
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+				switch (method.getName()) {
+				case "close":
+					if (!closed) {
+						closed = true;
+						release(physical);
+					}
+					return null;
+				case "isClosed":
+					return closed || physical.isClosed();
+				default:
+					if (closed) {
+						throw new SQLException("Connection has been given back to the pool");
+					}
+					try {
+						return method.invoke(physical, args);
+					} catch (InvocationTargetException ex) {
+						throw ex.getCause();
+					}
+				}
+			}
+		};
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, handler);
+	}
+
+	private void release(final Connection physical) {
+		try {
+			if (physical.isClosed()) {
+				discarded();
+				return;
+			}
+			if (!physical.getAutoCommit()) {
+				physical.rollback();
+				physical.setAutoCommit(true);
+			}
+		} catch (SQLException ex) {
+			closeQuietly(physical);
+			discarded();
+			return;
+		}
+		synchronized (this) {
+			if (!retired) {
+				idle.offerFirst(new IdleConnection(physical, System.nanoTime()));
+				notifyAll();
+				return;
+			}
+		}
+		closeQuietly(physical);
+		discarded();
+	}
+
+	/**
+	 * Closes the idle connections and those given back later.
+	 */
+	private synchronized void retire() {
+		retired = true;
+		closeIdle(true);
+	}
+
+	private synchronized void discarded() {
+		openCount--;
+		notifyAll();
+	}
+
+	/**
+	 * Closes the idle connections, only the expired ones unless all is true. Called with the lock held.
+	 */
+	private synchronized void closeIdle(final boolean all) {
+		long now = System.nanoTime();
+		Iterator<IdleConnection> iterator = idle.descendingIterator();
+		while (iterator.hasNext()) {
+			IdleConnection candidate = iterator.next();
+			if (!all && now - candidate.since < maxIdleNanos) {
+				// Older connections are at the end of the deque
+				break;
+			}
+			iterator.remove();
+			closeQuietly(candidate.connection);
+			openCount--;
+		}
+	}
+
+	private static void closeQuietly(final Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException ex) {
+			LoggingCategory.getKernel().debug(UserMessage.createInfo("Cannot close connection: " + ex.getMessage()));
+		}
+	}
+
+	public synchronized int getOpenCount() {
+		return openCount;
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	private static final class IdleConnection {
+		private final Connection connection;
+		private final long since;
+
+		private IdleConnection(final Connection connection, final long since) {
+			this.connection = connection;
+			this.since = since;
+		}
+	}
+}
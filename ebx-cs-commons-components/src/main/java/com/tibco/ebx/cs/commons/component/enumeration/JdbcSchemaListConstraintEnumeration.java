@@ -34,16 +34,16 @@ public class JdbcSchemaListConstraintEnumeration extends JdbcAbstractConstraint<
 
 	@Override
 	public List<String> getValues(final ValueContext aContext) throws InvalidSchemaException {
-		try (Connection connection = getConnection(aContext)) {
-			if (connection == null) {
-				return Collections.emptyList();
-			}
-			List<String> values = new ArrayList<>();
-			ResultSet schemas = connection.getMetaData().getSchemas();
-			while (schemas.next()) {
-				values.add(schemas.getString("TABLE_SCHEM"));
-			}
-			return values;
+		try {
+			return getMetadata(aContext, "schemas", metaData -> {
+				List<String> values = new ArrayList<>();
+				try (ResultSet schemas = metaData.getSchemas()) {
+					while (schemas.next()) {
+						values.add(schemas.getString("TABLE_SCHEM"));
+					}
+				}
+				return values;
+			});
 		} catch (Exception ex) {
 			LoggingCategory.getKernel().debug(ex.getMessage());
 			return Collections.emptyList();
@@ -65,16 +65,17 @@ public class JdbcTableListConstraintEnumeration extends JdbcAbstractConstraint<S
 
 	@Override
 	public List<String> getValues(final ValueContext aContext) throws InvalidSchemaException {
-		try (Connection connection = getConnection(aContext)) {
-			if (connection == null) {
-				return Collections.emptyList();
-			}
-			List<String> values = new ArrayList<>();
-			ResultSet schemas = connection.getMetaData().getTables(null, getSchema(aContext), null, null);
-			while (schemas.next()) {
-				values.add(schemas.getString("TABLE_NAME"));
-			}
-			return values;
+		String schema = getSchema(aContext);
+		try {
+			return getMetadata(aContext, "tables|" + schema, metaData -> {
+				List<String> values = new ArrayList<>();
+				try (ResultSet tables = metaData.getTables(null, schema, null, null)) {
+					while (tables.next()) {
+						values.add(tables.getString("TABLE_NAME"));
+					}
+				}
+				return values;
+			});
 		} catch (Exception ex) {
 			return Collections.emptyList();
 		}
@@ -0,0 +1,313 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.enumeration;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationHome;
+import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.PrimaryKey;
+import com.onwbp.adaptation.RequestResult;
+import com.orchestranetworks.service.ProcedureContext;
+import com.orchestranetworks.service.Session;
+import com.tibco.ebx.cs.commons.lib.utils.AfterCommit;
+import com.tibco.ebx.cs.commons.lib.utils.DataspaceScopedCache;
+
+/**
+ * In-memory index of the primary keys and labels of a table in a dataspace, used by {@link AbstractRecordInTableConstraintEnumeration} to avoid scanning the table each time
+ * the values are listed or checked.
+ * <p>
+ * The keys are read once, then kept current by {@link com.tibco.ebx.cs.commons.component.trigger.RecordKeyIndexTrigger}, which must be declared on the table. Labels are
+ * computed on first display, per locale, and forgotten when their record is modified.
+ * </p>
+ * <p>
+ * The index only keeps what has been committed. A record created, modified or deleted by a transaction is volatile until the transaction has ended: it is checked against the table
+ * as seen by the caller, possibly with uncommitted updates, and neither its key nor its label is kept. Once the transaction has been committed or rolled back, the key is checked
+ * again against the table and kept if the record exists. Created keys are only listed once their record has been found in the table, deleted keys are not listed while their
+ * deletion is in progress. A key missing from the index is always checked against the table. The index is rebuilt when too many keys have been removed.
+ * </p>
+ * <p>
+ * Merges and reverts do not execute table triggers. The indexes of a dataspace are dropped when it is closed, deleted or merged into by
+ * {@link com.tibco.ebx.cs.commons.lib.utils.HomeUtils}, and the code merging or reverting a dataspace by other means must call {@link #invalidate(AdaptationHome)}. Labels
+ * depending on other tables are not refreshed when those tables change.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class RecordKeyIndex {
+
+	private static final long MIN_STALE_ENTRIES_BEFORE_REBUILD = 1000;
+
+	private static final DataspaceScopedCache<RecordKeyIndex> INDEXES = new DataspaceScopedCache<>();
+
+	/** Indexes updated by the transactions in progress */
+	private static final Map<ProcedureContext, Set<RecordKeyIndex>> TRANSACTIONS = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private Set<String> keys;
+	private NavigableSet<String> sortedKeys;
+	private final Set<String> createdKeys = new HashSet<>();
+	private final Map<Locale, Map<String, String>> labels = new HashMap<>();
+	private long staleEntries;
+
+	/** Records updated by a transaction which may not have ended, with the transaction */
+	private final Map<String, WeakReference<ProcedureContext>> volatileKeys = new HashMap<>();
+
+	private RecordKeyIndex() {
+	}
+
+	/**
+	 * Gets the index of a table, creating it empty if needed. The index is built on first query.
+	 *
+	 * @param pTable the table in its dataspace
+	 * @return the index
+	 */
+	public static RecordKeyIndex getIndex(final AdaptationTable pTable) {
+		return INDEXES.get(pTable.getContainerAdaptation().getHome(), getKey(pTable), k -> new RecordKeyIndex());
+	}
+
+	/**
+	 * Gets the index of a table if it exists.
+	 *
+	 * @param pTable the table in its dataspace
+	 * @return the index or null
+	 */
+	public static RecordKeyIndex lookupIndex(final AdaptationTable pTable) {
+		return INDEXES.lookup(pTable.getContainerAdaptation().getHome(), getKey(pTable));
+	}
+
+	/**
+	 * Drops the indexes of a dataspace, to be called after it has been merged into or reverted by other means than {@link com.tibco.ebx.cs.commons.lib.utils.HomeUtils}.
+	 *
+	 * @param pDataspace the dataspace
+	 */
+	public static void invalidate(final AdaptationHome pDataspace) {
+		INDEXES.invalidate(pDataspace);
+	}
+
+	/**
+	 * Drops all indexes.
+	 */
+	public static void invalidateAll() {
+		INDEXES.clear();
+	}
+
+	/**
+	 * Makes the records updated by a transaction stable again once it has ended. To be called before the commit.
+	 *
+	 * @param pContext the transaction
+	 * @param pSession the session executing the transaction
+	 */
+	public static void endTransaction(final ProcedureContext pContext, final Session pSession) {
+		Set<RecordKeyIndex> indexes = TRANSACTIONS.remove(pContext);
+		if (indexes == null) {
+			return;
+		}
+		AfterCommit.execute(pContext.getAdaptationHome(), pSession, () -> {
+			for (RecordKeyIndex index : indexes) {
+				index.ended(pContext);
+			}
+		});
+	}
+
+	private static String getKey(final AdaptationTable pTable) {
+		return pTable.getContainerAdaptation().getAdaptationName().getStringName() + "|" + pTable.getTablePath().format();
+	}
+
+	/**
+	 * Tells whether a record exists in the table.
+	 *
+	 * @param pTable the table
+	 * @param pKey   the formatted primary key
+	 * @return true if the record exists
+	 */
+	public synchronized boolean contains(final AdaptationTable pTable, final String pKey) {
+		this.build(pTable);
+		if (this.volatileKeys.containsKey(pKey)) {
+			return pTable.lookupAdaptationByPrimaryKey(PrimaryKey.parseString(pKey)) != null;
+		}
+		return this.keys.contains(pKey) || this.resolve(pTable, pKey);
+	}
+
+	/**
+	 * Lists the primary keys of the table in their natural order.
+	 *
+	 * @param pTable  the table
+	 * @param pPrefix the prefix of the keys, null or empty for all
+	 * @param pOffset the number of keys to skip
+	 * @param pLimit  the maximum number of keys, negative for all
+	 * @return the formatted primary keys
+	 */
+	public synchronized List<String> getKeys(final AdaptationTable pTable, final String pPrefix, final int pOffset, final int pLimit) {
+		this.build(pTable);
+		for (String key : new ArrayList<>(this.createdKeys)) {
+			if (!this.volatileKeys.containsKey(key)) {
+				this.resolve(pTable, key);
+			}
+		}
+		NavigableSet<String> scope = pPrefix == null || pPrefix.isEmpty() ? this.sortedKeys : this.sortedKeys.subSet(pPrefix, true, pPrefix + Character.MAX_VALUE, false);
+		List<String> page = new ArrayList<>(pLimit < 0 ? Math.max(0, scope.size() - pOffset) : Math.min(pLimit, scope.size()));
+		int skipped = 0;
+		for (String key : scope) {
+			if (skipped++ < pOffset) {
+				continue;
+			}
+			if (pLimit >= 0 && page.size() >= pLimit) {
+				break;
+			}
+			page.add(key);
+		}
+		return page;
+	}
+
+	/**
+	 * Gets the label of a record.
+	 *
+	 * @param pTable  the table
+	 * @param pKey    the formatted primary key
+	 * @param pLocale the locale
+	 * @return the label, or the key if the record does not exist
+	 */
+	public synchronized String getLabel(final AdaptationTable pTable, final String pKey, final Locale pLocale) {
+		this.sweepEndedTransactions();
+		Map<String, String> localeLabels = this.labels.computeIfAbsent(pLocale, k -> new HashMap<>());
+		String label = localeLabels.get(pKey);
+		if (label == null) {
+			Adaptation record = pTable.lookupAdaptationByPrimaryKey(PrimaryKey.parseString(pKey));
+			if (record == null) {
+				return pKey;
+			}
+			label = record.getLabel(pLocale);
+			if (!this.volatileKeys.containsKey(pKey)) {
+				localeLabels.put(pKey, label);
+			}
+		}
+		return label;
+	}
+
+	/**
+	 * Registers a record created by a transaction.
+	 *
+	 * @param pContext the transaction
+	 * @param pKey     the formatted primary key
+	 */
+	public synchronized void add(final ProcedureContext pContext, final String pKey) {
+		this.track(pContext, pKey);
+	}
+
+	/**
+	 * Registers a record modified by a transaction, whose labels may have changed.
+	 *
+	 * @param pContext the transaction
+	 * @param pKey     the formatted primary key
+	 */
+	public synchronized void refresh(final ProcedureContext pContext, final String pKey) {
+		this.track(pContext, pKey);
+		this.forgetLabels(pKey);
+	}
+
+	/**
+	 * Registers a record deleted by a transaction.
+	 *
+	 * @param pContext the transaction
+	 * @param pKey     the formatted primary key
+	 */
+	public synchronized void remove(final ProcedureContext pContext, final String pKey) {
+		this.track(pContext, pKey);
+		this.forgetLabels(pKey);
+		this.createdKeys.remove(pKey);
+		if (this.keys != null && this.keys.remove(pKey)) {
+			this.sortedKeys.remove(pKey);
+			this.staleEntries++;
+		}
+	}
+
+	private void track(final ProcedureContext pContext, final String pKey) {
+		this.volatileKeys.put(pKey, new WeakReference<>(pContext));
+		TRANSACTIONS.computeIfAbsent(pContext, context -> Collections.synchronizedSet(new HashSet<>())).add(this);
+	}
+
+	private void forgetLabels(final String pKey) {
+		for (Map<String, String> localeLabels : this.labels.values()) {
+			localeLabels.remove(pKey);
+		}
+	}
+
+	private synchronized void ended(final ProcedureContext pContext) {
+		for (Iterator<Map.Entry<String, WeakReference<ProcedureContext>>> iterator = this.volatileKeys.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<String, WeakReference<ProcedureContext>> entry = iterator.next();
+			if (entry.getValue().get() == pContext) {
+				iterator.remove();
+				this.stabilize(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Makes stable the records of the transactions which have been garbage collected without reaching their commit.
+	 */
+	private void sweepEndedTransactions() {
+		for (Iterator<Map.Entry<String, WeakReference<ProcedureContext>>> iterator = this.volatileKeys.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<String, WeakReference<ProcedureContext>> entry = iterator.next();
+			if (entry.getValue().get() == null) {
+				iterator.remove();
+				this.stabilize(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Forgets what is known of a record updated by a transaction which has ended, so that it is checked again against the table.
+	 */
+	private void stabilize(final String pKey) {
+		this.forgetLabels(pKey);
+		if (this.keys != null) {
+			if (this.keys.remove(pKey)) {
+				this.sortedKeys.remove(pKey);
+			}
+			this.createdKeys.add(pKey);
+		}
+	}
+
+	private void build(final AdaptationTable pTable) {
+		this.sweepEndedTransactions();
+		if (this.keys != null && this.staleEntries <= Math.max(MIN_STALE_ENTRIES_BEFORE_REBUILD, this.keys.size() / 4)) {
+			return;
+		}
+		Set<String> tableKeys = new HashSet<>();
+		RequestResult result = pTable.createRequestResult(null);
+		try {
+			for (Adaptation record; (record = result.nextAdaptation()) != null;) {
+				tableKeys.add(record.getOccurrencePrimaryKey().format());
+			}
+		} finally {
+			result.close();
+		}
+		this.keys = tableKeys;
+		this.sortedKeys = new TreeSet<>(tableKeys);
+		this.createdKeys.clear();
+		this.staleEntries = 0;
+	}
+
+	private boolean resolve(final AdaptationTable pTable, final String pKey) {
+		this.createdKeys.remove(pKey);
+		if (pTable.lookupAdaptationByPrimaryKey(PrimaryKey.parseString(pKey)) == null) {
+			return false;
+		}
+		this.keys.add(pKey);
+		this.sortedKeys.add(pKey);
+		return true;
+	}
+}
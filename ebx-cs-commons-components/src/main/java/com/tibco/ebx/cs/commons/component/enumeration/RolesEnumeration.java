@@ -11,12 +11,11 @@ import com.orchestranetworks.schema.ConstraintContext;
 import com.orchestranetworks.schema.ConstraintEnumeration;
 import com.orchestranetworks.schema.InvalidSchemaException;
 import com.orchestranetworks.service.Profile;
-import com.orchestranetworks.service.directory.DirectoryHandler;
-import com.orchestranetworks.service.directory.ProfileListContextBridge;
+import com.tibco.ebx.cs.commons.lib.utils.CachedDirectory;
 
 /**
  *
- * Enumerates roles
+ * Enumerates roles, read through the {@link CachedDirectory}
  * 
  * @author Mickaël Chevalier
  *
@@ -29,8 +28,7 @@ public class RolesEnumeration implements ConstraintEnumeration<String> {
 	@Override
 	public void checkOccurrence(final String pValue, final ValueContextForValidation pContext) throws InvalidSchemaException {
 		Profile role = Profile.parse(pValue);
-		DirectoryHandler directory = DirectoryHandler.getInstance(pContext.getHome().getRepository());
-		if (!directory.isProfileDefined(role)) {
+		if (!CachedDirectory.getInstance(pContext.getHome().getRepository()).isProfileDefined(role)) {
 			pContext.addError("Role " + pValue + " does not exist.");
 		}
 	}
@@ -75,8 +73,7 @@ public class RolesEnumeration implements ConstraintEnumeration<String> {
 	@Override
 	public List<String> getValues(final ValueContext aContext) throws InvalidSchemaException {
 		List<String> values = new ArrayList<>();
-		DirectoryHandler directory = DirectoryHandler.getInstance(aContext.getHome().getRepository());
-		for (Profile profile : directory.getProfiles(ProfileListContextBridge.getForWorkflow())) {
+		for (Profile profile : CachedDirectory.getInstance(aContext.getHome().getRepository()).getProfiles()) {
 			if (profile.isBuiltInEveryone() && this.includeEveryone) {
 				values.add(profile.format());
 			}
@@ -19,10 +19,10 @@ import com.orchestranetworks.schema.InvalidSchemaException;
 import com.orchestranetworks.service.Profile;
 import com.orchestranetworks.service.Role;
 import com.orchestranetworks.service.UserReference;
-import com.orchestranetworks.service.directory.DirectoryHandler;
+import com.tibco.ebx.cs.commons.lib.utils.CachedDirectory;
 
 /**
- * This constraint enumeration can be used to create a selection field for choosing a user
+ * This constraint enumeration can be used to create a selection field for choosing a user. The directory is read through the {@link CachedDirectory}.
  * 
  * @author Mickaël Chevalier
  */
@@ -36,7 +36,7 @@ public class UserConstraintEnumeration implements ConstraintEnumeration<String>
 	public void checkOccurrence(final String aValue, final ValueContextForValidation aValidationContext) throws InvalidSchemaException {
 		if (!relaxed) {
 			UserReference user = Profile.forUser(aValue);
-			DirectoryHandler directory = DirectoryHandler.getInstance(aValidationContext.getHome().getRepository());
+			CachedDirectory directory = CachedDirectory.getInstance(aValidationContext.getHome().getRepository());
 			if (!directory.isUserDefined(user)) {
 				aValidationContext.addError("User " + aValue + " does not exist.");
 			}
@@ -65,12 +65,7 @@ public class UserConstraintEnumeration implements ConstraintEnumeration<String>
 	}
 
 	public static String getUserLabel(final Repository repo, final Locale locale, final String userId) {
-		DirectoryHandler directory = DirectoryHandler.getInstance(repo);
-		UserReference user = Profile.forUser(userId);
-		if (directory.isUserDefined(user)) {
-			return directory.displayUser(user, locale);
-		}
-		return user.getLabel();
+		return CachedDirectory.getInstance(repo).displayUser(Profile.forUser(userId), locale);
 	}
 
 	@Override
@@ -80,15 +75,11 @@ public class UserConstraintEnumeration implements ConstraintEnumeration<String>
 		if (curr != null) {
 			result.add(curr);
 		}
-		DirectoryHandler directory = DirectoryHandler.getInstance(aContext.getHome().getRepository());
 		Role role = Profile.EVERYONE;
 		if (roleName != null) {
 			role = Profile.forSpecificRole(roleName);
 		}
-		List<UserReference> users = directory.getUsersInRole(role);
-		for (UserReference user : users) {
-			result.add(user.getUserId());
-		}
+		result.addAll(CachedDirectory.getInstance(aContext.getHome().getRepository()).getUsersInRole(role));
 		return new ArrayList<>(result);
 	}
 
@@ -4,59 +4,71 @@
  */
 package com.tibco.ebx.cs.commons.component.permission;
 
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import com.orchestranetworks.instance.Repository;
 import com.orchestranetworks.service.SessionPermissions;
 import com.orchestranetworks.service.UserReference;
+import com.tibco.ebx.cs.commons.lib.utils.ExpiringCache;
 
 /**
+ * Caches the session permissions of the users.
+ * <p>
+ * Entries expire after {@link #DEFAULT_TIME_TO_LIVE_MINUTES} minutes and the cache holds at most {@link #DEFAULT_MAXIMUM_SIZE} users. Concurrent requests for the same user wait for a
+ * single computation. The invalidation methods should be called when the directory (users, roles, memberships) changes.
+ * </p>
+ *
  * @author Mickaël Chevalier
  */
 public class DefaultPermissionsUserManager implements PermissionsUserManager {
-	// Use a soft reference so that EBX can claim the memory used by this cache if needed
-	private static SoftReference<DefaultPermissionsUserManager> instanceRef;
 
-	private final Map<UserReference, SessionPermissions> userSessionPermissions = new HashMap<>();
+	public static final long DEFAULT_TIME_TO_LIVE_MINUTES = 10;
+	public static final int DEFAULT_MAXIMUM_SIZE = 10000;
+
+	private static final DefaultPermissionsUserManager INSTANCE = new DefaultPermissionsUserManager();
+
+	private final ExpiringCache<UserReference, SessionPermissions> userSessionPermissions = new ExpiringCache<>(DEFAULT_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES,
+			DEFAULT_MAXIMUM_SIZE);
 
 	public static DefaultPermissionsUserManager getInstance() {
-		// Get the object referenced by the soft reference
-		DefaultPermissionsUserManager instance = instanceRef == null ? null : instanceRef.get();
-		// If it's null (it's either never been initiated or the garbage collector cleaned it up)
-		// then create a new instance of the class and store it in the soft reference
-		if (instance == null) {
-			synchronized (DefaultPermissionsUserManager.class) {
-				instance = new DefaultPermissionsUserManager();
-				instanceRef = new SoftReference<>(instance);
-			}
-		}
-		return instance;
+		return INSTANCE;
 	}
 
 	@Override
 	public final SessionPermissions getSessionPermissions(final Repository repo, final UserReference user) {
-		SessionPermissions permissions = userSessionPermissions.get(user);
-		if (permissions == null) {
-			permissions = refreshCache(repo, user);
-		}
-		return permissions;
+		return this.userSessionPermissions.get(user, repo::createSessionPermissionsForUser);
 	}
 
+	/**
+	 * Removes the cached permissions of a user, for instance when their roles change.
+	 *
+	 * @param user the user
+	 */
+	public final void invalidate(final UserReference user) {
+		this.userSessionPermissions.invalidate(user);
+	}
+
+	/**
+	 * Removes all cached permissions, for instance when a role or the directory changes.
+	 */
 	public final void clearCache() {
-		synchronized (userSessionPermissions) {
-			userSessionPermissions.clear();
-		}
+		this.userSessionPermissions.invalidateAll();
 	}
 
-	private SessionPermissions refreshCache(final Repository repo, final UserReference user) {
-		SessionPermissions permissions = repo.createSessionPermissionsForUser(user);
+	public final int getCacheSize() {
+		return this.userSessionPermissions.size();
+	}
+
+	public final long getHitCount() {
+		return this.userSessionPermissions.getHitCount();
+	}
+
+	public final long getMissCount() {
+		return this.userSessionPermissions.getMissCount();
+	}
 
-		synchronized (userSessionPermissions) {
-			userSessionPermissions.put(user, permissions);
-		}
-		return permissions;
+	public final long getEvictionCount() {
+		return this.userSessionPermissions.getEvictionCount();
 	}
 
 	private DefaultPermissionsUserManager() {
@@ -1,7 +1,12 @@
 /* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
 package com.tibco.ebx.cs.commons.component.permission;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import com.onwbp.adaptation.Adaptation;
 import com.onwbp.adaptation.AdaptationHome;
@@ -16,16 +21,33 @@ import com.orchestranetworks.service.AccessRule;
 import com.orchestranetworks.service.Profile;
 import com.orchestranetworks.service.Session;
 import com.orchestranetworks.service.SessionPermissions;
+import com.orchestranetworks.service.UserReference;
+import com.tibco.ebx.cs.commons.lib.utils.ExpiringCache;
 
 /**
  * Constructed with the name of a dataSpace and a dataSet as well as an instance of MasterAccessRulePathConfig which is used to determine the permission path as well as other dynamic settings, such as
  * the name of the table on which to access the various dynamic values (including xpath predicate to determine if this rule is applicable for a given record and/or user), this access rule can be used
  * to create permissions that are dynamic, based on values in a reference table.
+ * <p>
+ * The permission table is read once into a snapshot, in which the rules applicable to each dataset and table are indexed on first use. The snapshot is dropped by
+ * {@link #invalidate(String, String)}, called by {@link com.tibco.ebx.cs.commons.component.trigger.ClearMasterAccessRuleCacheTrigger} once a change of the permission table has been committed,
+ * and expires after five minutes to take merges into account. Session permissions of the permission users are cached by {@link DefaultPermissionsUserManager}.
+ * </p>
  * 
  * @see MasterAccessRulePathConfig
  * @author Mickaël Chevalier
  */
 public final class MasterAccessRule implements AccessRule {
+	/** Maximum age of a snapshot, as merges into the permission dataspace do not execute the invalidation trigger */
+	private static final long SNAPSHOT_TIME_TO_LIVE_MINUTES = 5;
+
+	private static final int MAX_SNAPSHOTS = 100;
+
+	private static final ExpiringCache<String, PermissionSnapshot> SNAPSHOTS = new ExpiringCache<>(SNAPSHOT_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES, MAX_SNAPSHOTS);
+
+	/** Rules concerning the last record evaluated by the current thread, as permissions are asked node by node. Only weakly references the record, the session and the snapshot. */
+	private static final ThreadLocal<RecordRules> LAST_RECORD_RULES = new ThreadLocal<>();
+
 	private final String dataSpaceName;
 	private final String dataSetName;
 	private final MasterAccessRulePathConfig pathConfig;
@@ -36,73 +58,174 @@ public final class MasterAccessRule implements AccessRule {
 		this.pathConfig = pathConfig;
 	}
 
+	/**
+	 * Drops the snapshots of the permission tables of a dataset, to be called when they change.
+	 *
+	 * @param pDataSpaceName the dataspace of the permission table
+	 * @param pDataSetName   the dataset of the permission table
+	 * @see com.tibco.ebx.cs.commons.component.trigger.ClearMasterAccessRuleCacheTrigger
+	 */
+	public static void invalidate(final String pDataSpaceName, final String pDataSetName) {
+		String prefix = pDataSpaceName + "|" + pDataSetName + "|";
+		SNAPSHOTS.invalidateIf(key -> key.startsWith(prefix));
+	}
+
+	/**
+	 * Drops all snapshots.
+	 */
+	public static void invalidateAll() {
+		SNAPSHOTS.invalidateAll();
+	}
+
 	@Override
 	public final AccessPermission getPermission(final Adaptation aAdaptation, final Session aSession, final SchemaNode aNode) {
 		final AdaptationHome home = aAdaptation.getHome();
 		final Repository repository = home.getRepository();
-		AdaptationHome apHome = repository.lookupHome(HomeKey.forBranchName(this.dataSpaceName));
-		if (apHome == null) {
+		PermissionSnapshot snapshot = this.getSnapshot(repository);
+		if (snapshot == null) {
 			return AccessPermission.getReadWrite();
 		}
-		final Adaptation apInstance = apHome.findAdaptationOrNull(AdaptationName.forName(this.dataSetName));
-		if (apInstance == null) {
-			return AccessPermission.getReadWrite();
-		}
-		final AdaptationTable apTable = apInstance.getTable(this.pathConfig.getAccessPermissionPath());
-		String predicate = this.getPredicateForAccessPermission(aAdaptation, home);
 
-		Adaptation ap = null;
 		AccessPermission accessPermission = AccessPermission.getReadWrite();
-		AccessPermission dynamicAccessPermission = null;
-		SessionPermissions sessionPermissions = null;
-		String user = null;
-		RequestResult result = apTable.createRequestResult(predicate);
-		try {
-			while ((ap = result.nextAdaptation()) != null) {
-				if (!this.isAdaptationConcerned(ap, aAdaptation)) {
-					continue;
-				}
-				if (!this.isUserConcerned(ap, aSession)) {
-					continue;
-				}
-				user = ap.getString(this.pathConfig.getAccessPermissionPermissionPath());
-				sessionPermissions = repository.createSessionPermissionsForUser(Profile.forUser(user));
-				dynamicAccessPermission = sessionPermissions.getNodeAccessPermission(aNode, aAdaptation);
-				accessPermission = accessPermission.min(dynamicAccessPermission);
-			}
-		} finally {
-			result.close();
+		for (PermissionRule rule : this.getConcernedRules(snapshot, aAdaptation, aSession)) {
+			SessionPermissions sessionPermissions = DefaultPermissionsUserManager.getInstance().getSessionPermissions(repository, rule.user);
+			AccessPermission dynamicAccessPermission = sessionPermissions.getNodeAccessPermission(aNode, aAdaptation);
+			accessPermission = accessPermission.min(dynamicAccessPermission);
 		}
-
 		return accessPermission;
 	}
 
-	private String getPredicateForAccessPermission(final Adaptation aAdaptation, final AdaptationHome aHome) {
-		StringBuilder predicate = new StringBuilder();
-		predicate.append("(").append(this.pathConfig.getAccessPermissionDataSpacePath().format()).append(" = '").append(aHome.getKey().getName()).append("' or osd:is-null(")
-				.append(this.pathConfig.getAccessPermissionDataSpacePath().format()).append(")) and (osd:is-null(").append(this.pathConfig.getAccessPermissionDataSetPath().format()).append(") or ")
-				.append(this.pathConfig.getAccessPermissionDataSetPath().format());
-		if (aAdaptation.isSchemaInstance()) {
-			predicate.append(" = '").append(aAdaptation.getAdaptationName().getStringName()).append("')");
-		} else {
-			predicate.append(" = '").append(aAdaptation.getContainer().getAdaptationName().getStringName()).append("') and ").append(this.pathConfig.getAccessPermissionTablePath().format())
-					.append(" = '").append(aAdaptation.getContainerTable().getTablePath().format()).append("'");
+	private PermissionSnapshot getSnapshot(final Repository pRepository) {
+		String key = this.dataSpaceName + "|" + this.dataSetName + "|" + this.pathConfig.getAccessPermissionPath().format();
+		return SNAPSHOTS.get(key, k -> {
+			AdaptationHome apHome = pRepository.lookupHome(HomeKey.forBranchName(this.dataSpaceName));
+			if (apHome == null) {
+				return null;
+			}
+			final Adaptation apInstance = apHome.findAdaptationOrNull(AdaptationName.forName(this.dataSetName));
+			if (apInstance == null) {
+				return null;
+			}
+			return new PermissionSnapshot(apInstance.getTable(this.pathConfig.getAccessPermissionPath()), this.pathConfig);
+		});
+	}
+
+	private List<PermissionRule> getConcernedRules(final PermissionSnapshot pSnapshot, final Adaptation aAdaptation, final Session aSession) {
+		RecordRules last = LAST_RECORD_RULES.get();
+		if (last != null && last.record.get() == aAdaptation && last.session.get() == aSession && last.snapshot.get() == pSnapshot) {
+			return last.rules;
 		}
-		return predicate.toString();
+		List<PermissionRule> concerned = new ArrayList<>();
+		for (PermissionRule rule : pSnapshot.getRulesFor(aAdaptation)) {
+			if (aAdaptation.matches(rule.condition) && rule.isUserConcerned(aSession)) {
+				concerned.add(rule);
+			}
+		}
+		LAST_RECORD_RULES.set(new RecordRules(aAdaptation, aSession, pSnapshot, concerned));
+		return concerned;
 	}
 
-	private boolean isAdaptationConcerned(final Adaptation ap, final Adaptation aAdaptation) {
-		final String condition = ap.getString(this.pathConfig.getAccessPermissionConditionPath());
-		return aAdaptation.matches(condition);
+	/**
+	 * Content of a permission table, with the rules applicable to each dataset and table computed on demand.
+	 */
+	private static final class PermissionSnapshot {
+		private final List<PermissionRule> rules = new ArrayList<>();
+		private final Map<String, List<PermissionRule>> rulesByTarget = new ConcurrentHashMap<>();
+
+		private PermissionSnapshot(final AdaptationTable pTable, final MasterAccessRulePathConfig pPathConfig) {
+			RequestResult result = pTable.createRequestResult(null);
+			try {
+				Adaptation ap;
+				while ((ap = result.nextAdaptation()) != null) {
+					this.rules.add(new PermissionRule(ap, pPathConfig));
+				}
+			} finally {
+				result.close();
+			}
+		}
+
+		private List<PermissionRule> getRulesFor(final Adaptation aAdaptation) {
+			final String dataSpace = aAdaptation.getHome().getKey().getName();
+			final String dataSet;
+			final String table;
+			if (aAdaptation.isSchemaInstance()) {
+				dataSet = aAdaptation.getAdaptationName().getStringName();
+				table = null;
+			} else {
+				dataSet = aAdaptation.getContainer().getAdaptationName().getStringName();
+				table = aAdaptation.getContainerTable().getTablePath().format();
+			}
+			return this.rulesByTarget.computeIfAbsent(dataSpace + "|" + dataSet + "|" + table, key -> {
+				List<PermissionRule> applicable = new ArrayList<>();
+				for (PermissionRule rule : this.rules) {
+					if (rule.appliesTo(dataSpace, dataSet, table)) {
+						applicable.add(rule);
+					}
+				}
+				return applicable;
+			});
+		}
 	}
 
-	private boolean isUserConcerned(final Adaptation ap, final Session aSession) {
-		final List<String> roles = ap.getList(this.pathConfig.getAccessPermissionRolePath());
-		for (String role : roles) {
-			if (aSession.isUserInRole(Profile.forSpecificRole(role))) {
-				return true;
+	/**
+	 * Row of the permission table.
+	 */
+	private static final class PermissionRule {
+		private final String dataSpace;
+		private final String dataSet;
+		private final String table;
+		private final String condition;
+		private final List<Profile> roles = new ArrayList<>();
+		private final UserReference user;
+
+		private PermissionRule(final Adaptation ap, final MasterAccessRulePathConfig pPathConfig) {
+			this.dataSpace = ap.getString(pPathConfig.getAccessPermissionDataSpacePath());
+			this.dataSet = ap.getString(pPathConfig.getAccessPermissionDataSetPath());
+			this.table = ap.getString(pPathConfig.getAccessPermissionTablePath());
+			this.condition = ap.getString(pPathConfig.getAccessPermissionConditionPath());
+			final List<String> roleNames = ap.getList(pPathConfig.getAccessPermissionRolePath());
+			if (roleNames != null) {
+				for (String role : roleNames) {
+					this.roles.add(Profile.forSpecificRole(role));
+				}
 			}
+			this.user = Profile.forUser(ap.getString(pPathConfig.getAccessPermissionPermissionPath()));
+		}
+
+		/**
+		 * Same semantics as the former XPath predicate: a null dataspace or dataset matches any, the table must match for records.
+		 */
+		private boolean appliesTo(final String pDataSpace, final String pDataSet, final String pTable) {
+			if (this.dataSpace != null && !this.dataSpace.equals(pDataSpace)) {
+				return false;
+			}
+			if (this.dataSet != null && !this.dataSet.equals(pDataSet)) {
+				return false;
+			}
+			return pTable == null || pTable.equals(this.table);
+		}
+
+		private boolean isUserConcerned(final Session aSession) {
+			for (Profile role : this.roles) {
+				if (aSession.isUserInRole(role)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class RecordRules {
+		private final WeakReference<Adaptation> record;
+		private final WeakReference<Session> session;
+		private final WeakReference<PermissionSnapshot> snapshot;
+		private final List<PermissionRule> rules;
+
+		private RecordRules(final Adaptation pRecord, final Session pSession, final PermissionSnapshot pSnapshot, final List<PermissionRule> pRules) {
+			this.record = new WeakReference<>(pRecord);
+			this.session = new WeakReference<>(pSession);
+			this.snapshot = new WeakReference<>(pSnapshot);
+			this.rules = pRules;
 		}
-		return false;
 	}
 }
@@ -2,12 +2,19 @@
 package com.tibco.ebx.cs.commons.component.scheduledtask;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.onwbp.adaptation.AdaptationHome;
 import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.Request;
+import com.orchestranetworks.instance.HomeKey;
+import com.orchestranetworks.instance.ValueContextForValidation;
 import com.orchestranetworks.scheduler.ScheduledExecutionContext;
 import com.orchestranetworks.scheduler.ScheduledTask;
 import com.orchestranetworks.scheduler.ScheduledTaskInterruption;
@@ -16,6 +23,7 @@ import com.orchestranetworks.service.OperationException;
 import com.orchestranetworks.service.ProcedureResult;
 import com.orchestranetworks.service.ProgrammaticService;
 import com.tibco.ebx.cs.commons.lib.exception.EBXResourceNotFoundException;
+import com.tibco.ebx.cs.commons.lib.procedure.CSVStreamExporter;
 import com.tibco.ebx.cs.commons.lib.procedure.ExportCSVProcedure;
 import com.tibco.ebx.cs.commons.lib.utils.AdaptationUtils;
 import com.tibco.ebx.cs.commons.lib.utils.SchedulerUtils;
@@ -31,6 +39,10 @@ import com.tibco.ebx.cs.commons.lib.utils.SchedulerUtils;
  *
  *         A command line can be ran after the export.
  *
+ *         When tablePaths is set, the tables are streamed in parallel by at most threadMax threads, to fileLocation/filePrefix{tableName}[date{dateFormat}].fileExtension. To get
+ *         consistent files, the tables can be read from a snapshot of the data space. Views and technical data are not supported in this mode, nor with gzip: such a configuration
+ *         is rejected.
+ *
  *         Parameters are :
  *
  *         <ul>
@@ -49,6 +61,11 @@ import com.tibco.ebx.cs.commons.lib.utils.SchedulerUtils;
  *         <li>includeTechnicalData</li>
  *         <li>xpathFilter</li>
  *         <li>view</li>
+ *         <li>streaming</li>
+ *         <li>gzip</li>
+ *         <li>tablePaths</li>
+ *         <li>snapshot</li>
+ *         <li>threadMax</li>
  *         </ul>
  */
 public class ExportCSVScheduledTask extends ScheduledTask {
@@ -98,13 +115,38 @@ public class ExportCSVScheduledTask extends ScheduledTask {
 	/** The view to apply before exporting. */
 	private String view;
 
+	/** If true, records are written on the fly. Default is false. */
+	private boolean streaming = false;
+
+	/** If true, files are gzip compressed. Default is false. */
+	private boolean gzip = false;
+
+	/** The paths of the tables to export in parallel, separated by commas. */
+	private String tablePaths;
+
+	/** The snapshot of the data space to read the tables from. */
+	private String snapshot;
+
+	/** The maximum number of tables exported at the same time. Default is 4. */
+	private int threadMax = 4;
+
 	/**
 	 * Builds the file name.
 	 *
 	 * @return the string
 	 */
 	private String buildFileName() {
-		String fileName = this.filePrefix;
+		return this.buildFileName(this.filePrefix);
+	}
+
+	/**
+	 * Builds the file name.
+	 *
+	 * @param pPrefix the prefix of the file
+	 * @return the string
+	 */
+	private String buildFileName(final String pPrefix) {
+		String fileName = pPrefix;
 
 		Date date = new Date();
 		if (this.dateFormat != null) {
@@ -113,6 +155,9 @@ public class ExportCSVScheduledTask extends ScheduledTask {
 		}
 
 		fileName += "." + this.fileExtension;
+		if (this.gzip) {
+			fileName += ".gz";
+		}
 		return fileName;
 	}
 
@@ -136,6 +181,15 @@ public class ExportCSVScheduledTask extends ScheduledTask {
 			return;
 		}
 
+		if ((StringUtils.isNotBlank(this.tablePaths) || this.gzip) && (StringUtils.isNotEmpty(this.view) || this.includeTechnicalData)) {
+			throw OperationException.createError("view and includeTechnicalData are not supported with tablePaths or gzip.");
+		}
+
+		if (StringUtils.isNotBlank(this.tablePaths)) {
+			this.exportTables(pContext);
+			return;
+		}
+
 		File file = new File(this.fileLocation + "/" + fileName);
 
 		try {
@@ -159,6 +213,65 @@ public class ExportCSVScheduledTask extends ScheduledTask {
 		}
 	}
 
+	@Override
+	public void validate(final ValueContextForValidation pContext) {
+		if ((StringUtils.isNotBlank(this.tablePaths) || this.gzip) && (StringUtils.isNotEmpty(this.view) || this.includeTechnicalData)) {
+			pContext.addError("view and includeTechnicalData are not supported with tablePaths or gzip.");
+		}
+	}
+
+	/**
+	 * Exports the tables of tablePaths in parallel.
+	 *
+	 * @param pContext the context
+	 * @throws OperationException if the command line fails
+	 */
+	private void exportTables(final ScheduledExecutionContext pContext) throws OperationException {
+		try {
+			AdaptationHome home = AdaptationUtils.getDataspace(pContext.getRepository(), this.dataSpace);
+			if (StringUtils.isNotEmpty(this.snapshot)) {
+				home = pContext.getRepository().lookupHome(HomeKey.forVersionName(this.snapshot));
+				if (home == null) {
+					pContext.setExecutionInformation("Snapshot '" + this.snapshot + "' does not exist.");
+					return;
+				}
+			}
+			List<Request> requests = new ArrayList<>();
+			List<File> files = new ArrayList<>();
+			for (String path : this.tablePaths.split(",")) {
+				AdaptationTable table = AdaptationUtils.getTable(home, this.dataSet, Path.parse(path.trim()));
+				Request request = table.createRequest();
+				request.setXPathFilter(this.xpathFilter);
+				requests.add(request);
+				String prefix = StringUtils.defaultString(this.filePrefix) + table.getTablePath().getLastStep().format();
+				files.add(new File(this.fileLocation + "/" + this.buildFileName(prefix)));
+			}
+
+			CSVStreamExporter exporter = new CSVStreamExporter();
+			if (StringUtils.isNotEmpty(this.encoding)) {
+				exporter.setEncoding(this.encoding);
+			}
+			if (StringUtils.isNotEmpty(this.fieldSeparator)) {
+				exporter.setFieldSeparator(this.fieldSeparator.charAt(0));
+			}
+			exporter.setIncludeComputedValues(this.includeComputedValues);
+			exporter.setGzip(this.gzip);
+			exporter.setLocale(pContext.getSession().getLocale());
+			if (this.checkAccessRule) {
+				exporter.setSession(pContext.getSession());
+			}
+			for (CSVStreamExporter.TableReport report : exporter.exportAll(requests, files, this.threadMax)) {
+				pContext.addExecutionInformation(report.toString());
+			}
+
+			if (StringUtils.isNotEmpty(this.commandLine)) {
+				SchedulerUtils.executeCommandLine(pContext, this.commandLine);
+			}
+		} catch (EBXResourceNotFoundException | IOException ex) {
+			pContext.setExecutionInformation(ex.getMessage());
+		}
+	}
+
 	/**
 	 * Gets the command line.
 	 *
@@ -192,6 +305,8 @@ public class ExportCSVScheduledTask extends ScheduledTask {
 		if (StringUtils.isNotEmpty(this.view)) {
 			proc.setView(this.view);
 		}
+		proc.setStreaming(this.streaming);
+		proc.setGzip(this.gzip);
 		return proc;
 	}
 
@@ -455,4 +570,94 @@ public class ExportCSVScheduledTask extends ScheduledTask {
 	public void setXpathFilter(final String xpathFilter) {
 		this.xpathFilter = xpathFilter;
 	}
+
+	/**
+	 * Gets the snapshot.
+	 *
+	 * @return the snapshot
+	 */
+	public String getSnapshot() {
+		return this.snapshot;
+	}
+
+	/**
+	 * Gets the table paths.
+	 *
+	 * @return the table paths
+	 */
+	public String getTablePaths() {
+		return this.tablePaths;
+	}
+
+	/**
+	 * Gets the maximum number of tables exported at the same time.
+	 *
+	 * @return the thread max
+	 */
+	public int getThreadMax() {
+		return this.threadMax;
+	}
+
+	/**
+	 * Checks if files are gzip compressed.
+	 *
+	 * @return true, if files are gzip compressed
+	 */
+	public boolean isGzip() {
+		return this.gzip;
+	}
+
+	/**
+	 * Checks if the export is streamed.
+	 *
+	 * @return true, if the export is streamed
+	 */
+	public boolean isStreaming() {
+		return this.streaming;
+	}
+
+	/**
+	 * Sets gzip compression.
+	 *
+	 * @param gzip the new gzip
+	 */
+	public void setGzip(final boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Sets the snapshot to read the tables from.
+	 *
+	 * @param snapshot the new snapshot
+	 */
+	public void setSnapshot(final String snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Sets the streaming.
+	 *
+	 * @param streaming the new streaming
+	 */
+	public void setStreaming(final boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * Sets the paths of the tables to export in parallel, separated by commas.
+	 *
+	 * @param tablePaths the new table paths
+	 */
+	public void setTablePaths(final String tablePaths) {
+		this.tablePaths = tablePaths;
+	}
+
+	/**
+	 * Sets the maximum number of tables exported at the same time.
+	 *
+	 * @param threadMax the new thread max
+	 */
+	public void setThreadMax(final int threadMax) {
+		this.threadMax = threadMax;
+	}
 }
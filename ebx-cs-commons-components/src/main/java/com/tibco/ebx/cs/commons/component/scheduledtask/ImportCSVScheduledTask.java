@@ -2,6 +2,7 @@
 package com.tibco.ebx.cs.commons.component.scheduledtask;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -13,9 +14,8 @@ import com.orchestranetworks.scheduler.ScheduledTask;
 import com.orchestranetworks.scheduler.ScheduledTaskInterruption;
 import com.orchestranetworks.schema.Path;
 import com.orchestranetworks.service.OperationException;
-import com.orchestranetworks.service.ProcedureResult;
-import com.orchestranetworks.service.ProgrammaticService;
 import com.tibco.ebx.cs.commons.lib.exception.EBXResourceNotFoundException;
+import com.tibco.ebx.cs.commons.lib.procedure.CSVImportPipeline;
 import com.tibco.ebx.cs.commons.lib.procedure.ImportCSVProcedure;
 import com.tibco.ebx.cs.commons.lib.utils.AdaptationUtils;
 import com.tibco.ebx.cs.commons.lib.utils.SchedulerUtils;
@@ -31,6 +31,9 @@ import com.tibco.ebx.cs.commons.lib.utils.SchedulerUtils;
  *
  *         A command line can be ran after the import.
  *
+ *         The file is imported by chunks of chunkSize records, each chunk being committed by its own transaction. The rows which cannot be imported are written to
+ *         fileLocation/filePrefix[date{dateFormat}].fileExtension.rejected with the reason of the reject.
+ *
  *         Parameters are :
  *
  *         <ul>
@@ -44,6 +47,7 @@ import com.tibco.ebx.cs.commons.lib.utils.SchedulerUtils;
  *         <li>commandLine</li>
  *         <li>encoding</li>
  *         <li>fieldSeparator</li>
+ *         <li>chunkSize</li>
  *         </ul>
  */
 public class ImportCSVScheduledTask extends ScheduledTask {
@@ -78,6 +82,9 @@ public class ImportCSVScheduledTask extends ScheduledTask {
 	/** The field separator. */
 	private String fieldSeparator = ",";
 
+	/** The number of records committed at once. */
+	private int chunkSize = CSVImportPipeline.DEFAULT_CHUNK_SIZE;
+
 	/**
 	 * Builds the file name.
 	 *
@@ -115,7 +122,7 @@ public class ImportCSVScheduledTask extends ScheduledTask {
 
 		File folder = new File(this.fileLocation);
 
-		if (!folder.exists() || folder.isDirectory()) {
+		if (!folder.exists() || !folder.isDirectory()) {
 			pContext.setExecutionInformation("Folder '" + this.fileLocation + "' does not exist or is not a repository.");
 			return;
 		}
@@ -129,14 +136,15 @@ public class ImportCSVScheduledTask extends ScheduledTask {
 		AdaptationTable table;
 		try {
 			table = AdaptationUtils.getTable(pContext.getRepository(), this.dataSpace, this.dataSet, this.pathToTable);
-			ProgrammaticService srv = ProgrammaticService.createForSession(pContext.getSession(), table.getContainerAdaptation().getHome());
-			ImportCSVProcedure proc = this.getConfiguredProcedure(file, table);
-			ProcedureResult result = srv.execute(proc);
-
-			if (result.hasFailed()) {
-				pContext.addExecutionInformation(result.getExceptionFullMessage(pContext.getSession().getLocale()));
-			} else {
-				pContext.addExecutionInformation("File '" + fileName + "' Found and successfully imported.");
+			CSVImportPipeline pipeline = this.getConfiguredProcedure(file, table).inChunks(this.chunkSize);
+			pipeline.setLocale(pContext.getSession().getLocale());
+			pipeline.setRejectFile(new File(file.getPath() + ".rejected"));
+			try {
+				pipeline.execute(pContext.getSession());
+				pContext.addExecutionInformation("File '" + fileName + "' Found and imported: " + pipeline.getImportedRowCount() + " records imported, "
+						+ pipeline.getRejectedRowCount() + " rejected.");
+			} catch (IOException ex) {
+				pContext.addExecutionInformation("Import of file '" + fileName + "' failed after " + pipeline.getCommittedChunkCount() + " chunks: " + ex.getMessage());
 			}
 
 			if (StringUtils.isNotEmpty(this.commandLine)) {
@@ -170,11 +178,20 @@ public class ImportCSVScheduledTask extends ScheduledTask {
 			proc.setEncoding(this.encoding);
 		}
 		if (StringUtils.isNotEmpty(this.fieldSeparator)) {
-			proc.setEncoding(this.fieldSeparator);
+			proc.setFieldSeparator(this.fieldSeparator);
 		}
 		return proc;
 	}
 
+	/**
+	 * Gets the number of records committed at once.
+	 *
+	 * @return the chunk size
+	 */
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+
 	/**
 	 * Gets the data set.
 	 *
@@ -256,6 +273,15 @@ public class ImportCSVScheduledTask extends ScheduledTask {
 		return this.pathToTable;
 	}
 
+	/**
+	 * Sets the number of records committed at once. Default is 1000.
+	 *
+	 * @param chunkSize the new chunk size
+	 */
+	public void setChunkSize(final int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
 	/**
 	 * Sets the command line.
 	 *
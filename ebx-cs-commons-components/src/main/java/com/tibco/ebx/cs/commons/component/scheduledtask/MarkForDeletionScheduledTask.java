@@ -18,6 +18,8 @@ import com.orchestranetworks.scheduler.ScheduledTaskInterruption;
 import com.orchestranetworks.service.LoggingCategory;
 import com.orchestranetworks.service.OperationException;
 import com.orchestranetworks.service.Session;
+import com.tibco.ebx.cs.commons.lib.utils.HomeCollector;
+import com.tibco.ebx.cs.commons.lib.utils.SnapshotRetention;
 
 //TODO To be documented and standardized.
 /**
@@ -25,23 +27,17 @@ import com.orchestranetworks.service.Session;
  * @author US-Team
  *
  *         A scheduled task that marks for deletion closed data spaces older than a specified number of days
+ *
+ *         The closed homes are collected in one pass, then deleted in batches of batchSize, at most maxBatches per execution (0 for no limit). With dryRun, they are only
+ *         logged.
  */
 public class MarkForDeletionScheduledTask extends ScheduledTask {
 	private String parentDataSpace = Repository.REFERENCE.getName();
 	private int daysToKeep;
 	private boolean deleteHistory;
-
-	private void deleteHome(final AdaptationHome home, final Date earlierThanDate, final Session session) throws OperationException {
-		// Only delete if the date it was closed is before the specified date
-		Date closeDate = home.getTerminationDate();
-		if (closeDate != null && closeDate.before(earlierThanDate)) {
-			Repository repo = home.getRepository();
-			repo.deleteHome(home, session);
-			if (this.deleteHistory) {
-				repo.getPurgeDelegate().markHomeForHistoryPurge(home, session);
-			}
-		}
-	}
+	private int batchSize = 100;
+	private int maxBatches;
+	private boolean dryRun;
 
 	@Override
 	public void execute(final ScheduledExecutionContext context) throws OperationException, ScheduledTaskInterruption {
@@ -58,10 +54,18 @@ public class MarkForDeletionScheduledTask extends ScheduledTask {
 		}
 	}
 
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
 	public int getDaysToKeep() {
 		return this.daysToKeep;
 	}
 
+	public int getMaxBatches() {
+		return this.maxBatches;
+	}
+
 	public String getParentDataSpace() {
 		return this.parentDataSpace;
 	}
@@ -70,32 +74,38 @@ public class MarkForDeletionScheduledTask extends ScheduledTask {
 		return this.deleteHistory;
 	}
 
+	public boolean isDryRun() {
+		return this.dryRun;
+	}
+
 	private void markChildrenForDeletion(final Session session, final AdaptationHome dataSpace, final Date earlierThanDate) throws OperationException {
-		List<AdaptationHome> childVersions = dataSpace.getVersionChildren();
-		for (AdaptationHome childVersion : childVersions) {
-			// Skip if it's a technical snapshot
-			if (childVersion.isTechnicalVersion()) {
-				continue;
-			}
-			// If it's open then delete its closed child data spaces
-			if (childVersion.isOpen()) {
-				List<AdaptationHome> childDataSpaces = childVersion.getBranchChildren();
-				for (AdaptationHome childDataSpace : childDataSpaces) {
-					// Skip if it's a technical data space
-					if (childDataSpace.isTechnicalBranch()) {
-						continue;
-					}
-					// If it's open, call this method on its children
-					if (childDataSpace.isOpen()) {
-						this.markChildrenForDeletion(session, childDataSpace, earlierThanDate);
-					} else {
-						this.deleteHome(childDataSpace, earlierThanDate, session);
-					}
-				}
-			} else {
-				this.deleteHome(childVersion, earlierThanDate, session);
-			}
-		}
+		// Only the open homes are walked, a closed home being deleted with its descendants
+		HomeCollector collector = new HomeCollector();
+		collector.setIncludingClosed(true);
+		collector.setPruning(home -> home.isTechnicalBranch() || home.isTechnicalVersion() || isUnderClosedHome(home));
+		int[] scanned = new int[1];
+		collector.setFilter(home -> {
+			scanned[0]++;
+			// Only delete if the date it was closed is before the specified date
+			return !home.isOpen() && home.getTerminationDate() != null && home.getTerminationDate().before(earlierThanDate);
+		});
+		List<AdaptationHome> closedHomes = collector.collectHomes(dataSpace, HomeCollector.ALL_LEVELS);
+
+		SnapshotRetention retention = new SnapshotRetention();
+		retention.setBatchSize(this.batchSize);
+		retention.setMaxBatches(this.maxBatches);
+		retention.setDryRun(this.dryRun);
+		retention.setDeleteHistory(this.deleteHistory);
+		retention.remove(scanned[0], closedHomes, session);
+	}
+
+	private static boolean isUnderClosedHome(final AdaptationHome home) {
+		AdaptationHome parent = home.isBranch() ? home.getParentVersion() : home.getParentBranch();
+		return parent != null && !parent.isOpen();
+	}
+
+	public void setBatchSize(final int batchSize) {
+		this.batchSize = batchSize;
 	}
 
 	public void setDaysToKeep(final int daysToKeep) {
@@ -106,6 +116,14 @@ public class MarkForDeletionScheduledTask extends ScheduledTask {
 		this.deleteHistory = deleteHistory;
 	}
 
+	public void setDryRun(final boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
+	public void setMaxBatches(final int maxBatches) {
+		this.maxBatches = maxBatches;
+	}
+
 	public void setParentDataSpace(final String parentDataSpace) {
 		this.parentDataSpace = parentDataSpace;
 	}
@@ -125,5 +143,11 @@ public class MarkForDeletionScheduledTask extends ScheduledTask {
 		if (this.daysToKeep < 0) {
 			context.addError("daysToKeep parameter must be greater than or equal to 0.");
 		}
+		if (this.batchSize < 1) {
+			context.addError("batchSize parameter must be greater than 0.");
+		}
+		if (this.maxBatches < 0) {
+			context.addError("maxBatches parameter must be greater than or equal to 0.");
+		}
 	}
 }
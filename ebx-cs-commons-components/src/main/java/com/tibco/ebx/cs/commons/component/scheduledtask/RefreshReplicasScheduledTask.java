@@ -4,47 +4,88 @@
  */
 package com.tibco.ebx.cs.commons.component.scheduledtask;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.apache.commons.lang3.StringUtils;
 
-import com.onwbp.adaptation.Adaptation;
-import com.orchestranetworks.instance.Repository;
 import com.orchestranetworks.instance.ValueContextForValidation;
 import com.orchestranetworks.scheduler.ScheduledExecutionContext;
 import com.orchestranetworks.scheduler.ScheduledTask;
 import com.orchestranetworks.scheduler.ScheduledTaskInterruption;
-import com.orchestranetworks.service.Session;
-import com.orchestranetworks.service.extensions.ReplicationUnit;
-import com.orchestranetworks.service.extensions.ReplicationUnitKey;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.service.OperationException;
+import com.tibco.ebx.cs.commons.component.scheduledtask.ReplicaRefreshOrchestrator.Status;
+import com.tibco.ebx.cs.commons.component.scheduledtask.ReplicaRefreshOrchestrator.UnitResult;
 import com.tibco.ebx.cs.commons.lib.exception.EBXResourceNotFoundException;
 import com.tibco.ebx.cs.commons.lib.utils.AdaptationUtils;
 
 /**
  * A scheduled task to refresh replicas for a given dataspace, dataset and replication unit. To specify multiple, use a comma-separated list. The number of data spaces, data sets, and replication unit
  * names must match and be in the right order. (i.e. if you specify two data sets for the same data space, you should repeat the data space twice)
+ * <p>
+ * Replication units are refreshed in parallel, up to threadMax at a time. Ordering constraints are given by dependencies, a comma-separated list of
+ * <tt>unit=dependency1|dependency2</tt>, where a unit is named <tt>dataSpace/dataSet/unit</tt>, or by its name alone when it is used in a single dataset: a unit is refreshed
+ * once its dependencies have been, and skipped if one of them failed. A failed refresh is retried up to maxAttempts times, and cancelled and reported as timed out after
+ * timeoutSeconds. A unit whose previous refresh is still running is not refreshed again. When statusDataSpace, statusDataSet and statusTablePath are set, the duration and status of each unit are written to
+ * that table (see {@link ReplicaRefreshOrchestrator}).
+ * </p>
  */
 public class RefreshReplicasScheduledTask extends ScheduledTask {
 	private static final char SEPARATOR = ',';
+	private static final char DEPENDENCY_SEPARATOR = '|';
 
 	private String dataSpaceName;
 	private String dataSetName;
 	private String replicationUnitName;
+	private String dependencies;
+	private Integer threadMax = Integer.valueOf(4);
+	private Integer timeoutSeconds = Integer.valueOf(0);
+	private Integer maxAttempts = Integer.valueOf(1);
+	private String statusDataSpace;
+	private String statusDataSet;
+	private String statusTablePath;
 
 	@Override
-	public void execute(final ScheduledExecutionContext context) throws ScheduledTaskInterruption {
-		Repository repo = context.getRepository();
-		Session session = context.getSession();
-
+	public void execute(final ScheduledExecutionContext context) throws OperationException, ScheduledTaskInterruption {
 		String[] dataSpaceNameArr = getValueAsArray(this.dataSpaceName);
 		String[] dataSetNameArr = getValueAsArray(this.dataSetName);
 		String[] replicationUnitNameArr = getValueAsArray(this.replicationUnitName);
 
-		for (int i = 0; i < dataSpaceNameArr.length; i++) {
+		ReplicaRefreshOrchestrator orchestrator = new ReplicaRefreshOrchestrator(context.getRepository(), context.getSession());
+		orchestrator.setThreadMax(this.threadMax.intValue());
+		orchestrator.setTimeoutSeconds(this.timeoutSeconds.intValue());
+		orchestrator.setMaxAttempts(this.maxAttempts.intValue());
+		if (this.statusTablePath != null) {
 			try {
-				refreshReplication(dataSpaceNameArr[i], dataSetNameArr[i], replicationUnitNameArr[i], repo, session);
+				orchestrator.setStatusTable(AdaptationUtils.getTable(context.getRepository(), this.statusDataSpace, this.statusDataSet, Path.parse(this.statusTablePath)));
 			} catch (EBXResourceNotFoundException ex) {
-				throw new RuntimeException(ex);
+				throw OperationException.createError(ex);
+			}
+		}
+		for (int i = 0; i < dataSpaceNameArr.length; i++) {
+			orchestrator.addUnit(dataSpaceNameArr[i], dataSetNameArr[i], replicationUnitNameArr[i]);
+		}
+		for (String dependency : getValueAsArray(this.dependencies)) {
+			String unit = StringUtils.substringBefore(dependency, "=").trim();
+			for (String dependsOn : StringUtils.split(StringUtils.substringAfter(dependency, "="), DEPENDENCY_SEPARATOR)) {
+				orchestrator.addDependency(unit, dependsOn.trim());
 			}
 		}
+
+		List<UnitResult> results = orchestrator.refreshAll();
+		StringBuilder failures = new StringBuilder();
+		for (UnitResult result : results) {
+			if (result.getStatus() != Status.SUCCEEDED) {
+				failures.append(System.lineSeparator()).append(result);
+			}
+		}
+		if (failures.length() > 0) {
+			throw OperationException.createError("Some replication units have not been refreshed:" + failures);
+		}
 	}
 
 	@Override
@@ -72,17 +113,63 @@ public class RefreshReplicasScheduledTask extends ScheduledTask {
 			if (dataSpaceNameArr.length != dataSetNameArr.length || dataSpaceNameArr.length != replicationUnitNameArr.length) {
 				context.addError("Number of specified data spaces, data sets, and replication units must match.");
 			}
+			if (dataSpaceNameArr.length == dataSetNameArr.length && dataSpaceNameArr.length == replicationUnitNameArr.length) {
+				validateDependencies(context, dataSpaceNameArr, dataSetNameArr, replicationUnitNameArr);
+			}
+		}
+		if (this.threadMax == null || this.threadMax.intValue() < 1) {
+			context.addError("threadMax must be at least 1.");
+		}
+		if (this.maxAttempts == null || this.maxAttempts.intValue() < 1) {
+			context.addError("maxAttempts must be at least 1.");
+		}
+		if (this.timeoutSeconds == null || this.timeoutSeconds.intValue() < 0) {
+			context.addError("timeoutSeconds must be positive, 0 for no timeout.");
+		}
+		if (this.statusTablePath != null && (this.statusDataSpace == null || this.statusDataSet == null)) {
+			context.addError("statusDataSpace and statusDataSet must be specified with statusTablePath.");
 		}
 	}
 
-	private static void refreshReplication(final String dSpace, final String dSet, final String rUnit, final Repository repo, final Session session) throws EBXResourceNotFoundException {
-		Adaptation dataSet = AdaptationUtils.getDataset(repo, dSpace, dSet);
-		ReplicationUnit replicationUnit = ReplicationUnit.newReplicationUnit(ReplicationUnitKey.forName(rUnit), dataSet);
-		replicationUnit.performRefresh(session);
+	private void validateDependencies(final ValueContextForValidation context, final String[] dataSpaceNameArr, final String[] dataSetNameArr,
+			final String[] replicationUnitNameArr) {
+		Set<String> units = new HashSet<>();
+		Map<String, Integer> unitsByName = new HashMap<>();
+		for (int i = 0; i < replicationUnitNameArr.length; i++) {
+			String unit = dataSpaceNameArr[i] + "/" + dataSetNameArr[i] + "/" + replicationUnitNameArr[i];
+			if (!units.add(unit)) {
+				context.addError("Replication unit " + unit + " is specified twice.");
+			}
+			unitsByName.merge(replicationUnitNameArr[i], Integer.valueOf(1), Integer::sum);
+		}
+		for (String dependency : getValueAsArray(this.dependencies)) {
+			if (dependency.indexOf('=') < 0) {
+				context.addError("Dependency " + dependency + " must be of the form unit=dependency1|dependency2.");
+				continue;
+			}
+			validateReference(context, dependency, StringUtils.substringBefore(dependency, "=").trim(), units, unitsByName);
+			for (String dependsOn : StringUtils.split(StringUtils.substringAfter(dependency, "="), DEPENDENCY_SEPARATOR)) {
+				validateReference(context, dependency, dependsOn.trim(), units, unitsByName);
+			}
+		}
+	}
+
+	private static void validateReference(final ValueContextForValidation context, final String dependency, final String unit, final Set<String> units,
+			final Map<String, Integer> unitsByName) {
+		if (units.contains(unit)) {
+			return;
+		}
+		Integer count = unitsByName.get(unit);
+		if (count == null) {
+			context.addError("Dependency " + dependency + " refers to unknown replication unit " + unit + ".");
+		} else if (count.intValue() > 1) {
+			context.addError("Dependency " + dependency + " refers to replication unit " + unit + " used in several data sets, use dataSpace/dataSet/unit.");
+		}
 	}
 
 	private static String[] getValueAsArray(final String value) {
-		return StringUtils.split(value, SEPARATOR);
+		String[] values = StringUtils.split(value, SEPARATOR);
+		return values == null ? new String[0] : values;
 	}
 
 	public String getDataSpaceName() {
@@ -108,4 +195,60 @@ public class RefreshReplicasScheduledTask extends ScheduledTask {
 	public void setReplicationUnitName(final String replicationUnitName) {
 		this.replicationUnitName = replicationUnitName;
 	}
+
+	public String getDependencies() {
+		return this.dependencies;
+	}
+
+	public void setDependencies(final String dependencies) {
+		this.dependencies = dependencies;
+	}
+
+	public Integer getThreadMax() {
+		return this.threadMax;
+	}
+
+	public void setThreadMax(final Integer threadMax) {
+		this.threadMax = threadMax;
+	}
+
+	public Integer getTimeoutSeconds() {
+		return this.timeoutSeconds;
+	}
+
+	public void setTimeoutSeconds(final Integer timeoutSeconds) {
+		this.timeoutSeconds = timeoutSeconds;
+	}
+
+	public Integer getMaxAttempts() {
+		return this.maxAttempts;
+	}
+
+	public void setMaxAttempts(final Integer maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public String getStatusDataSpace() {
+		return this.statusDataSpace;
+	}
+
+	public void setStatusDataSpace(final String statusDataSpace) {
+		this.statusDataSpace = statusDataSpace;
+	}
+
+	public String getStatusDataSet() {
+		return this.statusDataSet;
+	}
+
+	public void setStatusDataSet(final String statusDataSet) {
+		this.statusDataSet = statusDataSet;
+	}
+
+	public String getStatusTablePath() {
+		return this.statusTablePath;
+	}
+
+	public void setStatusTablePath(final String statusTablePath) {
+		this.statusTablePath = statusTablePath;
+	}
 }
@@ -0,0 +1,444 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.scheduledtask;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationTable;
+import com.orchestranetworks.instance.Repository;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.service.ProcedureResult;
+import com.orchestranetworks.service.Session;
+import com.orchestranetworks.service.extensions.ReplicationUnit;
+import com.orchestranetworks.service.extensions.ReplicationUnitKey;
+import com.tibco.ebx.cs.commons.lib.procedure.CreateRecordProcedure;
+import com.tibco.ebx.cs.commons.lib.utils.AdaptationUtils;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+
+/**
+ * Refreshes replication units in parallel, with a concurrency limit, a timeout and retries per unit, and dependencies between units.
+ * <p>
+ * Units are identified by <tt>dataSpace/dataSet/unit</tt>, or by their name alone when it is used in a single dataset. A unit starts once all the units it depends on have
+ * been refreshed, and is skipped if one of them failed. A failed refresh is retried with an exponential backoff. A refresh exceeding the timeout is cancelled and reported as timed
+ * out, and its dependents are skipped. EBX refreshes cannot always be interrupted: until a cancelled refresh has actually ended, any new refresh of the same unit, by this or
+ * another orchestrator, fails without being started, so that refreshes of a unit never overlap.
+ * </p>
+ * <p>
+ * The result of each unit can be written to a status table with the fields <tt>./unit</tt>, <tt>./dataSpace</tt>, <tt>./dataSet</tt>, <tt>./status</tt> (strings),
+ * <tt>./attempts</tt>, <tt>./durationMillis</tt> (integers), <tt>./start</tt> (date time) and <tt>./error</tt> (string), and an auto-incremented primary key.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class ReplicaRefreshOrchestrator {
+
+	public static final Path STATUS_UNIT = Path.parse("./unit");
+	public static final Path STATUS_DATA_SPACE = Path.parse("./dataSpace");
+	public static final Path STATUS_DATA_SET = Path.parse("./dataSet");
+	public static final Path STATUS_STATUS = Path.parse("./status");
+	public static final Path STATUS_ATTEMPTS = Path.parse("./attempts");
+	public static final Path STATUS_START = Path.parse("./start");
+	public static final Path STATUS_DURATION = Path.parse("./durationMillis");
+	public static final Path STATUS_ERROR = Path.parse("./error");
+
+	/**
+	 * Outcome of the refresh of a unit.
+	 */
+	public enum Status {
+		SUCCEEDED, FAILED, TIMED_OUT, SKIPPED
+	}
+
+	/** Units whose refresh is running, by identifier, including refreshes which have timed out */
+	private static final Set<String> RUNNING = ConcurrentHashMap.newKeySet();
+
+	private final Repository repository;
+	private final Session session;
+	private final Map<String, Unit> units = new LinkedHashMap<>();
+
+	private int threadMax = 4;
+	private long timeoutSeconds = 0;
+	private int maxAttempts = 1;
+	private long retryDelayMillis = 1000;
+	private AdaptationTable statusTable;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pRepository the repository
+	 * @param pSession    the session performing the refreshes
+	 */
+	public ReplicaRefreshOrchestrator(final Repository pRepository, final Session pSession) {
+		this.repository = pRepository;
+		this.session = pSession;
+	}
+
+	/**
+	 * Adds a unit to refresh.
+	 *
+	 * @param pDataSpace       the dataspace of the dataset
+	 * @param pDataSet         the dataset
+	 * @param pReplicationUnit the name of the replication unit
+	 */
+	public void addUnit(final String pDataSpace, final String pDataSet, final String pReplicationUnit) {
+		Unit unit = new Unit(pReplicationUnit, pDataSpace, pDataSet);
+		if (this.units.containsKey(unit.id)) {
+			throw new IllegalArgumentException("Replication unit " + unit.id + " is declared twice");
+		}
+		this.units.put(unit.id, unit);
+	}
+
+	/**
+	 * Declares that a unit must be refreshed after another one.
+	 *
+	 * @param pReplicationUnit the dependent unit, <tt>dataSpace/dataSet/unit</tt> or the name of a unit used in a single dataset
+	 * @param pDependency      the unit to refresh first, <tt>dataSpace/dataSet/unit</tt> or the name of a unit used in a single dataset
+	 */
+	public void addDependency(final String pReplicationUnit, final String pDependency) {
+		Unit unit = this.resolve(pReplicationUnit);
+		unit.dependencies.add(this.resolve(pDependency).id);
+	}
+
+	/**
+	 * Finds a unit by its identifier <tt>dataSpace/dataSet/unit</tt>, or by its name if it is used in a single dataset.
+	 *
+	 * @param pReference the identifier or the name
+	 * @return the unit
+	 * @throws IllegalArgumentException if no unit or several units match
+	 */
+	private Unit resolve(final String pReference) {
+		Unit unit = this.units.get(pReference);
+		if (unit != null) {
+			return unit;
+		}
+		for (Unit candidate : this.units.values()) {
+			if (candidate.name.equals(pReference)) {
+				if (unit != null) {
+					throw new IllegalArgumentException("Replication unit " + pReference + " is used in several datasets, use dataSpace/dataSet/unit");
+				}
+				unit = candidate;
+			}
+		}
+		if (unit == null) {
+			throw new IllegalArgumentException("Unknown replication unit " + pReference);
+		}
+		return unit;
+	}
+
+	/**
+	 * Refreshes all the units.
+	 *
+	 * @return the results, in the order of completion
+	 */
+	public List<UnitResult> refreshAll() {
+		Map<String, Integer> pendingDependencies = new HashMap<>();
+		Map<String, List<String>> dependents = new HashMap<>();
+		for (Unit unit : this.units.values()) {
+			pendingDependencies.put(unit.id, unit.dependencies.size());
+			for (String dependency : unit.dependencies) {
+				dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(unit.id);
+			}
+		}
+
+		Map<String, UnitResult> results = new LinkedHashMap<>();
+		ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Math.min(this.threadMax, this.units.size())));
+		ExecutorService refreshes = Executors.newCachedThreadPool();
+		CompletionService<UnitResult> completion = new ExecutorCompletionService<>(workers);
+		try {
+			int running = 0;
+			for (Unit unit : this.units.values()) {
+				if (unit.dependencies.isEmpty()) {
+					completion.submit(() -> this.refresh(unit, refreshes));
+					running++;
+				}
+			}
+			while (running > 0) {
+				UnitResult result;
+				try {
+					result = completion.take().get();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException ex) {
+					// refresh catches everything
+					throw new IllegalStateException(ex.getCause());
+				}
+				running--;
+				this.record(result, results);
+
+				for (String dependentName : dependents.getOrDefault(result.unit.id, new ArrayList<>())) {
+					if (result.status != Status.SUCCEEDED) {
+						this.skip(this.units.get(dependentName), "Dependency " + result.unit.id + " " + result.status, dependents, results);
+					} else if (pendingDependencies.merge(dependentName, -1, Integer::sum) == 0 && !results.containsKey(dependentName)) {
+						Unit dependent = this.units.get(dependentName);
+						completion.submit(() -> this.refresh(dependent, refreshes));
+						running++;
+					}
+				}
+			}
+		} finally {
+			workers.shutdownNow();
+			refreshes.shutdown();
+		}
+
+		for (Unit unit : this.units.values()) {
+			if (!results.containsKey(unit.id)) {
+				this.record(new UnitResult(unit, Status.SKIPPED, 0, null, 0, "Dependency cycle or interruption"), results);
+			}
+		}
+		return new ArrayList<>(results.values());
+	}
+
+	/**
+	 * Cancels a refresh, and releases its unit if the refresh has not started: it would otherwise never be released.
+	 */
+	private static void cancel(final Future<?> pRefresh, final AtomicBoolean pStarted, final Unit pUnit) {
+		pRefresh.cancel(true);
+		if (pStarted.compareAndSet(false, true)) {
+			RUNNING.remove(pUnit.id);
+		}
+	}
+
+	private UnitResult refresh(final Unit pUnit, final ExecutorService pRefreshes) {
+		Date start = new Date();
+		long startNanos = System.nanoTime();
+		String error = null;
+		int attempt = 0;
+		long delay = this.retryDelayMillis;
+		while (++attempt <= this.maxAttempts) {
+			if (!RUNNING.add(pUnit.id)) {
+				return new UnitResult(pUnit, Status.FAILED, attempt - 1, start, elapsedMillis(startNanos), "A previous refresh of the unit is still running");
+			}
+			// Set by the task when it starts, or by the caller when it cancels the task before, so that the unit is released once
+			AtomicBoolean started = new AtomicBoolean(false);
+			Future<?> refresh;
+			try {
+				refresh = pRefreshes.submit(() -> {
+					if (!started.compareAndSet(false, true)) {
+						return null;
+					}
+					try {
+						Adaptation dataSet = AdaptationUtils.getDataset(this.repository, pUnit.dataSpace, pUnit.dataSet);
+						ReplicationUnit.newReplicationUnit(ReplicationUnitKey.forName(pUnit.name), dataSet).performRefresh(this.session);
+						return null;
+					} finally {
+						RUNNING.remove(pUnit.id);
+					}
+				});
+			} catch (RuntimeException ex) {
+				RUNNING.remove(pUnit.id);
+				throw ex;
+			}
+			try {
+				if (this.timeoutSeconds > 0) {
+					refresh.get(this.timeoutSeconds, TimeUnit.SECONDS);
+				} else {
+					refresh.get();
+				}
+				return new UnitResult(pUnit, Status.SUCCEEDED, attempt, start, elapsedMillis(startNanos), null);
+			} catch (TimeoutException ex) {
+				cancel(refresh, started, pUnit);
+				return new UnitResult(pUnit, Status.TIMED_OUT, attempt, start, elapsedMillis(startNanos), "Not refreshed after " + this.timeoutSeconds + " s");
+			} catch (ExecutionException ex) {
+				error = String.valueOf(ex.getCause());
+				CommonsLogger.getLogger().warn("Refresh of replication unit " + pUnit.id + " failed, attempt " + attempt + "/" + this.maxAttempts, ex.getCause());
+			} catch (InterruptedException ex) {
+				cancel(refresh, started, pUnit);
+				Thread.currentThread().interrupt();
+				return new UnitResult(pUnit, Status.FAILED, attempt, start, elapsedMillis(startNanos), "Interrupted");
+			}
+			if (attempt < this.maxAttempts) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				delay *= 2;
+			}
+		}
+		return new UnitResult(pUnit, Status.FAILED, Math.min(attempt, this.maxAttempts), start, elapsedMillis(startNanos), error);
+	}
+
+	private void skip(final Unit pUnit, final String pReason, final Map<String, List<String>> pDependents, final Map<String, UnitResult> pResults) {
+		if (pResults.containsKey(pUnit.id)) {
+			return;
+		}
+		this.record(new UnitResult(pUnit, Status.SKIPPED, 0, null, 0, pReason), pResults);
+		for (String dependentName : pDependents.getOrDefault(pUnit.id, new ArrayList<>())) {
+			this.skip(this.units.get(dependentName), "Dependency " + pUnit.id + " SKIPPED", pDependents, pResults);
+		}
+	}
+
+	private void record(final UnitResult pResult, final Map<String, UnitResult> pResults) {
+		pResults.put(pResult.unit.id, pResult);
+		if (pResult.status == Status.SUCCEEDED) {
+			CommonsLogger.getLogger().info(pResult.toString());
+		} else {
+			CommonsLogger.getLogger().error(pResult.toString());
+		}
+		if (this.statusTable == null) {
+			return;
+		}
+		Map<Path, Object> values = new HashMap<>();
+		values.put(STATUS_UNIT, pResult.unit.name);
+		values.put(STATUS_DATA_SPACE, pResult.unit.dataSpace);
+		values.put(STATUS_DATA_SET, pResult.unit.dataSet);
+		values.put(STATUS_STATUS, pResult.status.name());
+		values.put(STATUS_ATTEMPTS, Integer.valueOf(pResult.attempts));
+		values.put(STATUS_START, pResult.start);
+		values.put(STATUS_DURATION, Integer.valueOf((int) Math.min(Integer.MAX_VALUE, pResult.durationMillis)));
+		values.put(STATUS_ERROR, pResult.error);
+		CreateRecordProcedure procedure = new CreateRecordProcedure(this.statusTable, values);
+		procedure.setAllPrivileges(true);
+		ProcedureResult result = procedure.executeWithProgrammaticService(this.statusTable.getContainerAdaptation().getHome(), this.session);
+		if (result.hasFailed()) {
+			CommonsLogger.getLogger().error("Status of replication unit " + pResult.unit.id + " cannot be written", result.getException());
+		}
+	}
+
+	private static long elapsedMillis(final long pStartNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pStartNanos);
+	}
+
+	/**
+	 * Sets the maximum number of units refreshed at the same time. Default is 4.
+	 *
+	 * @param pThreadMax the maximum number of units
+	 */
+	public void setThreadMax(final int pThreadMax) {
+		this.threadMax = pThreadMax;
+	}
+
+	/**
+	 * Sets the time after which a refresh is reported as timed out. Default is 0, no timeout.
+	 *
+	 * @param pTimeoutSeconds the timeout in seconds
+	 */
+	public void setTimeoutSeconds(final long pTimeoutSeconds) {
+		this.timeoutSeconds = pTimeoutSeconds;
+	}
+
+	/**
+	 * Sets the number of attempts before a unit is reported as failed. Default is 1, no retry.
+	 *
+	 * @param pMaxAttempts the number of attempts
+	 */
+	public void setMaxAttempts(final int pMaxAttempts) {
+		this.maxAttempts = Math.max(1, pMaxAttempts);
+	}
+
+	/**
+	 * Sets the delay before the first retry, doubled for each following retry. Default is 1 s.
+	 *
+	 * @param pRetryDelayMillis the delay in milliseconds
+	 */
+	public void setRetryDelayMillis(final long pRetryDelayMillis) {
+		this.retryDelayMillis = pRetryDelayMillis;
+	}
+
+	/**
+	 * Sets the table where the result of each unit is written.
+	 *
+	 * @param pStatusTable the table, null to only log the results
+	 */
+	public void setStatusTable(final AdaptationTable pStatusTable) {
+		this.statusTable = pStatusTable;
+	}
+
+	private static final class Unit {
+		private final String id;
+		private final String name;
+		private final String dataSpace;
+		private final String dataSet;
+		private final Set<String> dependencies = new LinkedHashSet<>();
+
+		private Unit(final String pName, final String pDataSpace, final String pDataSet) {
+			this.id = pDataSpace + "/" + pDataSet + "/" + pName;
+			this.name = pName;
+			this.dataSpace = pDataSpace;
+			this.dataSet = pDataSet;
+		}
+	}
+
+	/**
+	 * Result of the refresh of a unit.
+	 */
+	public static final class UnitResult {
+		private final Unit unit;
+		private final Status status;
+		private final int attempts;
+		private final Date start;
+		private final long durationMillis;
+		private final String error;
+
+		private UnitResult(final Unit pUnit, final Status pStatus, final int pAttempts, final Date pStart, final long pDurationMillis, final String pError) {
+			this.unit = pUnit;
+			this.status = pStatus;
+			this.attempts = pAttempts;
+			this.start = pStart;
+			this.durationMillis = pDurationMillis;
+			this.error = pError;
+		}
+
+		public String getReplicationUnit() {
+			return this.unit.name;
+		}
+
+		public String getDataSpace() {
+			return this.unit.dataSpace;
+		}
+
+		public String getDataSet() {
+			return this.unit.dataSet;
+		}
+
+		public Status getStatus() {
+			return this.status;
+		}
+
+		public int getAttempts() {
+			return this.attempts;
+		}
+
+		/**
+		 * Gets the start of the first attempt.
+		 *
+		 * @return the date, null if the unit was skipped
+		 */
+		public Date getStart() {
+			return this.start;
+		}
+
+		public long getDurationMillis() {
+			return this.durationMillis;
+		}
+
+		public String getError() {
+			return this.error;
+		}
+
+		@Override
+		public String toString() {
+			return "Replication unit " + this.unit.name + " of " + this.unit.dataSpace + "/" + this.unit.dataSet + ": " + this.status + " after " + this.attempts + " attempt(s) in "
+					+ this.durationMillis + " ms" + (this.error == null ? "" : " (" + this.error + ")");
+		}
+	}
+}
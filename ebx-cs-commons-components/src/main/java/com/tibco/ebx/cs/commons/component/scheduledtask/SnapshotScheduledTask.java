@@ -2,6 +2,7 @@
 package com.tibco.ebx.cs.commons.component.scheduledtask;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -20,7 +21,7 @@ import com.orchestranetworks.service.Session;
 import com.tibco.ebx.cs.commons.lib.utils.CommonsConstants;
 import com.tibco.ebx.cs.commons.lib.utils.DateUtils;
 import com.tibco.ebx.cs.commons.lib.utils.DateUtils.DateConstant;
-import com.tibco.ebx.cs.commons.lib.utils.HomeUtils;
+import com.tibco.ebx.cs.commons.lib.utils.SnapshotRetention;
 
 /**
  * Creates a snapshot of a specified data space and parses a label from the prefix and domain settings. This scheduled task will also delete any snapshots that are older than specified in the
@@ -33,6 +34,16 @@ import com.tibco.ebx.cs.commons.lib.utils.HomeUtils;
  * <li><b>prefix:</b> String to help distinguish the type of snapshot this scheduled task is creating.</li>
  * <li><b>daysToKeep:</b> Integer specifying the number of days to keep the snapshot.</li>
  * </ul>
+ * The following arguments are optional:
+ * <ul>
+ * <li><b>keepLast</b>, <b>keepDaily</b>, <b>keepMonthly:</b> Integers specifying a retention policy replacing daysToKeep when one of them is set: the last <i>keepLast</i>
+ * snapshots, the newest snapshot of each day for <i>keepDaily</i> days and the newest snapshot of each month for <i>keepMonthly</i> months are kept.</li>
+ * <li><b>batchSize:</b> Integer specifying the number of snapshots closed then deleted together, 100 by default.</li>
+ * <li><b>maxBatches:</b> Integer specifying the maximum number of batches per execution, the remaining snapshots being purged by the next one. 0, the default, for no
+ * limit.</li>
+ * <li><b>dryRun:</b> Boolean specifying whether the snapshots to purge are only logged.</li>
+ * </ul>
+ * The purge goes on when a snapshot cannot be closed or deleted, then the task fails, reporting the number of failures.
  * The snapshot label will appear as <i>prefix</i>_<i>domain</i>_<i>date of creation</i>
  * <p>
  * For example, if the following configuration is defined for this scheduled task:
@@ -65,6 +76,18 @@ public class SnapshotScheduledTask extends ScheduledTask {
 
 	private int daysToKeep;
 
+	private int keepLast;
+
+	private int keepDaily;
+
+	private int keepMonthly;
+
+	private int batchSize = 100;
+
+	private int maxBatches;
+
+	private boolean dryRun;
+
 	public String getDataSpace() {
 		return this.dataSpace;
 	}
@@ -97,6 +120,54 @@ public class SnapshotScheduledTask extends ScheduledTask {
 		this.daysToKeep = daysToKeep;
 	}
 
+	public int getKeepLast() {
+		return this.keepLast;
+	}
+
+	public void setKeepLast(final int keepLast) {
+		this.keepLast = keepLast;
+	}
+
+	public int getKeepDaily() {
+		return this.keepDaily;
+	}
+
+	public void setKeepDaily(final int keepDaily) {
+		this.keepDaily = keepDaily;
+	}
+
+	public int getKeepMonthly() {
+		return this.keepMonthly;
+	}
+
+	public void setKeepMonthly(final int keepMonthly) {
+		this.keepMonthly = keepMonthly;
+	}
+
+	public int getBatchSize() {
+		return this.batchSize;
+	}
+
+	public void setBatchSize(final int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getMaxBatches() {
+		return this.maxBatches;
+	}
+
+	public void setMaxBatches(final int maxBatches) {
+		this.maxBatches = maxBatches;
+	}
+
+	public boolean isDryRun() {
+		return this.dryRun;
+	}
+
+	public void setDryRun(final boolean dryRun) {
+		this.dryRun = dryRun;
+	}
+
 	/**
 	 * Override this method if the data space is different than the one found by looking up by dataSpace name.
 	 */
@@ -143,6 +214,11 @@ public class SnapshotScheduledTask extends ScheduledTask {
 	}
 
 	protected void purgeSnapshots(final ScheduledExecutionContext context, final AdaptationHome dataSpaceHome) throws OperationException {
+		if (this.keepLast > 0 || this.keepDaily > 0 || this.keepMonthly > 0) {
+			SnapshotRetention retention = this.createRetention();
+			checkReport(retention.purge(SnapshotRetention.indexSnapshotsByPrefix(dataSpaceHome, this.prefix + "_" + this.domain), context.getSession()));
+			return;
+		}
 		// Find the date at the specified number of days prior to the current date
 		Date today = new Date();
 		Date daysBack = DateUtils.subtract(today, DateConstant.DAY, this.daysToKeep);
@@ -151,33 +227,34 @@ public class SnapshotScheduledTask extends ScheduledTask {
 	}
 
 	protected void markChildrenForDeletion(final Session session, final AdaptationHome dataSpace, final Date earlierThanDate) throws OperationException {
-		List<AdaptationHome> childVersions = dataSpace.getVersionChildren();
+		// Search for snapshots with a label starting with the prefix_domain string.
+		// This string makes up the first part of a snapshot created by this scheduled task.
+		List<AdaptationHome> snapshots = SnapshotRetention.indexSnapshotsByPrefix(dataSpace, this.prefix + "_" + this.domain);
 
-		for (AdaptationHome childVersion : childVersions) {
-			if (childVersion.isTechnicalVersion()) {
-				continue;
-			}
-			if (!childVersion.isVersion()) {
-				continue;
-			}
-			String name = childVersion.getKey().getName();
-
-			// Search for snapshots with a label starting with the prefix_domain string.
-			// This string makes up the first part of a snapshot created by this scheduled task.
-			if (name.startsWith(this.prefix + "_" + this.domain)) {
-				Date creationDate = childVersion.getCreationDate();
-
-				if (DateUtils.afterExclusive(earlierThanDate, creationDate)) {
-					if (childVersion.isOpen()) {
-						HomeUtils.closeDataSpace(session, childVersion);
-					}
-
-					if (!childVersion.isOpen() && childVersion.getTerminationDate() != null) {
-						HomeUtils.deleteDataspace(session, childVersion, false);
-					}
-				}
+		List<AdaptationHome> expired = new ArrayList<>();
+		for (AdaptationHome snapshot : snapshots) {
+			if (!snapshot.isTechnicalVersion() && DateUtils.afterExclusive(earlierThanDate, snapshot.getCreationDate())) {
+				expired.add(snapshot);
 			}
 		}
+		checkReport(this.createRetention().remove(snapshots.size(), expired, session));
+	}
+
+	private static void checkReport(final SnapshotRetention.Report report) throws OperationException {
+		if (report.getFailedCount() > 0) {
+			throw OperationException.createError("Some snapshots could not be purged: " + report);
+		}
+	}
+
+	protected SnapshotRetention createRetention() {
+		SnapshotRetention retention = new SnapshotRetention();
+		retention.setKeepLast(this.keepLast);
+		retention.setKeepDaily(this.keepDaily);
+		retention.setKeepMonthly(this.keepMonthly);
+		retention.setBatchSize(this.batchSize);
+		retention.setMaxBatches(this.maxBatches);
+		retention.setDryRun(this.dryRun);
+		return retention;
 	}
 
 }
@@ -0,0 +1,291 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.trigger;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.PrimaryKey;
+import com.onwbp.adaptation.RequestResult;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.service.ProcedureContext;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+import com.tibco.ebx.cs.commons.lib.utils.DataspaceScopedCache;
+
+/**
+ * Parent links of the records of a recursive table, used by {@link ForbidLoopTrigger} to detect cycles.
+ * <p>
+ * Records are numbered by ordinal and the parents of each record are kept in primitive arrays, so that looking for a record among the ancestors of its new parents is an array walk
+ * without allocation. The shared links are built by a single scan of the table the first time they are needed and only hold committed state. The updates of a transaction are kept
+ * in an overlay of that transaction, seen by its own checks only and dropped with it. The records updated by a transaction are read again from the table by the next transaction
+ * using the closure, once the first one has been committed or rolled back.
+ * </p>
+ * <p>
+ * The closure does not see the updates made without the trigger, such as imports with triggers disabled. It is therefore never trusted to reject an update: a cycle it finds is
+ * confirmed by following the parent links in the table, and the closure is rebuilt when it is not. It is also rebuilt {@link #MAX_AGE_MINUTES} minutes after it has been built,
+ * which bounds the time a cycle created without the trigger can be missed.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+final class AncestorClosure {
+
+	/** Age after which the closure is built again from the table */
+	static final long MAX_AGE_MINUTES = 5;
+
+	private static final long MAX_AGE_NANOS = TimeUnit.MINUTES.toNanos(MAX_AGE_MINUTES);
+
+	private static final DataspaceScopedCache<AncestorClosure> CLOSURES = new DataspaceScopedCache<>();
+
+	private static final int[] NO_PARENT = new int[0];
+
+	private final Path pathToParent;
+
+	private boolean built = false;
+	private long builtAtNanos;
+	private final Map<String, Integer> ordinals = new HashMap<>();
+	private int size = 0;
+	private int[][] parents = new int[1024][];
+
+	/** Parents set by the transactions in progress, by ordinal */
+	private final Map<ProcedureContext, Map<Integer, int[]>> overlays = new WeakHashMap<>();
+
+	/** Records updated by a transaction, to be read again once it has ended */
+	private final Map<String, WeakReference<ProcedureContext>> pending = new HashMap<>();
+
+	/** Walk state, reused by every check */
+	private int[] visited = new int[1024];
+	private int epoch = 0;
+	private int[] stack = new int[64];
+
+	/**
+	 * Gets the closure of a table of a dataspace.
+	 *
+	 * @param pTable        the table
+	 * @param pPathToParent the path of the foreign key to the parent
+	 * @return the closure
+	 */
+	static AncestorClosure getClosure(final AdaptationTable pTable, final Path pPathToParent) {
+		Adaptation dataset = pTable.getContainerAdaptation();
+		String key = dataset.getAdaptationName().getStringName() + "|" + pTable.getTablePath().format() + "|" + pPathToParent.format();
+		return CLOSURES.get(dataset.getHome(), key, k -> new AncestorClosure(pPathToParent));
+	}
+
+	private AncestorClosure(final Path pPathToParent) {
+		this.pathToParent = pPathToParent;
+	}
+
+	/**
+	 * Checks whether a record would be its own ancestor with the given parents.
+	 *
+	 * @param pTable       the table
+	 * @param pContext     the transaction of the check
+	 * @param pPrimaryKey  the primary key of the record
+	 * @param pParentValue the value of the foreign key to the parents, a primary key or a list of primary keys
+	 * @return true if the parents create a cycle
+	 */
+	synchronized boolean createsCycle(final AdaptationTable pTable, final ProcedureContext pContext, final String pPrimaryKey, final Object pParentValue) {
+		this.ensureCurrent(pTable, pContext);
+		if (!this.findsCycle(pContext, pPrimaryKey, pParentValue)) {
+			return false;
+		}
+		if (this.readsCycle(pTable, pPrimaryKey, pParentValue)) {
+			return true;
+		}
+		CommonsLogger.getLogger().warn("Parent links of " + pTable.getTablePath().format() + " are out of date, they are built again");
+		this.built = false;
+		return false;
+	}
+
+	private boolean findsCycle(final ProcedureContext pContext, final String pPrimaryKey, final Object pParentValue) {
+		Map<Integer, int[]> overlay = this.overlays.get(pContext);
+		Integer ordinal = this.ordinals.get(pPrimaryKey);
+		int self = ordinal == null ? -1 : ordinal;
+
+		if (++this.epoch == 0) {
+			Arrays.fill(this.visited, 0);
+			this.epoch = 1;
+		}
+		int top = 0;
+		if (pParentValue instanceof List) {
+			for (Object parent : (List<?>) pParentValue) {
+				if (pPrimaryKey.equals(parent)) {
+					return true;
+				}
+				top = this.push(top, this.ordinals.get(parent));
+			}
+		} else if (pParentValue != null) {
+			if (pPrimaryKey.equals(pParentValue)) {
+				return true;
+			}
+			top = this.push(top, this.ordinals.get(pParentValue));
+		}
+
+		while (top > 0) {
+			int current = this.stack[--top];
+			if (current == self) {
+				return true;
+			}
+			if (this.visited[current] == this.epoch) {
+				continue;
+			}
+			this.visited[current] = this.epoch;
+			int[] parentsOfCurrent = overlay == null ? this.parents[current] : overlay.getOrDefault(current, this.parents[current]);
+			for (int parent : parentsOfCurrent) {
+				top = this.push(top, parent);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the parents of a created or modified record in the overlay of its transaction.
+	 *
+	 * @param pTable       the table
+	 * @param pContext     the transaction of the update
+	 * @param pPrimaryKey  the primary key of the record
+	 * @param pParentValue the value of the foreign key to the parents
+	 */
+	synchronized void setParents(final AdaptationTable pTable, final ProcedureContext pContext, final String pPrimaryKey, final Object pParentValue) {
+		this.ensureCurrent(pTable, pContext);
+		int ordinal = this.getOrCreateOrdinal(pPrimaryKey);
+		this.track(pContext, pPrimaryKey).put(ordinal, this.toOrdinals(pParentValue));
+	}
+
+	/**
+	 * Removes the parents of a deleted record in the overlay of its transaction.
+	 *
+	 * @param pTable      the table
+	 * @param pContext    the transaction of the update
+	 * @param pPrimaryKey the primary key of the record
+	 */
+	synchronized void remove(final AdaptationTable pTable, final ProcedureContext pContext, final String pPrimaryKey) {
+		this.ensureCurrent(pTable, pContext);
+		this.track(pContext, pPrimaryKey).put(this.getOrCreateOrdinal(pPrimaryKey), NO_PARENT);
+	}
+
+	/**
+	 * Looks for a record among the ancestors of its new parents by reading the parent links in the table.
+	 */
+	private boolean readsCycle(final AdaptationTable pTable, final String pPrimaryKey, final Object pParentValue) {
+		Deque<Object> toVisit = new ArrayDeque<>();
+		Set<Object> visitedKeys = new HashSet<>();
+		toVisit.push(pParentValue);
+		while (!toVisit.isEmpty()) {
+			Object value = toVisit.pop();
+			if (value instanceof List) {
+				for (Object parent : (List<?>) value) {
+					toVisit.push(parent);
+				}
+				continue;
+			}
+			if (value == null || !visitedKeys.add(value)) {
+				continue;
+			}
+			if (pPrimaryKey.equals(value)) {
+				return true;
+			}
+			Adaptation parent = pTable.lookupAdaptationByPrimaryKey(PrimaryKey.parseString((String) value));
+			if (parent != null) {
+				toVisit.push(parent.get(this.pathToParent));
+			}
+		}
+		return false;
+	}
+
+	private Map<Integer, int[]> track(final ProcedureContext pContext, final String pPrimaryKey) {
+		this.pending.put(pPrimaryKey, new WeakReference<>(pContext));
+		return this.overlays.computeIfAbsent(pContext, context -> new HashMap<>());
+	}
+
+	private void ensureCurrent(final AdaptationTable pTable, final ProcedureContext pContext) {
+		if (this.built && System.nanoTime() - this.builtAtNanos > MAX_AGE_NANOS) {
+			// Built again in place, the ordinals being referenced by the overlays of the transactions in progress
+			this.built = false;
+		}
+		if (!this.built) {
+			Arrays.fill(this.parents, 0, this.size, NO_PARENT);
+			RequestResult result = pTable.createRequest().execute();
+			try {
+				for (Adaptation record; (record = result.nextAdaptation()) != null;) {
+					int ordinal = this.getOrCreateOrdinal(record.getOccurrencePrimaryKey().format());
+					int[] ordinalsOfParents = this.toOrdinals(record.get(this.pathToParent));
+					this.parents[ordinal] = ordinalsOfParents;
+				}
+			} finally {
+				result.close();
+			}
+			this.built = true;
+			this.builtAtNanos = System.nanoTime();
+		}
+		// Records updated by transactions which have ended, the table being read by another one. Those updated by the current transaction are seen through its overlay, and read
+		// again by the next transaction.
+		List<String> updatedKeys = new ArrayList<>();
+		for (Iterator<Map.Entry<String, WeakReference<ProcedureContext>>> iterator = this.pending.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<String, WeakReference<ProcedureContext>> entry = iterator.next();
+			if (entry.getValue().get() != pContext) {
+				updatedKeys.add(entry.getKey());
+				iterator.remove();
+			}
+		}
+		for (String primaryKey : updatedKeys) {
+			Adaptation record = pTable.lookupAdaptationByPrimaryKey(PrimaryKey.parseString(primaryKey));
+			int ordinal = this.getOrCreateOrdinal(primaryKey);
+			int[] ordinalsOfParents = record == null ? NO_PARENT : this.toOrdinals(record.get(this.pathToParent));
+			this.parents[ordinal] = ordinalsOfParents;
+		}
+	}
+
+	private int[] toOrdinals(final Object pParentValue) {
+		if (pParentValue instanceof List) {
+			List<?> values = (List<?>) pParentValue;
+			int[] ordinalsOfParents = new int[values.size()];
+			for (int i = 0; i < ordinalsOfParents.length; i++) {
+				ordinalsOfParents[i] = this.getOrCreateOrdinal((String) values.get(i));
+			}
+			return ordinalsOfParents;
+		} else if (pParentValue != null) {
+			return new int[] { this.getOrCreateOrdinal((String) pParentValue) };
+		}
+		return NO_PARENT;
+	}
+
+	private int getOrCreateOrdinal(final String pPrimaryKey) {
+		Integer ordinal = this.ordinals.get(pPrimaryKey);
+		if (ordinal != null) {
+			return ordinal;
+		}
+		if (this.size == this.parents.length) {
+			this.parents = Arrays.copyOf(this.parents, this.size * 2);
+			this.visited = Arrays.copyOf(this.visited, this.size * 2);
+		}
+		this.parents[this.size] = NO_PARENT;
+		this.ordinals.put(pPrimaryKey, this.size);
+		return this.size++;
+	}
+
+	private int push(final int pTop, final Integer pOrdinal) {
+		return pOrdinal == null ? pTop : this.push(pTop, pOrdinal.intValue());
+	}
+
+	private int push(final int pTop, final int pOrdinal) {
+		if (pTop == this.stack.length) {
+			this.stack = Arrays.copyOf(this.stack, pTop * 2);
+		}
+		this.stack[pTop] = pOrdinal;
+		return pTop + 1;
+	}
+}
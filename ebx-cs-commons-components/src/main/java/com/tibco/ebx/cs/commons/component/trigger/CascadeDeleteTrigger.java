@@ -1,22 +1,41 @@
 /* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
 package com.tibco.ebx.cs.commons.component.trigger;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 import com.onwbp.adaptation.Adaptation;
 import com.onwbp.adaptation.AdaptationTable;
 import com.onwbp.adaptation.PrimaryKey;
+import com.onwbp.adaptation.Request;
+import com.onwbp.adaptation.RequestResult;
 import com.orchestranetworks.schema.Path;
 import com.orchestranetworks.schema.SchemaNode;
 import com.orchestranetworks.schema.trigger.AfterDeleteOccurrenceContext;
+import com.orchestranetworks.schema.trigger.BeforeTransactionCommitContext;
 import com.orchestranetworks.schema.trigger.TableTrigger;
 import com.orchestranetworks.schema.trigger.TriggerSetupContext;
 import com.orchestranetworks.service.OperationException;
+import com.orchestranetworks.service.ProcedureContext;
 import com.tibco.ebx.cs.commons.lib.procedure.DeleteRecordsProcedure;
 import com.tibco.ebx.cs.commons.lib.repository.RepositoryUtils;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+import com.tibco.ebx.cs.commons.lib.utils.DataspaceScopedCache;
 
 /**
  * @author Mickaël Chevalier
  *
  *         Delete record in cascade.<br>
+ *         In set based mode, the keys of the deleted records are collected until the transaction is about to be committed, then the referencing records are found with one
+ *         query per referencing table and deleted at once. Cascades of several set based triggers are processed level by level, up to maxDepth levels, and a record reached twice
+ *         by a cascade is reported as a cycle and not processed again.<br>
  *         {@code
  *
  *	<osd:trigger class="com.tibco.ebx.cs.commons.trigger.CascadeDeleteTrigger">
@@ -24,18 +43,34 @@ import com.tibco.ebx.cs.commons.lib.repository.RepositoryUtils;
  *		<dataset>a data set name or null(only if dataspace is also null)</dataset>
  *		<table>a table path</table>
  *		<reference>a path to a foreign key</reference>
+ *		<setBased>true or false (default)</setBased>
+ *		<maxDepth>maximum number of cascade levels in set based mode, 10 by default</maxDepth>
  *	</osd:trigger><}
  *
  * @throw {@link OperationException} if the dataspace, the dataset, the table or the reference (node) cannot be found
  * @throw {@link OperationException} if the reference is not a foreign key
  * @throw {@link OperationException} if the deletion fails
+ * @throw {@link OperationException} if the cascade is deeper than maxDepth
  */
 public class CascadeDeleteTrigger extends TableTrigger {
 
+	public static final int DEFAULT_MAX_DEPTH = 10;
+
+	/** Above this number of keys, the referencing table is scanned once instead of being filtered by a predicate on the keys */
+	private static final int MAX_KEYS_IN_PREDICATE = 100;
+
+	/** Cascades of the transactions in progress, shared by all the set based triggers. The cascade of a transaction which does not reach its commit is dropped with the transaction. */
+	private static final Map<ProcedureContext, Cascade> CASCADES = Collections.synchronizedMap(new WeakHashMap<>());
+
 	private String dataspace;
 	private String dataset;
 	private Path table;
 	private Path reference;
+	private boolean setBased = false;
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+
+	/** Referencing tables by home and name of the dataset of the deleted records */
+	private final DataspaceScopedCache<AdaptationTable> referencingTables = new DataspaceScopedCache<>();
 
 	@Override
 	public void setup(final TriggerSetupContext pContext) {
@@ -46,12 +81,56 @@ public class CascadeDeleteTrigger extends TableTrigger {
 	public void handleAfterDelete(final AfterDeleteOccurrenceContext pContext) throws OperationException {
 		super.handleAfterDelete(pContext);
 
-		Adaptation instance = RepositoryUtils.getDataSetFrom(pContext.getTable().getContainerAdaptation(), this.dataspace, this.dataset);
+		AdaptationTable adaTable = this.getReferencingTable(pContext.getTable());
+		PrimaryKey pk = pContext.getTable().computePrimaryKey(pContext.getOccurrenceContext());
+		if (this.setBased) {
+			Cascade cascade = CASCADES.computeIfAbsent(pContext.getProcedureContext(), procedureContext -> new Cascade());
+			String recordKey = pContext.getTable().getContainerAdaptation().getAdaptationName().getStringName() + "|" + pContext.getTable().getTablePath().format() + "|" + pk.format();
+			cascade.add(this, adaTable, recordKey, pk.format());
+			return;
+		}
+
+		DeleteRecordsProcedure proc = new DeleteRecordsProcedure(adaTable.selectOccurrences(this.reference.format() + " = '" + pk.format() + "'"));
+		try {
+			proc.execute(pContext.getProcedureContext());
+		} catch (Exception ex) {
+			throw OperationException.createError(ex.getMessage());
+		}
+	}
+
+	@Override
+	public void handleBeforeTransactionCommit(final BeforeTransactionCommitContext pContext) throws OperationException {
+		super.handleBeforeTransactionCommit(pContext);
+		ProcedureContext procedureContext = pContext.getProcedureContext();
+		Cascade cascade = CASCADES.get(procedureContext);
+		if (cascade == null || cascade.running) {
+			return;
+		}
+		try {
+			cascade.run(procedureContext, this.maxDepth);
+		} finally {
+			CASCADES.remove(procedureContext);
+		}
+	}
+
+	private AdaptationTable getReferencingTable(final AdaptationTable pDeletedTable) throws OperationException {
+		Adaptation container = pDeletedTable.getContainerAdaptation();
+		String key = container.getAdaptationName().getStringName();
+		AdaptationTable adaTable = this.referencingTables.lookup(container.getHome(), key);
+		if (adaTable == null) {
+			AdaptationTable resolved = this.resolveReferencingTable(pDeletedTable);
+			adaTable = this.referencingTables.get(container.getHome(), key, k -> resolved);
+		}
+		return adaTable;
+	}
+
+	private AdaptationTable resolveReferencingTable(final AdaptationTable pDeletedTable) throws OperationException {
+		Adaptation instance = RepositoryUtils.getDataSetFrom(pDeletedTable.getContainerAdaptation(), this.dataspace, this.dataset);
 		if (instance == null) {
 			throw OperationException.createError("Not able to retrieve dataset with dataspace '" + this.dataspace + "' and dataset '" + this.dataset + "'.");
 		}
 
-		AdaptationTable adaTable = pContext.getTable();
+		AdaptationTable adaTable = pDeletedTable;
 		if (this.table != null) {
 			adaTable = instance.getTable(this.table);
 			if (adaTable == null) {
@@ -64,20 +143,115 @@ public class CascadeDeleteTrigger extends TableTrigger {
 			throw OperationException.createError("Not able to retrieve node '" + this.reference + "' in table '" + adaTable.getTablePath().format() + "'.");
 		}
 
-		if (node.getFacetOnTableReference() != null) {
-			if (!node.getFacetOnTableReference().getTableNode().equals(pContext.getTable().getTableNode())) {
-				throw OperationException
-						.createError("Node '" + this.reference + "' in table '" + adaTable.getTablePath().format() + "' is not referencing " + pContext.getTable().getTablePath().format() + ".");
-			}
-			PrimaryKey pk = pContext.getTable().computePrimaryKey(pContext.getOccurrenceContext());
-			DeleteRecordsProcedure proc = new DeleteRecordsProcedure(adaTable.selectOccurrences(this.reference.format() + " = '" + pk.format() + "'"));
-			try {
-				proc.execute(pContext.getProcedureContext());
-			} catch (Exception ex) {
-				throw OperationException.createError(ex.getMessage());
+		if (node.getFacetOnTableReference() == null) {
+			throw OperationException.createError("Node '" + this.reference + "' in table '" + adaTable.getTablePath().format() + "' is not a foreign key.");
+		}
+		if (!node.getFacetOnTableReference().getTableNode().equals(pDeletedTable.getTableNode())) {
+			throw OperationException
+					.createError("Node '" + this.reference + "' in table '" + adaTable.getTablePath().format() + "' is not referencing " + pDeletedTable.getTablePath().format() + ".");
+		}
+		return adaTable;
+	}
+
+	/**
+	 * Finds the records of the referencing table whose foreign key is one of the given keys.
+	 */
+	private List<Adaptation> findReferencingRecords(final AdaptationTable pTable, final Set<String> pKeys) {
+		List<Adaptation> records = new ArrayList<>();
+		Request request = pTable.createRequest();
+		if (pKeys.size() <= MAX_KEYS_IN_PREDICATE) {
+			StringBuilder predicate = new StringBuilder();
+			int i = 0;
+			for (String key : pKeys) {
+				if (i > 0) {
+					predicate.append(" or ");
+				}
+				predicate.append(this.reference.format()).append(" = $key").append(i);
+				request.setXPathParameter("key" + i, key);
+				i++;
 			}
+			request.setXPathFilter(predicate.toString());
 		} else {
-			throw OperationException.createError("Node '" + this.reference + "' in table '" + adaTable.getTablePath().format() + "' is not a foreign key.");
+			request.setXPathFilter("osd:is-not-null(" + this.reference.format() + ")");
+		}
+		RequestResult result = request.execute();
+		try {
+			for (Adaptation record; (record = result.nextAdaptation()) != null;) {
+				if (pKeys.contains(record.getString(this.reference))) {
+					records.add(record);
+				}
+			}
+		} finally {
+			result.close();
+		}
+		return records;
+	}
+
+	/**
+	 * Keys deleted by the set based triggers in a transaction, processed level by level.
+	 */
+	private static final class Cascade {
+		private Map<CascadeStep, Set<String>> pendingKeys = new LinkedHashMap<>();
+		private final Set<String> deletedRecords = new HashSet<>();
+		private boolean running = false;
+
+		private void add(final CascadeDeleteTrigger pTrigger, final AdaptationTable pReferencingTable, final String pRecordKey, final String pPrimaryKey) {
+			if (!this.deletedRecords.add(pRecordKey)) {
+				CommonsLogger.getLogger().warn("Cycle in the cascade deletion, record " + pRecordKey + " has already been processed");
+				return;
+			}
+			this.pendingKeys.computeIfAbsent(new CascadeStep(pTrigger, pReferencingTable), step -> new LinkedHashSet<>()).add(pPrimaryKey);
+		}
+
+		private void run(final ProcedureContext pProcedureContext, final int pMaxDepth) throws OperationException {
+			this.running = true;
+			int depth = 0;
+			while (!this.pendingKeys.isEmpty()) {
+				depth++;
+				if (depth > pMaxDepth) {
+					throw OperationException.createError("Cascade deletion deeper than " + pMaxDepth + " levels.");
+				}
+				Map<CascadeStep, Set<String>> level = this.pendingKeys;
+				this.pendingKeys = new LinkedHashMap<>();
+				for (Map.Entry<CascadeStep, Set<String>> entry : level.entrySet()) {
+					CascadeStep step = entry.getKey();
+					List<Adaptation> records = step.trigger.findReferencingRecords(step.referencingTable, entry.getValue());
+					if (records.isEmpty()) {
+						continue;
+					}
+					// The deletions feed the next level through the triggers of the referencing tables
+					DeleteRecordsProcedure proc = new DeleteRecordsProcedure(records);
+					try {
+						proc.execute(pProcedureContext);
+					} catch (Exception ex) {
+						throw OperationException.createError(ex.getMessage());
+					}
+				}
+			}
+		}
+	}
+
+	private static final class CascadeStep {
+		private final CascadeDeleteTrigger trigger;
+		private final AdaptationTable referencingTable;
+
+		private CascadeStep(final CascadeDeleteTrigger pTrigger, final AdaptationTable pReferencingTable) {
+			this.trigger = pTrigger;
+			this.referencingTable = pReferencingTable;
+		}
+
+		@Override
+		public boolean equals(final Object pObject) {
+			if (!(pObject instanceof CascadeStep)) {
+				return false;
+			}
+			CascadeStep other = (CascadeStep) pObject;
+			return this.trigger == other.trigger && this.referencingTable.equals(other.referencingTable);
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.trigger) * 31 + this.referencingTable.hashCode();
 		}
 	}
 
@@ -112,4 +286,20 @@ public class CascadeDeleteTrigger extends TableTrigger {
 	public void setReference(final Path reference) {
 		this.reference = reference;
 	}
+
+	public boolean isSetBased() {
+		return this.setBased;
+	}
+
+	public void setSetBased(final boolean setBased) {
+		this.setBased = setBased;
+	}
+
+	public int getMaxDepth() {
+		return this.maxDepth;
+	}
+
+	public void setMaxDepth(final int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
 }
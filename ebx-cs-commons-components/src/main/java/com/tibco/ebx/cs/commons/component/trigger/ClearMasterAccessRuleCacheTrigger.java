@@ -0,0 +1,75 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.trigger;
+
+import java.lang.ref.WeakReference;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationHome;
+import com.orchestranetworks.schema.trigger.AfterCreateOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterDeleteOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterModifyOccurrenceContext;
+import com.orchestranetworks.schema.trigger.BeforeTransactionCommitContext;
+import com.orchestranetworks.schema.trigger.TableTrigger;
+import com.orchestranetworks.schema.trigger.TriggerSetupContext;
+import com.orchestranetworks.service.OperationException;
+import com.orchestranetworks.service.ProcedureContext;
+import com.tibco.ebx.cs.commons.component.permission.MasterAccessRule;
+import com.tibco.ebx.cs.commons.lib.utils.AfterCommit;
+
+/**
+ * @author Mickaël Chevalier
+ *
+ *         Drops the snapshots of {@link MasterAccessRule} once a transaction creating, modifying or deleting a record of the access permission table has ended, so that a snapshot read
+ *         while the transaction was in progress is not kept.<br>
+ *         {@code
+ *
+ *	<osd:trigger class="com.tibco.ebx.cs.commons.component.trigger.ClearMasterAccessRuleCacheTrigger"/>}
+ */
+public class ClearMasterAccessRuleCacheTrigger extends TableTrigger {
+
+	/** Transaction in progress in the current thread which has changed the table, and the name of the dataset of the table */
+	private final ThreadLocal<WeakReference<ProcedureContext>> changingTransaction = new ThreadLocal<>();
+	private final ThreadLocal<String> changedDataSetName = new ThreadLocal<>();
+
+	@Override
+	public void setup(final TriggerSetupContext pContext) {
+		// no implementation
+	}
+
+	@Override
+	public void handleAfterCreate(final AfterCreateOccurrenceContext pContext) throws OperationException {
+		super.handleAfterCreate(pContext);
+		this.registerChange(pContext.getProcedureContext(), pContext.getTable().getContainerAdaptation());
+	}
+
+	@Override
+	public void handleAfterModify(final AfterModifyOccurrenceContext pContext) throws OperationException {
+		super.handleAfterModify(pContext);
+		this.registerChange(pContext.getProcedureContext(), pContext.getTable().getContainerAdaptation());
+	}
+
+	@Override
+	public void handleAfterDelete(final AfterDeleteOccurrenceContext pContext) throws OperationException {
+		super.handleAfterDelete(pContext);
+		this.registerChange(pContext.getProcedureContext(), pContext.getTable().getContainerAdaptation());
+	}
+
+	@Override
+	public void handleBeforeTransactionCommit(final BeforeTransactionCommitContext pContext) throws OperationException {
+		super.handleBeforeTransactionCommit(pContext);
+		WeakReference<ProcedureContext> transaction = this.changingTransaction.get();
+		String dataSetName = this.changedDataSetName.get();
+		this.changingTransaction.remove();
+		this.changedDataSetName.remove();
+		if (transaction != null && transaction.get() == pContext.getProcedureContext()) {
+			AdaptationHome dataSpace = pContext.getProcedureContext().getAdaptationHome();
+			String dataSpaceName = dataSpace.getKey().getName();
+			AfterCommit.execute(dataSpace, pContext.getSession(), () -> MasterAccessRule.invalidate(dataSpaceName, dataSetName));
+		}
+	}
+
+	private void registerChange(final ProcedureContext pProcedureContext, final Adaptation pDataset) {
+		this.changingTransaction.set(new WeakReference<>(pProcedureContext));
+		this.changedDataSetName.set(pDataset.getAdaptationName().getStringName());
+	}
+}
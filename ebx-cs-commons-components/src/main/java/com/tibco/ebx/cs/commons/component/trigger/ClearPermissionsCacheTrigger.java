@@ -0,0 +1,69 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.trigger;
+
+import java.lang.ref.WeakReference;
+
+import com.onwbp.adaptation.AdaptationHome;
+import com.orchestranetworks.schema.trigger.AfterCreateOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterDeleteOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterModifyOccurrenceContext;
+import com.orchestranetworks.schema.trigger.BeforeTransactionCommitContext;
+import com.orchestranetworks.schema.trigger.TableTrigger;
+import com.orchestranetworks.schema.trigger.TriggerSetupContext;
+import com.orchestranetworks.service.OperationException;
+import com.orchestranetworks.service.ProcedureContext;
+import com.tibco.ebx.cs.commons.component.permission.DefaultPermissionsUserManager;
+import com.tibco.ebx.cs.commons.lib.utils.AfterCommit;
+import com.tibco.ebx.cs.commons.lib.utils.CachedDirectory;
+
+/**
+ * @author Mickaël Chevalier
+ *
+ *         Clears the cache of {@link DefaultPermissionsUserManager} and the {@link CachedDirectory} once a transaction creating, modifying or deleting a record of a directory
+ *         table (users, roles, memberships...) has ended, so that permissions and directory answers computed while the transaction was in progress are not kept.<br>
+ *         {@code
+ *
+ *	<osd:trigger class="com.tibco.ebx.cs.commons.component.trigger.ClearPermissionsCacheTrigger"/>}
+ */
+public class ClearPermissionsCacheTrigger extends TableTrigger {
+
+	/** Transaction in progress in the current thread which has changed the table */
+	private final ThreadLocal<WeakReference<ProcedureContext>> changingTransaction = new ThreadLocal<>();
+
+	@Override
+	public void setup(final TriggerSetupContext pContext) {
+		// no implementation
+	}
+
+	@Override
+	public void handleAfterCreate(final AfterCreateOccurrenceContext pContext) throws OperationException {
+		super.handleAfterCreate(pContext);
+		this.changingTransaction.set(new WeakReference<>(pContext.getProcedureContext()));
+	}
+
+	@Override
+	public void handleAfterModify(final AfterModifyOccurrenceContext pContext) throws OperationException {
+		super.handleAfterModify(pContext);
+		this.changingTransaction.set(new WeakReference<>(pContext.getProcedureContext()));
+	}
+
+	@Override
+	public void handleAfterDelete(final AfterDeleteOccurrenceContext pContext) throws OperationException {
+		super.handleAfterDelete(pContext);
+		this.changingTransaction.set(new WeakReference<>(pContext.getProcedureContext()));
+	}
+
+	@Override
+	public void handleBeforeTransactionCommit(final BeforeTransactionCommitContext pContext) throws OperationException {
+		super.handleBeforeTransactionCommit(pContext);
+		WeakReference<ProcedureContext> transaction = this.changingTransaction.get();
+		this.changingTransaction.remove();
+		if (transaction != null && transaction.get() == pContext.getProcedureContext()) {
+			AdaptationHome dataspace = pContext.getProcedureContext().getAdaptationHome();
+			AfterCommit.execute(dataspace, pContext.getSession(), () -> {
+				DefaultPermissionsUserManager.getInstance().clearCache();
+				CachedDirectory.invalidate(dataspace.getRepository());
+			});
+		}
+	}
+}
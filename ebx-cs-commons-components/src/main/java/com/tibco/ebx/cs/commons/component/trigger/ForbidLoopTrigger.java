@@ -1,28 +1,31 @@
 /* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
 package com.tibco.ebx.cs.commons.component.trigger;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Optional;
-
 import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationTable;
+import com.orchestranetworks.instance.ValueContext;
 import com.orchestranetworks.schema.Path;
 import com.orchestranetworks.schema.SchemaNode;
 import com.orchestranetworks.schema.info.SchemaFacetTableRef;
+import com.orchestranetworks.schema.trigger.AfterCreateOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterDeleteOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterModifyOccurrenceContext;
 import com.orchestranetworks.schema.trigger.BeforeCreateOccurrenceContext;
 import com.orchestranetworks.schema.trigger.BeforeModifyOccurrenceContext;
 import com.orchestranetworks.schema.trigger.TableTrigger;
 import com.orchestranetworks.schema.trigger.TriggerSetupContext;
 import com.orchestranetworks.schema.trigger.ValueChange;
 import com.orchestranetworks.service.OperationException;
+import com.orchestranetworks.service.ProcedureContext;
 import com.orchestranetworks.service.Session;
-import com.tibco.ebx.cs.commons.lib.utils.AdaptationUtils;
 
 /**
  * Trigger preventing from the creation of loops in a recursive relation. Loops can be prevented by constraints in EBX but this constraint is not always blocking updates which can âss via Web Services
  * of file import.
  *
  * It takes one parameter that is the path of the foreign to the parent record that must be of the same table. It works with multiple parents. <br>
+ * The parent links of the table are kept in memory by an {@link AncestorClosure}, built per dataspace, maintained by this trigger and rebuilt periodically, so that a check does
+ * not scan the table. The links updated by a transaction are only shared once it has ended, and a cycle is only reported once confirmed by the table.<br>
  * {@code
  * <osd:trigger class="com.tibco.ebx.cs.commons.component.trigger.ForbidLoopTrigger">
  * 	<pathToParent>./parent</pathToParent>
@@ -38,26 +41,22 @@ public class ForbidLoopTrigger extends TableTrigger {
 
 	@Override
 	public void handleBeforeCreate(final BeforeCreateOccurrenceContext pContext) throws OperationException {
-		List<Adaptation> parents = AdaptationUtils.getLinkedRecords(pContext.getOccurrenceContextForUpdate(), this.pathToParent, Optional.empty());
-		HashSet<String> pks = new HashSet<>();
-		this.checkLoop(parents, pks, pContext.getSession());
+		ValueContext occurrence = pContext.getOccurrenceContextForUpdate();
+		String pk = pContext.getTable().computePrimaryKey(occurrence).format();
+		this.checkLoop(pContext.getTable(), pContext.getProcedureContext(), pk, occurrence.getValue(this.pathToParent), pContext.getSession());
 	}
 
-	private void checkLoop(final List<Adaptation> pParents, final HashSet<String> pPKs, final Session pSession) throws OperationException {
-		for (Adaptation parent : pParents) {
-			HashSet<String> pks = (HashSet<String>) pPKs.clone();
-			if (!pks.add(parent.getOccurrencePrimaryKey().format())) {
-				String message = this.getErrorMessage(parent, pSession);
-				throw OperationException.createError(message);
-			} else {
-				this.checkLoop(AdaptationUtils.getLinkedRecords(parent, this.pathToParent, null), pks, pSession);
-			}
+	private void checkLoop(final AdaptationTable pTable, final ProcedureContext pProcedureContext, final String pPrimaryKey, final Object pParentValue, final Session pSession)
+			throws OperationException {
+		AncestorClosure closure = AncestorClosure.getClosure(pTable, this.pathToParent);
+		if (closure.createsCycle(pTable, pProcedureContext, pPrimaryKey, pParentValue)) {
+			throw OperationException.createError(this.getErrorMessage(pTable, pPrimaryKey, pSession));
 		}
 	}
 
-	private String getErrorMessage(final Adaptation pRecord, final Session pSession) {
-		String message = "Cycle detected in table " + pRecord.getContainerTable().getTableNode().getLabel(pSession);
-		message += " for record primary key '" + pRecord.getOccurrencePrimaryKey().format() + "'";
+	private String getErrorMessage(final AdaptationTable pTable, final String pPrimaryKey, final Session pSession) {
+		String message = "Cycle detected in table " + pTable.getTableNode().getLabel(pSession);
+		message += " for record primary key '" + pPrimaryKey + "'";
 		return message;
 	}
 
@@ -65,15 +64,38 @@ public class ForbidLoopTrigger extends TableTrigger {
 	public void handleBeforeModify(final BeforeModifyOccurrenceContext pContext) throws OperationException {
 		ValueChange change = pContext.getChanges().getChange(this.pathToParent);
 		if (change != null) {
-			Adaptation record = pContext.getAdaptationOccurrence();
-			HashSet<String> pks = new HashSet<>();
-			pks.add(record.getOccurrencePrimaryKey().format());
-			List<Adaptation> parents = AdaptationUtils.getLinkedRecords(pContext.getOccurrenceContextForUpdate(), this.pathToParent, Optional.empty());
-			this.checkLoop(parents, pks, pContext.getSession());
+			String pk = pContext.getAdaptationOccurrence().getOccurrencePrimaryKey().format();
+			Object parentValue = pContext.getOccurrenceContextForUpdate().getValue(this.pathToParent);
+			this.checkLoop(pContext.getTable(), pContext.getProcedureContext(), pk, parentValue, pContext.getSession());
 		}
 		super.handleBeforeModify(pContext);
 	}
 
+	@Override
+	public void handleAfterCreate(final AfterCreateOccurrenceContext pContext) throws OperationException {
+		super.handleAfterCreate(pContext);
+		Adaptation record = pContext.getAdaptationOccurrence();
+		AncestorClosure.getClosure(pContext.getTable(), this.pathToParent).setParents(pContext.getTable(), pContext.getProcedureContext(),
+				record.getOccurrencePrimaryKey().format(), record.get(this.pathToParent));
+	}
+
+	@Override
+	public void handleAfterModify(final AfterModifyOccurrenceContext pContext) throws OperationException {
+		super.handleAfterModify(pContext);
+		if (pContext.getChanges().getChange(this.pathToParent) != null) {
+			Adaptation record = pContext.getAdaptationOccurrence();
+			AncestorClosure.getClosure(pContext.getTable(), this.pathToParent).setParents(pContext.getTable(), pContext.getProcedureContext(),
+					record.getOccurrencePrimaryKey().format(), record.get(this.pathToParent));
+		}
+	}
+
+	@Override
+	public void handleAfterDelete(final AfterDeleteOccurrenceContext pContext) throws OperationException {
+		super.handleAfterDelete(pContext);
+		String pk = pContext.getTable().computePrimaryKey(pContext.getOccurrenceContext()).format();
+		AncestorClosure.getClosure(pContext.getTable(), this.pathToParent).remove(pContext.getTable(), pContext.getProcedureContext(), pk);
+	}
+
 	@Override
 	public void setup(final TriggerSetupContext pContext) {
 		this.nodeParent = pContext.getSchemaNode().getNode(this.pathToParent);
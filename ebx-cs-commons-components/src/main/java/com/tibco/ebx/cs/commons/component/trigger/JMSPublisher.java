@@ -0,0 +1,343 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.trigger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+
+/**
+ * Asynchronous publisher of text messages to a JMS destination.
+ * <p>
+ * Messages are queued in a bounded outbox and sent by a single thread per destination, which keeps its connection, transacted session and producer open and commits the messages
+ * by batches. A failed batch is retried with an exponential backoff, then written to the dead letter directory, or logged when there is none. Queue depth, sent and dead letter
+ * counts and send latencies are exposed.
+ * </p>
+ * <p>
+ * When a destination is asked with other settings, a new publisher replaces the previous one, which stops once it has sent the messages it has already queued. All the publishers
+ * are stopped by a shutdown hook of the JVM, which dead letters the messages still queued.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class JMSPublisher {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+	private static final long INITIAL_BACKOFF_MILLIS = 500;
+	private static final long MAX_BACKOFF_MILLIS = 30000;
+	private static final long OFFER_TIMEOUT_MILLIS = 30000;
+	private static final long RETIRED_POLL_MILLIS = 1000;
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+	private static final Map<String, JMSPublisher> PUBLISHERS = new ConcurrentHashMap<>();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(JMSPublisher::shutdownAll, "jms-publisher-shutdown"));
+	}
+
+	private final String name;
+	private final ConnectionFactory connectionFactory;
+	private final Destination destination;
+	private final BlockingQueue<PendingMessage> queue;
+	private final int batchSize;
+	private final int maxAttempts;
+	private final int queueCapacity;
+	private final File deadLetterDirectory;
+	private final Thread sender;
+	private volatile boolean retired;
+
+	private Connection connection;
+	private Session session;
+	private MessageProducer producer;
+
+	private final LongAdder sentCount = new LongAdder();
+	private final LongAdder deadLetterCount = new LongAdder();
+	private final LongAdder totalLatencyMillis = new LongAdder();
+	private final AtomicLong maxLatencyMillis = new AtomicLong();
+
+	/**
+	 * Gets the publisher of a destination, creating it with the given settings if needed, or replacing it if its settings are different.
+	 *
+	 * @param pName                the name of the destination, identifying the publisher
+	 * @param pConnectionFactory   the connection factory
+	 * @param pDestination         the destination
+	 * @param pQueueCapacity       the maximum number of messages waiting to be sent
+	 * @param pBatchSize           the maximum number of messages committed at once
+	 * @param pMaxAttempts         the number of attempts before a batch is dead lettered
+	 * @param pDeadLetterDirectory the directory where undelivered messages are written, can be null
+	 * @return the publisher
+	 */
+	public static JMSPublisher getPublisher(final String pName, final ConnectionFactory pConnectionFactory, final Destination pDestination, final int pQueueCapacity,
+			final int pBatchSize, final int pMaxAttempts, final File pDeadLetterDirectory) {
+		return PUBLISHERS.compute(pName, (name, existing) -> {
+			if (existing != null && existing.connectionFactory == pConnectionFactory && existing.destination == pDestination && existing.queueCapacity == pQueueCapacity
+					&& existing.batchSize == pBatchSize && existing.maxAttempts == pMaxAttempts && Objects.equals(existing.deadLetterDirectory, pDeadLetterDirectory)) {
+				return existing;
+			}
+			if (existing != null) {
+				CommonsLogger.getLogger().info("Settings of the publisher of " + name + " have changed, it is replaced");
+				existing.retire();
+			}
+			return new JMSPublisher(name, pConnectionFactory, pDestination, pQueueCapacity, pBatchSize, pMaxAttempts, pDeadLetterDirectory);
+		});
+	}
+
+	/**
+	 * Stops all the publishers and waits for them to dead letter the messages still queued. Called by the shutdown hook of the JVM.
+	 */
+	public static void shutdownAll() {
+		List<JMSPublisher> publishers = new ArrayList<>(PUBLISHERS.values());
+		PUBLISHERS.clear();
+		for (JMSPublisher publisher : publishers) {
+			publisher.shutdown();
+		}
+		long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MILLIS;
+		for (JMSPublisher publisher : publishers) {
+			try {
+				publisher.sender.join(Math.max(1, deadline - System.currentTimeMillis()));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private JMSPublisher(final String pName, final ConnectionFactory pConnectionFactory, final Destination pDestination, final int pQueueCapacity, final int pBatchSize,
+			final int pMaxAttempts, final File pDeadLetterDirectory) {
+		this.name = pName;
+		this.connectionFactory = pConnectionFactory;
+		this.destination = pDestination;
+		this.queue = new ArrayBlockingQueue<>(pQueueCapacity);
+		this.queueCapacity = pQueueCapacity;
+		this.batchSize = pBatchSize;
+		this.maxAttempts = pMaxAttempts;
+		this.deadLetterDirectory = pDeadLetterDirectory;
+		this.sender = new Thread(this::run, "jms-publisher-" + pName);
+		this.sender.setDaemon(true);
+		this.sender.start();
+	}
+
+	/**
+	 * Queues messages to be sent. When the outbox is full, waits for free space once for all the messages, and dead letters the messages which could not be queued in time.
+	 *
+	 * @param pMessages the messages
+	 */
+	public void publish(final List<String> pMessages) {
+		long now = System.currentTimeMillis();
+		long deadline = now + OFFER_TIMEOUT_MILLIS;
+		for (String message : pMessages) {
+			PendingMessage pending = new PendingMessage(message, now);
+			boolean queued;
+			try {
+				queued = this.queue.offer(pending, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				queued = false;
+			}
+			if (!queued) {
+				this.deadLetter(pending, "outbox of " + this.name + " is full");
+			}
+		}
+	}
+
+	/**
+	 * Dead letters messages which must not be sent, such as those whose transaction cannot be confirmed.
+	 *
+	 * @param pMessages the messages
+	 * @param pReason   the reason why they are not sent
+	 */
+	public void deadLetter(final List<String> pMessages, final String pReason) {
+		long now = System.currentTimeMillis();
+		for (String message : pMessages) {
+			this.deadLetter(new PendingMessage(message, now), pReason);
+		}
+	}
+
+	/**
+	 * Stops the sender thread once the messages already queued have been sent.
+	 */
+	private void retire() {
+		this.retired = true;
+	}
+
+	private void run() {
+		List<PendingMessage> batch = new ArrayList<>(this.batchSize);
+		while (!Thread.currentThread().isInterrupted()) {
+			PendingMessage first;
+			try {
+				first = this.queue.poll(RETIRED_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				break;
+			}
+			if (first == null) {
+				if (this.retired) {
+					break;
+				}
+				continue;
+			}
+			batch.add(first);
+			this.queue.drainTo(batch, this.batchSize - 1);
+			this.sendWithRetry(batch);
+			batch.clear();
+		}
+		this.closeQuietly();
+		for (PendingMessage pending; (pending = this.queue.poll()) != null;) {
+			this.deadLetter(pending, "publisher of " + this.name + " stopped");
+		}
+	}
+
+	private void sendWithRetry(final List<PendingMessage> pBatch) {
+		long backoff = INITIAL_BACKOFF_MILLIS;
+		for (int attempt = 1;; attempt++) {
+			try {
+				this.send(pBatch);
+				return;
+			} catch (JMSException ex) {
+				CommonsLogger.getLogger().warn("Sending " + pBatch.size() + " messages to " + this.name + " failed, attempt " + attempt + "/" + this.maxAttempts, ex);
+				this.closeQuietly();
+				if (attempt >= this.maxAttempts) {
+					for (PendingMessage pending : pBatch) {
+						this.deadLetter(pending, ex.getMessage());
+					}
+					return;
+				}
+			}
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				for (PendingMessage pending : pBatch) {
+					this.deadLetter(pending, "publisher of " + this.name + " stopped");
+				}
+				return;
+			}
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+		}
+	}
+
+	private void send(final List<PendingMessage> pBatch) throws JMSException {
+		if (this.session == null) {
+			this.connection = this.connectionFactory.createConnection();
+			this.session = this.connection.createSession(true, Session.SESSION_TRANSACTED);
+			this.producer = this.session.createProducer(this.destination);
+		}
+		try {
+			for (PendingMessage pending : pBatch) {
+				this.producer.send(this.session.createTextMessage(pending.text));
+			}
+			this.session.commit();
+		} catch (JMSException ex) {
+			try {
+				this.session.rollback();
+			} catch (JMSException rollbackEx) {
+				ex.addSuppressed(rollbackEx);
+			}
+			throw ex;
+		}
+		long now = System.currentTimeMillis();
+		for (PendingMessage pending : pBatch) {
+			long latency = now - pending.queuedTime;
+			this.totalLatencyMillis.add(latency);
+			this.maxLatencyMillis.accumulateAndGet(latency, Math::max);
+		}
+		this.sentCount.add(pBatch.size());
+	}
+
+	private void deadLetter(final PendingMessage pPending, final String pReason) {
+		this.deadLetterCount.increment();
+		if (this.deadLetterDirectory == null) {
+			CommonsLogger.getLogger().error("Message to " + this.name + " not delivered (" + pReason + "): " + pPending.text);
+			return;
+		}
+		File file = new File(this.deadLetterDirectory, this.name.replaceAll("\\W", "_") + "-" + pPending.queuedTime + "-" + this.deadLetterCount.sum() + ".xml");
+		try {
+			Files.write(file.toPath(), pPending.text.getBytes(StandardCharsets.UTF_8));
+			CommonsLogger.getLogger().error("Message to " + this.name + " not delivered (" + pReason + "), written to " + file.getPath());
+		} catch (IOException ex) {
+			CommonsLogger.getLogger().error("Message to " + this.name + " not delivered (" + pReason + ") nor written to " + file.getPath() + ": " + pPending.text, ex);
+		}
+	}
+
+	private void closeQuietly() {
+		if (this.connection != null) {
+			try {
+				this.connection.close();
+			} catch (JMSException ex) {
+				CommonsLogger.getLogger().debug("Closing connection to " + this.name + " failed", ex);
+			}
+		}
+		this.connection = null;
+		this.session = null;
+		this.producer = null;
+	}
+
+	/**
+	 * Stops the sender thread, messages still queued are dead lettered.
+	 */
+	public void shutdown() {
+		this.sender.interrupt();
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public int getQueueDepth() {
+		return this.queue.size();
+	}
+
+	public long getSentCount() {
+		return this.sentCount.sum();
+	}
+
+	public long getDeadLetterCount() {
+		return this.deadLetterCount.sum();
+	}
+
+	/**
+	 * Gets the average time between the queuing of a message and the commit of its batch.
+	 *
+	 * @return the average latency in milliseconds
+	 */
+	public long getAverageLatencyMillis() {
+		long sent = this.sentCount.sum();
+		return sent == 0 ? 0 : this.totalLatencyMillis.sum() / sent;
+	}
+
+	public long getMaxLatencyMillis() {
+		return this.maxLatencyMillis.get();
+	}
+
+	private static final class PendingMessage {
+		private final String text;
+		private final long queuedTime;
+
+		private PendingMessage(final String pText, final long pQueuedTime) {
+			this.text = pText;
+			this.queuedTime = pQueuedTime;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.trigger;
+
+import com.orchestranetworks.schema.trigger.AfterCreateOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterDeleteOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterModifyOccurrenceContext;
+import com.orchestranetworks.schema.trigger.BeforeTransactionCommitContext;
+import com.orchestranetworks.schema.trigger.TableTrigger;
+import com.orchestranetworks.schema.trigger.TriggerSetupContext;
+import com.orchestranetworks.service.OperationException;
+import com.tibco.ebx.cs.commons.component.enumeration.RecordKeyIndex;
+
+/**
+ * @author Mickaël Chevalier
+ *
+ *         Keeps the {@link RecordKeyIndex} of a table current. To be declared on the table referenced by an indexed record enumeration. The records updated by a transaction
+ *         are only kept in the index once it has ended.<br>
+ *         {@code
+ *
+ *	<osd:trigger class="com.tibco.ebx.cs.commons.component.trigger.RecordKeyIndexTrigger" />}
+ *
+ * @since 3.0.0
+ */
+public class RecordKeyIndexTrigger extends TableTrigger {
+
+	@Override
+	public void setup(final TriggerSetupContext pContext) {
+		// no parameter
+	}
+
+	@Override
+	public void handleAfterCreate(final AfterCreateOccurrenceContext pContext) throws OperationException {
+		super.handleAfterCreate(pContext);
+		RecordKeyIndex.getIndex(pContext.getTable()).add(pContext.getProcedureContext(), pContext.getAdaptationOccurrence().getOccurrencePrimaryKey().format());
+	}
+
+	@Override
+	public void handleAfterModify(final AfterModifyOccurrenceContext pContext) throws OperationException {
+		super.handleAfterModify(pContext);
+		RecordKeyIndex.getIndex(pContext.getTable()).refresh(pContext.getProcedureContext(), pContext.getAdaptationOccurrence().getOccurrencePrimaryKey().format());
+	}
+
+	@Override
+	public void handleAfterDelete(final AfterDeleteOccurrenceContext pContext) throws OperationException {
+		super.handleAfterDelete(pContext);
+		RecordKeyIndex.getIndex(pContext.getTable()).remove(pContext.getProcedureContext(), pContext.getTable().computePrimaryKey(pContext.getOccurrenceContext()).format());
+	}
+
+	@Override
+	public void handleBeforeTransactionCommit(final BeforeTransactionCommitContext pContext) throws OperationException {
+		super.handleBeforeTransactionCommit(pContext);
+		RecordKeyIndex.endTransaction(pContext.getProcedureContext(), pContext.getSession());
+	}
+}
@@ -2,35 +2,48 @@
 package com.tibco.ebx.cs.commons.component.trigger;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
-import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
-import javax.jms.JMSException;
-import javax.jms.MessageProducer;
-import javax.jms.Session;
-import javax.jms.TextMessage;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
 import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationHome;
+import com.onwbp.adaptation.AdaptationName;
 import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.PrimaryKey;
 import com.onwbp.adaptation.Request;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.schema.SchemaNode;
 import com.orchestranetworks.schema.trigger.AfterCreateOccurrenceContext;
 import com.orchestranetworks.schema.trigger.AfterModifyOccurrenceContext;
+import com.orchestranetworks.schema.trigger.BeforeTransactionCommitContext;
 import com.orchestranetworks.schema.trigger.TableTrigger;
 import com.orchestranetworks.schema.trigger.TriggerSetupContext;
 import com.orchestranetworks.service.ExportSpec;
 import com.orchestranetworks.service.OperationException;
 import com.orchestranetworks.service.ProcedureContext;
+import com.orchestranetworks.service.Session;
+import com.tibco.ebx.cs.commons.lib.utils.AfterCommit;
 
 /**
  * @author Gilles Mayer
  *
- *         Sends created and modified records as XML to a JMS destination
+ *         Sends created and modified records as XML to a JMS destination.<br>
+ *         Records are serialized when they are created or modified, and handed to a {@link JMSPublisher} by {@link AfterCommit} once the transaction has ended, so that the
+ *         transaction never waits for the broker. The messages of a destination are handed over in a single queue, so that they are published in the commit order. A message is only
+ *         published if its record, read after the transaction, has not been modified before the transaction. The messages of a rolled back transaction, of a record deleted
+ *         since, or of a transaction whose end cannot be waited for are dead lettered rather than discarded. Records are serialized by the trigger itself, with the elements of an XML export, unless a view, technical data or a list of complex
+ *         values requires an XML export.
  */
 public class SendToJMS extends TableTrigger {
 
@@ -43,6 +56,17 @@ public class SendToJMS extends TableTrigger {
 	private String viewPublication;
 	private boolean checkAccessRules;
 
+	private int queueCapacity = JMSPublisher.DEFAULT_QUEUE_CAPACITY;
+	private int batchSize = JMSPublisher.DEFAULT_BATCH_SIZE;
+	private int maxAttempts = JMSPublisher.DEFAULT_MAX_ATTEMPTS;
+	private String deadLetterDirectory;
+
+	private Destination jmsDestination;
+	private boolean exportRequired;
+
+	/** Messages of the transaction in progress in the current thread, which only weakly references the transaction */
+	private final ThreadLocal<PendingMessages> pendingMessages = new ThreadLocal<>();
+
 	private String exportToXml(final AdaptationTable table, final Adaptation record, final ProcedureContext procedureContext) throws OperationException {
 		final Request request = table.createRequest();
 		request.setXPathFilter(record.toXPathPredicateString());
@@ -67,13 +91,91 @@ public class SendToJMS extends TableTrigger {
 		}
 	}
 
+	private String serialize(final AdaptationTable table, final Adaptation record, final ProcedureContext procedureContext, final Session session) throws OperationException {
+		if (this.exportRequired) {
+			return this.exportToXml(table, record, procedureContext);
+		}
+		final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		final Path tablePath = table.getTableNode().getPathInSchema();
+		for (int i = 0; i < tablePath.getSize(); i++) {
+			xml.append('<').append(tablePath.get(i).format()).append('>');
+		}
+		this.appendChildren(xml, table.getTableOccurrenceRootNode(), record, this.checkAccessRules ? session : null);
+		for (int i = tablePath.getSize() - 1; i >= 0; i--) {
+			xml.append("</").append(tablePath.get(i).format()).append('>');
+		}
+		return xml.toString();
+	}
+
+	private void appendChildren(final StringBuilder xml, final SchemaNode node, final Adaptation record, final Session session) {
+		for (SchemaNode child : node.getNodeChildren()) {
+			if (child.isAssociationNode() || child.isSelectNode()) {
+				continue;
+			}
+			if (session != null && session.getPermissions().getNodeAccessPermission(child, record).isHidden()) {
+				continue;
+			}
+			final String name = child.getPathInSchema().getLastStep().format();
+			if (!child.isTerminalValue()) {
+				xml.append('<').append(name).append('>');
+				this.appendChildren(xml, child, record, session);
+				xml.append("</").append(name).append('>');
+				continue;
+			}
+			final Object value = record.get(child);
+			if (value instanceof List) {
+				for (Object item : (List<?>) value) {
+					SendToJMS.appendValue(xml, name, child.formatToXsString(item));
+				}
+			} else if (value != null) {
+				SendToJMS.appendValue(xml, name, child.formatToXsString(value));
+			}
+		}
+	}
+
+	private static void appendValue(final StringBuilder xml, final String name, final String value) {
+		xml.append('<').append(name).append('>');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '<':
+				xml.append("&lt;");
+				break;
+			case '>':
+				xml.append("&gt;");
+				break;
+			case '&':
+				xml.append("&amp;");
+				break;
+			case '\r':
+				// Would be normalized to a line feed by the parser
+				xml.append("&#13;");
+				break;
+			case '\t':
+			case '\n':
+				xml.append(c);
+				break;
+			default:
+				if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+					xml.append(c).append(value.charAt(++i));
+				} else if (c < 0x20 || Character.isSurrogate(c) || c == '\uFFFE' || c == '\uFFFF') {
+					// Not allowed in XML 1.0, even as a character reference
+					xml.append('\uFFFD');
+				} else {
+					xml.append(c);
+				}
+			}
+		}
+		xml.append("</").append(name).append('>');
+	}
+
 	@Override
 	public void handleAfterCreate(final AfterCreateOccurrenceContext aContext) throws OperationException {
 		final AdaptationTable table = aContext.getTable();
 		final Adaptation record = aContext.getAdaptationOccurrence();
 		final ProcedureContext procedureContext = aContext.getProcedureContext();
 
-		this.sendRecordData(table, record, procedureContext);
+		this.sendRecordData(table, record, procedureContext, aContext.getSession());
 	}
 
 	@Override
@@ -82,20 +184,79 @@ public class SendToJMS extends TableTrigger {
 		final Adaptation record = aContext.getAdaptationOccurrence();
 		final ProcedureContext procedureContext = aContext.getProcedureContext();
 
-		this.sendRecordData(table, record, procedureContext);
+		this.sendRecordData(table, record, procedureContext, aContext.getSession());
+	}
+
+	@Override
+	public void handleBeforeTransactionCommit(final BeforeTransactionCommitContext aContext) throws OperationException {
+		try {
+			super.handleBeforeTransactionCommit(aContext);
+			final PendingMessages pending = this.pendingMessages.get();
+			if (pending != null && pending.procedureContext.get() == aContext.getProcedureContext()) {
+				final AdaptationHome dataSpace = aContext.getProcedureContext().getAdaptationHome();
+				AfterCommit.executeInOrder("jms-" + this.getPublisherName(), dataSpace, aContext.getSession(),
+						() -> SendToJMS.publishCommittedMessages(this.getPublisher(), dataSpace, pending.messages), () -> this.getPublisher()
+								.deadLetter(SendToJMS.getTexts(pending.messages), "end of the transaction on dataspace " + dataSpace.getKey().getName() + " not confirmed"));
+			}
+		} finally {
+			this.pendingMessages.remove();
+		}
+	}
+
+	private void sendRecordData(final AdaptationTable table, final Adaptation record, final ProcedureContext procedureContext, final Session session) throws OperationException {
+		PendingMessages pending = this.pendingMessages.get();
+		if (pending == null || pending.procedureContext.get() != procedureContext) {
+			// Messages left by a transaction which has not been committed are discarded
+			pending = new PendingMessages(procedureContext);
+			this.pendingMessages.set(pending);
+		}
+		pending.messages.add(new PendingMessage(this.serialize(table, record, procedureContext, session), table, record));
 	}
 
-	private void sendRecordData(final AdaptationTable table, final Adaptation record, final ProcedureContext procedureContext) throws OperationException {
-		try (Connection connection = this.jmsConnectionFactory.createConnection();
-				Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-				MessageProducer producer = session.createProducer((Destination) this.envContext.lookup(this.destination))) {
-			TextMessage message = session.createTextMessage(this.exportToXml(table, record, procedureContext));
-			producer.send(message);
-		} catch (NamingException | JMSException e) {
-			throw OperationException.createError(e);
+	/**
+	 * Publishes the messages whose record, read after the transaction, has been modified by the transaction or later, and dead letters the others, whose transaction has been
+	 * rolled back or whose record has been deleted since.
+	 */
+	private static void publishCommittedMessages(final JMSPublisher publisher, final AdaptationHome dataSpace, final List<PendingMessage> messages) {
+		final List<String> committed = new ArrayList<>(messages.size());
+		final List<String> unconfirmed = new ArrayList<>();
+		for (PendingMessage message : messages) {
+			final Adaptation dataSet = dataSpace.findAdaptationOrNull(AdaptationName.forName(message.dataSetName));
+			final Adaptation record = dataSet == null ? null : dataSet.getTable(message.tablePath).lookupAdaptationByPrimaryKey(PrimaryKey.parseString(message.primaryKey));
+			if (record != null && !record.getTimeOfLastModification().before(message.modificationTime)) {
+				committed.add(message.text);
+			} else {
+				unconfirmed.add(message.text);
+			}
+		}
+		publisher.publish(committed);
+		if (!unconfirmed.isEmpty()) {
+			publisher.deadLetter(unconfirmed, "record not found as updated after the transaction on dataspace " + dataSpace.getKey().getName() + ", rolled back or deleted since");
 		}
 	}
 
+	private static List<String> getTexts(final List<PendingMessage> messages) {
+		final List<String> texts = new ArrayList<>(messages.size());
+		for (PendingMessage message : messages) {
+			texts.add(message.text);
+		}
+		return texts;
+	}
+
+	/**
+	 * Gets the publisher of the destination, which exposes the queue depth and the send latency.
+	 *
+	 * @return the publisher
+	 */
+	public JMSPublisher getPublisher() {
+		return JMSPublisher.getPublisher(this.getPublisherName(), this.jmsConnectionFactory, this.jmsDestination, this.queueCapacity, this.batchSize,
+				this.maxAttempts, this.deadLetterDirectory == null ? null : new File(this.deadLetterDirectory));
+	}
+
+	private String getPublisherName() {
+		return this.connectionFactory + "/" + this.destination;
+	}
+
 	public void setCheckAccessRules(final boolean checkAccessRules) {
 		this.checkAccessRules = checkAccessRules;
 	}
@@ -117,11 +278,13 @@ public class SendToJMS extends TableTrigger {
 		if (this.connectionFactory == null || this.destination == null) {
 			context.addError("connectionFactory and queue are required");
 		}
+		this.exportRequired = this.includesTechnicalData || this.viewPublication != null && !this.viewPublication.isEmpty() || hasComplexList(context.getSchemaNode());
 
 		try {
 			InitialContext initCtx = new InitialContext();
 			this.envContext = (Context) initCtx.lookup("java:comp/env");
 			this.jmsConnectionFactory = (ConnectionFactory) this.envContext.lookup(this.connectionFactory);
+			this.jmsDestination = (Destination) this.envContext.lookup(this.destination);
 
 		} catch (NamingException e) {
 			context.addError("Cannot setup trigger " + e, e);
@@ -132,4 +295,54 @@ public class SendToJMS extends TableTrigger {
 		this.viewPublication = viewPublication;
 	}
 
+	public void setQueueCapacity(final int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public void setBatchSize(final int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setMaxAttempts(final int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public void setDeadLetterDirectory(final String deadLetterDirectory) {
+		this.deadLetterDirectory = deadLetterDirectory;
+	}
+
+	private static boolean hasComplexList(final SchemaNode node) {
+		for (SchemaNode child : node.getNodeChildren()) {
+			if (child.isComplex() && child.getMaxOccurs() > 1 || hasComplexList(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static final class PendingMessages {
+		private final WeakReference<ProcedureContext> procedureContext;
+		private final List<PendingMessage> messages = new ArrayList<>();
+
+		private PendingMessages(final ProcedureContext procedureContext) {
+			this.procedureContext = new WeakReference<>(procedureContext);
+		}
+	}
+
+	private static final class PendingMessage {
+		private final String text;
+		private final String dataSetName;
+		private final Path tablePath;
+		private final String primaryKey;
+		private final Date modificationTime;
+
+		private PendingMessage(final String text, final AdaptationTable table, final Adaptation record) {
+			this.text = text;
+			this.dataSetName = table.getContainerAdaptation().getAdaptationName().getStringName();
+			this.tablePath = table.getTablePath();
+			this.primaryKey = record.getOccurrencePrimaryKey().format();
+			this.modificationTime = record.getTimeOfLastModification();
+		}
+	}
+
 }
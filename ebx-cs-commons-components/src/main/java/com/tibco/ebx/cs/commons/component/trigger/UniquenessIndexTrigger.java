@@ -0,0 +1,108 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.component.trigger;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.onwbp.adaptation.Adaptation;
+import com.orchestranetworks.schema.SchemaNode;
+import com.orchestranetworks.schema.trigger.AfterCreateOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterDeleteOccurrenceContext;
+import com.orchestranetworks.schema.trigger.AfterModifyOccurrenceContext;
+import com.orchestranetworks.schema.trigger.TableTrigger;
+import com.orchestranetworks.schema.trigger.TriggerSetupContext;
+import com.orchestranetworks.service.OperationException;
+import com.tibco.ebx.cs.commons.component.constraint.UniquenessEngine;
+import com.tibco.ebx.cs.commons.component.constraint.UniquenessIndex;
+
+/**
+ * @author Mickaël Chevalier
+ *
+ *         Keeps the {@link UniquenessIndex} of a table current. To be declared with the same unique fields and filter as the uniqueness constraint using the index.<br>
+ *         {@code
+ *
+ *	<osd:trigger class="com.tibco.ebx.cs.commons.component.trigger.UniquenessIndexTrigger">
+ *		<uniqueFields>./field1,./field2</uniqueFields>
+ *		<filter>an xpath filter or nothing</filter>
+ *	</osd:trigger>}
+ */
+public class UniquenessIndexTrigger extends TableTrigger {
+
+	private String uniqueFields;
+	private String filter;
+	private UniquenessEngine engine;
+
+	@Override
+	public void setup(final TriggerSetupContext pContext) {
+		if (this.uniqueFields == null) {
+			pContext.addError("uniqueFields is required.");
+			return;
+		}
+		this.engine = new UniquenessEngine(pContext.getSchemaNode(), this.uniqueFields, this.filter);
+		for (SchemaNode node : this.engine.getUniqueNodes()) {
+			if (node == null) {
+				pContext.addError("uniqueFields " + this.uniqueFields + " does not exist.");
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void handleAfterCreate(final AfterCreateOccurrenceContext pContext) throws OperationException {
+		super.handleAfterCreate(pContext);
+		UniquenessIndex index = UniquenessIndex.lookupIndex(pContext.getTable(), this.engine);
+		Adaptation record = pContext.getAdaptationOccurrence();
+		if (index != null && this.engine.matchesFilter(record)) {
+			index.add(this.engine.hash(record));
+		}
+	}
+
+	@Override
+	public void handleAfterModify(final AfterModifyOccurrenceContext pContext) throws OperationException {
+		super.handleAfterModify(pContext);
+		UniquenessIndex index = UniquenessIndex.lookupIndex(pContext.getTable(), this.engine);
+		if (index == null) {
+			return;
+		}
+		boolean uniqueValuesChanged = false;
+		for (SchemaNode node : this.engine.getUniqueNodes()) {
+			if (pContext.getChanges().getChange(node.getPathInAdaptation()) != null) {
+				uniqueValuesChanged = true;
+				break;
+			}
+		}
+		// With a filter, any modification may bring the record into the scope of the index
+		if (!uniqueValuesChanged && StringUtils.isBlank(this.filter)) {
+			return;
+		}
+		Adaptation record = pContext.getAdaptationOccurrence();
+		if (this.engine.matchesFilter(record)) {
+			index.add(this.engine.hash(record));
+		}
+		index.markStale();
+	}
+
+	@Override
+	public void handleAfterDelete(final AfterDeleteOccurrenceContext pContext) throws OperationException {
+		super.handleAfterDelete(pContext);
+		UniquenessIndex index = UniquenessIndex.lookupIndex(pContext.getTable(), this.engine);
+		if (index != null) {
+			index.markStale();
+		}
+	}
+
+	public String getUniqueFields() {
+		return this.uniqueFields;
+	}
+
+	public void setUniqueFields(final String uniqueFields) {
+		this.uniqueFields = uniqueFields;
+	}
+
+	public String getFilter() {
+		return this.filter;
+	}
+
+	public void setFilter(final String filter) {
+		this.filter = filter;
+	}
+}
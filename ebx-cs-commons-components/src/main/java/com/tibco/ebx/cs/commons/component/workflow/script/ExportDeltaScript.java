@@ -1,37 +1,27 @@
 /* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
 package com.tibco.ebx.cs.commons.component.workflow.script;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
 
-import org.apache.commons.lang3.StringUtils;
-
-import com.onwbp.adaptation.Adaptation;
 import com.onwbp.adaptation.AdaptationHome;
 import com.orchestranetworks.instance.HomeKey;
-import com.orchestranetworks.service.ExportSpec;
 import com.orchestranetworks.service.OperationException;
-import com.orchestranetworks.service.ProcedureContext;
-import com.orchestranetworks.service.ProgrammaticService;
-import com.orchestranetworks.service.ReadOnlyProcedure;
-import com.orchestranetworks.service.comparison.DifferenceBetweenHomes;
-import com.orchestranetworks.service.comparison.DifferenceBetweenInstances;
-import com.orchestranetworks.service.comparison.DifferenceBetweenOccurrences;
-import com.orchestranetworks.service.comparison.DifferenceBetweenTables;
-import com.orchestranetworks.service.comparison.DifferenceHelper;
-import com.orchestranetworks.service.comparison.ExtraOccurrenceOnRight;
 import com.orchestranetworks.workflow.ScriptTaskBean;
 import com.orchestranetworks.workflow.ScriptTaskBeanContext;
+import com.tibco.ebx.cs.commons.lib.procedure.XMLDeltaExporter;
 
 /**
  * @author Mickaël Chevalier
  *
  *         This script task bean exports created and updated records as XML into a file. Creations and updates are identified by comparison of 2 homes (snapshot or dataspace)
  *
+ *         When a destination directory is set, the delta of each table is written to its own part file, gzip compressed unless compress is false, by up to threadMax
+ *         threads, and a manifest.xml lists the parts with their counts and checksums. See {@link XMLDeltaExporter}.
+ *
  *         This script task bean must be declared in module.xml as follow: <br>
  *         {@code
  *         <bean className="com.orchestranetworks.ps.toolbox.workflow.scripttask.ExportDeltaScript">
@@ -75,6 +65,30 @@ import com.orchestranetworks.workflow.ScriptTaskBeanContext;
                         </description>
                     </documentation>
                 </property>
+                <property name="destinationDirectory" input="true">
+                    <documentation xml:lang="en-US">
+                        <label>Destination directory</label>
+                        <description>
+                            Absolute path to the directory of the part files and manifest, used instead of the destination file
+                        </description>
+                    </documentation>
+                </property>
+                <property name="threadMax" input="true">
+                    <documentation xml:lang="en-US">
+                        <label>Maximum number of threads</label>
+                        <description>
+                            Default value is 4
+                        </description>
+                    </documentation>
+                </property>
+                <property name="compress" input="true">
+                    <documentation xml:lang="en-US">
+                        <label>Compress part files</label>
+                        <description>
+                            Default value is true
+                        </description>
+                    </documentation>
+                </property>
                 <property name="includeTechnicalData" input="true">
                     <documentation xml:lang="en-US">
                         <label>Include Technical Data</label>
@@ -88,74 +102,52 @@ import com.orchestranetworks.workflow.ScriptTaskBeanContext;
         }
  */
 public class ExportDeltaScript extends ScriptTaskBean {
-	private static final String XML_DECLARATION = "<?xml version='1.0' encoding='UTF-8'?>";
-
 	private String fromHome;
 	private String toHome;
 	private String header;
 	private String destinationFile;
+	private String destinationDirectory;
+	private Integer threadMax = Integer.valueOf(4);
+	private Boolean compress = Boolean.TRUE;
 	private Boolean includeTechnicalData = Boolean.FALSE;
 
 	@Override
 	public void executeScript(final ScriptTaskBeanContext pContext) throws OperationException {
-		DifferenceBetweenHomes delta = this.getDelta(pContext);
-
-		File file = new File(this.destinationFile);
-		FileOutputStream output = null;
-		try {
-			output = new FileOutputStream(file);
-			output.write(XML_DECLARATION.getBytes());
-			output.write(System.getProperty("line.separator").getBytes());
-			if (!StringUtils.isBlank(this.header)) {
-				output.write(this.header.getBytes());
-			}
-			output.write(System.getProperty("line.separator").getBytes());
-		} catch (IOException ex) {
-			OperationException.createError(ex.getLocalizedMessage());
-		}
-
-		final ExportSpec spec = this.getInitialExportSpec(output);
-
-		final List<Adaptation> recordsInDelta = this.getRecordsFromDelta(delta);
+		AdaptationHome leftHome = this.getHome(pContext, this.fromHome);
+		AdaptationHome rightHome = this.getHome(pContext, this.toHome);
 
-		ProgrammaticService srv = ProgrammaticService.createForSession(pContext.getSession(), pContext.getRepository().getReferenceBranch());
-
-		srv.execute(new ReadOnlyProcedure() {
-			@Override
-			public void execute(final ProcedureContext procContext) throws Exception {
-				int nbOfRecordsInDelta = recordsInDelta.size();
-				for (int i = 0; i < nbOfRecordsInDelta; i++) {
-					if (i == nbOfRecordsInDelta - 1) {
-						spec.setCloseStreamWhenFinished(true);
-					}
-					spec.setSourceAdaptation(recordsInDelta.get(i));
-					procContext.doExport(spec);
-				}
-			}
-		});
+		XMLDeltaExporter exporter = new XMLDeltaExporter(pContext.getSession());
+		exporter.setHeader(this.header);
+		exporter.setIncludeTechnicalData(Boolean.TRUE.equals(this.includeTechnicalData));
+		exporter.setGzip(!Boolean.FALSE.equals(this.compress));
 
 		try {
-			if (output != null) {
-				output.flush();
-				output.close();
+			if (this.destinationDirectory != null) {
+				exporter.exportToParts(leftHome, rightHome, new File(this.destinationDirectory), this.threadMax == null ? 1 : this.threadMax.intValue());
+			} else {
+				try (OutputStream output = new BufferedOutputStream(new FileOutputStream(new File(this.destinationFile)))) {
+					exporter.export(leftHome, rightHome, output);
+				}
 			}
 		} catch (IOException ex) {
-			throw new RuntimeException(ex);
+			throw OperationException.createError(ex);
 		}
 	}
 
-	private DifferenceBetweenHomes getDelta(final ScriptTaskBeanContext pContext) {
-		AdaptationHome leftHome = pContext.getRepository().lookupHome(HomeKey.parse(this.fromHome));
-		if (leftHome == null) {
-			OperationException.createError("Home '" + this.fromHome + "' cannot be found");
+	private AdaptationHome getHome(final ScriptTaskBeanContext pContext, final String pHomeKey) throws OperationException {
+		AdaptationHome home = pContext.getRepository().lookupHome(HomeKey.parse(pHomeKey));
+		if (home == null) {
+			throw OperationException.createError("Home '" + pHomeKey + "' cannot be found");
 		}
+		return home;
+	}
 
-		AdaptationHome rightHome = pContext.getRepository().lookupHome(HomeKey.parse(this.toHome));
-		if (rightHome == null) {
-			OperationException.createError("Home '" + this.toHome + "' cannot be found");
-		}
+	public Boolean getCompress() {
+		return this.compress;
+	}
 
-		return DifferenceHelper.compareHomes(leftHome, rightHome, true);
+	public String getDestinationDirectory() {
+		return this.destinationDirectory;
 	}
 
 	public String getDestinationFile() {
@@ -174,35 +166,22 @@ public class ExportDeltaScript extends ScriptTaskBean {
 		return this.includeTechnicalData;
 	}
 
-	private ExportSpec getInitialExportSpec(final OutputStream pOutput) {
-		ExportSpec spec = new ExportSpec();
-		spec.setDestinationStream(pOutput);
-		spec.setCloseStreamWhenFinished(false);
-		spec.setIncludesTechnicalData(this.includeTechnicalData.booleanValue());
-		spec.setOmitXMLComment(true);
-		spec.setOmitXMLDeclaration(true);
-		return spec;
-	}
-
-	private List<Adaptation> getRecordsFromDelta(final DifferenceBetweenHomes delta) {
-		List<Adaptation> recordsFromDelta = new ArrayList<>();
-		for (DifferenceBetweenInstances deltaInstance : delta.getDeltaInstances()) {
-			for (DifferenceBetweenTables deltaTable : deltaInstance.getDeltaTables()) {
-				for (ExtraOccurrenceOnRight extraOnRight : deltaTable.getExtraOccurrencesOnRight()) {
-					recordsFromDelta.add(extraOnRight.getExtraAdaptationOnRight());
-				}
-				for (DifferenceBetweenOccurrences deltaOccurrences : deltaTable.getDeltaOccurrences()) {
-					recordsFromDelta.add(deltaOccurrences.getContentOnRight());
-				}
-			}
-		}
-		return recordsFromDelta;
+	public Integer getThreadMax() {
+		return this.threadMax;
 	}
 
 	public String getToHome() {
 		return this.toHome;
 	}
 
+	public void setCompress(final Boolean compress) {
+		this.compress = compress;
+	}
+
+	public void setDestinationDirectory(final String destinationDirectory) {
+		this.destinationDirectory = destinationDirectory;
+	}
+
 	public void setDestinationFile(final String destinationFile) {
 		this.destinationFile = destinationFile;
 	}
@@ -219,6 +198,10 @@ public class ExportDeltaScript extends ScriptTaskBean {
 		this.includeTechnicalData = includeTechnicalData;
 	}
 
+	public void setThreadMax(final Integer threadMax) {
+		this.threadMax = threadMax;
+	}
+
 	public void setToHome(final String toHome) {
 		this.toHome = toHome;
 	}
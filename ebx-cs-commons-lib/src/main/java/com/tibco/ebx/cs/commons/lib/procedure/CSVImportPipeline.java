@@ -0,0 +1,576 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.procedure;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.PrimaryKey;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.schema.SchemaNode;
+import com.orchestranetworks.service.ExportImportCSVSpec.Header;
+import com.orchestranetworks.service.OperationException;
+import com.orchestranetworks.service.ProcedureContext;
+import com.orchestranetworks.service.ProcedureResult;
+import com.orchestranetworks.service.Session;
+import com.orchestranetworks.service.ValueContextForUpdate;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+import com.tibco.ebx.cs.commons.lib.utils.FieldsCollector;
+
+/**
+ * Chunked CSV import of a file into a table, records being created or updated according to their primary key.
+ * <p>
+ * A parser thread reads the file and converts the cells with converters computed once per column, while the calling thread persists the parsed records by chunks, each chunk
+ * being committed by its own transaction. Rows which cannot be converted or persisted are written to a reject file, followed by the reason of the reject, instead of aborting
+ * the import. Reject records end with the CRLF line separator of the exporter, so that a reject file can be read back with the same settings. Progress can be read from another
+ * thread during the import.
+ * </p>
+ * <p>
+ * The dialect is the one of {@link CSVStreamExporter}: header of labels, paths or no header, XS formatted values, values of lists on separate lines in the same cell.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class CSVImportPipeline {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/** Number of parsed chunks waiting for persistence */
+	private static final int QUEUE_CAPACITY = 4;
+
+	private static final List<Row> END_OF_FILE = Collections.emptyList();
+
+	private static final char QUOTE = '"';
+
+	private final File file;
+	private final AdaptationTable table;
+
+	private String encoding = "UTF-8";
+	private char fieldSeparator = ',';
+	private Header header = Header.LABEL;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private Locale locale = Locale.getDefault();
+	private File rejectFile;
+	private boolean allPrivileges = false;
+
+	private final AtomicLong parsedRowCount = new AtomicLong();
+	private final AtomicLong importedRowCount = new AtomicLong();
+	private final AtomicLong rejectedRowCount = new AtomicLong();
+	private final AtomicLong committedChunkCount = new AtomicLong();
+	private volatile boolean running = false;
+
+	private List<String> headerCells;
+	private Writer rejectWriter;
+	private volatile Exception parserFailure;
+
+	/**
+	 * @param pFile  the file to import
+	 * @param pTable the destination table
+	 */
+	public CSVImportPipeline(final File pFile, final AdaptationTable pTable) {
+		this.file = pFile;
+		this.table = pTable;
+	}
+
+	/**
+	 * Imports the file.
+	 *
+	 * @param pSession the session
+	 * @throws IOException if the file cannot be read or the reject file cannot be written
+	 */
+	public void execute(final Session pSession) throws IOException {
+		this.parsedRowCount.set(0);
+		this.importedRowCount.set(0);
+		this.rejectedRowCount.set(0);
+		this.committedChunkCount.set(0);
+		this.parserFailure = null;
+		this.running = true;
+		long start = System.currentTimeMillis();
+
+		BlockingQueue<List<Row>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		try (CSVReader reader = new CSVReader(new BufferedReader(new InputStreamReader(new FileInputStream(this.file), this.encoding), CSVStreamExporter.DEFAULT_BUFFER_SIZE),
+				this.fieldSeparator)) {
+			List<Column> columns = this.readHeader(reader);
+			Thread parser = new Thread(() -> this.parse(reader, columns, queue), "csv-import-" + this.file.getName());
+			parser.setDaemon(true);
+			parser.start();
+			try {
+				this.persist(pSession, columns, queue);
+			} catch (RuntimeException | IOException ex) {
+				parser.interrupt();
+				throw ex;
+			} finally {
+				parser.join();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Import of " + this.file.getName() + " interrupted", ex);
+		} finally {
+			this.running = false;
+			if (this.rejectWriter != null) {
+				this.rejectWriter.close();
+				this.rejectWriter = null;
+			}
+		}
+		if (this.parserFailure instanceof IOException) {
+			throw (IOException) this.parserFailure;
+		}
+		if (this.parserFailure != null) {
+			throw new IOException("Parsing of " + this.file.getName() + " failed", this.parserFailure);
+		}
+		CommonsLogger.getLogger().info("Import of " + this.file.getName() + " done in " + (System.currentTimeMillis() - start) + " ms: " + this.importedRowCount.get()
+				+ " records imported, " + this.rejectedRowCount.get() + " rejected");
+	}
+
+	private List<Column> readHeader(final CSVReader pReader) throws IOException {
+		FieldsCollector collector = new FieldsCollector();
+		List<SchemaNode> nodes = collector.collectFieldsInTable(this.table.getTableOccurrenceRootNode());
+		List<Column> columns = new ArrayList<>();
+		if (this.header == Header.NONE) {
+			this.headerCells = null;
+			for (SchemaNode node : nodes) {
+				columns.add(new Column(node));
+			}
+			return columns;
+		}
+
+		this.headerCells = pReader.readRecord();
+		if (this.headerCells == null) {
+			return columns;
+		}
+		Map<String, SchemaNode> nodesByName = new HashMap<>();
+		for (SchemaNode node : nodes) {
+			nodesByName.put(this.header == Header.LABEL ? node.getLabel(this.locale) : node.getPathInAdaptation().format(), node);
+		}
+		for (String cell : this.headerCells) {
+			SchemaNode node = nodesByName.get(cell);
+			if (node == null) {
+				CommonsLogger.getLogger().warn("Column " + cell + " of " + this.file.getName() + " does not match any field of " + this.table.getTablePath().format() + ", it is ignored");
+			}
+			columns.add(node == null ? null : new Column(node));
+		}
+		return columns;
+	}
+
+	private void parse(final CSVReader pReader, final List<Column> pColumns, final BlockingQueue<List<Row>> pQueue) {
+		try {
+			List<Row> chunk = new ArrayList<>(this.chunkSize);
+			for (List<String> cells; (cells = pReader.readRecord()) != null;) {
+				if (Thread.currentThread().isInterrupted()) {
+					return;
+				}
+				if (cells.size() == 1 && cells.get(0).isEmpty()) {
+					continue;
+				}
+				long line = pReader.getRecordLine();
+				this.parsedRowCount.incrementAndGet();
+				try {
+					chunk.add(new Row(line, cells, new RecordValuesBean(this.table, this.convert(pColumns, cells))));
+				} catch (Exception ex) {
+					this.reject(line, cells, ex.getMessage());
+					continue;
+				}
+				if (chunk.size() == this.chunkSize) {
+					pQueue.put(chunk);
+					chunk = new ArrayList<>(this.chunkSize);
+				}
+			}
+			if (!chunk.isEmpty()) {
+				pQueue.put(chunk);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (Exception ex) {
+			this.parserFailure = ex;
+		}
+		try {
+			pQueue.put(END_OF_FILE);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private HashMap<Path, Object> convert(final List<Column> pColumns, final List<String> pCells) {
+		HashMap<Path, Object> values = new HashMap<>();
+		for (int i = 0; i < pColumns.size() && i < pCells.size(); i++) {
+			Column column = pColumns.get(i);
+			if (column != null) {
+				values.put(column.path, column.convert(pCells.get(i)));
+			}
+		}
+		return values;
+	}
+
+	private void persist(final Session pSession, final List<Column> pColumns, final BlockingQueue<List<Row>> pQueue) throws IOException, InterruptedException {
+		Path[] primaryKeyPaths = this.table.getPrimaryKeySpec().clone();
+		for (int i = 0; i < primaryKeyPaths.length; i++) {
+			// Same form as the paths of the columns
+			primaryKeyPaths[i] = Path.SELF.add(this.table.getTableOccurrenceRootNode().getNode(primaryKeyPaths[i]).getPathInAdaptation());
+		}
+		for (List<Row> rows; (rows = pQueue.take()) != END_OF_FILE;) {
+			long start = System.currentTimeMillis();
+			ChunkProcedure procedure = new ChunkProcedure(rows, primaryKeyPaths);
+			procedure.setAllPrivileges(this.allPrivileges);
+			ProcedureResult result = procedure.executeWithProgrammaticService(this.table.getContainerAdaptation().getHome(), pSession);
+			if (result.hasFailed()) {
+				String message = result.getException() == null ? "Chunk failed" : result.getException().getMessage();
+				for (Row row : rows) {
+					this.reject(row.line, row.cells, message);
+				}
+				continue;
+			}
+			for (Row row : procedure.rejectedRows) {
+				this.reject(row.line, row.cells, row.rejectMessage);
+			}
+			this.importedRowCount.addAndGet(rows.size() - procedure.rejectedRows.size());
+			long chunk = this.committedChunkCount.incrementAndGet();
+			CommonsLogger.getLogger().info("Chunk " + chunk + " of " + this.file.getName() + " committed in " + (System.currentTimeMillis() - start) + " ms: "
+					+ this.importedRowCount.get() + " records imported, " + this.rejectedRowCount.get() + " rejected, " + this.parsedRowCount.get() + " parsed");
+		}
+	}
+
+	private synchronized void reject(final long pLine, final List<String> pCells, final String pMessage) throws IOException {
+		this.rejectedRowCount.incrementAndGet();
+		if (this.rejectFile == null) {
+			CommonsLogger.getLogger().warn("Line " + pLine + " of " + this.file.getName() + " rejected: " + pMessage);
+			return;
+		}
+		if (this.rejectWriter == null) {
+			this.rejectWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.rejectFile), this.encoding));
+			if (this.headerCells != null) {
+				List<String> header = new ArrayList<>(this.headerCells);
+				header.add("line");
+				header.add("error");
+				this.writeRecord(header);
+			}
+		}
+		List<String> cells = new ArrayList<>(pCells);
+		cells.add(String.valueOf(pLine));
+		cells.add(pMessage);
+		this.writeRecord(cells);
+	}
+
+	private void writeRecord(final List<String> pCells) throws IOException {
+		for (int i = 0; i < pCells.size(); i++) {
+			if (i > 0) {
+				this.rejectWriter.write(this.fieldSeparator);
+			}
+			String cell = pCells.get(i);
+			if (cell == null) {
+				continue;
+			}
+			if (cell.indexOf(this.fieldSeparator) < 0 && cell.indexOf(QUOTE) < 0 && cell.indexOf('\n') < 0 && cell.indexOf('\r') < 0) {
+				this.rejectWriter.write(cell);
+			} else {
+				this.rejectWriter.write(QUOTE + cell.replace("\"", "\"\"") + QUOTE);
+			}
+		}
+		this.rejectWriter.write(CSVStreamExporter.DEFAULT_LINE_SEPARATOR);
+	}
+
+	/**
+	 * Sets the encoding. Default is UTF-8.
+	 *
+	 * @param pEncoding the encoding
+	 */
+	public void setEncoding(final String pEncoding) {
+		this.encoding = pEncoding;
+	}
+
+	/**
+	 * Sets the field separator. Default is ','.
+	 *
+	 * @param pFieldSeparator the field separator
+	 */
+	public void setFieldSeparator(final char pFieldSeparator) {
+		this.fieldSeparator = pFieldSeparator;
+	}
+
+	/**
+	 * Sets the header mode. Default is labels. Without header, the columns are expected in the order of the fields of the table.
+	 *
+	 * @param pHeader the header mode
+	 */
+	public void setHeader(final Header pHeader) {
+		this.header = pHeader;
+	}
+
+	/**
+	 * Sets the number of records committed at once. Default is {@value #DEFAULT_CHUNK_SIZE}.
+	 *
+	 * @param pChunkSize the chunk size
+	 */
+	public void setChunkSize(final int pChunkSize) {
+		if (pChunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		this.chunkSize = pChunkSize;
+	}
+
+	/**
+	 * Sets the locale of the labels of the header. Default is the one of the platform.
+	 *
+	 * @param pLocale the locale
+	 */
+	public void setLocale(final Locale pLocale) {
+		this.locale = pLocale;
+	}
+
+	/**
+	 * Sets the file the rejected rows are written to. Default is null, rejected rows are logged.
+	 *
+	 * @param pRejectFile the reject file
+	 */
+	public void setRejectFile(final File pRejectFile) {
+		this.rejectFile = pRejectFile;
+	}
+
+	/**
+	 * Sets the all privileges mode of the transactions. Default is false.
+	 *
+	 * @param pAllPrivileges true to ignore access rules
+	 */
+	public void setAllPrivileges(final boolean pAllPrivileges) {
+		this.allPrivileges = pAllPrivileges;
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	public AdaptationTable getTable() {
+		return this.table;
+	}
+
+	public File getRejectFile() {
+		return this.rejectFile;
+	}
+
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	public long getParsedRowCount() {
+		return this.parsedRowCount.get();
+	}
+
+	public long getImportedRowCount() {
+		return this.importedRowCount.get();
+	}
+
+	public long getRejectedRowCount() {
+		return this.rejectedRowCount.get();
+	}
+
+	public long getCommittedChunkCount() {
+		return this.committedChunkCount.get();
+	}
+
+	/**
+	 * Converter of the cells of a column.
+	 */
+	private static final class Column {
+		private final SchemaNode node;
+		private final Path path;
+		private final boolean list;
+
+		private Column(final SchemaNode pNode) {
+			this.node = pNode;
+			this.path = Path.SELF.add(pNode.getPathInAdaptation());
+			this.list = pNode.getMaxOccurs() > 1;
+		}
+
+		private Object convert(final String pCell) {
+			if (pCell == null || pCell.isEmpty()) {
+				return null;
+			}
+			if (!this.list) {
+				return this.node.parseXsString(pCell);
+			}
+			List<Object> values = new ArrayList<>();
+			for (String item : pCell.split("\r?\n")) {
+				values.add(this.node.parseXsString(item));
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * Parsed row of the file.
+	 */
+	private static final class Row {
+		private final long line;
+		private final List<String> cells;
+		private final RecordValuesBean bean;
+		private String rejectMessage;
+
+		private Row(final long pLine, final List<String> pCells, final RecordValuesBean pBean) {
+			this.line = pLine;
+			this.cells = pCells;
+			this.bean = pBean;
+		}
+	}
+
+	/**
+	 * Creates or updates the records of a chunk, rows failing individually are collected.
+	 */
+	private final class ChunkProcedure extends GenericProcedure {
+		private final List<Row> rows;
+		private final Path[] primaryKeyPaths;
+		private final List<Row> rejectedRows = new ArrayList<>();
+
+		private ChunkProcedure(final List<Row> pRows, final Path[] pPrimaryKeyPaths) {
+			this.rows = pRows;
+			this.primaryKeyPaths = pPrimaryKeyPaths;
+		}
+
+		@Override
+		protected void doExecute(final ProcedureContext pContext) throws Exception {
+			AdaptationTable table = CSVImportPipeline.this.table;
+			for (Row row : this.rows) {
+				try {
+					RecordValuesBean bean = row.bean;
+					bean.setRecord(this.lookupRecord(table, bean.getValues()));
+					ValueContextForUpdate valueContext;
+					if (bean.getRecord() == null) {
+						valueContext = pContext.getContextForNewOccurrence(table);
+					} else {
+						valueContext = pContext.getContext(bean.getRecord().getAdaptationName());
+					}
+					for (Map.Entry<Path, Object> value : bean.getValues().entrySet()) {
+						valueContext.setValue(value.getValue(), value.getKey());
+					}
+					if (bean.getRecord() == null) {
+						pContext.doCreateOccurrence(valueContext, table);
+					} else {
+						pContext.doModifyContent(bean.getRecord(), valueContext);
+					}
+				} catch (OperationException | RuntimeException ex) {
+					row.rejectMessage = ex.getMessage();
+					this.rejectedRows.add(row);
+				}
+			}
+		}
+
+		private Adaptation lookupRecord(final AdaptationTable pTable, final HashMap<Path, Object> pValues) {
+			Object[] primaryKeyValues = new Object[this.primaryKeyPaths.length];
+			for (int i = 0; i < this.primaryKeyPaths.length; i++) {
+				primaryKeyValues[i] = pValues.get(this.primaryKeyPaths[i]);
+				if (primaryKeyValues[i] == null) {
+					return null;
+				}
+			}
+			PrimaryKey primaryKey = pTable.computePrimaryKey(primaryKeyValues);
+			return pTable.lookupAdaptationByPrimaryKey(primaryKey);
+		}
+	}
+
+	/**
+	 * Reader of CSV records, quoted cells can contain separators, quotes and line breaks.
+	 */
+	private static final class CSVReader implements AutoCloseable {
+		private final Reader reader;
+		private final char separator;
+		private long line = 1;
+		private long recordLine;
+		private int next = -2;
+
+		private CSVReader(final Reader pReader, final char pSeparator) {
+			this.reader = pReader;
+			this.separator = pSeparator;
+		}
+
+		private int read() throws IOException {
+			if (this.next != -2) {
+				int c = this.next;
+				this.next = -2;
+				return c;
+			}
+			return this.reader.read();
+		}
+
+		private List<String> readRecord() throws IOException {
+			int c = this.read();
+			if (c == '\uFEFF' && this.line == 1) {
+				c = this.read();
+			}
+			if (c == -1) {
+				return null;
+			}
+			this.recordLine = this.line;
+			List<String> cells = new ArrayList<>();
+			StringBuilder cell = new StringBuilder();
+			boolean quoted = false;
+			while (true) {
+				if (quoted) {
+					if (c == -1) {
+						throw new IOException("Unterminated quoted value starting line " + this.recordLine);
+					}
+					if (c == QUOTE) {
+						int following = this.read();
+						if (following == QUOTE) {
+							cell.append(QUOTE);
+						} else {
+							quoted = false;
+							this.next = following;
+						}
+					} else {
+						if (c == '\n') {
+							this.line++;
+						}
+						cell.append((char) c);
+					}
+				} else if (c == QUOTE && cell.length() == 0) {
+					quoted = true;
+				} else if (c == this.separator) {
+					cells.add(cell.toString());
+					cell.setLength(0);
+				} else if (c == '\r' || c == '\n' || c == -1) {
+					if (c == '\r') {
+						int following = this.read();
+						if (following != '\n') {
+							this.next = following;
+						}
+					}
+					if (c != -1) {
+						this.line++;
+					}
+					cells.add(cell.toString());
+					return cells;
+				} else {
+					cell.append((char) c);
+				}
+				c = this.read();
+			}
+		}
+
+		private long getRecordLine() {
+			return this.recordLine;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.reader.close();
+		}
+	}
+}
@@ -0,0 +1,388 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.procedure;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationHome;
+import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.Request;
+import com.onwbp.adaptation.RequestResult;
+import com.orchestranetworks.schema.SchemaNode;
+import com.orchestranetworks.service.ExportImportCSVSpec.Header;
+import com.orchestranetworks.service.Session;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+import com.tibco.ebx.cs.commons.lib.utils.FieldsCollector;
+
+/**
+ * Streaming CSV export of one or several tables.
+ * <p>
+ * Records are read lazily from the request result and written through a large buffer, optionally gzip compressed, so that memory does not depend on the size of the table. Several
+ * tables of the same dataspace or snapshot can be exported in parallel by a bounded number of threads. A snapshot should be preferred to a dataspace when the files must be
+ * consistent with each other.
+ * </p>
+ * <p>
+ * The dialect is the one of the CSV export of EBX: header of labels or paths or no header, XS formatted values, values of lists on separate lines in the same cell, cells quoted when
+ * they contain the separator, a quote or a line break, quotes doubled, records ended by CRLF as in RFC 4180 whatever the platform.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class CSVStreamExporter {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private static final char QUOTE = '"';
+
+	/** Ends the records, as in the files of the standard export */
+	public static final String DEFAULT_LINE_SEPARATOR = "\r\n";
+
+	/** Separates the values of a list in a cell */
+	private static final char LIST_SEPARATOR = '\n';
+
+	private String encoding = "UTF-8";
+	private char fieldSeparator = ',';
+	private Header header = Header.LABEL;
+	private boolean exportLabels = false;
+	private boolean includeComputedValues = true;
+	private boolean gzip = false;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private String lineSeparator = DEFAULT_LINE_SEPARATOR;
+	private Locale locale = Locale.getDefault();
+	private Session session;
+
+	/**
+	 * Exports the records of a request.
+	 *
+	 * @param pRequest the request, its filter and order are applied
+	 * @param pFile    the destination file
+	 * @return the report of the export
+	 * @throws IOException if the file cannot be written
+	 */
+	public TableReport export(final Request pRequest, final File pFile) throws IOException {
+		AdaptationTable table = pRequest.getTable();
+		List<SchemaNode> nodes = this.getExportedNodes(table);
+		long start = System.currentTimeMillis();
+		long rowCount = 0;
+		RequestResult result = pRequest.execute();
+		try (Writer writer = this.openWriter(pFile)) {
+			if (this.header != Header.NONE) {
+				this.writeHeader(writer, nodes);
+			}
+			for (Adaptation record; (record = result.nextAdaptation()) != null;) {
+				if (this.session != null && this.session.getPermissions().getAdaptationAccessPermission(record).isHidden()) {
+					continue;
+				}
+				this.writeRecord(writer, record, nodes);
+				rowCount++;
+			}
+		} finally {
+			result.close();
+		}
+		TableReport report = new TableReport(table.getTablePath().format(), pFile, rowCount, System.currentTimeMillis() - start);
+		CommonsLogger.getLogger().info(report.toString());
+		return report;
+	}
+
+	/**
+	 * Exports the records of a table.
+	 *
+	 * @param pTable the table
+	 * @param pFile  the destination file
+	 * @return the report of the export
+	 * @throws IOException if the file cannot be written
+	 */
+	public TableReport export(final AdaptationTable pTable, final File pFile) throws IOException {
+		return this.export(pTable.createRequest(), pFile);
+	}
+
+	/**
+	 * Exports several requests in parallel. All the requests must be on tables of the same dataspace or snapshot.
+	 *
+	 * @param pRequests  the requests
+	 * @param pFiles     the destination files, in the order of the requests
+	 * @param pThreadMax the maximum number of tables exported at the same time
+	 * @return the reports of the exports, in the order of the requests
+	 * @throws IOException if a file cannot be written, the other exports are then cancelled
+	 */
+	public List<TableReport> exportAll(final List<Request> pRequests, final List<File> pFiles, final int pThreadMax) throws IOException {
+		if (pRequests.size() != pFiles.size()) {
+			throw new IllegalArgumentException("One file per request is expected");
+		}
+		if (pRequests.isEmpty()) {
+			return Collections.emptyList();
+		}
+		AdaptationHome home = pRequests.get(0).getTable().getContainerAdaptation().getHome();
+		for (Request request : pRequests) {
+			if (!home.equals(request.getTable().getContainerAdaptation().getHome())) {
+				throw new IllegalArgumentException("All the tables must belong to the dataspace or snapshot " + home.getKey().format());
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(pThreadMax, pRequests.size())));
+		try {
+			List<Future<TableReport>> futures = new ArrayList<>();
+			for (int i = 0; i < pRequests.size(); i++) {
+				Request request = pRequests.get(i);
+				File file = pFiles.get(i);
+				futures.add(executor.submit(() -> this.export(request, file)));
+			}
+			List<TableReport> reports = new ArrayList<>();
+			for (Future<TableReport> future : futures) {
+				reports.add(future.get());
+			}
+			return reports;
+		} catch (ExecutionException ex) {
+			executor.shutdownNow();
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException("Export failed", ex.getCause());
+		} catch (InterruptedException ex) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new IOException("Export interrupted", ex);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private List<SchemaNode> getExportedNodes(final AdaptationTable pTable) {
+		FieldsCollector collector = new FieldsCollector();
+		collector.setIncludingComputed(this.includeComputedValues);
+		return collector.collectFieldsInTable(pTable.getTableOccurrenceRootNode());
+	}
+
+	private Writer openWriter(final File pFile) throws IOException {
+		OutputStream out = new FileOutputStream(pFile);
+		try {
+			if (this.gzip) {
+				out = new GZIPOutputStream(out, this.bufferSize);
+			}
+			return new BufferedWriter(new OutputStreamWriter(out, this.encoding), this.bufferSize);
+		} catch (IOException | RuntimeException ex) {
+			out.close();
+			throw ex;
+		}
+	}
+
+	private void writeHeader(final Writer pWriter, final List<SchemaNode> pNodes) throws IOException {
+		for (int i = 0; i < pNodes.size(); i++) {
+			if (i > 0) {
+				pWriter.write(this.fieldSeparator);
+			}
+			SchemaNode node = pNodes.get(i);
+			this.writeCell(pWriter, this.header == Header.LABEL ? node.getLabel(this.locale) : node.getPathInAdaptation().format());
+		}
+		pWriter.write(this.lineSeparator);
+	}
+
+	private void writeRecord(final Writer pWriter, final Adaptation pRecord, final List<SchemaNode> pNodes) throws IOException {
+		for (int i = 0; i < pNodes.size(); i++) {
+			if (i > 0) {
+				pWriter.write(this.fieldSeparator);
+			}
+			SchemaNode node = pNodes.get(i);
+			if (this.session != null && this.session.getPermissions().getNodeAccessPermission(node, pRecord).isHidden()) {
+				continue;
+			}
+			Object value = pRecord.get(node);
+			if (value instanceof List) {
+				StringBuilder cell = new StringBuilder();
+				for (Object item : (List<?>) value) {
+					if (cell.length() > 0) {
+						cell.append(LIST_SEPARATOR);
+					}
+					cell.append(this.format(node, item, pRecord));
+				}
+				this.writeCell(pWriter, cell.toString());
+			} else if (value != null) {
+				this.writeCell(pWriter, this.format(node, value, pRecord));
+			}
+		}
+		pWriter.write(this.lineSeparator);
+	}
+
+	private String format(final SchemaNode pNode, final Object pValue, final Adaptation pRecord) {
+		if (this.exportLabels) {
+			return pNode.displayOccurrence(pValue, true, pRecord.createValueContext(), this.locale);
+		}
+		return pNode.formatToXsString(pValue);
+	}
+
+	private void writeCell(final Writer pWriter, final String pValue) throws IOException {
+		if (pValue == null || pValue.isEmpty()) {
+			return;
+		}
+		boolean quoted = false;
+		for (int i = 0; i < pValue.length(); i++) {
+			char c = pValue.charAt(i);
+			if (c == this.fieldSeparator || c == QUOTE || c == '\n' || c == '\r') {
+				quoted = true;
+				break;
+			}
+		}
+		if (!quoted) {
+			pWriter.write(pValue);
+			return;
+		}
+		pWriter.write(QUOTE);
+		for (int i = 0; i < pValue.length(); i++) {
+			char c = pValue.charAt(i);
+			if (c == QUOTE) {
+				pWriter.write(QUOTE);
+			}
+			pWriter.write(c);
+		}
+		pWriter.write(QUOTE);
+	}
+
+	/**
+	 * Sets the encoding. Default is UTF-8.
+	 *
+	 * @param pEncoding the encoding
+	 */
+	public void setEncoding(final String pEncoding) {
+		this.encoding = pEncoding;
+	}
+
+	/**
+	 * Sets the field separator. Default is ','.
+	 *
+	 * @param pFieldSeparator the field separator
+	 */
+	public void setFieldSeparator(final char pFieldSeparator) {
+		this.fieldSeparator = pFieldSeparator;
+	}
+
+	/**
+	 * Sets the header mode. Default is labels.
+	 *
+	 * @param pHeader the header mode
+	 */
+	public void setHeader(final Header pHeader) {
+		this.header = pHeader;
+	}
+
+	/**
+	 * If true, the labels of the values are exported instead of the values. Default is false.
+	 *
+	 * @param pExportLabels true to export labels
+	 */
+	public void setExportLabels(final boolean pExportLabels) {
+		this.exportLabels = pExportLabels;
+	}
+
+	/**
+	 * If false, computed values won't be exported. Default is true.
+	 *
+	 * @param pIncludeComputedValues true to export computed values
+	 */
+	public void setIncludeComputedValues(final boolean pIncludeComputedValues) {
+		this.includeComputedValues = pIncludeComputedValues;
+	}
+
+	/**
+	 * If true, files are gzip compressed. Default is false.
+	 *
+	 * @param pGzip true to compress
+	 */
+	public void setGzip(final boolean pGzip) {
+		this.gzip = pGzip;
+	}
+
+	/**
+	 * Sets the size of the write buffer. Default is 1 MB.
+	 *
+	 * @param pBufferSize the size in bytes
+	 */
+	public void setBufferSize(final int pBufferSize) {
+		this.bufferSize = pBufferSize;
+	}
+
+	/**
+	 * Sets the separator of the records. Default is CRLF, whatever the platform.
+	 *
+	 * @param pLineSeparator the line separator
+	 */
+	public void setLineSeparator(final String pLineSeparator) {
+		this.lineSeparator = pLineSeparator;
+	}
+
+	/**
+	 * Sets the locale of the labels. Default is the one of the platform.
+	 *
+	 * @param pLocale the locale
+	 */
+	public void setLocale(final Locale pLocale) {
+		this.locale = pLocale;
+	}
+
+	/**
+	 * Sets the session whose access rules are applied: hidden records are skipped and hidden fields are left empty. Default is null, no access rule is evaluated.
+	 *
+	 * @param pSession the session
+	 */
+	public void setSession(final Session pSession) {
+		this.session = pSession;
+	}
+
+	/**
+	 * Report of the export of a table.
+	 */
+	public static final class TableReport {
+		private final String tablePath;
+		private final File file;
+		private final long rowCount;
+		private final long durationMillis;
+
+		private TableReport(final String pTablePath, final File pFile, final long pRowCount, final long pDurationMillis) {
+			this.tablePath = pTablePath;
+			this.file = pFile;
+			this.rowCount = pRowCount;
+			this.durationMillis = pDurationMillis;
+		}
+
+		public String getTablePath() {
+			return this.tablePath;
+		}
+
+		public File getFile() {
+			return this.file;
+		}
+
+		public long getRowCount() {
+			return this.rowCount;
+		}
+
+		public long getDurationMillis() {
+			return this.durationMillis;
+		}
+
+		public double getRowsPerSecond() {
+			return this.rowCount * 1000d / Math.max(1, this.durationMillis);
+		}
+
+		@Override
+		public String toString() {
+			return "Exported " + this.rowCount + " records of " + this.tablePath + " to " + this.file.getName() + " in " + this.durationMillis + " ms ("
+					+ Math.round(this.getRowsPerSecond()) + " rows/s)";
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.procedure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.onwbp.adaptation.AdaptationHome;
+import com.orchestranetworks.service.ProcedureContext;
+import com.orchestranetworks.service.ProcedureResult;
+import com.orchestranetworks.service.Session;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+
+/**
+ * Procedure processing a list of items by chunks, each chunk being committed by its own execution.
+ * <p>
+ * A long load is thus split into short transactions: locks and undo state are released after each chunk and a failure only rolls back the chunk being processed. The switches of
+ * {@link GenericProcedure} (privileges, triggers, history, blocking constraints) apply to every chunk. Execution stops at the first failed chunk and can be restarted from the first
+ * uncommitted one with {@link #setFirstChunk(int)}.
+ * </p>
+ *
+ * @param <T> the type of the items
+ * @author Mickaël Chevalier
+ */
+public final class ChunkedProcedure<T> extends GenericProcedure {
+
+	/**
+	 * Job applied to each chunk, within the transaction of the chunk.
+	 *
+	 * @param <T> the type of the items
+	 */
+	@FunctionalInterface
+	public interface ChunkProcessor<T> {
+		void process(ProcedureContext pContext, List<T> pChunk) throws Exception;
+	}
+
+	/**
+	 * Notified after each committed chunk.
+	 */
+	@FunctionalInterface
+	public interface ChunkListener {
+		void chunkCommitted(int pChunkIndex, int pChunkCount, int pItemCount, long pDurationMillis);
+	}
+
+	private final List<T> items;
+	private final int chunkSize;
+	private final ChunkProcessor<T> processor;
+	private ChunkListener listener = ChunkedProcedure::logProgress;
+
+	private int firstChunk = 0;
+	private int currentChunk = -1;
+	private int lastCommittedChunk = -1;
+	private long processedItemCount = 0;
+	private final List<Long> chunkDurations = new ArrayList<>();
+
+	/**
+	 * @param pItems     the items to process
+	 * @param pChunkSize the maximum number of items committed at once
+	 * @param pProcessor the job applied to each chunk
+	 */
+	public ChunkedProcedure(final List<T> pItems, final int pChunkSize, final ChunkProcessor<T> pProcessor) {
+		super();
+		if (pChunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		this.items = pItems == null ? Collections.emptyList() : pItems;
+		this.chunkSize = pChunkSize;
+		this.processor = pProcessor;
+	}
+
+	/**
+	 * Executes the chunks from the first chunk, each one with its own programmatic service.
+	 *
+	 * @param pHome    the dataspace
+	 * @param pSession the session
+	 * @return the result of the last execution, which is the failed one if any
+	 */
+	public ProcedureResult executeInChunks(final AdaptationHome pHome, final Session pSession) {
+		ProcedureResult result = null;
+		int chunkCount = this.getChunkCount();
+		for (int chunk = this.firstChunk; chunk < chunkCount; chunk++) {
+			this.currentChunk = chunk;
+			long start = System.currentTimeMillis();
+			result = this.executeWithProgrammaticService(pHome, pSession);
+			if (result.hasFailed()) {
+				CommonsLogger.getLogger().error("Chunk " + (chunk + 1) + "/" + chunkCount + " failed, restart from chunk index " + chunk, result.getException());
+				break;
+			}
+			long duration = System.currentTimeMillis() - start;
+			int itemCount = this.getChunk(chunk).size();
+			this.lastCommittedChunk = chunk;
+			this.processedItemCount += itemCount;
+			this.chunkDurations.add(duration);
+			this.listener.chunkCommitted(chunk, chunkCount, itemCount, duration);
+		}
+		this.currentChunk = -1;
+		return result;
+	}
+
+	/**
+	 * Processes the current chunk when called by {@link #executeInChunks(AdaptationHome, Session)}, or all the items at once in the given context otherwise.
+	 */
+	@Override
+	protected void doExecute(final ProcedureContext pContext) throws Exception {
+		if (this.currentChunk < 0) {
+			this.processor.process(pContext, this.items);
+		} else {
+			this.processor.process(pContext, this.getChunk(this.currentChunk));
+		}
+	}
+
+	private List<T> getChunk(final int pChunk) {
+		int from = pChunk * this.chunkSize;
+		return this.items.subList(from, Math.min(from + this.chunkSize, this.items.size()));
+	}
+
+	private static void logProgress(final int pChunkIndex, final int pChunkCount, final int pItemCount, final long pDurationMillis) {
+		CommonsLogger.getLogger().info("Chunk " + (pChunkIndex + 1) + "/" + pChunkCount + " committed: " + pItemCount + " items in " + pDurationMillis + " ms");
+	}
+
+	public int getChunkCount() {
+		return (this.items.size() + this.chunkSize - 1) / this.chunkSize;
+	}
+
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+
+	/**
+	 * Gets the index of the last committed chunk.
+	 *
+	 * @return the index, -1 if no chunk has been committed
+	 */
+	public int getLastCommittedChunk() {
+		return this.lastCommittedChunk;
+	}
+
+	/**
+	 * Gets the index of the chunk to restart from.
+	 *
+	 * @return the index of the first uncommitted chunk
+	 */
+	public int getNextChunk() {
+		return this.lastCommittedChunk < 0 ? this.firstChunk : this.lastCommittedChunk + 1;
+	}
+
+	public boolean isComplete() {
+		return this.getNextChunk() >= this.getChunkCount();
+	}
+
+	/**
+	 * Gets the number of items of the chunks committed by this instance.
+	 *
+	 * @return the number of items
+	 */
+	public long getProcessedItemCount() {
+		return this.processedItemCount;
+	}
+
+	/**
+	 * Gets the durations of the chunks committed by this instance.
+	 *
+	 * @return the durations in milliseconds
+	 */
+	public List<Long> getChunkDurations() {
+		return Collections.unmodifiableList(this.chunkDurations);
+	}
+
+	/**
+	 * Sets the index of the first chunk to execute, to restart after a failure.
+	 *
+	 * @param pFirstChunk the index of the first chunk
+	 */
+	public void setFirstChunk(final int pFirstChunk) {
+		this.firstChunk = pFirstChunk;
+	}
+
+	/**
+	 * Sets the listener notified after each committed chunk. By default, progress is logged.
+	 *
+	 * @param pListener the listener
+	 */
+	public void setListener(final ChunkListener pListener) {
+		this.listener = pListener;
+	}
+}
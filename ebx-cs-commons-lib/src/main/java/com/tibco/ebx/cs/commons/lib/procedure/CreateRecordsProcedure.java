@@ -10,6 +10,7 @@ import java.util.Map.Entry;
 import com.onwbp.adaptation.Adaptation;
 import com.onwbp.adaptation.AdaptationTable;
 import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.service.OperationException;
 import com.orchestranetworks.service.Procedure;
 import com.orchestranetworks.service.ProcedureContext;
 import com.orchestranetworks.service.ValueContextForUpdate;
@@ -120,7 +121,24 @@ public final class CreateRecordsProcedure implements Procedure {
 			return;
 		}
 
-		for (RecordValuesBean recordDefinition : this.recordDefinitions) {
+		this.createRecords(pContext, this.recordDefinitions);
+	}
+
+	/**
+	 * Gets a procedure creating the records by chunks, each chunk being committed separately. The created records are still collected by this procedure.
+	 *
+	 * @param pChunkSize the maximum number of records created in a transaction
+	 * @return the chunked procedure, to be executed with {@link ChunkedProcedure#executeInChunks(com.onwbp.adaptation.AdaptationHome, com.orchestranetworks.service.Session)}
+	 * @since 3.0.0
+	 */
+	public ChunkedProcedure<RecordValuesBean> inChunks(final int pChunkSize) {
+		ChunkedProcedure<RecordValuesBean> procedure = new ChunkedProcedure<>(this.recordDefinitions, pChunkSize, this::createRecords);
+		procedure.setAllPrivileges(this.allPrivileges);
+		return procedure;
+	}
+
+	private void createRecords(final ProcedureContext pContext, final List<RecordValuesBean> pRecordDefinitions) throws OperationException {
+		for (RecordValuesBean recordDefinition : pRecordDefinitions) {
 			AdaptationTable table = recordDefinition.getTable();
 			if (table == null) {
 				continue;
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.onwbp.adaptation.Adaptation;
+import com.orchestranetworks.service.OperationException;
 import com.orchestranetworks.service.ProcedureContext;
 
 /**
@@ -98,10 +99,31 @@ public class DeleteRecordsProcedure extends GenericProcedure {
 	protected void doExecute(final ProcedureContext pContext) throws Exception {
 		pContext.setAllPrivileges(this.allPrivileges);
 		if (this.records != null && !this.records.isEmpty()) {
-			for (Adaptation record : this.records) {
-				if (!record.isDeleted()) {
-					pContext.doDelete(record.getAdaptationName(), this.deletingChildren);
-				}
+			this.deleteRecords(pContext, this.records);
+		}
+	}
+
+	/**
+	 * Gets a procedure deleting the records by chunks, each chunk being committed separately. The switches of this procedure apply to every chunk.
+	 *
+	 * @param pChunkSize the maximum number of records deleted in a transaction
+	 * @return the chunked procedure, to be executed with {@link ChunkedProcedure#executeInChunks(com.onwbp.adaptation.AdaptationHome, com.orchestranetworks.service.Session)}
+	 * @since 3.0.0
+	 */
+	public ChunkedProcedure<Adaptation> inChunks(final int pChunkSize) {
+		ChunkedProcedure<Adaptation> procedure = new ChunkedProcedure<>(this.records, pChunkSize, this::deleteRecords);
+		procedure.setAllPrivileges(this.allPrivileges);
+		procedure.setTriggerActivation(this.isTriggerActivation());
+		procedure.setHistoryActivation(this.isHistoryActivation());
+		procedure.setDatabaseHistoryActivation(this.isDatabaseHistoryActivation());
+		procedure.setBlockingConstraintDisabled(this.isBlockingConstraintDisabled());
+		return procedure;
+	}
+
+	private void deleteRecords(final ProcedureContext pContext, final List<Adaptation> pRecords) throws OperationException {
+		for (Adaptation record : pRecords) {
+			if (!record.isDeleted()) {
+				pContext.doDelete(record.getAdaptationName(), this.deletingChildren);
 			}
 		}
 	}
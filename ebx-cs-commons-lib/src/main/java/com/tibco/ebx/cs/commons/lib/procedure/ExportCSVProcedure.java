@@ -8,11 +8,15 @@ import com.onwbp.adaptation.Request;
 import com.orchestranetworks.service.ExportImportCSVSpec;
 import com.orchestranetworks.service.ExportImportCSVSpec.Header;
 import com.orchestranetworks.service.ExportSpec;
+import com.orchestranetworks.service.OperationException;
 import com.orchestranetworks.service.Procedure;
 import com.orchestranetworks.service.ProcedureContext;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
 
 /**
- * Export a CSV file. Default separator is "," and default encoding is UTF-8.
+ * Export a CSV file. Default separator is "," and default encoding is UTF-8.<br>
+ * In streaming mode, records are written on the fly by a {@link CSVStreamExporter}, which allows gzip compression. Views and technical data are only supported by the standard
+ * export: a streaming export with a view or technical data falls back to the standard export, and a gzip export with a view or technical data is rejected.
  * 
  * @author Mickaël Chevalier
  */
@@ -45,6 +49,18 @@ public class ExportCSVProcedure implements Procedure {
 	/** Apply a view to the export. */
 	private String view;
 
+	/** If true, the export is streamed by a {@link CSVStreamExporter}. */
+	private boolean streaming = false;
+
+	/** If true, the file is gzip compressed. Implies streaming. */
+	private boolean gzip = false;
+
+	/** The header mode. */
+	private Header header = Header.LABEL;
+
+	/** The report of the last streamed export. */
+	private CSVStreamExporter.TableReport report;
+
 	/**
 	 * Instantiates a new export csv procedure.
 	 * 
@@ -61,6 +77,17 @@ public class ExportCSVProcedure implements Procedure {
 	 */
 	@Override
 	public void execute(final ProcedureContext pContext) throws Exception {
+		boolean standardExportRequired = this.view != null || this.includeTechnicalData;
+		if (this.gzip && standardExportRequired) {
+			throw OperationException.createError("Gzip compression does not support views and technical data, " + this.file.getName() + " is not exported");
+		}
+		if (this.streaming || this.gzip) {
+			if (!standardExportRequired) {
+				this.executeStreaming(pContext);
+				return;
+			}
+			CommonsLogger.getLogger().warn("Streaming export does not support views and technical data, standard export used for " + this.file.getName());
+		}
 		ExportSpec spec = new ExportSpec();
 		spec.setDestinationFile(this.file);
 		spec.setSelection(this.table.getTableNode());
@@ -74,11 +101,27 @@ public class ExportCSVProcedure implements Procedure {
 		ExportImportCSVSpec csvSpec = new ExportImportCSVSpec();
 		csvSpec.setEncoding(this.encoding);
 		csvSpec.setFieldSeparator(this.fieldSeparator.charAt(0));
-		csvSpec.setHeader(Header.LABEL);
+		csvSpec.setHeader(this.header);
 		spec.setCSVSpec(csvSpec);
 		pContext.doExport(spec);
 	}
 
+	private void executeStreaming(final ProcedureContext pContext) throws Exception {
+		CSVStreamExporter exporter = new CSVStreamExporter();
+		exporter.setEncoding(this.encoding);
+		exporter.setFieldSeparator(this.fieldSeparator.charAt(0));
+		exporter.setHeader(this.header);
+		exporter.setIncludeComputedValues(this.includeComputedValues);
+		exporter.setGzip(this.gzip);
+		exporter.setLocale(pContext.getSession().getLocale());
+		if (this.checkAccessRule) {
+			exporter.setSession(pContext.getSession());
+		}
+		Request request = this.table.createRequest();
+		request.setXPathFilter(this.xpathFilter);
+		this.report = exporter.export(request, this.file);
+	}
+
 	/**
 	 * Gets the encoding.
 	 * 
@@ -106,6 +149,24 @@ public class ExportCSVProcedure implements Procedure {
 		return this.file;
 	}
 
+	/**
+	 * Gets the header mode.
+	 * 
+	 * @return the header mode
+	 */
+	public Header getHeader() {
+		return this.header;
+	}
+
+	/**
+	 * Gets the report of the streamed export, once executed.
+	 * 
+	 * @return the report, null if the export was not streamed
+	 */
+	public CSVStreamExporter.TableReport getReport() {
+		return this.report;
+	}
+
 	/**
 	 * Gets the table to export.
 	 * 
@@ -160,6 +221,24 @@ public class ExportCSVProcedure implements Procedure {
 		return this.includeTechnicalData;
 	}
 
+	/**
+	 * Checks if the file is gzip compressed.
+	 * 
+	 * @return true, if the file is gzip compressed
+	 */
+	public boolean isGzip() {
+		return this.gzip;
+	}
+
+	/**
+	 * Checks if the export is streamed.
+	 * 
+	 * @return true, if the export is streamed
+	 */
+	public boolean isStreaming() {
+		return this.streaming;
+	}
+
 	/**
 	 * If false access rules won't be evaluated. Default is true.
 	 * 
@@ -187,6 +266,24 @@ public class ExportCSVProcedure implements Procedure {
 		this.fieldSeparator = fieldSeparator;
 	}
 
+	/**
+	 * If true, the file is gzip compressed, which implies streaming and excludes views and technical data. Default is false.
+	 * 
+	 * @param gzip true to compress the file
+	 */
+	public void setGzip(final boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Sets the header mode. Default is labels.
+	 * 
+	 * @param header the header mode
+	 */
+	public void setHeader(final Header header) {
+		this.header = header;
+	}
+
 	/**
 	 * If false, computed value won't be exported. Default is true.
 	 * 
@@ -205,6 +302,15 @@ public class ExportCSVProcedure implements Procedure {
 		this.includeTechnicalData = includeTechnicalData;
 	}
 
+	/**
+	 * If true, the records are written on the fly instead of using the standard export. Default is false.
+	 * 
+	 * @param streaming true to stream the export
+	 */
+	public void setStreaming(final boolean streaming) {
+		this.streaming = streaming;
+	}
+
 	/**
 	 * Sets the view to apply.
 	 * 
@@ -9,6 +9,7 @@ import java.util.Map.Entry;
 
 import com.onwbp.adaptation.Adaptation;
 import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.Request;
 import com.onwbp.adaptation.RequestResult;
 import com.orchestranetworks.schema.ConstraintViolationException;
 import com.orchestranetworks.schema.Path;
@@ -22,6 +23,10 @@ import com.orchestranetworks.service.ValueContextForUpdate;
 /**
  * This procedure allows to cleanse foreign key fields by looking for a value in the target table. If the target table is composed of an id field as PK (./id) and a label field (./field). We want to
  * look for the label to return the PK.
+ * <p>
+ * Looked up values are cached for an execution, the cache being cleared when the procedure is executed again, and all the foreign keys of a record are rewritten by a single
+ * modification. To migrate foreign keys from a known old key to new key mapping, prefer {@link ForeignKeyRewriter}.
+ * </p>
  *
  * @author Aurélien Ticot
  * @since 1.4.0
@@ -31,6 +36,9 @@ public class FixForeignKeyProcedure implements Procedure {
 	private final RequestResult recordsToCleanseAsRequest;
 	private final List<Adaptation> recordsToCleanseAsList;
 
+	/** Primary key found for each target table and looked up value, empty if none */
+	private final HashMap<String, String> foundKeys = new HashMap<>();
+
 	/**
 	 * Instantiates a new FixForeignKey procedure.
 	 *
@@ -129,6 +137,9 @@ public class FixForeignKeyProcedure implements Procedure {
 
 	@Override
 	public void execute(final ProcedureContext pProcedureContext) throws Exception {
+		// Keys found by a previous execution may have changed since
+		this.foundKeys.clear();
+
 		// Check there's at least a record to cleanse
 		if (this.recordsToCleanseAsList != null && this.recordsToCleanseAsRequest == null) {
 			if (this.recordsToCleanseAsList.isEmpty()) {
@@ -169,6 +180,8 @@ public class FixForeignKeyProcedure implements Procedure {
 	 * @since 1.4.0
 	 */
 	private void cleanseRecord(final ProcedureContext pProcedureContext, final Adaptation pRecord) throws ConstraintViolationException, OperationException {
+		ValueContextForUpdate valueContext = null;
+
 		// Iterate on the foreign key nodes
 		Iterator<Entry<SchemaNode, List<Path>>> iterator = this.foreignKeyNodes.entrySet().iterator();
 		while (iterator.hasNext()) {
@@ -198,31 +211,47 @@ public class FixForeignKeyProcedure implements Procedure {
 				continue;
 			}
 
-			// build a predicate to look for the value in the different paths of the target table
-			StringBuilder predicate = new StringBuilder("");
-			boolean first = true;
-			for (Path path : paths) {
-				if (!first) {
-					predicate.append(" or ");
-				}
-				predicate.append(path.format() + "='" + currentValue + "'");
+			String lookupKey = targetTable.getContainerAdaptation().getAdaptationName().getStringName() + targetTable.getTablePath().format() + "|" + paths + "|" + currentValue;
+			String newValue = this.foundKeys.computeIfAbsent(lookupKey, key -> this.lookupKey(targetTable, paths, currentValue));
+			if (newValue.isEmpty() || currentValue.equals(newValue)) {
+				continue;
 			}
 
-			// Get the first record matching
-			Adaptation foundRecord = targetTable.lookupFirstRecordMatchingPredicate(predicate.toString());
-			if (foundRecord == null) {
-				continue;
+			if (valueContext == null) {
+				valueContext = pProcedureContext.getContext(pRecord.getAdaptationName());
 			}
+			valueContext.setValue(newValue, foreignKeyNode.getPathInAdaptation());
+		}
 
-			String newValue = foundRecord.getOccurrencePrimaryKey().format();
+		if (valueContext != null) {
+			pProcedureContext.doModifyContent(pRecord, valueContext);
+		}
+	}
 
-			if (currentValue.equals(newValue)) {
-				continue;
+	/**
+	 * Looks for a value in the different paths of the target table
+	 *
+	 * @return the primary key of the first record found, empty if none
+	 */
+	private String lookupKey(final AdaptationTable pTargetTable, final List<Path> pPaths, final String pValue) {
+		StringBuilder predicate = new StringBuilder("");
+		for (Path path : pPaths) {
+			if (predicate.length() > 0) {
+				predicate.append(" or ");
 			}
+			predicate.append(path.format()).append(" = $value");
+		}
+		Request request = pTargetTable.createRequest();
+		request.setXPathFilter(predicate.toString());
+		request.setXPathParameter("value", pValue);
 
-			ValueContextForUpdate valueContext = pProcedureContext.getContext(pRecord.getAdaptationName());
-			valueContext.setValue(newValue, foreignKeyNode.getPathInAdaptation());
-			pProcedureContext.doModifyContent(pRecord, valueContext);
+		// Get the first record matching
+		RequestResult result = request.execute();
+		try {
+			Adaptation foundRecord = result.nextAdaptation();
+			return foundRecord == null ? "" : foundRecord.getOccurrencePrimaryKey().format();
+		} finally {
+			result.close();
 		}
 	}
 }
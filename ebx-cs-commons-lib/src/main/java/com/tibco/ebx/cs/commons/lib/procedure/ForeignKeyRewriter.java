@@ -0,0 +1,403 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.procedure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationHome;
+import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.PrimaryKey;
+import com.onwbp.adaptation.Request;
+import com.onwbp.adaptation.RequestResult;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.service.ProcedureContext;
+import com.orchestranetworks.service.ProcedureResult;
+import com.orchestranetworks.service.Session;
+import com.orchestranetworks.service.ValueContextForUpdate;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+
+/**
+ * Rewrites the foreign keys referencing migrated records, from an old key to new key mapping.
+ * <p>
+ * The referencing records are found by one request per referencing table and path, selecting the records whose foreign key is one of the old keys. All the paths to rewrite in a
+ * record are then set by a single modification, and modifications are committed by chunks with a {@link ChunkedProcedure}. Values are mapped again when written, so that a record
+ * modified in between is not overwritten with stale values. Foreign keys can be single or multi-valued.
+ * </p>
+ * <p>
+ * A reference whose old key is mapped to itself is skipped. A reference whose new key does not exist in the target table, when one is given, is dangling and left unchanged. The
+ * {@link Report} counts the rewritten, skipped and dangling references.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class ForeignKeyRewriter {
+
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/** Above this number of old keys, the referencing records are selected by a scan rather than by a predicate */
+	private static final int MAX_KEYS_IN_PREDICATE = 100;
+
+	private static final int MAX_DANGLING_SAMPLES = 100;
+
+	private final Map<String, String> keyMapping;
+	private final AdaptationTable targetTable;
+	private final Map<AdaptationTable, List<Path>> references = new LinkedHashMap<>();
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private boolean allPrivileges = false;
+	private boolean triggerActivation = true;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pKeyMapping  the new primary key of each old primary key, formatted
+	 * @param pTargetTable the table of the new keys, used to detect dangling references, can be null to skip the check
+	 */
+	public ForeignKeyRewriter(final Map<String, String> pKeyMapping, final AdaptationTable pTargetTable) {
+		if (pKeyMapping == null) {
+			throw new IllegalArgumentException("The key mapping shall not be null");
+		}
+		this.keyMapping = pKeyMapping;
+		this.targetTable = pTargetTable;
+	}
+
+	/**
+	 * Adds a foreign key to rewrite.
+	 *
+	 * @param pTable the referencing table
+	 * @param pPath  the path of the foreign key in the table
+	 */
+	public void addReference(final AdaptationTable pTable, final Path pPath) {
+		this.references.computeIfAbsent(pTable, table -> new ArrayList<>()).add(pPath);
+	}
+
+	/**
+	 * Finds the referencing records and rewrites their foreign keys, chunk by chunk. All the referencing tables must belong to the given dataspace.
+	 *
+	 * @param pHome    the dataspace
+	 * @param pSession the session
+	 * @return the report
+	 */
+	public Report rewrite(final AdaptationHome pHome, final Session pSession) {
+		Report report = new Report();
+		Map<String, String> validMapping = this.classifyMapping(report);
+
+		List<PendingRewrite> rewrites = new ArrayList<>();
+		for (Map.Entry<AdaptationTable, List<Path>> reference : this.references.entrySet()) {
+			rewrites.addAll(this.findReferences(reference.getKey(), reference.getValue(), validMapping, report));
+		}
+		report.recordsToRewrite = rewrites.size();
+
+		ChunkedProcedure<PendingRewrite> procedure = new ChunkedProcedure<>(rewrites, this.chunkSize,
+				(context, chunk) -> ForeignKeyRewriter.writeChunk(context, chunk, validMapping, report));
+		procedure.setAllPrivileges(this.allPrivileges);
+		procedure.setTriggerActivation(this.triggerActivation);
+		procedure.setListener((chunkIndex, chunkCount, itemCount, durationMillis) -> {
+			report.commitPending();
+			CommonsLogger.getLogger().info("Foreign keys rewrite chunk " + (chunkIndex + 1) + "/" + chunkCount + " committed: " + itemCount + " records in " + durationMillis + " ms");
+		});
+		report.result = procedure.executeInChunks(pHome, pSession);
+		report.complete = procedure.isComplete();
+		CommonsLogger.getLogger().info(report.toString());
+		return report;
+	}
+
+	/**
+	 * Keeps the entries of the mapping whose new key exists and differs from the old key
+	 */
+	private Map<String, String> classifyMapping(final Report pReport) {
+		Map<String, String> validMapping = new HashMap<>();
+		for (Map.Entry<String, String> entry : this.keyMapping.entrySet()) {
+			String oldKey = entry.getKey();
+			String newKey = entry.getValue();
+			if (oldKey.equals(newKey)) {
+				pReport.identityKeys.add(oldKey);
+			} else if (this.targetTable != null && (newKey == null || this.targetTable.lookupAdaptationByPrimaryKey(PrimaryKey.parseString(newKey)) == null)) {
+				pReport.danglingKeys.add(oldKey);
+			} else {
+				validMapping.put(oldKey, newKey);
+			}
+		}
+		return validMapping;
+	}
+
+	/**
+	 * Finds the records of a table referencing an old key, by one request per path, and groups their paths by record
+	 */
+	private List<PendingRewrite> findReferences(final AdaptationTable pTable, final List<Path> pPaths, final Map<String, String> pValidMapping, final Report pReport) {
+		Map<String, PendingRewrite> rewritesByKey = new LinkedHashMap<>();
+		for (Path path : pPaths) {
+			Path pathInRecord = Path.SELF.add(path);
+			Request request = pTable.createRequest();
+			if (this.keyMapping.size() <= MAX_KEYS_IN_PREDICATE) {
+				this.setPredicate(request, pathInRecord);
+			} else {
+				request.setSpecificFilter(record -> this.references(record.get(pathInRecord)));
+			}
+			RequestResult result = request.execute();
+			try {
+				for (Adaptation record; (record = result.nextAdaptation()) != null;) {
+					boolean toRewrite = false;
+					for (String value : values(record.get(pathInRecord))) {
+						if (pValidMapping.containsKey(value)) {
+							toRewrite = true;
+						} else if (pReport.identityKeys.contains(value)) {
+							pReport.skippedReferences++;
+						} else if (pReport.danglingKeys.contains(value)) {
+							pReport.addDangling(pTable, record, path, value);
+						}
+					}
+					if (toRewrite) {
+						String key = record.getOccurrencePrimaryKey().format();
+						rewritesByKey.computeIfAbsent(key, k -> new PendingRewrite(pTable, k)).paths.add(pathInRecord);
+					}
+				}
+			} finally {
+				result.close();
+			}
+		}
+		return new ArrayList<>(rewritesByKey.values());
+	}
+
+	/**
+	 * Filters the request on the old keys, passed as parameters of the predicate
+	 */
+	private void setPredicate(final Request pRequest, final Path pPath) {
+		if (this.keyMapping.isEmpty()) {
+			pRequest.setSpecificFilter(record -> false);
+			return;
+		}
+		StringBuilder predicate = new StringBuilder();
+		int i = 0;
+		for (String oldKey : this.keyMapping.keySet()) {
+			if (i > 0) {
+				predicate.append(" or ");
+			}
+			predicate.append(pPath.format()).append(" = $key").append(i);
+			pRequest.setXPathParameter("key" + i, oldKey);
+			i++;
+		}
+		pRequest.setXPathFilter(predicate.toString());
+	}
+
+	private boolean references(final Object pValue) {
+		for (String value : values(pValue)) {
+			if (this.keyMapping.containsKey(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<String> values(final Object pValue) {
+		if (pValue instanceof List) {
+			List<String> values = new ArrayList<>();
+			for (Object item : (List<?>) pValue) {
+				if (item != null) {
+					values.add(item.toString());
+				}
+			}
+			return values;
+		}
+		return pValue == null ? Collections.emptyList() : Collections.singletonList(pValue.toString());
+	}
+
+	private static void writeChunk(final ProcedureContext pContext, final List<PendingRewrite> pChunk, final Map<String, String> pValidMapping, final Report pReport)
+			throws Exception {
+		int rewrittenReferences = 0;
+		int rewrittenRecords = 0;
+		int skippedReferences = 0;
+		for (PendingRewrite rewrite : pChunk) {
+			Adaptation record = rewrite.table.lookupAdaptationByPrimaryKey(PrimaryKey.parseString(rewrite.primaryKey));
+			if (record == null) {
+				skippedReferences += rewrite.paths.size();
+				continue;
+			}
+			ValueContextForUpdate valueContext = null;
+			for (Path path : rewrite.paths) {
+				Object value = record.get(path);
+				Object newValue;
+				int count = 0;
+				if (value instanceof List) {
+					List<Object> newList = new ArrayList<>();
+					for (Object item : (List<?>) value) {
+						String newKey = item == null ? null : pValidMapping.get(item.toString());
+						if (newKey != null) {
+							count++;
+						}
+						newList.add(newKey == null ? item : newKey);
+					}
+					newValue = newList;
+				} else {
+					newValue = value == null ? null : pValidMapping.get(value.toString());
+					if (newValue != null) {
+						count++;
+					}
+				}
+				if (count == 0) {
+					// Modified since it was found
+					skippedReferences++;
+					continue;
+				}
+				if (valueContext == null) {
+					valueContext = pContext.getContext(record.getAdaptationName());
+				}
+				valueContext.setValue(newValue, path);
+				rewrittenReferences += count;
+			}
+			if (valueContext != null) {
+				pContext.doModifyContent(record, valueContext);
+				rewrittenRecords++;
+			}
+		}
+		// Counted when the chunk is committed
+		pReport.pendingRewrittenReferences = rewrittenReferences;
+		pReport.pendingRewrittenRecords = rewrittenRecords;
+		pReport.pendingSkippedReferences = skippedReferences;
+	}
+
+	/**
+	 * Sets the maximum number of records modified by a transaction. Default is {@value #DEFAULT_CHUNK_SIZE}.
+	 *
+	 * @param pChunkSize the chunk size
+	 */
+	public void setChunkSize(final int pChunkSize) {
+		this.chunkSize = pChunkSize;
+	}
+
+	public void setAllPrivileges(final boolean pAllPrivileges) {
+		this.allPrivileges = pAllPrivileges;
+	}
+
+	public void setTriggerActivation(final boolean pTriggerActivation) {
+		this.triggerActivation = pTriggerActivation;
+	}
+
+	/**
+	 * Record whose foreign keys must be rewritten
+	 */
+	private static final class PendingRewrite {
+		private final AdaptationTable table;
+		private final String primaryKey;
+		private final Set<Path> paths = new LinkedHashSet<>();
+
+		private PendingRewrite(final AdaptationTable pTable, final String pPrimaryKey) {
+			this.table = pTable;
+			this.primaryKey = pPrimaryKey;
+		}
+	}
+
+	/**
+	 * Report of a rewrite.
+	 */
+	public static final class Report {
+		private final Set<String> identityKeys = new LinkedHashSet<>();
+		private final Set<String> danglingKeys = new LinkedHashSet<>();
+		private final List<String> danglingSamples = new ArrayList<>();
+		private int recordsToRewrite;
+		private long rewrittenRecords;
+		private long rewrittenReferences;
+		private long skippedReferences;
+		private long danglingReferences;
+		private boolean complete;
+		private ProcedureResult result;
+
+		/** Counts of the chunk in progress */
+		private int pendingRewrittenRecords;
+		private int pendingRewrittenReferences;
+		private int pendingSkippedReferences;
+
+		private void commitPending() {
+			this.rewrittenRecords += this.pendingRewrittenRecords;
+			this.rewrittenReferences += this.pendingRewrittenReferences;
+			this.skippedReferences += this.pendingSkippedReferences;
+		}
+
+		private void addDangling(final AdaptationTable pTable, final Adaptation pRecord, final Path pPath, final String pOldKey) {
+			this.danglingReferences++;
+			if (this.danglingSamples.size() < MAX_DANGLING_SAMPLES) {
+				this.danglingSamples.add(pTable.getTablePath().format() + "[" + pRecord.getOccurrencePrimaryKey().format() + "]" + pPath.format() + " -> " + pOldKey);
+			}
+		}
+
+		public int getRecordsToRewrite() {
+			return this.recordsToRewrite;
+		}
+
+		public long getRewrittenRecords() {
+			return this.rewrittenRecords;
+		}
+
+		public long getRewrittenReferences() {
+			return this.rewrittenReferences;
+		}
+
+		/**
+		 * Gets the number of references left unchanged because their key is mapped to itself, or because the record changed since it was found.
+		 *
+		 * @return the number of references
+		 */
+		public long getSkippedReferences() {
+			return this.skippedReferences;
+		}
+
+		/**
+		 * Gets the number of references left unchanged because the new key does not exist in the target table.
+		 *
+		 * @return the number of references
+		 */
+		public long getDanglingReferences() {
+			return this.danglingReferences;
+		}
+
+		/**
+		 * Gets the first dangling references, as table[record]path -> old key.
+		 *
+		 * @return the descriptions of the references
+		 */
+		public List<String> getDanglingSamples() {
+			return Collections.unmodifiableList(this.danglingSamples);
+		}
+
+		/**
+		 * Gets the old keys whose new key does not exist in the target table.
+		 *
+		 * @return the old keys
+		 */
+		public Set<String> getDanglingKeys() {
+			return Collections.unmodifiableSet(this.danglingKeys);
+		}
+
+		/**
+		 * Checks whether all the chunks have been committed.
+		 *
+		 * @return true if the rewrite is complete
+		 */
+		public boolean isComplete() {
+			return this.complete;
+		}
+
+		/**
+		 * Gets the result of the last chunk, which is the failed one if any.
+		 *
+		 * @return the result, null if there was nothing to rewrite
+		 */
+		public ProcedureResult getResult() {
+			return this.result;
+		}
+
+		@Override
+		public String toString() {
+			return "Foreign keys rewrite " + (this.complete ? "complete" : "incomplete") + ": " + this.rewrittenReferences + " references rewritten in " + this.rewrittenRecords
+					+ " records, " + this.skippedReferences + " skipped, " + this.danglingReferences + " dangling";
+		}
+	}
+}
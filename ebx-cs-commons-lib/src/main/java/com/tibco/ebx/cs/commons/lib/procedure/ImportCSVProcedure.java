@@ -61,6 +61,21 @@ public class ImportCSVProcedure implements Procedure {
 		pContext.doImport(spec);
 	}
 
+	/**
+	 * Gets a pipeline importing the same file by chunks, each chunk being committed by its own transaction, rows failing being rejected instead of aborting the import.
+	 *
+	 * @param pChunkSize the maximum number of records imported in a transaction
+	 * @return the pipeline, to be executed with {@link CSVImportPipeline#execute(com.orchestranetworks.service.Session)}
+	 * @since 3.0.0
+	 */
+	public CSVImportPipeline inChunks(final int pChunkSize) {
+		CSVImportPipeline pipeline = new CSVImportPipeline(this.file, this.table);
+		pipeline.setEncoding(this.encoding);
+		pipeline.setFieldSeparator(this.fieldSeparator.charAt(0));
+		pipeline.setChunkSize(pChunkSize);
+		return pipeline;
+	}
+
 	/**
 	 * Gets the encoding.
 	 *
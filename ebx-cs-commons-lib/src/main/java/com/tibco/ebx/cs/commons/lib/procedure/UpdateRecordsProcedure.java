@@ -9,6 +9,7 @@ import java.util.Map.Entry;
 
 import com.onwbp.adaptation.Adaptation;
 import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.service.OperationException;
 import com.orchestranetworks.service.Procedure;
 import com.orchestranetworks.service.ProcedureContext;
 import com.orchestranetworks.service.ValueContextForUpdate;
@@ -71,7 +72,24 @@ public final class UpdateRecordsProcedure implements Procedure {
 			return;
 		}
 
-		for (RecordValuesBean recordDefinition : this.recordDefinitions) {
+		UpdateRecordsProcedure.updateRecords(pContext, this.recordDefinitions);
+	}
+
+	/**
+	 * Gets a procedure updating the records by chunks, each chunk being committed separately.
+	 *
+	 * @param pChunkSize the maximum number of records updated in a transaction
+	 * @return the chunked procedure, to be executed with {@link ChunkedProcedure#executeInChunks(com.onwbp.adaptation.AdaptationHome, com.orchestranetworks.service.Session)}
+	 * @since 3.0.0
+	 */
+	public ChunkedProcedure<RecordValuesBean> inChunks(final int pChunkSize) {
+		ChunkedProcedure<RecordValuesBean> procedure = new ChunkedProcedure<>(this.recordDefinitions, pChunkSize, UpdateRecordsProcedure::updateRecords);
+		procedure.setAllPrivileges(this.allPrivileges);
+		return procedure;
+	}
+
+	private static void updateRecords(final ProcedureContext pContext, final List<RecordValuesBean> pRecordDefinitions) throws OperationException {
+		for (RecordValuesBean recordDefinition : pRecordDefinitions) {
 			Adaptation record = recordDefinition.getRecord();
 			if (record == null || record.isDeleted()) {
 				continue;
@@ -0,0 +1,416 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.procedure;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationHome;
+import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.Request;
+import com.orchestranetworks.service.ExportSpec;
+import com.orchestranetworks.service.ProcedureResult;
+import com.orchestranetworks.service.ProgrammaticService;
+import com.orchestranetworks.service.ReadOnlyProcedure;
+import com.orchestranetworks.service.Session;
+import com.orchestranetworks.service.comparison.DifferenceBetweenOccurrences;
+import com.orchestranetworks.service.comparison.DifferenceBetweenTables;
+import com.orchestranetworks.service.comparison.DifferenceHelper;
+import com.orchestranetworks.service.comparison.ExtraOccurrenceOnRight;
+import com.tibco.ebx.cs.commons.lib.utils.AdaptationUtils;
+import com.tibco.ebx.cs.commons.lib.utils.CommonsLogger;
+
+/**
+ * XML export of the records created or updated between two dataspaces or snapshots.
+ * <p>
+ * The homes are compared table by table, so that only the difference of one table is held in memory at a time, and the created and updated records of a table are exported by a
+ * single EBX export of a request selecting them. The delta can be written to a single stream, or to one part file per changed table, optionally gzip compressed, written in
+ * parallel by a bounded number of threads. A manifest then lists for each table its part file, the counts of created, updated and deleted records and the SHA-256 checksum of the
+ * file.
+ * </p>
+ * <p>
+ * As the previous comparison of the whole homes, only the datasets of the right home which also exist in the reference home are compared: a dataset created in the right home is
+ * not exported.
+ * </p>
+ * <p>
+ * The threads exporting the parts share the session of the exporter. They only use it to run each export in its own read-only procedure, created by its own
+ * {@link ProgrammaticService}, as the concurrent HTTP requests of a user share the session of that user. No permission nor transaction is attached to the session by those
+ * procedures.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class XMLDeltaExporter {
+
+	public static final String XML_DECLARATION = "<?xml version='1.0' encoding='UTF-8'?>";
+	public static final String MANIFEST_FILE_NAME = "manifest.xml";
+
+	/** Above this number of keys, the changed records are selected by a scan rather than by a predicate */
+	private static final int MAX_KEYS_IN_PREDICATE = 100;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Session session;
+	private String header;
+	private boolean includeTechnicalData = false;
+	private boolean gzip = true;
+
+	/**
+	 * Constructor
+	 *
+	 * @param pSession the session running the exports, shared by the threads exporting the parts
+	 */
+	public XMLDeltaExporter(final Session pSession) {
+		this.session = pSession;
+	}
+
+	/**
+	 * Exports the delta to a single stream, table by table. The stream is not closed.
+	 *
+	 * @param pLeft   the reference home
+	 * @param pRight  the home whose creations and updates are exported
+	 * @param pOutput the destination stream
+	 * @return the reports of the changed tables
+	 * @throws IOException if the stream cannot be written
+	 */
+	public List<TableDelta> export(final AdaptationHome pLeft, final AdaptationHome pRight, final OutputStream pOutput) throws IOException {
+		this.writeDeclarationAndHeader(pOutput);
+		List<TableDelta> deltas = new ArrayList<>();
+		for (AdaptationTable[] tables : this.getTablePairs(pLeft, pRight)) {
+			TableDelta delta = this.exportTable(tables[0], tables[1], pOutput, null);
+			if (delta.hasChanges()) {
+				deltas.add(delta);
+			}
+		}
+		pOutput.flush();
+		return deltas;
+	}
+
+	/**
+	 * Exports the delta to one part file per changed table, written in parallel, and writes the manifest.
+	 *
+	 * @param pLeft      the reference home
+	 * @param pRight     the home whose creations and updates are exported
+	 * @param pDirectory the destination directory
+	 * @param pThreadMax the maximum number of tables compared and exported at the same time
+	 * @return the reports of the changed tables, in the order of the manifest
+	 * @throws IOException if a file cannot be written, the other exports are then cancelled
+	 */
+	public List<TableDelta> exportToParts(final AdaptationHome pLeft, final AdaptationHome pRight, final File pDirectory, final int pThreadMax) throws IOException {
+		if (!pDirectory.isDirectory() && !pDirectory.mkdirs()) {
+			throw new IOException("Directory " + pDirectory.getPath() + " cannot be created");
+		}
+		List<AdaptationTable[]> pairs = this.getTablePairs(pLeft, pRight);
+		List<TableDelta> deltas = new ArrayList<>();
+		if (!pairs.isEmpty()) {
+			ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(pThreadMax, pairs.size())));
+			try {
+				List<Future<TableDelta>> futures = new ArrayList<>();
+				for (AdaptationTable[] tables : pairs) {
+					futures.add(executor.submit(() -> this.exportPart(tables[0], tables[1], pDirectory)));
+				}
+				for (Future<TableDelta> future : futures) {
+					TableDelta delta = future.get();
+					if (delta.hasChanges()) {
+						deltas.add(delta);
+					}
+				}
+			} catch (ExecutionException ex) {
+				executor.shutdownNow();
+				if (ex.getCause() instanceof IOException) {
+					throw (IOException) ex.getCause();
+				}
+				throw new IOException("Delta export failed", ex.getCause());
+			} catch (InterruptedException ex) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new IOException("Delta export interrupted", ex);
+			} finally {
+				executor.shutdown();
+			}
+		}
+		this.writeManifest(pLeft, pRight, new File(pDirectory, MANIFEST_FILE_NAME), deltas);
+		return deltas;
+	}
+
+	private TableDelta exportPart(final AdaptationTable pLeftTable, final AdaptationTable pRightTable, final File pDirectory) throws IOException {
+		Adaptation dataset = pRightTable.getContainerAdaptation();
+		String fileName = (dataset.getAdaptationName().getStringName() + pRightTable.getTablePath().format()).replaceAll("[^\\w.-]", "_") + (this.gzip ? ".xml.gz" : ".xml");
+		File file = new File(pDirectory, fileName);
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IOException(ex);
+		}
+
+		DifferenceBetweenTables difference = this.compare(pLeftTable, pRightTable);
+		TableDelta counts = new TableDelta(pRightTable, difference, null, null);
+		if (!counts.hasCreationsOrUpdates()) {
+			// No part file for the tables without creation nor update
+			return counts;
+		}
+		TableDelta delta;
+		try (OutputStream output = this.openPart(file, digest)) {
+			this.writeDeclarationAndHeader(output);
+			delta = this.exportTable(pLeftTable, pRightTable, output, difference);
+		}
+		return delta.withFile(file, toHex(digest));
+	}
+
+	private OutputStream openPart(final File pFile, final MessageDigest pDigest) throws IOException {
+		OutputStream output = new DigestOutputStream(new FileOutputStream(pFile), pDigest);
+		if (this.gzip) {
+			output = new GZIPOutputStream(output, BUFFER_SIZE);
+		}
+		return new BufferedOutputStream(output, BUFFER_SIZE);
+	}
+
+	private TableDelta exportTable(final AdaptationTable pLeftTable, final AdaptationTable pRightTable, final OutputStream pOutput, final DifferenceBetweenTables pDifference)
+			throws IOException {
+		DifferenceBetweenTables difference = pDifference == null ? this.compare(pLeftTable, pRightTable) : pDifference;
+		TableDelta delta = new TableDelta(pRightTable, difference, null, null);
+		if (!delta.hasCreationsOrUpdates()) {
+			return delta;
+		}
+
+		Request request = pRightTable.createRequest();
+		Set<String> keys = new HashSet<>();
+		StringBuilder predicate = new StringBuilder();
+		for (ExtraOccurrenceOnRight extraOnRight : difference.getExtraOccurrencesOnRight()) {
+			this.addKey(extraOnRight.getExtraAdaptationOnRight(), keys, predicate);
+		}
+		for (DifferenceBetweenOccurrences deltaOccurrences : difference.getDeltaOccurrences()) {
+			this.addKey(deltaOccurrences.getContentOnRight(), keys, predicate);
+		}
+		if (keys.size() <= MAX_KEYS_IN_PREDICATE) {
+			request.setXPathFilter(predicate.toString());
+		} else {
+			request.setSpecificFilter(record -> keys.contains(record.getOccurrencePrimaryKey().format()));
+		}
+
+		ExportSpec spec = new ExportSpec();
+		spec.setRequest(request);
+		spec.setDestinationStream(pOutput);
+		spec.setCloseStreamWhenFinished(false);
+		spec.setIncludesTechnicalData(this.includeTechnicalData);
+		spec.setOmitXMLComment(true);
+		spec.setOmitXMLDeclaration(true);
+
+		AdaptationHome home = pRightTable.getContainerAdaptation().getHome();
+		AdaptationHome procedureHome = home.isBranch() ? home : home.getRepository().getReferenceBranch();
+		ProcedureResult result = ProgrammaticService.createForSession(this.session, procedureHome)
+				.execute((ReadOnlyProcedure) procedureContext -> procedureContext.doExport(spec));
+		if (result.hasFailed()) {
+			throw new IOException("Export of the delta of " + pRightTable.getTablePath().format() + " failed", result.getException());
+		}
+		CommonsLogger.getLogger().info(delta.toString());
+		return delta;
+	}
+
+	private void addKey(final Adaptation pRecord, final Set<String> pKeys, final StringBuilder pPredicate) {
+		pKeys.add(pRecord.getOccurrencePrimaryKey().format());
+		if (pKeys.size() <= MAX_KEYS_IN_PREDICATE) {
+			if (pPredicate.length() > 0) {
+				pPredicate.append(" or ");
+			}
+			pPredicate.append('(').append(pRecord.toXPathPredicateString()).append(')');
+		}
+	}
+
+	/**
+	 * Compares a table with the same table in the reference home
+	 */
+	private DifferenceBetweenTables compare(final AdaptationTable pLeftTable, final AdaptationTable pRightTable) {
+		return DifferenceHelper.compareAdaptationTables(pLeftTable, pRightTable, true);
+	}
+
+	private List<AdaptationTable[]> getTablePairs(final AdaptationHome pLeft, final AdaptationHome pRight) {
+		List<AdaptationTable[]> pairs = new ArrayList<>();
+		for (Adaptation root : pRight.findAllRoots()) {
+			this.addTablePairs(pLeft, root, pairs);
+			for (Adaptation dataset : pRight.findAllDescendants(root)) {
+				this.addTablePairs(pLeft, dataset, pairs);
+			}
+		}
+		return pairs;
+	}
+
+	private void addTablePairs(final AdaptationHome pLeft, final Adaptation pRightDataset, final List<AdaptationTable[]> pPairs) {
+		Adaptation leftDataset = pLeft.findAdaptationOrNull(pRightDataset.getAdaptationName());
+		if (leftDataset == null) {
+			// Datasets created in the right home are not part of the delta
+			return;
+		}
+		for (AdaptationTable rightTable : AdaptationUtils.getAllTables(pRightDataset)) {
+			pPairs.add(new AdaptationTable[] { leftDataset.getTable(rightTable.getTablePath()), rightTable });
+		}
+	}
+
+	private void writeDeclarationAndHeader(final OutputStream pOutput) throws IOException {
+		String lineSeparator = System.lineSeparator();
+		pOutput.write(XML_DECLARATION.getBytes(StandardCharsets.UTF_8));
+		pOutput.write(lineSeparator.getBytes(StandardCharsets.UTF_8));
+		if (this.header != null && !this.header.trim().isEmpty()) {
+			pOutput.write(this.header.getBytes(StandardCharsets.UTF_8));
+		}
+		pOutput.write(lineSeparator.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void writeManifest(final AdaptationHome pLeft, final AdaptationHome pRight, final File pFile, final List<TableDelta> pDeltas) throws IOException {
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(pFile), StandardCharsets.UTF_8))) {
+			writer.write(XML_DECLARATION);
+			writer.write(System.lineSeparator());
+			writer.write("<delta from=\"" + escape(pLeft.getKey().format()) + "\" to=\"" + escape(pRight.getKey().format()) + "\">");
+			writer.write(System.lineSeparator());
+			for (TableDelta delta : pDeltas) {
+				writer.write("\t<table dataset=\"" + escape(delta.dataset) + "\" path=\"" + escape(delta.tablePath) + "\"");
+				if (delta.file != null) {
+					writer.write(" file=\"" + escape(delta.file.getName()) + "\" bytes=\"" + delta.file.length() + "\" sha256=\"" + delta.checksum + "\"");
+				}
+				writer.write(" created=\"" + delta.creationCount + "\" updated=\"" + delta.updateCount + "\" deleted=\"" + delta.deletionCount + "\"/>");
+				writer.write(System.lineSeparator());
+			}
+			writer.write("</delta>");
+			writer.write(System.lineSeparator());
+		}
+	}
+
+	private static String escape(final String pValue) {
+		return pValue.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	private static String toHex(final MessageDigest pDigest) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : pDigest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Sets the header written after the XML declaration of each file.
+	 *
+	 * @param pHeader the header
+	 */
+	public void setHeader(final String pHeader) {
+		this.header = pHeader;
+	}
+
+	/**
+	 * Sets whether technical data are exported. Default is false.
+	 *
+	 * @param pIncludeTechnicalData true to export technical data
+	 */
+	public void setIncludeTechnicalData(final boolean pIncludeTechnicalData) {
+		this.includeTechnicalData = pIncludeTechnicalData;
+	}
+
+	/**
+	 * Sets whether the part files are gzip compressed. Default is true.
+	 *
+	 * @param pGzip true to compress
+	 */
+	public void setGzip(final boolean pGzip) {
+		this.gzip = pGzip;
+	}
+
+	/**
+	 * Delta of a table
+	 */
+	public static final class TableDelta {
+		private final String dataset;
+		private final String tablePath;
+		private final int creationCount;
+		private final int updateCount;
+		private final int deletionCount;
+		private final File file;
+		private final String checksum;
+
+		private TableDelta(final AdaptationTable pTable, final DifferenceBetweenTables pDifference, final File pFile, final String pChecksum) {
+			this(pTable.getContainerAdaptation().getAdaptationName().getStringName(), pTable.getTablePath().format(), pDifference.getExtraOccurrencesOnRightSize(),
+					pDifference.getDeltaOccurrencesSize(), pDifference.getExtraOccurrencesOnLeftSize(), pFile, pChecksum);
+		}
+
+		private TableDelta(final String pDataset, final String pTablePath, final int pCreationCount, final int pUpdateCount, final int pDeletionCount, final File pFile,
+				final String pChecksum) {
+			this.dataset = pDataset;
+			this.tablePath = pTablePath;
+			this.creationCount = pCreationCount;
+			this.updateCount = pUpdateCount;
+			this.deletionCount = pDeletionCount;
+			this.file = pFile;
+			this.checksum = pChecksum;
+		}
+
+		private TableDelta withFile(final File pFile, final String pChecksum) {
+			return new TableDelta(this.dataset, this.tablePath, this.creationCount, this.updateCount, this.deletionCount, pFile, pChecksum);
+		}
+
+		private boolean hasCreationsOrUpdates() {
+			return this.creationCount > 0 || this.updateCount > 0;
+		}
+
+		private boolean hasChanges() {
+			return this.hasCreationsOrUpdates() || this.deletionCount > 0;
+		}
+
+		public String getDataset() {
+			return this.dataset;
+		}
+
+		public String getTablePath() {
+			return this.tablePath;
+		}
+
+		public int getCreationCount() {
+			return this.creationCount;
+		}
+
+		public int getUpdateCount() {
+			return this.updateCount;
+		}
+
+		public int getDeletionCount() {
+			return this.deletionCount;
+		}
+
+		/**
+		 * Gets the part file of the table, null when the delta was written to a single stream or the table has only deletions.
+		 *
+		 * @return the file
+		 */
+		public File getFile() {
+			return this.file;
+		}
+
+		public String getChecksum() {
+			return this.checksum;
+		}
+
+		@Override
+		public String toString() {
+			return this.dataset + this.tablePath + ": " + this.creationCount + " created, " + this.updateCount + " updated, " + this.deletionCount + " deleted";
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.repository;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.orchestranetworks.schema.Path;
+
+/**
+ * Counts of the differences between two dataspaces or snapshots, per table.
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class ComparisonSummary {
+	private final List<TableSummary> tables;
+	private final boolean complete;
+
+	ComparisonSummary(final List<TableSummary> pTables, final boolean pComplete) {
+		this.tables = Collections.unmodifiableList(pTables);
+		this.complete = pComplete;
+	}
+
+	/**
+	 * Gets the summaries of the tables having differences.
+	 *
+	 * @return the summaries, in the order of the datasets and tables
+	 */
+	public List<TableSummary> getTables() {
+		return this.tables;
+	}
+
+	/**
+	 * Checks whether all the tables have been compared, false when the visitor stopped the comparison.
+	 *
+	 * @return true if the comparison is complete
+	 */
+	public boolean isComplete() {
+		return this.complete;
+	}
+
+	public boolean hasChanges() {
+		return !this.tables.isEmpty();
+	}
+
+	public int getCreationCount() {
+		return this.tables.stream().mapToInt(TableSummary::getCreationCount).sum();
+	}
+
+	public int getUpdateCount() {
+		return this.tables.stream().mapToInt(TableSummary::getUpdateCount).sum();
+	}
+
+	public int getDeletionCount() {
+		return this.tables.stream().mapToInt(TableSummary::getDeletionCount).sum();
+	}
+
+	/**
+	 * Differences found in a table.
+	 */
+	public static final class TableSummary {
+		private final String dataset;
+		private final Path tablePath;
+		private int creationCount;
+		private int updateCount;
+		private int deletionCount;
+		private final Set<Path> changedFields = new TreeSet<>((a, b) -> a.format().compareTo(b.format()));
+
+		TableSummary(final String pDataset, final Path pTablePath) {
+			this.dataset = pDataset;
+			this.tablePath = pTablePath;
+		}
+
+		void addCreation() {
+			this.creationCount++;
+		}
+
+		void addUpdate(final List<Path> pChangedFields) {
+			this.updateCount++;
+			this.changedFields.addAll(pChangedFields);
+		}
+
+		void addDeletion() {
+			this.deletionCount++;
+		}
+
+		boolean hasChanges() {
+			return this.creationCount > 0 || this.updateCount > 0 || this.deletionCount > 0;
+		}
+
+		public String getDataset() {
+			return this.dataset;
+		}
+
+		public Path getTablePath() {
+			return this.tablePath;
+		}
+
+		public int getCreationCount() {
+			return this.creationCount;
+		}
+
+		public int getUpdateCount() {
+			return this.updateCount;
+		}
+
+		public int getDeletionCount() {
+			return this.deletionCount;
+		}
+
+		/**
+		 * Gets the fields modified in at least one updated record.
+		 *
+		 * @return the paths of the fields
+		 */
+		public Set<Path> getChangedFields() {
+			return Collections.unmodifiableSet(this.changedFields);
+		}
+
+		@Override
+		public String toString() {
+			return this.dataset + this.tablePath.format() + ": " + this.creationCount + " created, " + this.updateCount + " updated " + this.changedFields + ", "
+					+ this.deletionCount + " deleted";
+		}
+	}
+}
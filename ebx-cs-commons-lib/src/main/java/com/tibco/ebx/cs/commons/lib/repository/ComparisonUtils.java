@@ -3,14 +3,27 @@ package com.tibco.ebx.cs.commons.lib.repository;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 
 import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationHome;
 import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.RequestResult;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.schema.SchemaNode;
+import com.orchestranetworks.service.comparison.DifferenceBetweenNodes;
 import com.orchestranetworks.service.comparison.DifferenceBetweenOccurrences;
 import com.orchestranetworks.service.comparison.DifferenceBetweenTables;
 import com.orchestranetworks.service.comparison.DifferenceHelper;
 import com.orchestranetworks.service.comparison.ExtraOccurrenceOnLeft;
 import com.orchestranetworks.service.comparison.ExtraOccurrenceOnRight;
+import com.tibco.ebx.cs.commons.lib.repository.ComparisonSummary.TableSummary;
+import com.tibco.ebx.cs.commons.lib.utils.AdaptationUtils;
 
 /**
  * The Class ComparisonUtils provides methods to check and get creations, updates and deletions between tables (same table of the same data model).<br>
@@ -21,6 +34,101 @@ import com.orchestranetworks.service.comparison.ExtraOccurrenceOnRight;
  * @since 1.0.0
  */
 public final class ComparisonUtils {
+	/**
+	 * Compares two dataspaces or snapshots and streams the record differences to a visitor. Tables are compared in parallel by a bounded number of threads, and the
+	 * comparison stops as soon as the visitor returns false. Datasets existing in one home only have all their records created or deleted.
+	 *
+	 * @param pLeftHome  the left dataspace or snapshot
+	 * @param pRightHome the right dataspace or snapshot
+	 * @param pVisitor   the visitor of the differences
+	 * @param pThreadMax the maximum number of tables compared at the same time
+	 * @return the counts of differences per table, incomplete if the visitor stopped the comparison
+	 * @since 3.0.0
+	 */
+	public static ComparisonSummary compareHomes(final AdaptationHome pLeftHome, final AdaptationHome pRightHome, final DifferenceVisitor pVisitor, final int pThreadMax) {
+		List<AdaptationTable[]> pairs = ComparisonUtils.getTablePairs(pLeftHome, pRightHome);
+		AtomicBoolean stopped = new AtomicBoolean(false);
+		// Summaries and visitor are only accessed with this lock held
+		Object lock = new Object();
+		List<TableSummary> tableSummaries = new ArrayList<>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(pThreadMax, pairs.size())));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (AdaptationTable[] tables : pairs) {
+				AdaptationTable table = tables[1] == null ? tables[0] : tables[1];
+				TableSummary summary = new TableSummary(table.getContainerAdaptation().getAdaptationName().getStringName(), table.getTablePath());
+				tableSummaries.add(summary);
+				futures.add(executor.submit(() -> ComparisonUtils.compareTables(tables[0], tables[1], summary, pVisitor, lock, stopped)));
+			}
+			for (Future<?> future : futures) {
+				if (stopped.get()) {
+					break;
+				}
+				future.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			stopped.set(true);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IllegalStateException(ex.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		synchronized (lock) {
+			List<TableSummary> summaries = new ArrayList<>();
+			for (TableSummary summary : tableSummaries) {
+				if (summary.hasChanges()) {
+					summaries.add(summary);
+				}
+			}
+			return new ComparisonSummary(summaries, !stopped.get());
+		}
+	}
+
+	/**
+	 * Checks whether two dataspaces or snapshots have different records. The record counts of the tables are compared first, then the tables are compared in parallel until the
+	 * first difference.
+	 * <p>
+	 * When all the counts are equal, which is the case of homes without change, each table is entirely compared by {@link DifferenceHelper#compareAdaptationTables}, the visitor
+	 * only stopping the comparison between tables: the cost is then the one of {@link #compareHomes}.
+	 * </p>
+	 *
+	 * @param pLeftHome  the left dataspace or snapshot
+	 * @param pRightHome the right dataspace or snapshot
+	 * @param pThreadMax the maximum number of tables compared at the same time
+	 * @return true if a record has been created, updated or deleted
+	 * @since 3.0.0
+	 */
+	public static boolean hasChanges(final AdaptationHome pLeftHome, final AdaptationHome pRightHome, final int pThreadMax) {
+		for (AdaptationTable[] tables : ComparisonUtils.getTablePairs(pLeftHome, pRightHome)) {
+			if (ComparisonUtils.countRecords(tables[0]) != ComparisonUtils.countRecords(tables[1])) {
+				return true;
+			}
+		}
+		DifferenceVisitor stopAtFirst = new DifferenceVisitor() {
+			@Override
+			public boolean visitCreation(final Adaptation pRecord) {
+				return false;
+			}
+
+			@Override
+			public boolean visitUpdate(final Adaptation pLeftRecord, final Adaptation pRightRecord, final List<Path> pChangedFields) {
+				return false;
+			}
+
+			@Override
+			public boolean visitDeletion(final Adaptation pRecord) {
+				return false;
+			}
+		};
+		return ComparisonUtils.compareHomes(pLeftHome, pRightHome, stopAtFirst, pThreadMax).hasChanges();
+	}
+
 	/**
 	 * Compare the table with the same table in the parent data space. Gets the created, updated and deleted records.
 	 *
@@ -376,6 +484,118 @@ public final class ComparisonUtils {
 		return DifferenceHelper.compareAdaptationTables(pLeftTable, pRightTable, true);
 	}
 
+	private static void compareTables(final AdaptationTable pLeftTable, final AdaptationTable pRightTable, final TableSummary pSummary, final DifferenceVisitor pVisitor,
+			final Object pLock, final AtomicBoolean pStopped) {
+		if (pStopped.get()) {
+			return;
+		}
+
+		if (pLeftTable == null || pRightTable == null) {
+			RequestResult result = (pRightTable == null ? pLeftTable : pRightTable).createRequest().execute();
+			try {
+				for (Adaptation record; (record = result.nextAdaptation()) != null;) {
+					final Adaptation current = record;
+					boolean goOn;
+					if (pLeftTable == null) {
+						goOn = ComparisonUtils.visit(pLock, pStopped, pSummary::addCreation, () -> pVisitor.visitCreation(current));
+					} else {
+						goOn = ComparisonUtils.visit(pLock, pStopped, pSummary::addDeletion, () -> pVisitor.visitDeletion(current));
+					}
+					if (!goOn) {
+						break;
+					}
+				}
+			} finally {
+				result.close();
+			}
+			return;
+		}
+
+		DifferenceBetweenTables differences = ComparisonUtils.getDifferencesBetweenTables(pLeftTable, pRightTable);
+		for (ExtraOccurrenceOnRight occurrence : differences.getExtraOccurrencesOnRight()) {
+			if (!ComparisonUtils.visit(pLock, pStopped, pSummary::addCreation, () -> pVisitor.visitCreation(occurrence.getExtraOccurrence()))) {
+				return;
+			}
+		}
+		for (DifferenceBetweenOccurrences occurrence : differences.getDeltaOccurrences()) {
+			Adaptation left = occurrence.getOccurrenceOnLeft();
+			Adaptation right = occurrence.getOccurrenceOnRight();
+			// The changed fields are those of the node differences computed by the comparison
+			List<Path> changedFields = new ArrayList<>();
+			for (DifferenceBetweenNodes nodeDifference : occurrence.getNodeDifferences()) {
+				SchemaNode node = nodeDifference.getRightNode() == null ? nodeDifference.getLeftNode() : nodeDifference.getRightNode();
+				changedFields.add(node.getPathInAdaptation());
+			}
+			if (!ComparisonUtils.visit(pLock, pStopped, () -> pSummary.addUpdate(changedFields), () -> pVisitor.visitUpdate(left, right, changedFields))) {
+				return;
+			}
+		}
+		for (ExtraOccurrenceOnLeft occurrence : differences.getExtraOccurrencesOnLeft()) {
+			if (!ComparisonUtils.visit(pLock, pStopped, pSummary::addDeletion, () -> pVisitor.visitDeletion(occurrence.getExtraOccurrence()))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Counts a difference and calls the visitor, one thread at a time, unless the comparison has been stopped.
+	 */
+	private static boolean visit(final Object pLock, final AtomicBoolean pStopped, final Runnable pCount, final BooleanSupplier pCall) {
+		synchronized (pLock) {
+			if (pStopped.get()) {
+				return false;
+			}
+			pCount.run();
+			if (!pCall.getAsBoolean()) {
+				pStopped.set(true);
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Pairs the tables of the datasets of both homes, a table being null when its dataset does not exist in one of the homes.
+	 */
+	private static List<AdaptationTable[]> getTablePairs(final AdaptationHome pLeftHome, final AdaptationHome pRightHome) {
+		List<AdaptationTable[]> pairs = new ArrayList<>();
+		for (Adaptation dataset : ComparisonUtils.getAllDatasets(pRightHome)) {
+			Adaptation leftDataset = pLeftHome.findAdaptationOrNull(dataset.getAdaptationName());
+			for (AdaptationTable rightTable : AdaptationUtils.getAllTables(dataset)) {
+				pairs.add(new AdaptationTable[] { leftDataset == null ? null : leftDataset.getTable(rightTable.getTablePath()), rightTable });
+			}
+		}
+		for (Adaptation dataset : ComparisonUtils.getAllDatasets(pLeftHome)) {
+			if (pRightHome.findAdaptationOrNull(dataset.getAdaptationName()) == null) {
+				for (AdaptationTable leftTable : AdaptationUtils.getAllTables(dataset)) {
+					pairs.add(new AdaptationTable[] { leftTable, null });
+				}
+			}
+		}
+		return pairs;
+	}
+
+	private static List<Adaptation> getAllDatasets(final AdaptationHome pHome) {
+		List<Adaptation> datasets = new ArrayList<>();
+		for (Adaptation root : pHome.findAllRoots()) {
+			datasets.add(root);
+			datasets.addAll(pHome.findAllDescendants(root));
+		}
+		return datasets;
+	}
+
+	private static int countRecords(final AdaptationTable pTable) {
+		if (pTable == null) {
+			return 0;
+		}
+		RequestResult result = pTable.createRequest().execute();
+		try {
+			return result.getSize();
+		} finally {
+			result.close();
+		}
+	}
+
 	private ComparisonUtils() {
 	}
 
@@ -0,0 +1,51 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.repository;
+
+import java.util.List;
+
+import com.onwbp.adaptation.Adaptation;
+import com.orchestranetworks.schema.Path;
+
+/**
+ * Visitor of the record differences found by {@link ComparisonUtils#compareHomes(com.onwbp.adaptation.AdaptationHome, com.onwbp.adaptation.AdaptationHome, DifferenceVisitor, int)}.
+ * <p>
+ * Tables are compared in parallel but the visitor is called by one thread at a time. Each method returns false to stop the comparison.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public interface DifferenceVisitor {
+
+	/**
+	 * Visits a record existing only in the right home.
+	 *
+	 * @param pRecord the record in the right home
+	 * @return true to continue, false to stop the comparison
+	 */
+	default boolean visitCreation(final Adaptation pRecord) {
+		return true;
+	}
+
+	/**
+	 * Visits a record whose content differs between the homes.
+	 *
+	 * @param pLeftRecord    the record in the left home
+	 * @param pRightRecord   the record in the right home
+	 * @param pChangedFields the paths of the fields whose value differs
+	 * @return true to continue, false to stop the comparison
+	 */
+	default boolean visitUpdate(final Adaptation pLeftRecord, final Adaptation pRightRecord, final List<Path> pChangedFields) {
+		return true;
+	}
+
+	/**
+	 * Visits a record existing only in the left home.
+	 *
+	 * @param pRecord the record in the left home
+	 * @return true to continue, false to stop the comparison
+	 */
+	default boolean visitDeletion(final Adaptation pRecord) {
+		return true;
+	}
+}
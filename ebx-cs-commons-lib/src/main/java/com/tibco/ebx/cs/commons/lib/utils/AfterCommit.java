@@ -0,0 +1,128 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.onwbp.adaptation.AdaptationHome;
+import com.orchestranetworks.service.OperationException;
+import com.orchestranetworks.service.ProcedureResult;
+import com.orchestranetworks.service.ProgrammaticService;
+import com.orchestranetworks.service.Session;
+
+/**
+ * Runs actions once the transaction in progress on a dataspace has ended.
+ * <p>
+ * Table triggers have no hook after the commit. An action handed over from {@code handleBeforeTransactionCommit} is run by a background thread after an empty procedure has been
+ * executed on the dataspace: EBX executes the update procedures of a dataspace one at a time, so the empty procedure only starts once the transaction has been committed or rolled
+ * back. The action cannot tell which one happened: it must read the committed state of the dataspace, or be harmless if the transaction has been rolled back, such as a cache
+ * invalidation.
+ * </p>
+ * <p>
+ * The wait is attempted again when the empty procedure fails. If it still fails, the action is not run, since the transaction may not have ended, and the failure action, if any,
+ * is run instead. Actions are run concurrently, unless they are given the same queue name: those are run one at a time, in the order they have been handed over, which is the
+ * commit order of the transactions of a dataspace.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class AfterCommit {
+
+	private static final int MAX_THREADS = 4;
+
+	private static final int MAX_WAIT_ATTEMPTS = 3;
+
+	private static final long WAIT_RETRY_MILLIS = 1000;
+
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	private static final ExecutorService EXECUTOR = createExecutor();
+
+	/** Single thread executors of the named queues, whose thread stops when idle */
+	private static final Map<String, ExecutorService> QUEUES = new ConcurrentHashMap<>();
+
+	private AfterCommit() {
+	}
+
+	private static ExecutorService createExecutor() {
+		return createExecutor(MAX_THREADS, "ebx-cs-commons-after-commit-");
+	}
+
+	private static ExecutorService createExecutor(final int pThreads, final String pThreadPrefix) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(pThreads, pThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, pThreadPrefix + THREAD_COUNT.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Runs an action once the transaction in progress on a dataspace has ended. To be called before the commit, the action being run by another thread.
+	 *
+	 * @param pDataspace the dataspace updated by the transaction
+	 * @param pSession   the session executing the transaction
+	 * @param pAction    the action
+	 */
+	public static void execute(final AdaptationHome pDataspace, final Session pSession, final Runnable pAction) {
+		EXECUTOR.execute(() -> AfterCommit.run(pDataspace, pSession, pAction, null));
+	}
+
+	/**
+	 * Runs an action once the transaction in progress on a dataspace has ended, after the actions previously handed over to the same queue. To be called before the commit, the
+	 * action being run by the thread of the queue.
+	 *
+	 * @param pQueue     the name of the queue
+	 * @param pDataspace the dataspace updated by the transaction
+	 * @param pSession   the session executing the transaction
+	 * @param pAction    the action
+	 * @param pOnFailure the action run instead when the end of the transaction cannot be waited for, can be null
+	 */
+	public static void executeInOrder(final String pQueue, final AdaptationHome pDataspace, final Session pSession, final Runnable pAction, final Runnable pOnFailure) {
+		QUEUES.computeIfAbsent(pQueue, queue -> createExecutor(1, "ebx-cs-commons-after-commit-" + queue + "-"))
+				.execute(() -> AfterCommit.run(pDataspace, pSession, pAction, pOnFailure));
+	}
+
+	private static void run(final AdaptationHome pDataspace, final Session pSession, final Runnable pAction, final Runnable pOnFailure) {
+		try {
+			if (AfterCommit.waitForTransaction(pDataspace, pSession)) {
+				pAction.run();
+			} else if (pOnFailure != null) {
+				pOnFailure.run();
+			}
+		} catch (RuntimeException ex) {
+			CommonsLogger.getLogger().error("Action after the commit on dataspace " + pDataspace.getKey().getName() + " has failed", ex);
+		}
+	}
+
+	private static boolean waitForTransaction(final AdaptationHome pDataspace, final Session pSession) {
+		for (int attempt = 1;; attempt++) {
+			ProcedureResult result = ProgrammaticService.createForSession(pSession, pDataspace).execute(pContext -> {
+				// Only waits for the transaction in progress
+			});
+			if (!result.hasFailed()) {
+				return true;
+			}
+			OperationException exception = result.getException();
+			if (attempt >= MAX_WAIT_ATTEMPTS) {
+				CommonsLogger.getLogger().error("Cannot wait for the end of the transaction on dataspace " + pDataspace.getKey().getName() + ", the action is not run", exception);
+				return false;
+			}
+			CommonsLogger.getLogger().warn("Cannot wait for the end of the transaction on dataspace " + pDataspace.getKey().getName() + ", attempt " + attempt + "/" + MAX_WAIT_ATTEMPTS,
+					exception);
+			try {
+				Thread.sleep(WAIT_RETRY_MILLIS * attempt);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+}
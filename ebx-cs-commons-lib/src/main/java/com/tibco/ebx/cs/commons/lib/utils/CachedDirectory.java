@@ -0,0 +1,334 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.orchestranetworks.instance.Repository;
+import com.orchestranetworks.service.Profile;
+import com.orchestranetworks.service.Role;
+import com.orchestranetworks.service.UserReference;
+import com.orchestranetworks.service.directory.DirectoryHandler;
+import com.orchestranetworks.service.directory.ProfileListContextBridge;
+
+/**
+ * Directory facade caching the answers of the directory for a time to live.
+ * <p>
+ * Role memberships, roles of a user, users of a role, user existence and display labels, and the list of profiles are cached in {@link ExpiringCache}s, so that concurrent
+ * lookups of the same entry wait for a single call to the directory. When several roles are checked, only the requested roles are checked, each through the cached memberships,
+ * unless the directory lists the roles of a user in one request: they are then loaded together. Memberships found in a cached list of users of a role are not asked again.
+ * Users and profiles which are not defined are not cached, so that they are seen as soon as they are created, and neither are the labels of undefined users. Other changes in
+ * the directory are seen after the time to live, or after {@link #invalidate(Repository)}, called by
+ * <tt>com.tibco.ebx.cs.commons.component.trigger.ClearPermissionsCacheTrigger</tt> once a directory table has been updated.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class CachedDirectory {
+
+	/** Default time to live of the entries */
+	public static final long DEFAULT_TIME_TO_LIVE_MINUTES = 5;
+
+	private static final int MAXIMUM_SIZE = 10000;
+
+	private static final Map<Repository, CachedDirectory> INSTANCES = new ConcurrentHashMap<>();
+
+	private static final String ALL_PROFILES = "profiles";
+
+	private final Source source;
+	private final ExpiringCache<String, Boolean> memberships;
+	private final ExpiringCache<String, Set<String>> rolesOfUser;
+	private final ExpiringCache<String, Set<String>> usersInRole;
+	private final ExpiringCache<String, Boolean> definedUsers;
+	private final ExpiringCache<String, Boolean> definedProfiles;
+	private final ExpiringCache<String, String> userLabels;
+	private final ExpiringCache<String, List<Profile>> profiles;
+
+	/**
+	 * Reads the directory, to be implemented by a fake in-memory directory in tests.
+	 */
+	public interface Source {
+		boolean isUserInRole(UserReference pUser, Role pRole);
+
+		List<UserReference> getUsersInRole(Role pRole);
+
+		/**
+		 * Gets the roles of a user among several ones. A directory able to list the roles of a user in one request should override it, as well as {@link #supportsBulkRoles()}.
+		 *
+		 * @param pUser  the user
+		 * @param pRoles the roles
+		 * @return the formatted roles of the user
+		 */
+		default Set<String> getRolesOfUser(final UserReference pUser, final Collection<Role> pRoles) {
+			Set<String> roles = new HashSet<>();
+			for (Role role : pRoles) {
+				if (this.isUserInRole(pUser, role)) {
+					roles.add(role.format());
+				}
+			}
+			return roles;
+		}
+
+		/**
+		 * Tells whether {@link #getRolesOfUser(UserReference, Collection)} lists the roles of a user in one request rather than checking them one by one.
+		 *
+		 * @return true if the roles of a user are loaded together
+		 */
+		default boolean supportsBulkRoles() {
+			return false;
+		}
+
+		boolean isUserDefined(UserReference pUser);
+
+		boolean isProfileDefined(Profile pProfile);
+
+		String displayUser(UserReference pUser, Locale pLocale);
+
+		/**
+		 * Gets the profiles that can be used in workflows.
+		 *
+		 * @return the profiles
+		 */
+		List<Profile> getProfiles();
+
+		/**
+		 * Gets a source reading the EBX directory.
+		 *
+		 * @param pHandler the directory handler
+		 * @return the source
+		 */
+		static Source of(final DirectoryHandler pHandler) {
+			return new Source() {
+				@Override
+				public boolean isUserInRole(final UserReference pUser, final Role pRole) {
+					return pHandler.isUserInRole(pUser, pRole);
+				}
+
+				@Override
+				public List<UserReference> getUsersInRole(final Role pRole) {
+					return pHandler.getUsersInRole(pRole);
+				}
+
+				@Override
+				public boolean isUserDefined(final UserReference pUser) {
+					return pHandler.isUserDefined(pUser);
+				}
+
+				@Override
+				public boolean isProfileDefined(final Profile pProfile) {
+					return pHandler.isProfileDefined(pProfile);
+				}
+
+				@Override
+				public String displayUser(final UserReference pUser, final Locale pLocale) {
+					return pHandler.displayUser(pUser, pLocale);
+				}
+
+				@Override
+				public List<Profile> getProfiles() {
+					return pHandler.getProfiles(ProfileListContextBridge.getForWorkflow());
+				}
+			};
+		}
+	}
+
+	/**
+	 * @param pSource     the directory
+	 * @param pTimeToLive time to live of the entries
+	 * @param pUnit       unit of the time to live
+	 */
+	public CachedDirectory(final Source pSource, final long pTimeToLive, final TimeUnit pUnit) {
+		this.source = pSource;
+		this.memberships = new ExpiringCache<>(pTimeToLive, pUnit, MAXIMUM_SIZE);
+		this.rolesOfUser = new ExpiringCache<>(pTimeToLive, pUnit, MAXIMUM_SIZE);
+		this.usersInRole = new ExpiringCache<>(pTimeToLive, pUnit, MAXIMUM_SIZE);
+		this.definedUsers = new ExpiringCache<>(pTimeToLive, pUnit, MAXIMUM_SIZE);
+		this.definedProfiles = new ExpiringCache<>(pTimeToLive, pUnit, MAXIMUM_SIZE);
+		this.userLabels = new ExpiringCache<>(pTimeToLive, pUnit, MAXIMUM_SIZE);
+		this.profiles = new ExpiringCache<>(pTimeToLive, pUnit, 1);
+	}
+
+	/**
+	 * Gets the cached directory of a repository.
+	 *
+	 * @param pRepository the repository
+	 * @return the cached directory
+	 */
+	public static CachedDirectory getInstance(final Repository pRepository) {
+		return INSTANCES.computeIfAbsent(pRepository,
+				repository -> new CachedDirectory(Source.of(DirectoryHandler.getInstance(repository)), DEFAULT_TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES));
+	}
+
+	/**
+	 * Forgets all the answers of the directory of a repository, to be called once the directory has been updated.
+	 *
+	 * @param pRepository the repository
+	 */
+	public static void invalidate(final Repository pRepository) {
+		CachedDirectory directory = INSTANCES.get(pRepository);
+		if (directory != null) {
+			directory.invalidateAll();
+		}
+	}
+
+	/**
+	 * Tests whether a user has a role.
+	 *
+	 * @param pUser the user
+	 * @param pRole the role
+	 * @return true if the user has the role
+	 */
+	public boolean isUserInRole(final UserReference pUser, final Role pRole) {
+		return this.memberships.get(pUser.format() + "|" + pRole.format(), key -> Boolean.valueOf(this.source.isUserInRole(pUser, pRole))).booleanValue();
+	}
+
+	/**
+	 * Tests whether a user has all or one of several roles. The roles are checked one by one through the cached memberships, stopping at the first one deciding the answer. When
+	 * the directory supports it, the roles of the user among the roles listed by the directory are instead loaded together, other roles being checked one by one.
+	 *
+	 * @param pUser  the user
+	 * @param pRoles the roles
+	 * @param pAll   if true, the user must have all the roles, otherwise one of them
+	 * @return true if the user has all or one of the roles
+	 */
+	public boolean isUserInRoles(final UserReference pUser, final Collection<? extends Role> pRoles, final boolean pAll) {
+		if (pRoles.isEmpty()) {
+			return pAll;
+		}
+		boolean bulk = pRoles.size() > 1 && this.source.supportsBulkRoles();
+		Set<String> knownRoles = bulk ? this.getRoles().keySet() : Collections.emptySet();
+		Set<String> userRoles = null;
+		for (Role role : pRoles) {
+			boolean inRole;
+			if (knownRoles.contains(role.format())) {
+				if (userRoles == null) {
+					userRoles = this.getRolesOfUser(pUser);
+				}
+				inRole = userRoles.contains(role.format());
+			} else {
+				inRole = this.isUserInRole(pUser, role);
+			}
+			if (inRole != pAll) {
+				return !pAll;
+			}
+		}
+		return pAll;
+	}
+
+	/**
+	 * Gets the roles of a user among the roles listed by the directory, loaded together when the directory supports it, otherwise checked one by one through the cached
+	 * memberships.
+	 *
+	 * @param pUser the user
+	 * @return the formatted roles
+	 */
+	public Set<String> getRolesOfUser(final UserReference pUser) {
+		return this.rolesOfUser.get(pUser.format(), key -> {
+			Collection<Role> roles = this.getRoles().values();
+			if (this.source.supportsBulkRoles()) {
+				return Collections.unmodifiableSet(new HashSet<>(this.source.getRolesOfUser(pUser, roles)));
+			}
+			Set<String> userRoles = new HashSet<>();
+			for (Role role : roles) {
+				if (this.isUserInRole(pUser, role)) {
+					userRoles.add(role.format());
+				}
+			}
+			return Collections.unmodifiableSet(userRoles);
+		});
+	}
+
+	private Map<String, Role> getRoles() {
+		Map<String, Role> roles = new LinkedHashMap<>();
+		for (Profile profile : this.getProfiles()) {
+			if (profile instanceof Role) {
+				roles.put(profile.format(), (Role) profile);
+			}
+		}
+		return roles;
+	}
+
+	/**
+	 * Gets the users having a role. Their memberships are cached as well.
+	 *
+	 * @param pRole the role
+	 * @return the ids of the users
+	 */
+	public Set<String> getUsersInRole(final Role pRole) {
+		return this.usersInRole.get(pRole.format(), key -> {
+			Set<String> userIds = new LinkedHashSet<>();
+			for (UserReference user : this.source.getUsersInRole(pRole)) {
+				userIds.add(user.getUserId());
+				this.memberships.get(user.format() + "|" + key, membership -> Boolean.TRUE);
+			}
+			return Collections.unmodifiableSet(userIds);
+		});
+	}
+
+	/**
+	 * Tests whether a user is defined. Only defined users are cached.
+	 *
+	 * @param pUser the user
+	 * @return true if the user is defined
+	 */
+	public boolean isUserDefined(final UserReference pUser) {
+		return this.definedUsers.get(pUser.format(), key -> this.source.isUserDefined(pUser) ? Boolean.TRUE : null) != null;
+	}
+
+	/**
+	 * Tests whether a profile is defined. Only defined profiles are cached.
+	 *
+	 * @param pProfile the profile
+	 * @return true if the profile is defined
+	 */
+	public boolean isProfileDefined(final Profile pProfile) {
+		return this.definedProfiles.get(pProfile.format(), key -> this.source.isProfileDefined(pProfile) ? Boolean.TRUE : null) != null;
+	}
+
+	/**
+	 * Gets the label of a user, or its id if the user is not defined. Only the labels of defined users are cached.
+	 *
+	 * @param pUser   the user
+	 * @param pLocale the locale
+	 * @return the label
+	 */
+	public String displayUser(final UserReference pUser, final Locale pLocale) {
+		if (!this.isUserDefined(pUser)) {
+			return pUser.getUserId();
+		}
+		return this.userLabels.get(pUser.format() + "|" + pLocale, key -> this.source.displayUser(pUser, pLocale));
+	}
+
+	/**
+	 * Gets the profiles that can be used in workflows.
+	 *
+	 * @return the profiles
+	 */
+	public List<Profile> getProfiles() {
+		return this.profiles.get(ALL_PROFILES, key -> Collections.unmodifiableList(new ArrayList<>(this.source.getProfiles())));
+	}
+
+	/**
+	 * Forgets all the answers of the directory.
+	 */
+	public void invalidateAll() {
+		this.memberships.invalidateAll();
+		this.rolesOfUser.invalidateAll();
+		this.usersInRole.invalidateAll();
+		this.definedUsers.invalidateAll();
+		this.definedProfiles.invalidateAll();
+		this.userLabels.invalidateAll();
+		this.profiles.invalidateAll();
+	}
+}
@@ -0,0 +1,153 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.utils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.onwbp.adaptation.AdaptationHome;
+import com.orchestranetworks.instance.HomeKey;
+import com.orchestranetworks.instance.Repository;
+
+/**
+ * Concurrent map of values computed for a dataspace, such as in-memory indexes of its tables.
+ * <p>
+ * The values of a dataspace are dropped by {@link #invalidate(AdaptationHome)}, which {@link HomeUtils} calls on every cache when it closes, deletes or merges into a dataspace. Values
+ * of dataspaces closed or deleted by other means are dropped by a background task every {@link #EVICTION_INTERVAL_SECONDS} seconds, so that the map does not outlive the dataspaces
+ * it describes. Dataspaces merged into or reverted by other means keep their values: values depending on the content of a dataspace must check that they are current by
+ * themselves.
+ * </p>
+ *
+ * @param <V> the type of the values
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class DataspaceScopedCache<V> {
+
+	/** Interval between two evictions of the values of closed or deleted dataspaces */
+	public static final long EVICTION_INTERVAL_SECONDS = 60;
+
+	private static final Set<DataspaceScopedCache<?>> INSTANCES = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+	static {
+		scheduleEviction();
+	}
+
+	private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+	public DataspaceScopedCache() {
+		INSTANCES.add(this);
+	}
+
+	private static void scheduleEviction() {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "ebx-cs-commons-dataspace-cache-eviction");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(DataspaceScopedCache::evictClosedDataspacesOfAllCaches, EVICTION_INTERVAL_SECONDS, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	private static void evictClosedDataspacesOfAllCaches() {
+		try {
+			for (DataspaceScopedCache<?> cache : getInstances()) {
+				cache.evictClosedDataspaces();
+			}
+		} catch (RuntimeException ex) {
+			// The next runs must not be cancelled
+			CommonsLogger.getLogger().error("Cannot evict the values of closed dataspaces", ex);
+		}
+	}
+
+	private static DataspaceScopedCache<?>[] getInstances() {
+		synchronized (INSTANCES) {
+			return INSTANCES.toArray(new DataspaceScopedCache<?>[0]);
+		}
+	}
+
+	/**
+	 * Drops the values of a dataspace in all the caches.
+	 *
+	 * @param pDataspace the dataspace
+	 */
+	public static void invalidateAllCaches(final AdaptationHome pDataspace) {
+		for (DataspaceScopedCache<?> cache : getInstances()) {
+			cache.invalidate(pDataspace);
+		}
+	}
+
+	/**
+	 * Gets the value of a key in a dataspace, computing it if it is absent.
+	 *
+	 * @param pDataspace the dataspace
+	 * @param pKey       the key in the dataspace
+	 * @param pLoader    the function computing the value
+	 * @return the value
+	 */
+	public V get(final AdaptationHome pDataspace, final String pKey, final Function<String, V> pLoader) {
+		String key = getKey(pDataspace, pKey);
+		Entry<V> entry = this.entries.get(key);
+		if (entry != null) {
+			return entry.value;
+		}
+		return this.entries.computeIfAbsent(key, k -> new Entry<>(pDataspace, pLoader.apply(pKey))).value;
+	}
+
+	/**
+	 * Gets the value of a key in a dataspace if it exists.
+	 *
+	 * @param pDataspace the dataspace
+	 * @param pKey       the key in the dataspace
+	 * @return the value or null
+	 */
+	public V lookup(final AdaptationHome pDataspace, final String pKey) {
+		Entry<V> entry = this.entries.get(getKey(pDataspace, pKey));
+		return entry == null ? null : entry.value;
+	}
+
+	/**
+	 * Drops the values of a dataspace.
+	 *
+	 * @param pDataspace the dataspace
+	 */
+	public void invalidate(final AdaptationHome pDataspace) {
+		String prefix = pDataspace.getKey().format() + "|";
+		this.entries.keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
+	/**
+	 * Drops all the values.
+	 */
+	public void invalidateAll() {
+		this.entries.clear();
+	}
+
+	private void evictClosedDataspaces() {
+		this.entries.values().removeIf(entry -> {
+			AdaptationHome home = entry.repository.lookupHome(entry.homeKey);
+			return home == null || !home.isOpen();
+		});
+	}
+
+	private static String getKey(final AdaptationHome pDataspace, final String pKey) {
+		return pDataspace.getKey().format() + "|" + pKey;
+	}
+
+	private static final class Entry<V> {
+		private final Repository repository;
+		private final HomeKey homeKey;
+		private final V value;
+
+		private Entry(final AdaptationHome pDataspace, final V pValue) {
+			this.repository = pDataspace.getRepository();
+			this.homeKey = pDataspace.getKey();
+			this.value = pValue;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bounded concurrent cache whose entries expire after a time to live.
+ * <p>
+ * Concurrent misses on the same key wait for a single computation of the value. When the cache grows over its maximum size, expired entries are removed first, then the oldest entries,
+ * by batches so that eviction cost is amortized over insertions. Hits, misses and evictions are counted.
+ * </p>
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values, null values are not cached
+ * @author Mickaël Chevalier
+ */
+public final class ExpiringCache<K, V> {
+
+	/** Share of the maximum size removed at once when the cache is full */
+	private static final int EVICTION_BATCH_DIVISOR = 10;
+
+	private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+	private final long timeToLiveNanos;
+	private final int maximumSize;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * @param pTimeToLive  time to live of the entries
+	 * @param pUnit        unit of the time to live
+	 * @param pMaximumSize maximum number of entries
+	 */
+	public ExpiringCache(final long pTimeToLive, final TimeUnit pUnit, final int pMaximumSize) {
+		if (pTimeToLive <= 0 || pMaximumSize <= 0) {
+			throw new IllegalArgumentException("Time to live and maximum size must be positive");
+		}
+		this.timeToLiveNanos = pUnit.toNanos(pTimeToLive);
+		this.maximumSize = pMaximumSize;
+	}
+
+	/**
+	 * Gets the value of a key, computing it if it is absent or expired. Only one computation per key runs at a time, other callers wait for its result.
+	 *
+	 * @param pKey    the key
+	 * @param pLoader the function computing the value
+	 * @return the value
+	 */
+	public V get(final K pKey, final Function<? super K, ? extends V> pLoader) {
+		Entry<V> newEntry;
+		while (true) {
+			long now = System.nanoTime();
+			Entry<V> entry = this.entries.get(pKey);
+			if (entry != null && !entry.isExpired(now)) {
+				// Loaded, or being loaded by another thread
+				this.hitCount.increment();
+				return entry.join();
+			}
+			newEntry = new Entry<>(now + this.timeToLiveNanos);
+			if (entry == null ? this.entries.putIfAbsent(pKey, newEntry) == null : this.entries.replace(pKey, entry, newEntry)) {
+				break;
+			}
+		}
+
+		this.missCount.increment();
+		try {
+			V value = pLoader.apply(pKey);
+			newEntry.value.complete(value);
+			if (value == null) {
+				this.entries.remove(pKey, newEntry);
+			}
+			return value;
+		} catch (RuntimeException | Error ex) {
+			this.entries.remove(pKey, newEntry);
+			newEntry.value.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			if (this.entries.size() > this.maximumSize) {
+				this.evict();
+			}
+		}
+	}
+
+	/**
+	 * Removes the entry of a key.
+	 *
+	 * @param pKey the key
+	 */
+	public void invalidate(final K pKey) {
+		this.entries.remove(pKey);
+	}
+
+	/**
+	 * Removes the entries whose key matches a predicate.
+	 *
+	 * @param pFilter the predicate
+	 */
+	public void invalidateIf(final Predicate<? super K> pFilter) {
+		this.entries.keySet().removeIf(pFilter);
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void invalidateAll() {
+		this.entries.clear();
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	public long getHitCount() {
+		return this.hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return this.missCount.sum();
+	}
+
+	public long getEvictionCount() {
+		return this.evictionCount.sum();
+	}
+
+	private synchronized void evict() {
+		if (this.entries.size() <= this.maximumSize) {
+			return;
+		}
+		long now = System.nanoTime();
+		List<Map.Entry<K, Entry<V>>> candidates = new ArrayList<>();
+		for (Map.Entry<K, Entry<V>> entry : this.entries.entrySet()) {
+			if (entry.getValue().isExpired(now)) {
+				if (this.entries.remove(entry.getKey(), entry.getValue())) {
+					this.evictionCount.increment();
+				}
+			} else {
+				candidates.add(entry);
+			}
+		}
+		int target = this.maximumSize - this.maximumSize / EVICTION_BATCH_DIVISOR;
+		int toRemove = this.entries.size() - target;
+		if (toRemove <= 0) {
+			return;
+		}
+		candidates.sort(Comparator.comparingLong(entry -> entry.getValue().expirationTime));
+		for (int i = 0; i < candidates.size() && toRemove > 0; i++) {
+			Map.Entry<K, Entry<V>> entry = candidates.get(i);
+			if (this.entries.remove(entry.getKey(), entry.getValue())) {
+				this.evictionCount.increment();
+				toRemove--;
+			}
+		}
+	}
+
+	private static final class Entry<V> {
+		private final CompletableFuture<V> value = new CompletableFuture<>();
+		private final long expirationTime;
+
+		private Entry(final long pExpirationTime) {
+			this.expirationTime = pExpirationTime;
+		}
+
+		private boolean isExpired(final long pNow) {
+			return pNow - this.expirationTime > 0;
+		}
+
+		private V join() {
+			try {
+				return this.value.join();
+			} catch (CompletionException ex) {
+				Throwable cause = ex.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw ex;
+			}
+		}
+	}
+}
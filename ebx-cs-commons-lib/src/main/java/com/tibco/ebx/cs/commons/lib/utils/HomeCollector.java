@@ -4,15 +4,33 @@
  */
 package com.tibco.ebx.cs.commons.lib.utils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.onwbp.adaptation.AdaptationHome;
+import com.orchestranetworks.service.Profile;
 
 /**
  *
  * Collector of Homes.
- * 
+ * <p>
+ * Homes are filtered by kind and status, and optionally by a name pattern compiled once, creation dates, owner and any predicate. A pruning predicate skips whole subtrees
+ * without visiting them. Homes can be collected in a list, streamed lazily in depth-first order, or collected by a parallel fork/join traversal for large repositories.
+ * </p>
+ *
  * @author Mickaël Chevalier
  */
 public class HomeCollector {
@@ -41,6 +59,24 @@ public class HomeCollector {
 	/** The including technical version. */
 	private boolean includingTechnicalVersion = false;
 
+	/** The pattern the names of the homes must match. */
+	private Pattern pattern;
+
+	/** The lower bound, inclusive, of the creation dates. */
+	private Date createdAfter;
+
+	/** The upper bound, exclusive, of the creation dates. */
+	private Date createdBefore;
+
+	/** The owner of the homes. */
+	private Profile owner;
+
+	/** The additional filter. */
+	private Predicate<AdaptationHome> filter;
+
+	/** The predicate of the homes whose subtree is skipped. */
+	private Predicate<AdaptationHome> pruning;
+
 	/**
 	 * Collect homes.
 	 *
@@ -49,7 +85,7 @@ public class HomeCollector {
 	 * @return the list
 	 */
 	public List<AdaptationHome> collectHomes(final AdaptationHome pRootHome, final boolean pIncludeRoot) {
-		return this.collectHomes(pRootHome, pIncludeRoot, null);
+		return this.collectHomes(pRootHome, pIncludeRoot, this.pattern);
 	}
 
 	/**
@@ -62,7 +98,12 @@ public class HomeCollector {
 	 * @return the list
 	 */
 	public List<AdaptationHome> collectHomes(final AdaptationHome pRootHome, final boolean pIncludeRoot, final String pPattern) {
-		List<AdaptationHome> homes = this.collectHomes(pRootHome, ALL_LEVELS, pPattern);
+		return this.collectHomes(pRootHome, pIncludeRoot, pPattern == null ? null : Pattern.compile(pPattern));
+	}
+
+	private List<AdaptationHome> collectHomes(final AdaptationHome pRootHome, final boolean pIncludeRoot, final Pattern pPattern) {
+		List<AdaptationHome> homes = new ArrayList<>();
+		this.collectHomes(pRootHome, ALL_LEVELS, pPattern, homes);
 		if (pIncludeRoot) {
 			homes.add(pRootHome);
 		}
@@ -74,42 +115,168 @@ public class HomeCollector {
 	 *
 	 * @author MCH
 	 * @param pRootHome the root home
-	 * @param pLevel    the level
+	 * @param pLevel    the number of generations of descendants to collect, {@link #ALL_LEVELS} for all
 	 * @return the list
 	 */
 	public List<AdaptationHome> collectHomes(final AdaptationHome pRootHome, final int pLevel) {
-		return this.collectHomes(pRootHome, pLevel, null);
+		List<AdaptationHome> homes = new ArrayList<>();
+		this.collectHomes(pRootHome, pLevel, this.pattern, homes);
+		return homes;
 	}
 
-	private List<AdaptationHome> collectHomes(final AdaptationHome pRootHome, final int pLevel, final String pPattern) {
-		List<AdaptationHome> homes = new ArrayList<>();
+	private void collectHomes(final AdaptationHome pRootHome, final int pLevel, final Pattern pPattern, final List<AdaptationHome> pHomes) {
+		if (pRootHome == null) {
+			return;
+		}
+
+		for (AdaptationHome home : getChildren(pRootHome)) {
+			if (this.isPruned(home)) {
+				continue;
+			}
+			if (this.accepts(home, pPattern)) {
+				pHomes.add(home);
+			}
+			if (pLevel == ALL_LEVELS || pLevel > 1) {
+				this.collectHomes(home, pLevel == ALL_LEVELS ? ALL_LEVELS : pLevel - 1, pPattern, pHomes);
+			}
+		}
+	}
+
+	/**
+	 * Streams the descendants of a home lazily, in depth-first order. Children are only looked up when the stream reaches their parent.
+	 *
+	 * @param pRootHome the root home, not included
+	 * @return the stream of the accepted homes
+	 */
+	public Stream<AdaptationHome> streamHomes(final AdaptationHome pRootHome) {
+		Pattern compiledPattern = this.pattern;
+		Iterator<AdaptationHome> iterator = new Iterator<AdaptationHome>() {
+			private final Deque<AdaptationHome> pending = new ArrayDeque<>();
+			private AdaptationHome next;
+
+			{
+				if (pRootHome != null) {
+					this.pushChildren(pRootHome);
+				}
+			}
+
+			private void pushChildren(final AdaptationHome pParent) {
+				List<AdaptationHome> children = getChildren(pParent);
+				for (int i = children.size() - 1; i >= 0; i--) {
+					this.pending.push(children.get(i));
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				while (this.next == null && !this.pending.isEmpty()) {
+					AdaptationHome home = this.pending.pop();
+					if (HomeCollector.this.isPruned(home)) {
+						continue;
+					}
+					this.pushChildren(home);
+					if (HomeCollector.this.accepts(home, compiledPattern)) {
+						this.next = home;
+					}
+				}
+				return this.next != null;
+			}
 
+			@Override
+			public AdaptationHome next() {
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				AdaptationHome home = this.next;
+				this.next = null;
+				return home;
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Collects the descendants of a home by a parallel fork/join traversal. The order of the list is the one of {@link #collectHomes(AdaptationHome, int)}.
+	 *
+	 * @param pRootHome the root home, not included
+	 * @param pPool     the pool running the traversal, the common pool if null
+	 * @return the list
+	 */
+	public List<AdaptationHome> collectHomesInParallel(final AdaptationHome pRootHome, final ForkJoinPool pPool) {
 		if (pRootHome == null) {
-			return homes;
+			return new ArrayList<>();
 		}
+		ForkJoinPool pool = pPool == null ? ForkJoinPool.commonPool() : pPool;
+		return pool.invoke(new CollectTask(pRootHome, this.pattern));
+	}
+
+	/**
+	 * Collects the accepted descendants of a home, forking a task per child.
+	 */
+	private final class CollectTask extends RecursiveTask<List<AdaptationHome>> {
+		private static final long serialVersionUID = 1L;
 
-		List<AdaptationHome> children = null;
-		if (pRootHome.isBranch()) {
-			children = pRootHome.getVersionChildren();
-		} else {
-			children = pRootHome.getBranchChildren();
+		private final transient AdaptationHome parent;
+		private final Pattern compiledPattern;
+
+		private CollectTask(final AdaptationHome pParent, final Pattern pPattern) {
+			this.parent = pParent;
+			this.compiledPattern = pPattern;
 		}
 
-		for (AdaptationHome home : children) {
+		@Override
+		protected List<AdaptationHome> compute() {
+			List<AdaptationHome> children = new ArrayList<>();
+			List<CollectTask> tasks = new ArrayList<>();
+			for (AdaptationHome home : getChildren(this.parent)) {
+				if (!HomeCollector.this.isPruned(home)) {
+					children.add(home);
+					tasks.add(new CollectTask(home, this.compiledPattern));
+				}
+			}
+			invokeAll(tasks);
 
-			if (home.isVersion() && this.includingVersion && (!home.isInitialVersion() || this.includingInitialVersion) && (!home.isTechnicalVersion() || this.includingTechnicalVersion)
-					|| home.isBranch() && this.includingBranch && (!home.isTechnicalBranch() || this.includingTechnicalBranch) && (home.isOpen() && this.includingOpen || this.includingClosed)) {
-				if (pPattern == null || home.getKey().getName().matches(pPattern)) {
+			List<AdaptationHome> homes = new ArrayList<>();
+			for (int i = 0; i < children.size(); i++) {
+				AdaptationHome home = children.get(i);
+				if (HomeCollector.this.accepts(home, this.compiledPattern)) {
 					homes.add(home);
 				}
+				homes.addAll(tasks.get(i).join());
 			}
+			return homes;
+		}
+	}
 
-			if (pLevel == ALL_LEVELS || pLevel < 0) {
-				homes.addAll(this.collectHomes(home, pLevel - 1));
-			}
+	private static List<AdaptationHome> getChildren(final AdaptationHome pHome) {
+		if (pHome.isBranch()) {
+			return pHome.getVersionChildren();
 		}
+		return pHome.getBranchChildren();
+	}
 
-		return homes;
+	private boolean isPruned(final AdaptationHome pHome) {
+		return this.pruning != null && this.pruning.test(pHome);
+	}
+
+	private boolean accepts(final AdaptationHome pHome, final Pattern pPattern) {
+		if (!(pHome.isVersion() && this.includingVersion && (!pHome.isInitialVersion() || this.includingInitialVersion) && (!pHome.isTechnicalVersion() || this.includingTechnicalVersion)
+				|| pHome.isBranch() && this.includingBranch && (!pHome.isTechnicalBranch() || this.includingTechnicalBranch) && (pHome.isOpen() && this.includingOpen || this.includingClosed))) {
+			return false;
+		}
+		if (pPattern != null && !pPattern.matcher(pHome.getKey().getName()).matches()) {
+			return false;
+		}
+		if (this.createdAfter != null || this.createdBefore != null) {
+			Date creationDate = pHome.getCreationDate();
+			if (this.createdAfter != null && creationDate.before(this.createdAfter) || this.createdBefore != null && !creationDate.before(this.createdBefore)) {
+				return false;
+			}
+		}
+		if (this.owner != null && !this.owner.equals(pHome.getOwner())) {
+			return false;
+		}
+		return this.filter == null || this.filter.test(pHome);
 	}
 
 	/**
@@ -237,4 +404,58 @@ public class HomeCollector {
 	public void setIncludingVersion(final boolean includingVersion) {
 		this.includingVersion = includingVersion;
 	}
+
+	/**
+	 * Sets the pattern the names of the collected homes must match, used when no pattern is given to the collect method.
+	 *
+	 * @param pattern the regular expression, null for no restriction
+	 */
+	public void setPattern(final String pattern) {
+		this.pattern = pattern == null ? null : Pattern.compile(pattern);
+	}
+
+	/**
+	 * Sets the lower bound, inclusive, of the creation dates of the collected homes.
+	 *
+	 * @param createdAfter the date, null for no restriction
+	 */
+	public void setCreatedAfter(final Date createdAfter) {
+		this.createdAfter = createdAfter;
+	}
+
+	/**
+	 * Sets the upper bound, exclusive, of the creation dates of the collected homes.
+	 *
+	 * @param createdBefore the date, null for no restriction
+	 */
+	public void setCreatedBefore(final Date createdBefore) {
+		this.createdBefore = createdBefore;
+	}
+
+	/**
+	 * Sets the owner of the collected homes.
+	 *
+	 * @param owner the owner, null for no restriction
+	 */
+	public void setOwner(final Profile owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * Sets an additional filter of the collected homes. Their descendants are visited even if they are filtered out.
+	 *
+	 * @param filter the filter, null for no restriction
+	 */
+	public void setFilter(final Predicate<AdaptationHome> filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Sets the predicate of the homes which are skipped with all their descendants.
+	 *
+	 * @param pruning the predicate, null to visit the whole tree
+	 */
+	public void setPruning(final Predicate<AdaptationHome> pruning) {
+		this.pruning = pruning;
+	}
 }
@@ -138,6 +138,8 @@ public final class HomeUtils {
 		if (result.hasFailed()) {
 			throw OperationException.createError("Dataspace Merge execution failed.");
 		}
+		DataspaceScopedCache.invalidateAllCaches(childDataSpaceHome.getParentBranch());
+		DataspaceScopedCache.invalidateAllCaches(childDataSpaceHome);
 	}
 
 	/**
@@ -153,6 +155,7 @@ public final class HomeUtils {
 		for (AdaptationHome dataSpaceChild : dataSpaceChildList) {
 			if (dataSpaceChild.isOpen()) {
 				dataSpaceChild.getRepository().closeHome(dataSpaceChild, session);
+				DataspaceScopedCache.invalidateAllCaches(dataSpaceChild);
 			}
 
 		}
@@ -222,6 +225,7 @@ public final class HomeUtils {
 	 */
 	public static void closeDataSpace(final Session session, final AdaptationHome dataSpace) throws OperationException {
 		dataSpace.getRepository().closeHome(dataSpace, session);
+		DataspaceScopedCache.invalidateAllCaches(dataSpace);
 	}
 
 	/**
@@ -238,6 +242,7 @@ public final class HomeUtils {
 			repo.getPurgeDelegate().markHomeForHistoryPurge(dataSpace, session);
 		}
 		repo.deleteHome(dataSpace, session);
+		DataspaceScopedCache.invalidateAllCaches(dataSpace);
 	}
 
 	/**
@@ -6,8 +6,8 @@ import java.util.List;
 
 import com.orchestranetworks.instance.Repository;
 import com.orchestranetworks.service.Profile;
+import com.orchestranetworks.service.Role;
 import com.orchestranetworks.service.UserReference;
-import com.orchestranetworks.service.directory.DirectoryHandler;
 
 /**
  * Utility class to manipulate Sessions and directory.
@@ -23,7 +23,8 @@ public final class SessionUtils {
 	/**
 	 * @author MCH
 	 *
-	 *         Test if a user belongs to one or all profiles in parameters as a list of prefixed strings
+	 *         Test if a user belongs to one or all profiles in parameters as a list of prefixed strings. Memberships are read from the {@link CachedDirectory}, which loads the roles
+	 *         of the user together when several roles are checked.
 	 *
 	 * @param pRepository the repository
 	 * @param pUser       the user
@@ -31,21 +32,20 @@ public final class SessionUtils {
 	 * @param pAll        if true, user must have all roles and not only one for this method to return true.
 	 */
 	public static boolean isUserInRoles(final Repository pRepository, final UserReference pUser, final List<String> pRoles, final boolean pAll) {
-		DirectoryHandler handler = DirectoryHandler.getInstance(pRepository);
-		List<Profile> profilesOK = new ArrayList<>();
+		List<Role> roles = new ArrayList<>();
 		for (String profileStr : pRoles) {
-
 			Profile profile = Profile.parse(profileStr);
-			if (profile.isUserReference() && profile.format().equals(pUser.format())) {
-				profilesOK.add(profile);
-			} else if (profile.isSpecificRole()) {
-				if (handler.isUserInRole(pUser, Profile.forSpecificRole(profile.getLabel()))) {
-					profilesOK.add(profile);
+			if (profile.isUserReference()) {
+				boolean isUser = profile.format().equals(pUser.format());
+				if (isUser != pAll) {
+					return isUser;
 				}
-			} else if (handler.isUserInRole(pUser, Profile.forBuiltInRole(profile.getLabel()))) {
-				profilesOK.add(profile);
+			} else if (profile.isSpecificRole()) {
+				roles.add(Profile.forSpecificRole(profile.getLabel()));
+			} else {
+				roles.add(Profile.forBuiltInRole(profile.getLabel()));
 			}
 		}
-		return pAll && profilesOK.size() == pRoles.size() || !pAll && !profilesOK.isEmpty();
+		return CachedDirectory.getInstance(pRepository).isUserInRoles(pUser, roles, pAll);
 	}
 }
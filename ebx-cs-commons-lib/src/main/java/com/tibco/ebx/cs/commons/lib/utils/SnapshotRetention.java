@@ -0,0 +1,332 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.lib.utils;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.onwbp.adaptation.AdaptationHome;
+import com.orchestranetworks.service.OperationException;
+import com.orchestranetworks.service.Session;
+
+/**
+ * Retention engine for snapshots.
+ * <p>
+ * Snapshots are evaluated in one pass over an index sorted by parent dataspace and newest first. A snapshot is kept when it is one of the last N of its dataspace, the newest
+ * of its day within the daily window, or the newest of its month within the monthly window. Snapshots having open child dataspaces are always kept. The others are closed
+ * then deleted in bounded batches, or only reported in dry-run mode.
+ * </p>
+ *
+ * @author Mickaël Chevalier
+ * @since 3.0.0
+ */
+public final class SnapshotRetention {
+	private static final Comparator<AdaptationHome> INDEX_ORDER = Comparator.comparing((final AdaptationHome home) -> getDataspaceName(home))
+			.thenComparing(AdaptationHome::getCreationDate, Comparator.reverseOrder()).thenComparing(home -> home.getKey().getName());
+
+	private int keepLast;
+	private int keepDaily;
+	private int keepMonthly;
+	private int batchSize = 100;
+	private int maxBatches;
+	private boolean dryRun;
+	private boolean deleteHistory;
+
+	/**
+	 * Builds the index of the non technical snapshots under a home, sorted by parent dataspace and newest first.
+	 *
+	 * @param pRootHome the root home, not included
+	 * @param pPattern  the pattern the names of the snapshots must match, null for all
+	 * @return the sorted index
+	 */
+	public static List<AdaptationHome> indexSnapshots(final AdaptationHome pRootHome, final String pPattern) {
+		HomeCollector collector = new HomeCollector();
+		collector.setIncludingBranch(false);
+		collector.setIncludingInitialVersion(false);
+		collector.setPruning(home -> home.isTechnicalBranch() || home.isTechnicalVersion());
+		if (pPattern != null) {
+			collector.setPattern(pPattern);
+		}
+		List<AdaptationHome> snapshots = collector.collectHomes(pRootHome, HomeCollector.ALL_LEVELS);
+		snapshots.sort(INDEX_ORDER);
+		return snapshots;
+	}
+
+	/**
+	 * Builds the index of the snapshots of a dataspace whose names start with a prefix.
+	 *
+	 * @param pDataspace the dataspace
+	 * @param pPrefix    the prefix of the names
+	 * @return the sorted index
+	 */
+	public static List<AdaptationHome> indexSnapshotsByPrefix(final AdaptationHome pDataspace, final String pPrefix) {
+		HomeCollector collector = new HomeCollector();
+		collector.setIncludingBranch(false);
+		collector.setIncludingInitialVersion(false);
+		collector.setPattern(Pattern.quote(pPrefix) + ".*");
+		List<AdaptationHome> snapshots = collector.collectHomes(pDataspace, 1);
+		snapshots.sort(INDEX_ORDER);
+		return snapshots;
+	}
+
+	/**
+	 * Selects the snapshots not retained by the policy.
+	 *
+	 * @param pIndex the snapshots, sorted as by {@link #indexSnapshots(AdaptationHome, String)}
+	 * @param pNow   the reference date of the daily and monthly windows
+	 * @return the snapshots to remove, in the order of the index
+	 */
+	public List<AdaptationHome> selectExpired(final List<AdaptationHome> pIndex, final Date pNow) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(pNow);
+		calendar.add(Calendar.DATE, -this.keepDaily);
+		Date dailyLimit = calendar.getTime();
+		calendar.setTime(pNow);
+		calendar.add(Calendar.MONTH, -this.keepMonthly);
+		Date monthlyLimit = calendar.getTime();
+
+		List<AdaptationHome> expired = new ArrayList<>();
+		String dataspace = null;
+		int rank = 0;
+		Set<Integer> days = new HashSet<>();
+		Set<Integer> months = new HashSet<>();
+		for (AdaptationHome snapshot : pIndex) {
+			String snapshotDataspace = getDataspaceName(snapshot);
+			if (!snapshotDataspace.equals(dataspace)) {
+				dataspace = snapshotDataspace;
+				rank = 0;
+				days.clear();
+				months.clear();
+			}
+			Date creationDate = snapshot.getCreationDate();
+			calendar.setTime(creationDate);
+			int month = calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH);
+			int day = month * 100 + calendar.get(Calendar.DAY_OF_MONTH);
+
+			// Each rule is evaluated independently, so that the newest snapshot of a day also counts for its month
+			boolean kept = rank++ < this.keepLast;
+			if (this.keepDaily > 0 && !creationDate.before(dailyLimit) && days.add(Integer.valueOf(day))) {
+				kept = true;
+			}
+			if (this.keepMonthly > 0 && !creationDate.before(monthlyLimit) && months.add(Integer.valueOf(month))) {
+				kept = true;
+			}
+			if (!kept && !hasOpenChildDataspace(snapshot)) {
+				expired.add(snapshot);
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * Applies the policy to the snapshots of an index.
+	 *
+	 * @param pIndex   the snapshots, sorted as by {@link #indexSnapshots(AdaptationHome, String)}
+	 * @param pSession the session
+	 * @return the report
+	 */
+	public Report purge(final List<AdaptationHome> pIndex, final Session pSession) {
+		return this.remove(pIndex.size(), this.selectExpired(pIndex, new Date()), pSession);
+	}
+
+	/**
+	 * Closes then deletes homes in bounded batches, or only reports them in dry-run mode. A home failing to be removed is logged and counted, the others are still removed.
+	 *
+	 * @param pScannedCount the number of homes scanned to select the homes
+	 * @param pHomes        the homes to remove
+	 * @param pSession      the session
+	 * @return the report
+	 */
+	public Report remove(final int pScannedCount, final Collection<AdaptationHome> pHomes, final Session pSession) {
+		Report report = new Report(this.dryRun, pScannedCount);
+		List<AdaptationHome> homes = new ArrayList<>(pHomes);
+		int size = Math.max(1, this.batchSize);
+		for (int from = 0; from < homes.size(); from += size) {
+			if (this.maxBatches > 0 && report.batchCount >= this.maxBatches) {
+				report.deferredCount = homes.size() - from;
+				break;
+			}
+			List<AdaptationHome> batch = homes.subList(from, Math.min(from + size, homes.size()));
+			report.batchCount++;
+			for (AdaptationHome home : batch) {
+				report.selected.add(home.getKey().getName());
+			}
+			if (this.dryRun) {
+				continue;
+			}
+			List<AdaptationHome> closed = new ArrayList<>();
+			for (AdaptationHome home : batch) {
+				try {
+					if (home.isOpen()) {
+						HomeUtils.closeDataSpace(pSession, home);
+					}
+					closed.add(home);
+				} catch (OperationException ex) {
+					report.failedCount++;
+					CommonsLogger.getLogger().error("Home " + home.getKey().getName() + " cannot be closed", ex);
+				}
+			}
+			for (AdaptationHome home : closed) {
+				try {
+					HomeUtils.deleteDataspace(pSession, home, this.deleteHistory);
+					report.removedCount++;
+				} catch (OperationException ex) {
+					report.failedCount++;
+					CommonsLogger.getLogger().error("Home " + home.getKey().getName() + " cannot be deleted", ex);
+				}
+			}
+			CommonsLogger.getLogger().info("Batch " + report.batchCount + ": " + closed.size() + " home(s) closed, " + report.removedCount + " removed so far");
+		}
+		CommonsLogger.getLogger().info(report.toString());
+		return report;
+	}
+
+	private static boolean hasOpenChildDataspace(final AdaptationHome pSnapshot) {
+		for (AdaptationHome child : pSnapshot.getBranchChildren()) {
+			if (!child.isTechnicalBranch() && child.isOpen()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String getDataspaceName(final AdaptationHome pSnapshot) {
+		AdaptationHome parent = pSnapshot.getParentBranch();
+		return parent == null ? "" : parent.getKey().getName();
+	}
+
+	/**
+	 * Sets the number of most recent snapshots kept per dataspace.
+	 *
+	 * @param pKeepLast the number of snapshots
+	 */
+	public void setKeepLast(final int pKeepLast) {
+		this.keepLast = pKeepLast;
+	}
+
+	/**
+	 * Sets the number of days during which the newest snapshot of each day is kept.
+	 *
+	 * @param pKeepDaily the number of days
+	 */
+	public void setKeepDaily(final int pKeepDaily) {
+		this.keepDaily = pKeepDaily;
+	}
+
+	/**
+	 * Sets the number of months during which the newest snapshot of each month is kept.
+	 *
+	 * @param pKeepMonthly the number of months
+	 */
+	public void setKeepMonthly(final int pKeepMonthly) {
+		this.keepMonthly = pKeepMonthly;
+	}
+
+	/**
+	 * Sets the number of homes closed then deleted together. Default is 100.
+	 *
+	 * @param pBatchSize the number of homes
+	 */
+	public void setBatchSize(final int pBatchSize) {
+		this.batchSize = pBatchSize;
+	}
+
+	/**
+	 * Sets the maximum number of batches per run, the remaining homes being left to the next run. Default is 0, no limit.
+	 *
+	 * @param pMaxBatches the number of batches
+	 */
+	public void setMaxBatches(final int pMaxBatches) {
+		this.maxBatches = pMaxBatches;
+	}
+
+	/**
+	 * Sets whether homes are only reported, not removed.
+	 *
+	 * @param pDryRun true for a dry run
+	 */
+	public void setDryRun(final boolean pDryRun) {
+		this.dryRun = pDryRun;
+	}
+
+	/**
+	 * Sets whether the history of the deleted homes is marked for purge.
+	 *
+	 * @param pDeleteHistory true to purge the history
+	 */
+	public void setDeleteHistory(final boolean pDeleteHistory) {
+		this.deleteHistory = pDeleteHistory;
+	}
+
+	/**
+	 * Report of a purge.
+	 */
+	public static final class Report {
+		private final boolean dryRun;
+		private final int scannedCount;
+		private final List<String> selected = new ArrayList<>();
+		private int removedCount;
+		private int failedCount;
+		private int deferredCount;
+		private int batchCount;
+
+		private Report(final boolean pDryRun, final int pScannedCount) {
+			this.dryRun = pDryRun;
+			this.scannedCount = pScannedCount;
+		}
+
+		public boolean isDryRun() {
+			return this.dryRun;
+		}
+
+		public int getScannedCount() {
+			return this.scannedCount;
+		}
+
+		/**
+		 * Gets the names of the homes selected for removal in this run, removed unless it is a dry run or their removal failed.
+		 *
+		 * @return the names of the homes
+		 */
+		public List<String> getSelected() {
+			return Collections.unmodifiableList(this.selected);
+		}
+
+		public int getRemovedCount() {
+			return this.removedCount;
+		}
+
+		public int getFailedCount() {
+			return this.failedCount;
+		}
+
+		/**
+		 * Gets the number of homes left to the next run because of the maximum number of batches.
+		 *
+		 * @return the number of homes
+		 */
+		public int getDeferredCount() {
+			return this.deferredCount;
+		}
+
+		public int getBatchCount() {
+			return this.batchCount;
+		}
+
+		@Override
+		public String toString() {
+			if (this.dryRun) {
+				return "Dry run: " + this.scannedCount + " home(s) scanned, " + this.selected.size() + " would be removed " + this.selected;
+			}
+			return this.scannedCount + " home(s) scanned, " + this.removedCount + " removed, " + this.failedCount + " failed, " + this.deferredCount + " deferred in "
+					+ this.batchCount + " batch(es)";
+		}
+	}
+}
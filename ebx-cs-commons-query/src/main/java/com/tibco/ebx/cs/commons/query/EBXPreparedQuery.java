@@ -0,0 +1,402 @@
+/* Copyright © 2024. Cloud Software Group, Inc. This file is subject to the license terms contained in the license file that is distributed with this file. */
+package com.tibco.ebx.cs.commons.query;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.onwbp.adaptation.Adaptation;
+import com.onwbp.adaptation.AdaptationHome;
+import com.onwbp.adaptation.AdaptationTable;
+import com.onwbp.adaptation.PrimaryKey;
+import com.orchestranetworks.instance.ValueContext;
+import com.orchestranetworks.query.Query;
+import com.orchestranetworks.query.QueryBuilder;
+import com.orchestranetworks.query.QueryResult;
+import com.orchestranetworks.query.Tuple;
+import com.orchestranetworks.schema.Path;
+import com.orchestranetworks.schema.SchemaNode;
+import com.orchestranetworks.schema.info.AssociationLink;
+import com.orchestranetworks.schema.info.SchemaFacetTableRef;
+
+/**
+ * SQL query parsed once and executed many times with different parameters.
+ * <p>
+ * Prepared queries are cached by dataset, dataset schema and SQL text, so preparing the same query twice returns the same instance as long as the schema has not been recompiled. The
+ * results returned by {@link #execute(Object...)} and {@link #stream(Object...)} are open and lazily iterated: the caller must close them.
+ * </p>
+ * <p>
+ * A parsed query holds the parameters of the execution iterating it, so each execution takes a parsed query of its own. Parsed queries are given back once the result has been
+ * closed or consumed, and kept for the next executions. Queries of a dataspace that has been closed are dropped from the cache, and
+ * {@link #clearCache(AdaptationHome)} drops the queries of a dataspace, releasing its datasets.
+ * </p>
+ */
+public final class EBXPreparedQuery {
+
+	private static final int MAX_CACHED_QUERIES = 1000;
+
+	private static final int MAX_IDLE_QUERIES = 8;
+
+	private static final Map<Key, EBXPreparedQuery> CACHE = Collections.synchronizedMap(new LinkedHashMap<Key, EBXPreparedQuery>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, EBXPreparedQuery> eldest) {
+			return size() > MAX_CACHED_QUERIES;
+		}
+	});
+
+	private final Adaptation dataset;
+	private final Adaptation additionalDataset;
+	private final String sql;
+	private final Deque<Query<Tuple>> idleQueries = new ConcurrentLinkedDeque<>();
+
+	private EBXPreparedQuery(Adaptation dataset, Adaptation additionalDataset, String sql) {
+		this.dataset = dataset;
+		this.additionalDataset = additionalDataset;
+		this.sql = sql;
+		// Parses once, so that a malformed query fails on preparation
+		this.idleQueries.push(this.build());
+	}
+
+	private Query<Tuple> build() {
+		QueryBuilder builder = dataset.createQueryBuilder();
+		if(additionalDataset != null) {
+			builder.addDataset(additionalDataset.getAdaptationName().getStringName(), additionalDataset);
+		}
+		return builder.build(sql);
+	}
+
+	private Query<Tuple> acquire() {
+		Query<Tuple> query = idleQueries.poll();
+		return query != null ? query : build();
+	}
+
+	private void release(Query<Tuple> query) {
+		if(idleQueries.size() < MAX_IDLE_QUERIES) {
+			idleQueries.push(query);
+		}
+	}
+
+	private boolean isOpen() {
+		return dataset.getHome().isOpen() && (additionalDataset == null || additionalDataset.getHome().isOpen());
+	}
+
+	public static EBXPreparedQuery prepare(Adaptation dataset, String sql) {
+		return prepare(dataset, null, sql);
+	}
+
+	public static EBXPreparedQuery prepare(Adaptation dataset, Adaptation additionalDataset, String sql) {
+		if(dataset == null || sql == null) {
+			throw new IllegalArgumentException();
+		}
+
+		Key key = new Key(dataset, additionalDataset, sql);
+		EBXPreparedQuery prepared = CACHE.get(key);
+		if(prepared == null || !prepared.isOpen()) {
+			// Parsing is done outside of the lock, a concurrent preparation of the same query is harmless
+			prepared = new EBXPreparedQuery(dataset, additionalDataset, sql);
+			synchronized(CACHE) {
+				// Misses are rare, so they also release the queries of the dataspaces closed since
+				CACHE.values().removeIf(cached -> !cached.isOpen());
+				EBXPreparedQuery previous = CACHE.putIfAbsent(key, prepared);
+				if(previous != null) {
+					prepared = previous;
+				}
+			}
+		}
+		return prepared;
+	}
+
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * Drops the queries on the datasets of a dataspace, to be called when it is closed, deleted or merged.
+	 *
+	 * @param home the dataspace
+	 */
+	public static void clearCache(AdaptationHome home) {
+		String homeKey = home.getKey().format();
+		synchronized(CACHE) {
+			CACHE.values().removeIf(cached -> cached.dataset.getHome().getKey().format().equals(homeKey)
+					|| cached.additionalDataset != null && cached.additionalDataset.getHome().getKey().format().equals(homeKey));
+		}
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * Binds the parameters and opens the result. The parsed query is given back when the result is closed.
+	 *
+	 * @param parameters values of the '?' parameters, in order
+	 * @return the open result, to be closed by the caller
+	 */
+	@SuppressWarnings("unchecked")
+	public QueryResult<Tuple> execute(Object... parameters) {
+		Query<Tuple> query = acquire();
+		QueryResult<Tuple> result;
+		try {
+			result = execute(query, parameters);
+		} catch(RuntimeException ex) {
+			release(query);
+			throw ex;
+		}
+		AtomicBoolean closed = new AtomicBoolean();
+		return (QueryResult<Tuple>) Proxy.newProxyInstance(QueryResult.class.getClassLoader(), new Class<?>[] { QueryResult.class }, (proxy, method, args) -> {
+			if("close".equals(method.getName()) && method.getParameterCount() == 0) {
+				if(closed.compareAndSet(false, true)) {
+					try {
+						result.close();
+					} finally {
+						release(query);
+					}
+				}
+				return null;
+			}
+			try {
+				return method.invoke(result, args);
+			} catch(InvocationTargetException ex) {
+				throw ex.getCause();
+			}
+		});
+	}
+
+	private static QueryResult<Tuple> execute(Query<Tuple> query, Object... parameters) {
+		for(int i = 0; i < parameters.length; i++) {
+			query.setParameter(i, parameters[i]);
+		}
+		return query.getResult();
+	}
+
+	/**
+	 * Binds the parameters and streams the result lazily.
+	 *
+	 * @param parameters values of the '?' parameters, in order
+	 * @return the tuples, the stream must be closed by the caller to release the result
+	 */
+	public Stream<Tuple> stream(Object... parameters) {
+		Query<Tuple> query = acquire();
+		QueryResult<Tuple> result = execute(query, parameters);
+		Spliterator<Tuple> spliterator = Spliterators.spliteratorUnknownSize(result.iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(() -> {
+			result.close();
+			release(query);
+		});
+	}
+
+	public Optional<Tuple> findFirst(Object... parameters) {
+		Query<Tuple> query = acquire();
+		try(QueryResult<Tuple> result = execute(query, parameters)) {
+			Iterator<Tuple> iterator = result.iterator();
+			if(iterator.hasNext())
+				return Optional.of(iterator.next());
+			return Optional.empty();
+		} finally {
+			release(query);
+		}
+	}
+
+	public List<Tuple> list(Object... parameters) {
+		List<Tuple> tuples = new ArrayList<>();
+		Query<Tuple> query = acquire();
+		try(QueryResult<Tuple> result = execute(query, parameters)) {
+			for(Tuple t : result) {
+				tuples.add(t);
+			}
+		} finally {
+			release(query);
+		}
+		return tuples;
+	}
+
+	public List<Adaptation> listAdaptations(Object... parameters) {
+		List<Adaptation> records = new ArrayList<>();
+		Query<Tuple> query = acquire();
+		try(QueryResult<Tuple> result = execute(query, parameters)) {
+			for(Tuple t : result) {
+				records.add((Adaptation) t.get(0));
+			}
+		} finally {
+			release(query);
+		}
+		return records;
+	}
+
+	@Override
+	public String toString() {
+		return sql;
+	}
+
+	public static Tuple lookupResultByPrimaryKey(Adaptation dataset, Path table, String key) {
+		// The key is bound as a parameter so the SQL text, hence the prepared query, only depends on the table
+		EBXQueryBuilder builder = EBXQueryBuilder.init(dataset, table).selectAdaptation().from(table)
+				.where(new EBXQueryCondition(EBXQueryUtils.PRIMARY_KEY_SQL_FIELD, "=", key)).limit(1);
+		return builder.prepare().findFirst(builder.getParameters()).orElse(null);
+	}
+
+	public static Tuple lookupResultByPrimaryKey(Adaptation dataset, Path table, PrimaryKey key) {
+		return lookupResultByPrimaryKey(dataset, table, key.format());
+	}
+
+	public static Adaptation lookupAdaptationByPrimaryKey(Adaptation dataset, Path table, String key) {
+		Tuple result = lookupResultByPrimaryKey(dataset, table, key);
+		if(result != null)
+			return (Adaptation) result.get(0);
+
+		return null;
+	}
+
+	public static Adaptation lookupAdaptationByPrimaryKey(Adaptation dataset, Path table, PrimaryKey key) {
+		return lookupAdaptationByPrimaryKey(dataset, table, key.format());
+	}
+
+	public static List<Tuple> getLinkedResults(Adaptation pRecord, Path pPath) {
+		EBXQueryBuilder builder = getLinkedQuery(pRecord, EBXQueryUtils.getNode(pRecord, pPath), pPath);
+		if(builder == null)
+			return Collections.emptyList();
+		return builder.prepare().list(builder.getParameters());
+	}
+
+	public static List<Tuple> getLinkedResults(ValueContext pContext, Path pPath) {
+		EBXQueryBuilder builder = getLinkedQuery(pContext, pPath);
+		if(builder == null)
+			return Collections.emptyList();
+		return builder.prepare().list(builder.getParameters());
+	}
+
+	public static List<Adaptation> getLinkedRecords(Adaptation pRecord, Path pPath, Optional<String> pPredicate) {
+		EBXQueryBuilder builder = getLinkedQuery(pRecord, EBXQueryUtils.getNode(pRecord, pPath), pPath);
+		if(builder == null)
+			return Collections.emptyList();
+		return filter(builder.prepare().listAdaptations(builder.getParameters()), pPredicate);
+	}
+
+	public static List<Adaptation> getLinkedRecords(ValueContext pContext, Path pPath, Optional<String> pPredicate) {
+		EBXQueryBuilder builder = getLinkedQuery(pContext, pPath);
+		if(builder == null)
+			return Collections.emptyList();
+		return filter(builder.prepare().listAdaptations(builder.getParameters()), pPredicate);
+	}
+
+	private static List<Adaptation> filter(List<Adaptation> records, Optional<String> pPredicate) {
+		if(pPredicate.isPresent()) {
+			return EBXQueryUtils.filterListOfRecordOrDataset(records, pPredicate.get());
+		}
+		return records;
+	}
+
+	private static EBXQueryBuilder getLinkedQuery(ValueContext pContext, Path pPath) {
+		final SchemaNode node = pContext.getNode(pPath);
+		if(node.getFacetOnTableReference() != null) {
+			SchemaFacetTableRef schemaRef = node.getFacetOnTableReference();
+			AdaptationTable targetTable = schemaRef.getTable(pContext);
+			return getTableRefQuery(targetTable, node, EBXQueryUtils.buildTableRefCondition(pContext, pPath, node));
+		} else if(node.isAssociationNode() || node.isSelectNode()) {
+			AssociationLink link = node.getAssociationLink();
+			if(link.isLinkTable()) {
+				// Not supported from a value context
+				return null;
+			}
+			Optional<Adaptation> pRecordOpt = EBXQueryUtils.getRecordForValueContext(pContext);
+			if(!pRecordOpt.isPresent())
+				return null;
+			return getAssociationQuery(pRecordOpt.get(), link);
+		} else {
+			throw new IllegalArgumentException(
+					"The specified path must lead to a foreign key, an association or a selection node.");
+		}
+	}
+
+	private static EBXQueryBuilder getLinkedQuery(Adaptation pRecord, SchemaNode node, Path pPath) {
+		if(node.getFacetOnTableReference() != null) {
+			SchemaFacetTableRef schemaRef = node.getFacetOnTableReference();
+			AdaptationTable targetTable = schemaRef.getTable(pRecord.createValueContext());
+			return getTableRefQuery(targetTable, node, EBXQueryUtils.buildTableRefCondition(pRecord, pPath, node));
+		} else if(node.isAssociationNode() || node.isSelectNode()) {
+			return getAssociationQuery(pRecord, node.getAssociationLink());
+		} else {
+			throw new IllegalArgumentException(
+					"The specified path must lead to a foreign key, an association or a selection node.");
+		}
+	}
+
+	private static EBXQueryBuilder getTableRefQuery(AdaptationTable targetTable, SchemaNode node,
+			EBXQueryCondition condition) {
+		if(condition == null)
+			return null;
+
+		EBXQueryBuilder builder = EBXQueryBuilder
+				.init(targetTable.getContainerAdaptation(), targetTable.getTablePath()).selectAdaptation().from()
+				.where(condition);
+		if(node.getMaxOccurs() <= 1) {
+			builder = builder.limit(1);
+		}
+		return builder;
+	}
+
+	private static EBXQueryBuilder getAssociationQuery(Adaptation pRecord, AssociationLink link) {
+		if(link.isTableRefInverse()) {
+			return EBXQueryUtils.buildAssociationConditionQuery(pRecord, link);
+		} else if(link.isXPathLink()) {
+			return EBXQueryUtils.buildAssociationConditionXpathQuery(pRecord, link);
+		} else if(link.isLinkTable()) {
+			return EBXQueryUtils.buildAssociationRefLinkQuery(pRecord, link);
+		}
+		return null;
+	}
+
+	/**
+	 * Cache key. The schema node of the dataset changes when the data model is recompiled, which discards the queries parsed against the previous version.
+	 */
+	private static final class Key {
+		private final SchemaNode schema;
+		private final String home;
+		private final String dataset;
+		private final String additionalDataset;
+		private final String sql;
+
+		private Key(Adaptation dataset, Adaptation additionalDataset, String sql) {
+			this.schema = dataset.getSchemaNode();
+			this.home = dataset.getHome().getKey().format();
+			this.dataset = dataset.getAdaptationName().getStringName();
+			this.additionalDataset = additionalDataset == null ? null
+					: additionalDataset.getHome().getKey().format() + "/"
+							+ additionalDataset.getAdaptationName().getStringName();
+			this.sql = sql;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(home, dataset, additionalDataset, sql);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj)
+				return true;
+			if(!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return schema == other.schema && home.equals(other.home) && dataset.equals(other.dataset)
+					&& Objects.equals(additionalDataset, other.additionalDataset) && sql.equals(other.sql);
+		}
+	}
+}
@@ -3,18 +3,19 @@ package com.tibco.ebx.cs.commons.query;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 import com.onwbp.adaptation.Adaptation;
 import com.onwbp.adaptation.AdaptationTable;
-import com.orchestranetworks.query.Query;
-import com.orchestranetworks.query.QueryBuilder;
 import com.orchestranetworks.query.QueryResult;
 import com.orchestranetworks.query.Tuple;
 import com.orchestranetworks.schema.Path;
@@ -345,7 +346,9 @@ public class EBXQueryBuilder {
 			conditionBuilder.append(" ").append(condition.getOperator());
 			if(condition.getValue() != null) {
 				conditionBuilder.append(" ");
-				if(StringUtils.equals(condition.getOperator(), "IN"))
+				if(StringUtils.equals(condition.getOperator(), "IN") && condition.getValue() instanceof Collection)
+					appendInParameters(conditionBuilder, (Collection<?>) condition.getValue());
+				else if(StringUtils.equals(condition.getOperator(), "IN"))
 					conditionBuilder.append(condition.getValue());
 				else {
 					conditionBuilder.append("?");
@@ -364,18 +367,53 @@ public class EBXQueryBuilder {
 		return "(" + conditionBuilder.toString() + ")";
 	}
 
-	public QueryResult<Tuple> execute() {
-		QueryBuilder builder = dataset.createQueryBuilder();
-		if(additionalDataset != null) {
-			builder.addDataset(additionalDataset.getAdaptationName().getStringName(), additionalDataset);
-		}
-		Query<Tuple> query = builder.build(toString());
-		for(int i = 0; i < parameters.size(); i++) {
-			query.setParameter(i, parameters.get(i));
-		}
-		try(QueryResult<Tuple> result = query.getResult()) {
-			return result;
+	/**
+	 * Appends one parameter per value of an IN list. The number of parameters is rounded up to a power of two by repeating the last value, so that lists of close sizes share the
+	 * same SQL text, hence the same prepared query.
+	 */
+	private void appendInParameters(StringBuilder conditionBuilder, Collection<?> values) {
+		int count = values.size() <= 1 ? 1 : Integer.highestOneBit(values.size() - 1) << 1;
+		Object last = null;
+		conditionBuilder.append("(");
+		Iterator<?> iterator = values.iterator();
+		for(int i = 0; i < count; i++) {
+			if(iterator.hasNext())
+				last = iterator.next();
+			conditionBuilder.append(i == 0 ? "?" : ", ?");
+			parameters.add(last);
 		}
+		conditionBuilder.append(")");
+	}
+
+	/**
+	 * Returns the prepared query for the SQL built so far, parsing it only if it is not cached yet.
+	 *
+	 * @return the prepared query, to be executed with {@link #getParameters()}
+	 */
+	public EBXPreparedQuery prepare() {
+		return EBXPreparedQuery.prepare(dataset, additionalDataset, toString());
+	}
+
+	public Object[] getParameters() {
+		return parameters.toArray();
+	}
+
+	/**
+	 * Executes the query with the parameters collected by the conditions.
+	 *
+	 * @return the open result, to be closed by the caller
+	 */
+	public QueryResult<Tuple> execute() {
+		return prepare().execute(getParameters());
+	}
+
+	/**
+	 * Executes the query with the parameters collected by the conditions.
+	 *
+	 * @return the tuples, the stream must be closed by the caller
+	 */
+	public Stream<Tuple> stream() {
+		return prepare().stream(getParameters());
 	}
 
 	@Override
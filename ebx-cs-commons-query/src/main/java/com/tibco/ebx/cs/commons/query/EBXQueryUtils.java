@@ -2,8 +2,6 @@
 package com.tibco.ebx.cs.commons.query;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
@@ -29,7 +27,6 @@ import com.orchestranetworks.schema.info.AssociationLink;
 import com.orchestranetworks.schema.info.AssociationLinkByLinkTable;
 import com.orchestranetworks.schema.info.AssociationLinkByTableRefInverse;
 import com.orchestranetworks.schema.info.AssociationLinkByXPathLink;
-import com.orchestranetworks.schema.info.SchemaFacetTableRef;
 
 public class EBXQueryUtils {
 
@@ -60,12 +57,7 @@ public class EBXQueryUtils {
 	}
 
 	public static Tuple lookupFirstResultMatchingQuery(EBXQueryBuilder queryBuilder) {
-		try(QueryResult<Tuple> result = queryBuilder.execute()) {
-			Iterator<Tuple> iterator = result.iterator();
-			if(iterator.hasNext())
-				return iterator.next();
-			return null;
-		}
+		return queryBuilder.prepare().findFirst(queryBuilder.getParameters()).orElse(null);
 	}
 
 	public static Adaptation lookupFirstRecordMatchingQuery(EBXQueryBuilder queryBuilder) {
@@ -76,196 +68,96 @@ public class EBXQueryUtils {
 		return null;
 	}
 
+	/**
+	 * @deprecated use {@link EBXPreparedQuery#lookupResultByPrimaryKey(Adaptation, Path, String)}
+	 */
+	@Deprecated
 	public static Tuple lookupResultByPrimaryKey(Adaptation dataset, Path table, String key) {
-		return buildPrimaryKeyQuery(dataset, table, key);
+		return EBXPreparedQuery.lookupResultByPrimaryKey(dataset, table, key);
 	}
 
+	/**
+	 * @deprecated use {@link EBXPreparedQuery#lookupAdaptationByPrimaryKey(Adaptation, Path, String)}
+	 */
+	@Deprecated
 	public static Adaptation lookupAdaptationByPrimaryKey(Adaptation dataset, Path table, String key) {
-		Tuple result = buildPrimaryKeyQuery(dataset, table, key);
-		if(result != null)
-			return (Adaptation) result.get(0);
-
-		return null;
+		return EBXPreparedQuery.lookupAdaptationByPrimaryKey(dataset, table, key);
 	}
 
+	/**
+	 * @deprecated use {@link EBXPreparedQuery#lookupResultByPrimaryKey(Adaptation, Path, PrimaryKey)}
+	 */
+	@Deprecated
 	public static Tuple lookupResultByPrimaryKey(Adaptation dataset, Path table, PrimaryKey key) {
-		return buildPrimaryKeyQuery(dataset, table, key.format());
+		return EBXPreparedQuery.lookupResultByPrimaryKey(dataset, table, key);
 	}
 
+	/**
+	 * @deprecated use {@link EBXPreparedQuery#lookupAdaptationByPrimaryKey(Adaptation, Path, PrimaryKey)}
+	 */
+	@Deprecated
 	public static Adaptation lookupAdaptationByPrimaryKey(Adaptation dataset, Path table, PrimaryKey key) {
-		Tuple result = buildPrimaryKeyQuery(dataset, table, key.format());
-		if(result != null)
-			return (Adaptation) result.get(0);
-
-		return null;
+		return EBXPreparedQuery.lookupAdaptationByPrimaryKey(dataset, table, key);
 	}
 
 	public static Tuple buildPrimaryKeyQuery(Adaptation dataset, Path table, String key) {
-		EBXQueryBuilder builder = EBXQueryBuilder.init(dataset, table).selectAdaptation().from(table)
-				.where(new EBXQueryCondition(PRIMARY_KEY_SQL_FIELD, "=", key)).limit(1);
-		return lookupFirstResultMatchingQuery(builder);
+		return EBXPreparedQuery.lookupResultByPrimaryKey(dataset, table, key);
 	}
 
+	/**
+	 * @deprecated use {@link EBXPreparedQuery#getLinkedResults(Adaptation, Path)}
+	 */
+	@Deprecated
 	public static List<Tuple> getLinkedResults(Adaptation pRecord, Path pPath) {
-		final SchemaNode node = getNode(pRecord, pPath);
-		if(node.getFacetOnTableReference() != null) {
-			SchemaFacetTableRef schemaRef = node.getFacetOnTableReference();
-			AdaptationTable targetTable = schemaRef.getTable(pRecord.createValueContext());
-			EBXQueryCondition condition = buildTableRefCondition(pRecord, pPath, node);
-			if(condition != null) {
-				EBXQueryBuilder builder = EBXQueryBuilder
-						.init(targetTable.getContainerAdaptation(), targetTable.getTablePath()).selectAdaptation()
-						.from().where(condition);
-				if(node.getMaxOccurs() <= 1) {
-					builder = builder.limit(1);
-				}
-				QueryResult<Tuple> result = builder.execute();
-				return getLinkedResultsFromQuery(result);
-			}
-			return Collections.emptyList();
-		} else if(node.isAssociationNode() || node.isSelectNode()) {
-			AssociationLink link = node.getAssociationLink();
-			if(link.isTableRefInverse()) {
-				QueryResult<Tuple> result = buildAssociationCondition(pRecord, link);
-				if(result != null)
-					return getLinkedResultsFromQuery(result);
-			} else if(link.isXPathLink()) {
-				QueryResult<Tuple> result = buildAssociationConditionXpath(pRecord, link);
-				if(result != null)
-					return getLinkedResultsFromQuery(result);
-			} else if(link.isLinkTable()) {
-				QueryResult<Tuple> result = buildAssociationRefLink(pRecord, link);
-				if(result != null)
-					return getLinkedResultsFromQuery(result);
-			}
-			return Collections.emptyList();
-		} else {
-			throw new IllegalArgumentException(
-					"The specified path must lead to a foreign key, an association or a selection node.");
-		}
+		return EBXPreparedQuery.getLinkedResults(pRecord, pPath);
 	}
 
+	/**
+	 * @deprecated use {@link EBXPreparedQuery#getLinkedResults(ValueContext, Path)}
+	 */
+	@Deprecated
 	public static List<Tuple> getLinkedResults(ValueContext pContext, Path pPath) {
-		final SchemaNode node = pContext.getNode(pPath);
-		if(node.getFacetOnTableReference() != null) {
-			SchemaFacetTableRef schemaRef = node.getFacetOnTableReference();
-			AdaptationTable targetTable = schemaRef.getTable(pContext);
-			EBXQueryCondition condition = buildTableRefCondition(pContext, pPath, node);
-			if(condition != null) {
-				EBXQueryBuilder builder = EBXQueryBuilder
-						.init(targetTable.getContainerAdaptation(), targetTable.getTablePath()).selectAdaptation()
-						.from().where(condition);
-				if(node.getMaxOccurs() <= 1) {
-					builder = builder.limit(1);
-				}
-				QueryResult<Tuple> result = builder.execute();
-				return getLinkedResultsFromQuery(result);
-			}
-			return Collections.emptyList();
-		} else if(node.isAssociationNode() || node.isSelectNode()) {
-			AssociationLink link = node.getAssociationLink();
-			if(link.isTableRefInverse()) {
-				QueryResult<Tuple> result = buildAssociationCondition(pContext, link);
-				if(result != null)
-					return getLinkedResultsFromQuery(result);
-			} else if(link.isXPathLink()) {
-				QueryResult<Tuple> result = buildAssociationConditionXpath(pContext, link);
-				if(result != null)
-					return getLinkedResultsFromQuery(result);
-			}
-			return Collections.emptyList();
-		} else {
-			throw new IllegalArgumentException(
-					"The specified path must lead to a foreign key, an association or a selection node.");
-		}
+		return EBXPreparedQuery.getLinkedResults(pContext, pPath);
 	}
 
+	/**
+	 * Collects the tuples of a result and closes it.
+	 */
 	public static List<Tuple> getLinkedResultsFromQuery(QueryResult<Tuple> result) {
 		List<Tuple> linkedResults = new ArrayList<>();
-		for(Tuple t : result) {
-			linkedResults.add(t);
+		try(QueryResult<Tuple> toClose = result) {
+			for(Tuple t : toClose) {
+				linkedResults.add(t);
+			}
 		}
 		return linkedResults;
 	}
 
+	/**
+	 * @deprecated use {@link EBXPreparedQuery#getLinkedRecords(Adaptation, Path, Optional)}
+	 */
+	@Deprecated
 	public static List<Adaptation> getLinkedRecords(Adaptation pRecord, Path pPath, Optional<String> pPredicate) {
-		final SchemaNode node = getNode(pRecord, pPath);
-		if(node.getFacetOnTableReference() != null) {
-			SchemaFacetTableRef schemaRef = node.getFacetOnTableReference();
-			AdaptationTable targetTable = schemaRef.getTable(pRecord.createValueContext());
-			EBXQueryCondition condition = buildTableRefCondition(pRecord, pPath, node);
-			if(condition != null) {
-				EBXQueryBuilder builder = EBXQueryBuilder
-						.init(targetTable.getContainerAdaptation(), targetTable.getTablePath()).selectAdaptation()
-						.from().where(condition);
-				if(node.getMaxOccurs() <= 1) {
-					builder = builder.limit(1);
-				}
-				QueryResult<Tuple> result = builder.execute();
-				return getLinkedRecordsFromQuery(pPredicate, result);
-			}
-			return Collections.emptyList();
-		} else if(node.isAssociationNode() || node.isSelectNode()) {
-			AssociationLink link = node.getAssociationLink();
-			if(link.isTableRefInverse()) {
-				QueryResult<Tuple> result = buildAssociationCondition(pRecord, link);
-				if(result != null)
-					return getLinkedRecordsFromQuery(pPredicate, result);
-			} else if(link.isXPathLink()) {
-				QueryResult<Tuple> result = buildAssociationConditionXpath(pRecord, link);
-				if(result != null)
-					return getLinkedRecordsFromQuery(pPredicate, result);
-			} else if(link.isLinkTable()) {
-				QueryResult<Tuple> result = buildAssociationRefLink(pRecord, link);
-				if(result != null)
-					return getLinkedRecordsFromQuery(pPredicate, result);
-			}
-			return Collections.emptyList();
-		} else {
-			throw new IllegalArgumentException(
-					"The specified path must lead to a foreign key, an association or a selection node.");
-		}
+		return EBXPreparedQuery.getLinkedRecords(pRecord, pPath, pPredicate);
 	}
 
+	/**
+	 * @deprecated use {@link EBXPreparedQuery#getLinkedRecords(ValueContext, Path, Optional)}
+	 */
+	@Deprecated
 	public static List<Adaptation> getLinkedRecords(ValueContext pContext, Path pPath, Optional<String> pPredicate) {
-		final SchemaNode node = pContext.getNode(pPath);
-		if(node.getFacetOnTableReference() != null) {
-			SchemaFacetTableRef schemaRef = node.getFacetOnTableReference();
-			AdaptationTable targetTable = schemaRef.getTable(pContext);
-			EBXQueryCondition condition = buildTableRefCondition(pContext, pPath, node);
-			if(condition != null) {
-				EBXQueryBuilder builder = EBXQueryBuilder
-						.init(targetTable.getContainerAdaptation(), targetTable.getTablePath()).selectAdaptation()
-						.from().where(condition);
-				if(node.getMaxOccurs() <= 1) {
-					builder = builder.limit(1);
-				}
-				QueryResult<Tuple> result = builder.execute();
-				return getLinkedRecordsFromQuery(pPredicate, result);
-			}
-			return Collections.emptyList();
-		} else if(node.isAssociationNode() || node.isSelectNode()) {
-			AssociationLink link = node.getAssociationLink();
-			if(link.isTableRefInverse()) {
-				QueryResult<Tuple> result = buildAssociationCondition(pContext, link);
-				if(result != null)
-					return getLinkedRecordsFromQuery(pPredicate, result);
-			} else if(link.isXPathLink()) {
-				QueryResult<Tuple> result = buildAssociationConditionXpath(pContext, link);
-				if(result != null)
-					return getLinkedRecordsFromQuery(pPredicate, result);
-			}
-			return Collections.emptyList();
-		} else {
-			throw new IllegalArgumentException(
-					"The specified path must lead to a foreign key, an association or a selection node.");
-		}
+		return EBXPreparedQuery.getLinkedRecords(pContext, pPath, pPredicate);
 	}
 
+	/**
+	 * Collects the records of a result and closes it.
+	 */
 	public static List<Adaptation> getLinkedRecordsFromQuery(Optional<String> pPredicate, QueryResult<Tuple> result) {
 		List<Adaptation> linkedRecords = new ArrayList<>();
-		for(Tuple t : result) {
-			linkedRecords.add((Adaptation) t.get(0));
+		try(QueryResult<Tuple> toClose = result) {
+			for(Tuple t : toClose) {
+				linkedRecords.add((Adaptation) t.get(0));
+			}
 		}
 		if(pPredicate.isPresent()) {
 			linkedRecords = filterListOfRecordOrDataset(linkedRecords, pPredicate.get());
@@ -273,7 +165,14 @@ public class EBXQueryUtils {
 		return linkedRecords;
 	}
 
+	/**
+	 * @return the open result, to be closed by the caller
+	 */
 	public static QueryResult<Tuple> buildAssociationRefLink(Adaptation pRecord, AssociationLink link) {
+		return buildAssociationRefLinkQuery(pRecord, link).execute();
+	}
+
+	public static EBXQueryBuilder buildAssociationRefLinkQuery(Adaptation pRecord, AssociationLink link) {
 		AssociationLinkByLinkTable refLinkTable = (AssociationLinkByLinkTable) link;
 		AdaptationTable linkTable = refLinkTable.getLinkTable(pRecord.getContainer());
 		AdaptationTable targetTable = refLinkTable.getTargetTable(pRecord.getContainer());
@@ -281,70 +180,69 @@ public class EBXQueryUtils {
 				getFkAsString(pRecord.getContainerTable().getTablePath(), linkTable.getTablePath(),
 						Path.SELF.add(refLinkTable.getFieldToSourcePath().getLastStep())),
 				"=", pRecord.getOccurrencePrimaryKey().format());
-		EBXQueryBuilder builder = EBXQueryBuilder
+		return EBXQueryBuilder
 				.init(targetTable.getContainerAdaptation(), targetTable.getTablePath(), linkTable.getTablePath())
 				.selectAdaptation().from().join(linkTable.getTablePath())
 				.on("t0.\"$pk\" = " + EBXQueryUtils.getFkAsString(targetTable.getTablePath(), linkTable.getTablePath(),
 						"t1", Path.SELF.add(refLinkTable.getFieldToTargetPath().getLastStep())))
 				.where(condition);
-
-		return builder.execute();
 	}
 
+	/**
+	 * @return the open result, to be closed by the caller
+	 */
 	public static QueryResult<Tuple> buildAssociationCondition(Adaptation pRecord, AssociationLink link) {
+		return buildAssociationConditionQuery(pRecord, link).execute();
+	}
+
+	public static EBXQueryBuilder buildAssociationConditionQuery(Adaptation pRecord, AssociationLink link) {
 		AssociationLinkByTableRefInverse refInvLink = (AssociationLinkByTableRefInverse) link;
 		AdaptationTable targetTable = refInvLink.getTargetTable(pRecord.getContainer());
 		EBXQueryCondition condition = new EBXQueryCondition(getFkAsString(pRecord.getContainerTable().getTablePath(),
 				targetTable.getTablePath(), refInvLink.getFieldToSourcePath()), "=",
 				pRecord.getOccurrencePrimaryKey().format());
-		EBXQueryBuilder builder = EBXQueryBuilder.init(targetTable.getContainerAdaptation(), targetTable.getTablePath())
+		return EBXQueryBuilder.init(targetTable.getContainerAdaptation(), targetTable.getTablePath())
 				.selectAdaptation().from().where(condition);
-		return builder.execute();
 	}
 
+	/**
+	 * @return the open result, to be closed by the caller, or null if the context is not a record
+	 */
 	public static QueryResult<Tuple> buildAssociationCondition(ValueContext pContext, AssociationLink link) {
 		Optional<Adaptation> pRecordOpt = getRecordForValueContext(pContext);
 		if(!pRecordOpt.isPresent())
 			return null;
 
-		Adaptation pRecord = pRecordOpt.get();
-		AssociationLinkByTableRefInverse refInvLink = (AssociationLinkByTableRefInverse) link;
-		AdaptationTable targetTable = refInvLink.getTargetTable(pRecord.getContainer());
-		EBXQueryCondition condition = new EBXQueryCondition(getFkAsString(pRecord.getContainerTable().getTablePath(),
-				targetTable.getTablePath(), refInvLink.getFieldToSourcePath()), "=",
-				pRecord.getOccurrencePrimaryKey().format());
-		EBXQueryBuilder builder = EBXQueryBuilder.init(targetTable.getContainerAdaptation(), targetTable.getTablePath())
-				.selectAdaptation().from().where(condition);
-		return builder.execute();
+		return buildAssociationCondition(pRecordOpt.get(), link);
 	}
 
+	/**
+	 * @return the open result, to be closed by the caller
+	 */
 	public static QueryResult<Tuple> buildAssociationConditionXpath(Adaptation pRecord, AssociationLink link) {
+		return buildAssociationConditionXpathQuery(pRecord, link).execute();
+	}
+
+	public static EBXQueryBuilder buildAssociationConditionXpathQuery(Adaptation pRecord, AssociationLink link) {
 		AssociationLinkByXPathLink xPathLink = (AssociationLinkByXPathLink) link;
 		AdaptationTable targetTable = xPathLink.getTargetTable(pRecord.getContainer());
 		String xPath = XPathExpressionHelper.getPredicateForXPath(xPathLink.getPredicate());
 		List<String> paths = XPathPredicateParser.getAtomicPaths(xPath);
 		List<String> values = XPathPredicateParser.getAtomicValues(xPath);
 		EBXQueryCondition condition = getXPathCondition(pRecord, paths, values);
-		EBXQueryBuilder builder = EBXQueryBuilder.init(targetTable.getContainerAdaptation(), targetTable.getTablePath())
+		return EBXQueryBuilder.init(targetTable.getContainerAdaptation(), targetTable.getTablePath())
 				.selectAdaptation().from().where(condition);
-		return builder.execute();
 	}
 
+	/**
+	 * @return the open result, to be closed by the caller, or null if the context is not a record
+	 */
 	public static QueryResult<Tuple> buildAssociationConditionXpath(ValueContext pContext, AssociationLink link) {
 		Optional<Adaptation> pRecordOpt = getRecordForValueContext(pContext);
 		if(!pRecordOpt.isPresent())
 			return null;
 
-		Adaptation pRecord = pRecordOpt.get();
-		AssociationLinkByXPathLink xPathLink = (AssociationLinkByXPathLink) link;
-		AdaptationTable targetTable = xPathLink.getTargetTable(pRecord.getContainer());
-		String xPath = XPathExpressionHelper.getPredicateForXPath(xPathLink.getPredicate());
-		List<String> paths = XPathPredicateParser.getAtomicPaths(xPath);
-		List<String> values = XPathPredicateParser.getAtomicValues(xPath);
-		EBXQueryCondition condition = getXPathCondition(pRecord, paths, values);
-		EBXQueryBuilder builder = EBXQueryBuilder.init(targetTable.getContainerAdaptation(), targetTable.getTablePath())
-				.selectAdaptation().from().where(condition);
-		return builder.execute();
+		return buildAssociationConditionXpath(pRecordOpt.get(), link);
 	}
 
 	public static EBXQueryCondition getXPathCondition(Adaptation pRecord, List<String> paths, List<String> values) {
@@ -373,9 +271,7 @@ public class EBXQueryUtils {
 		if(node.getMaxOccurs() > 1) {
 			List<String> valuesList = pRecord.getList(pPath);
 			if(valuesList != null && !valuesList.isEmpty()) {
-				String values = valuesList.stream().reduce("", (r, e) -> r = r + wrapSingleQuotes(e) + ", ");
-				values = "(" + values.substring(0, values.length() - 2) + ")";
-				return new EBXQueryCondition(PRIMARY_KEY_SQL_FIELD, "IN", values);
+				return new EBXQueryCondition(PRIMARY_KEY_SQL_FIELD, "IN", valuesList);
 			}
 		} else {
 			String value = pRecord.getString(pPath);
@@ -391,9 +287,7 @@ public class EBXQueryUtils {
 		if(node.getMaxOccurs() > 1) {
 			List<String> valuesList = (List<String>) pContext.getValue(pPath);
 			if(valuesList != null && !valuesList.isEmpty()) {
-				String values = valuesList.stream().reduce("", (r, e) -> r = r + wrapSingleQuotes(e) + ", ");
-				values = "(" + values.substring(0, values.length() - 2) + ")";
-				return new EBXQueryCondition(PRIMARY_KEY_SQL_FIELD, "IN", values);
+				return new EBXQueryCondition(PRIMARY_KEY_SQL_FIELD, "IN", valuesList);
 			}
 		} else {
 			String value = (String) pContext.getValue(pPath);
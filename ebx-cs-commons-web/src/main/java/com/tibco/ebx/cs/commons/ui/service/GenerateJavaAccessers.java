@@ -1268,6 +1268,53 @@ public class GenerateJavaAccessers implements UserService<DatasetEntitySelection
 
 	}
 
+	private static Object generateGetPrimaryKeyValues(final AdaptationTable pTable, final JavaBean pBean) {
+		String beanClassName = pBean.getJavaClassName();
+		StringBuilder str = new StringBuilder();
+		str.append(TAB[1] + "@Override" + CR);
+		str.append(TAB[1] + "protected Object[] getPrimaryKeyValues(final " + beanClassName + " pBean) {" + CR);
+		str.append(TAB[2] + "return new Object[] { ");
+		String separator = "";
+		for (Path path : pTable.getPrimaryKeySpec()) {
+			SchemaNode pkNode = pTable.getTableOccurrenceRootNode().getNode(Path.SELF.add(path));
+			str.append(separator + "pBean." + GenerateJavaAccessers.getGetterNameForNode(pkNode) + "()");
+			separator = ", ";
+		}
+		str.append(" };" + CR);
+		str.append(TAB[1] + "}" + CR);
+		return str.toString();
+	}
+
+	private Object generateSetPrimaryKeyValues(final AdaptationTable pTable, final JavaBean pBean,
+			final Set<String> pExtraImports) throws EBXCommonsException {
+		pExtraImports.add("com.tibco.ebx.cs.commons.beans.generator.exception.BeansTechnicalException");
+		String beanClassName = pBean.getJavaClassName();
+		StringBuilder str = new StringBuilder();
+		str.append(TAB[1] + "@Override" + CR);
+		str.append(TAB[1] + "protected void setPrimaryKeyValues(final " + beanClassName
+				+ " pBean, final Adaptation pDataset, final Object[] pPKValues) throws BeansTechnicalException {" + CR);
+		int index = 0;
+		for (Path path : pTable.getPrimaryKeySpec()) {
+			SchemaNode pkNode = pTable.getTableOccurrenceRootNode().getNode(Path.SELF.add(path));
+			String setterName = GenerateJavaAccessers.getSetterNameForNode(pkNode);
+			String parameterClassName = this.getJavaTypeForNodeInBean(pkNode, false, pExtraImports);
+			if (pkNode.getFacetOnTableReference() == null) {
+				str.append(TAB[2] + "pBean." + setterName + "((" + parameterClassName + ") pPKValues[" + index + "]);"
+						+ CR);
+			} else {
+				pExtraImports.add("com.onwbp.adaptation.PrimaryKey");
+				DataAccessObject distantDAO = this.getOrRegisterDAO(pkNode.getFacetOnTableReference().getTableNode());
+				pExtraImports.add(GenerateJavaAccessers.getClassSignatureForDAO(distantDAO));
+				str.append(TAB[2] + "pBean." + setterName + "(" + distantDAO.getJavaClassName()
+						+ ".getInstance().getInstanceOfBeanFromPK(this.getRelatedDataset(pDataset, " + index
+						+ "), PrimaryKey.parseString((String) pPKValues[" + index + "])));" + CR);
+			}
+			index++;
+		}
+		str.append(TAB[1] + "}" + CR);
+		return str.toString();
+	}
+
 	private Object generateGetValuesFromAdaptation(final SchemaNode pNode, final JavaBean pBean,
 			final Set<String> pExtraImports) throws OperationException, EBXCommonsException {
 		StringBuilder str = new StringBuilder();
@@ -1956,6 +2003,10 @@ public class GenerateJavaAccessers implements UserService<DatasetEntitySelection
 			str.append(CR);
 			str.append(this.generateGetPrimaryKeysSetters(pTable, extraImports));
 			str.append(CR);
+			str.append(GenerateJavaAccessers.generateGetPrimaryKeyValues(pTable, dao.getJavaBean()));
+			str.append(CR);
+			str.append(this.generateSetPrimaryKeyValues(pTable, dao.getJavaBean(), extraImports));
+			str.append(CR);
 			str.append(GenerateJavaAccessers.generateGetDatasetDAO(pDAO));
 			str.append(CR);
 			str.append(GenerateJavaAccessers.generateGetAdaptationTable(pTable.getTableNode(), dao.getJavaBean(),